@@ -0,0 +1,261 @@
+package com.nanobot.agent;
+
+import com.nanobot.llm.TokenCounter;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * Map Reduce Job - Fan-out of sub-tasks to subagents with a concurrency limit
+ * A new subagent is launched each time one finishes, so no thread waits on a
+ * slot. Each finished sub-task is pushed to the listener as a partial result,
+ * and a reduce step combines them once all are done. The token and cost
+ * budgets cap the sub-task's reply at what the prompt leaves over, where the
+ * provider allows, so they hold before the money is spent; both are checked
+ * again against the provider-reported usage of the result.
+ */
+public class MapReduceJob {
+    private final SubagentManager manager;
+    private final List<String> tasks;
+    private final String systemPrompt;
+    private final String model;
+    private final int concurrency;
+    private final Budget budget;
+    private final Consumer<Partial> listener;
+
+    private final Partial[] partials;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger finished = new AtomicInteger();
+    private final AtomicInteger pumping = new AtomicInteger();
+    private final Set<String> running = ConcurrentHashMap.newKeySet();
+    private final CompletableFuture<List<Partial>> done = new CompletableFuture<>();
+    private final LongAdder tokens = new LongAdder();
+    private final DoubleAdder cost = new DoubleAdder();
+    private final long startedAt = System.currentTimeMillis();
+    private volatile boolean cancelled = false;
+
+    /**
+     * Per-sub-task limits; zero means unlimited
+     */
+    public record Budget(int maxTokens, double maxCost) {
+        public static final Budget UNLIMITED = new Budget(0, 0);
+    }
+
+    /**
+     * Outcome of one sub-task, in the order the tasks were given; holds the stored result's
+     * reference, so a spilled report is only read back when asked for
+     */
+    public record Partial(int index, String task, String subagentId, SubagentManager.Subagent.SubagentStatus status,
+                          SubagentResultStore.Ref resultRef, String error, int tokens, double cost) {
+        public boolean isSuccess() {
+            return status == SubagentManager.Subagent.SubagentStatus.COMPLETED;
+        }
+
+        public String result() {
+            return resultRef != null ? resultRef.text() : null;
+        }
+    }
+
+    MapReduceJob(SubagentManager manager, List<String> tasks, String systemPrompt, String model,
+                 int concurrency, Budget budget, Consumer<Partial> listener) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be at least 1");
+        }
+        this.manager = manager;
+        this.tasks = List.copyOf(tasks);
+        this.systemPrompt = systemPrompt;
+        this.model = model;
+        this.concurrency = concurrency;
+        this.budget = budget != null ? budget : Budget.UNLIMITED;
+        this.listener = listener;
+        this.partials = new Partial[this.tasks.size()];
+    }
+
+    void start() {
+        if (tasks.isEmpty()) {
+            done.complete(List.of());
+            return;
+        }
+        pump();
+    }
+
+    /**
+     * Launch sub-tasks while slots are free; re-entrant calls from completions just request another pass
+     */
+    private void pump() {
+        if (pumping.getAndIncrement() != 0) return;
+        do {
+            while (inFlight.get() < concurrency) {
+                int index = next.getAndIncrement();
+                if (index >= tasks.size()) break;
+                launch(index);
+            }
+        } while (pumping.decrementAndGet() != 0);
+    }
+
+    private void launch(int index) {
+        String task = tasks.get(index);
+        if (cancelled) {
+            record(new Partial(index, task, null, SubagentManager.Subagent.SubagentStatus.CANCELLED, null, null, 0, 0));
+            return;
+        }
+
+        int inputTokens = inputTokens(task);
+        double inputCost = cost(inputTokens, 0);
+        if (overBudget(inputTokens, inputCost)) {
+            record(new Partial(index, task, null, SubagentManager.Subagent.SubagentStatus.FAILED, null,
+                "Task exceeds budget before running: " + inputTokens + " tokens", inputTokens, 0));
+            return;
+        }
+
+        inFlight.incrementAndGet();
+        int maxOutputTokens = maxOutputTokens(inputTokens, inputCost);
+        String subagentId = manager.createSubagent(task, systemPrompt, model, "none", maxOutputTokens);
+        running.add(subagentId);
+        if (cancelled) {
+            // cancel() may have walked the running set before this id was in it
+            manager.cancelSubagent(subagentId);
+        }
+        manager.onComplete(subagentId, subagent -> {
+            running.remove(subagentId);
+            inFlight.decrementAndGet();
+            record(settle(index, subagentId, inputTokens, subagent));
+            pump();
+        });
+    }
+
+    private Partial settle(int index, String subagentId, int inputTokens, SubagentManager.Subagent subagent) {
+        int total = Math.max(inputTokens, subagent.getTokens());
+        double spent = cost(inputTokens, total - inputTokens);
+
+        if (subagent.getStatus() == SubagentManager.Subagent.SubagentStatus.COMPLETED && overBudget(total, spent)) {
+            return new Partial(index, subagent.getTask(), subagentId, SubagentManager.Subagent.SubagentStatus.FAILED,
+                null, "Exceeded budget: " + total + " tokens, cost " + String.format("%.4f", spent), total, spent);
+        }
+        return new Partial(index, subagent.getTask(), subagentId, subagent.getStatus(),
+            subagent.getResultRef(), subagent.getError(), total, spent);
+    }
+
+    private void record(Partial partial) {
+        synchronized (partials) {
+            partials[partial.index()] = partial;
+        }
+        tokens.add(partial.tokens());
+        cost.add(partial.cost());
+
+        if (listener != null) {
+            try {
+                listener.accept(partial);
+            } catch (Exception e) {
+                System.err.println("Map-reduce listener failed: " + e.getMessage());
+            }
+        }
+        if (finished.incrementAndGet() == tasks.size()) {
+            done.complete(getPartials());
+        }
+    }
+
+    /**
+     * The prompt is already spent; the reply may use what is left of either budget, or 0 for no cap
+     */
+    private int maxOutputTokens(int inputTokens, double inputCost) {
+        long cap = budget.maxTokens() > 0 ? Math.max(1, budget.maxTokens() - inputTokens) : 0;
+        if (budget.maxCost() > 0) {
+            double perOutputToken = cost(0, 1_000_000) / 1_000_000;
+            if (perOutputToken > 0) {
+                long affordable = Math.max(1, (long) ((budget.maxCost() - inputCost) / perOutputToken));
+                cap = cap > 0 ? Math.min(cap, affordable) : affordable;
+            }
+        }
+        return (int) Math.min(Integer.MAX_VALUE, cap);
+    }
+
+    private int inputTokens(String task) {
+        int count = TokenCounter.countTokens(task, model);
+        return systemPrompt != null ? count + TokenCounter.countTokens(systemPrompt, model) : count;
+    }
+
+    private double cost(int inputTokens, int outputTokens) {
+        return model != null ? TokenCounter.estimateCost(model, inputTokens, outputTokens) : 0.0;
+    }
+
+    private boolean overBudget(int tokens, double cost) {
+        return (budget.maxTokens() > 0 && tokens > budget.maxTokens())
+            || (budget.maxCost() > 0 && cost > budget.maxCost());
+    }
+
+    /**
+     * All partial results, completing once every sub-task has finished
+     */
+    public CompletableFuture<List<Partial>> results() {
+        return done;
+    }
+
+    /**
+     * Combine the partial results locally once all are in
+     */
+    public <R> CompletableFuture<R> reduce(Function<List<Partial>, R> reducer) {
+        return done.thenApply(reducer);
+    }
+
+    /**
+     * Combine the successful results with one more subagent following the instruction
+     */
+    public CompletableFuture<String> reduceWithSubagent(String instruction) {
+        return done.thenCompose(results -> {
+            StringBuilder prompt = new StringBuilder(instruction);
+            for (Partial partial : results) {
+                if (partial.isSuccess()) {
+                    prompt.append("\n\n## Result ").append(partial.index() + 1).append('\n').append(partial.result());
+                }
+            }
+            String subagentId = manager.createSubagent(prompt.toString(), systemPrompt, model);
+            return manager.getSubagent(subagentId).getCompletion().thenApply(SubagentManager::resultOf);
+        });
+    }
+
+    /**
+     * Stop launching sub-tasks and cancel the running ones
+     */
+    public void cancel() {
+        cancelled = true;
+        for (String subagentId : running) {
+            manager.cancelSubagent(subagentId);
+        }
+        pump();
+    }
+
+    /**
+     * Finished partial results so far, in task order
+     */
+    public List<Partial> getPartials() {
+        synchronized (partials) {
+            return Arrays.stream(partials).filter(Objects::nonNull).toList();
+        }
+    }
+
+    public boolean isDone() {
+        return done.isDone();
+    }
+
+    /**
+     * Get job statistics
+     */
+    public Map<String, Object> getStats() {
+        List<Partial> finishedPartials = getPartials();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("tasks", tasks.size());
+        stats.put("finished", finishedPartials.size());
+        stats.put("running", running.size());
+        stats.put("succeeded", finishedPartials.stream().filter(Partial::isSuccess).count());
+        stats.put("failed", finishedPartials.stream()
+            .filter(p -> p.status() == SubagentManager.Subagent.SubagentStatus.FAILED).count());
+        stats.put("concurrency", concurrency);
+        stats.put("tokens", tokens.sum());
+        stats.put("cost", cost.sum());
+        stats.put("durationMs", System.currentTimeMillis() - startedAt);
+        return stats;
+    }
+}
@@ -0,0 +1,270 @@
+package com.nanobot.agent;
+
+import com.nanobot.core.ContextManager;
+import com.nanobot.tool.ToolRegistry;
+import com.nanobot.tool.WorkspaceOverlay;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Subagent Isolation - Isolation tiers and per-tier admission for subagents
+ * none shares the parent's context and workspace; context gives a subagent
+ * its own ContextManager session namespace; workspace adds a copy-on-write
+ * overlay of the workspace, copied once the subagent is admitted and deleted
+ * when it finishes. Each tier has its own cap on running subagents,
+ * start rate (one provider call each) and concurrent tool calls, so a flood
+ * in one tier queues behind its own limits instead of everyone else's.
+ */
+public class SubagentIsolation {
+    public enum Level {
+        NONE, CONTEXT, WORKSPACE;
+
+        public static Level parse(String value) {
+            if (value == null || value.isBlank()) return NONE;
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown isolation level: " + value);
+            }
+        }
+
+        /** Session id prefix shared by every subagent of this tier */
+        public String sessionPrefix() {
+            return "subagent-" + name().toLowerCase(Locale.ROOT) + "/";
+        }
+    }
+
+    /**
+     * Per-tier limits; zero means unlimited
+     */
+    public record Limits(int maxConcurrent, double startsPerSecond, int maxConcurrentTools) {
+        public static final Limits UNLIMITED = new Limits(0, 0, 0);
+    }
+
+    /**
+     * What an executor should use for one subagent: session keys, workspace and tier
+     */
+    public record Environment(Level level, String subagentId, String sessionNamespace, String workspace,
+                              boolean hasOverlay) {
+        /** Session key for this subagent; isolated tiers prefix it with their own namespace */
+        public String sessionKey(String name) {
+            return sessionNamespace != null ? sessionNamespace + name : name;
+        }
+    }
+
+    private final String baseWorkspace;
+    private final Map<Level, Tier> tiers = new EnumMap<>(Level.class);
+    private volatile Path overlayRoot = Paths.get(System.getProperty("java.io.tmpdir"), "nanobot-overlays");
+    private volatile ContextManager contextManager;
+    private volatile ToolRegistry toolRegistry;
+    private volatile boolean overlays = true;
+
+    SubagentIsolation(String baseWorkspace) {
+        this.baseWorkspace = baseWorkspace;
+        // none behaves as before; isolated tiers are meant for large fan-outs and are capped
+        tiers.put(Level.NONE, new Tier(Limits.UNLIMITED));
+        tiers.put(Level.CONTEXT, new Tier(new Limits(32, 10, 16)));
+        tiers.put(Level.WORKSPACE, new Tier(new Limits(16, 5, 8)));
+    }
+
+    public void setLimits(Level level, Limits limits) {
+        tiers.get(level).limits = limits;
+        ToolRegistry registry = toolRegistry;
+        if (registry != null && level != Level.NONE) {
+            registry.limitSessions(level.sessionPrefix(), limits.maxConcurrentTools());
+        }
+    }
+
+    public Limits getLimits(Level level) {
+        return tiers.get(level).limits;
+    }
+
+    /**
+     * Context store whose per-subagent namespaces are cleared when a subagent finishes
+     */
+    public void setContextManager(ContextManager contextManager) {
+        this.contextManager = contextManager;
+    }
+
+    /**
+     * Registry that enforces each isolated tier's tool concurrency
+     */
+    public void setToolRegistry(ToolRegistry toolRegistry) {
+        this.toolRegistry = toolRegistry;
+        for (Level level : List.of(Level.CONTEXT, Level.WORKSPACE)) {
+            toolRegistry.limitSessions(level.sessionPrefix(), tiers.get(level).limits.maxConcurrentTools());
+        }
+    }
+
+    /**
+     * Directory under which workspace overlays are created
+     */
+    public void setOverlayRoot(Path overlayRoot) {
+        this.overlayRoot = overlayRoot;
+    }
+
+    /**
+     * Skip workspace copies for executors that never touch the workspace; the workspace
+     * tier still applies its limits and context namespace
+     */
+    void disableOverlays() {
+        this.overlays = false;
+    }
+
+    /**
+     * Environment of a subagent waiting for admission; cheap, the overlay comes in prepare
+     */
+    Environment open(String subagentId, Level level) {
+        String namespace = level == Level.NONE ? null : level.sessionPrefix() + subagentId + "/";
+        return new Environment(level, subagentId, namespace, baseWorkspace, false);
+    }
+
+    /**
+     * Copy the workspace for an admitted subagent of the workspace tier
+     */
+    Environment prepare(Environment environment) throws IOException {
+        if (environment.level() != Level.WORKSPACE || environment.hasOverlay() || !overlays) {
+            return environment;
+        }
+        String name = environment.subagentId() + "-" + UUID.randomUUID().toString().substring(0, 8);
+        Path upper = WorkspaceOverlay.create(Paths.get(baseWorkspace), overlayRoot, name);
+        return new Environment(environment.level(), environment.subagentId(), environment.sessionNamespace(),
+            upper.toString(), true);
+    }
+
+    /**
+     * Drop a finished subagent's context and delete its overlay
+     */
+    void release(Environment environment) {
+        ContextManager contexts = contextManager;
+        if (contexts != null && environment.sessionNamespace() != null) {
+            contexts.clearNamespace(environment.sessionNamespace());
+        }
+        if (environment.hasOverlay()) {
+            WorkspaceOverlay.discard(Paths.get(environment.workspace()));
+        }
+    }
+
+    /**
+     * Queue a launch; it starts when the tier has a free slot and its start rate allows
+     */
+    void admit(Level level, String subagentId, Runnable launch) {
+        Tier tier = tiers.get(level);
+        synchronized (tier) {
+            tier.queue.put(subagentId, launch);
+        }
+        drain(tier);
+    }
+
+    /**
+     * Take a cancelled subagent's launch out of the queue; false if it already started
+     */
+    boolean withdraw(Level level, String subagentId) {
+        Tier tier = tiers.get(level);
+        synchronized (tier) {
+            return tier.queue.remove(subagentId) != null;
+        }
+    }
+
+    /**
+     * A subagent of the tier finished; hand its slot to the next queued launch
+     */
+    void finished(Level level) {
+        Tier tier = tiers.get(level);
+        synchronized (tier) {
+            tier.running--;
+        }
+        drain(tier);
+    }
+
+    /**
+     * Start queued launches while slots are free. A launch that finishes synchronously calls
+     * finished() from inside this loop; that call only requests another pass, so a long queue
+     * of instant completions is walked iteratively instead of recursing down the stack.
+     */
+    private void drain(Tier tier) {
+        if (tier.draining.getAndIncrement() != 0) return;
+        do {
+            Runnable next;
+            while ((next = claim(tier)) != null) {
+                start(tier, next);
+            }
+        } while (tier.draining.decrementAndGet() != 0);
+    }
+
+    private Runnable claim(Tier tier) {
+        synchronized (tier) {
+            int max = tier.limits.maxConcurrent();
+            if (tier.queue.isEmpty() || (max > 0 && tier.running >= max)) {
+                return null;
+            }
+            Iterator<Runnable> oldest = tier.queue.values().iterator();
+            Runnable next = oldest.next();
+            oldest.remove();
+            tier.running++;
+            return next;
+        }
+    }
+
+    private void start(Tier tier, Runnable launch) {
+        tier.started.increment();
+        long delayNanos = tier.reserveStart();
+        if (delayNanos > 0) {
+            tier.delayed.increment();
+            CompletableFuture.delayedExecutor(delayNanos, TimeUnit.NANOSECONDS).execute(launch);
+        } else {
+            launch.run();
+        }
+    }
+
+    /**
+     * Get per-tier admission statistics
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new TreeMap<>();
+        tiers.forEach((level, tier) -> {
+            Map<String, Object> tierStats = new HashMap<>();
+            synchronized (tier) {
+                tierStats.put("running", tier.running);
+                tierStats.put("queued", tier.queue.size());
+            }
+            tierStats.put("started", tier.started.sum());
+            tierStats.put("rateDelayed", tier.delayed.sum());
+            tierStats.put("maxConcurrent", tier.limits.maxConcurrent());
+            tierStats.put("startsPerSecond", tier.limits.startsPerSecond());
+            tierStats.put("maxConcurrentTools", tier.limits.maxConcurrentTools());
+            stats.put(level.name().toLowerCase(Locale.ROOT), tierStats);
+        });
+        return stats;
+    }
+
+    private static class Tier {
+        private volatile Limits limits;
+        private int running = 0;
+        private final LinkedHashMap<String, Runnable> queue = new LinkedHashMap<>();
+        private final AtomicInteger draining = new AtomicInteger();
+        private final AtomicLong nextStartNanos = new AtomicLong(System.nanoTime());
+        private final LongAdder started = new LongAdder();
+        private final LongAdder delayed = new LongAdder();
+
+        Tier(Limits limits) {
+            this.limits = limits;
+        }
+
+        /**
+         * Claim the next start slot at the tier's rate; returns how long to wait for it
+         */
+        long reserveStart() {
+            double rate = limits.startsPerSecond();
+            if (rate <= 0) return 0;
+
+            long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+            long now = System.nanoTime();
+            long slot = nextStartNanos.getAndUpdate(next -> Math.max(next, now) + interval);
+            return Math.max(0, slot - now);
+        }
+    }
+}
@@ -1,24 +1,52 @@
 package com.nanobot.agent;
 
+import com.nanobot.bus.*;
+import com.nanobot.core.AgentScheduler;
+import com.nanobot.llm.LlmProvider;
+import com.nanobot.llm.TokenCounter;
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.Consumer;
 
 /**
  * Subagent Manager - Background subagent execution
- * Manages lightweight agent instances for background task processing
+ * Manages lightweight agent instances for background task processing.
+ * Each subagent completes a future when it reaches a terminal state, so
+ * waiting and callbacks are event-driven rather than polled. Results go to
+ * a SubagentResultStore, which spills large ones to disk behind a handle.
  */
 public class SubagentManager {
     private final Map<String, Subagent> activeSubagents = new ConcurrentHashMap<>();
-    private final SubagentExecutor executor;
+    private final AsyncSubagentExecutor executor;
     private final String workspace;
-    private int subagentCounter = 0;
+    private final AtomicLong subagentCounter = new AtomicLong();
+    private final AtomicLong mapReduceJobs = new AtomicLong();
     private final ScheduledExecutorService cleanupExecutor;
+    private final ExecutorService ownedExecutor;
+    private final List<Consumer<Subagent>> completionListeners = new CopyOnWriteArrayList<>();
+    private final Set<SubagentScope> openScopes = ConcurrentHashMap.newKeySet();
+    private final AtomicLong scopesClosed = new AtomicLong();
+    private final AtomicLong closedScopeTokens = new AtomicLong();
+    private final AtomicLong closedScopeToolCalls = new AtomicLong();
+    private final SubagentIsolation isolation;
+    private final SubagentResultStore resultStore = new SubagentResultStore();
+    private static final ThreadLocal<Subagent> LAUNCHING = new ThreadLocal<>();
+    private static final ThreadLocal<SubagentIsolation.Environment> CURRENT = new ThreadLocal<>();
     private volatile boolean running = false;
 
     public interface SubagentExecutor {
         String execute(String task, String systemPrompt, String model);
     }
 
+    /**
+     * Non-blocking executor; cancelling the returned future must abort the work
+     */
+    public interface AsyncSubagentExecutor {
+        CompletableFuture<String> executeAsync(String task, String systemPrompt, String model);
+    }
+
     public static class Subagent {
         private final String id;
         private final String task;
@@ -27,8 +55,18 @@ public class SubagentManager {
         private volatile SubagentStatus status;
         private final long createdAt;
         private volatile long completedAt;
-        private String result;
+        private volatile SubagentResultStore.Ref result;
         private volatile String error;
+        private volatile Future<?> future;
+        private final CompletableFuture<Subagent> done = new CompletableFuture<>();
+        private final AtomicInteger toolCalls = new AtomicInteger();
+        private final AtomicInteger usageTokens = new AtomicInteger();
+        private volatile int tokens;
+        private volatile SubagentIsolation.Environment environment;
+        private volatile SubagentResultStore store;
+        private volatile int maxOutputTokens;
+        // Set by the finish call that wins, before its result is stored; guarded by this
+        private boolean finishing;
 
         public enum SubagentStatus {
             PENDING, RUNNING, COMPLETED, FAILED, CANCELLED
@@ -53,34 +91,278 @@ public class SubagentManager {
         public long getCreatedAt() { return createdAt; }
         public long getCompletedAt() { return completedAt; }
         public void setCompletedAt(long completedAt) { this.completedAt = completedAt; }
-        public String getResult() { return result; }
-        public void setResult(String result) { this.result = result; }
+        /** Result text; a spilled result is read back from disk on each call */
+        public String getResult() {
+            SubagentResultStore.Ref ref = result;
+            return ref != null ? ref.text() : null;
+        }
+        public void setResult(String result) { this.result = result != null ? SubagentResultStore.Ref.inline(result) : null; }
+        /** Stored result, or null; its handle stays readable after cleanup while retention keeps it */
+        public SubagentResultStore.Ref getResultRef() { return result; }
         public String getError() { return error; }
         public void setError(String error) { this.error = error; }
+        public Future<?> getFuture() { return future; }
+        public void setFuture(Future<?> future) { this.future = future; }
         public long getDurationMs() {
             long endTime = completedAt > 0 ? completedAt : System.currentTimeMillis();
             return endTime - createdAt;
         }
+
+        /**
+         * Completes with this subagent once it is completed, failed or cancelled
+         */
+        public CompletableFuture<Subagent> getCompletion() { return done; }
+
+        public boolean isDone() { return done.isDone(); }
+
+        /**
+         * Tokens the provider reported for every call the subagent made, known once finished;
+         * estimated from prompt and result when its executor reported no usage
+         */
+        public int getTokens() { return tokens; }
+        public int getToolCalls() { return toolCalls.get(); }
+        public SubagentIsolation.Environment getEnvironment() { return environment; }
+        /** Cap on the reply's tokens, or 0; provider-backed managers pass it on to the LLM call */
+        public int getMaxOutputTokens() { return maxOutputTokens; }
+
+        /**
+         * Move from pending to running, unless already cancelled
+         */
+        synchronized boolean start() {
+            if (finishing || done.isDone() || status != SubagentStatus.PENDING) {
+                return false;
+            }
+            status = SubagentStatus.RUNNING;
+            return true;
+        }
+
+        /**
+         * Move to a terminal state; only the first of completion, failure and cancel wins.
+         * The result and token count are in place before the status and completion are published.
+         */
+        boolean finish(SubagentStatus terminal, String result, String error) {
+            synchronized (this) {
+                if (finishing || done.isDone() || status == SubagentStatus.COMPLETED
+                    || status == SubagentStatus.FAILED || status == SubagentStatus.CANCELLED) {
+                    return false;
+                }
+                finishing = true;
+            }
+            if (result != null) {
+                // Stored after winning, outside the lock, since a large result is written to disk
+                SubagentResultStore target = store;
+                this.result = target != null ? target.put(id, result) : SubagentResultStore.Ref.inline(result);
+            }
+            int count = usageTokens.get();
+            if (count == 0) {
+                count = TokenCounter.countTokens(task, model);
+                if (systemPrompt != null) count += TokenCounter.countTokens(systemPrompt, model);
+                if (result != null) count += TokenCounter.countTokens(result, model);
+            }
+            this.tokens = count;
+            this.error = error;
+            this.completedAt = System.currentTimeMillis();
+            this.status = terminal;
+            done.complete(this);
+            return true;
+        }
     }
 
+    /**
+     * Run a blocking executor with one virtual thread per subagent
+     */
     public SubagentManager(SubagentExecutor executor, String workspace) {
+        this(executor, Executors.newVirtualThreadPerTaskExecutor(), true, workspace);
+    }
+
+    /**
+     * Run a blocking executor on the given service; cancelling a subagent interrupts its thread
+     */
+    public SubagentManager(SubagentExecutor executor, ExecutorService executorService, String workspace) {
+        this(executor, executorService, false, workspace);
+    }
+
+    private SubagentManager(SubagentExecutor executor, ExecutorService executorService, boolean owned,
+                            String workspace) {
+        this((AsyncSubagentExecutor) (task, systemPrompt, model) -> {
+            SubagentIsolation.Environment environment = LAUNCHING.get().getEnvironment();
+            return submit(executorService, () -> {
+                CURRENT.set(environment);
+                try {
+                    return executor.execute(task, systemPrompt, model);
+                } finally {
+                    CURRENT.remove();
+                }
+            });
+        }, owned ? executorService : null, workspace);
+    }
+
+    private SubagentManager(AsyncSubagentExecutor executor, ExecutorService ownedExecutor, String workspace) {
         this.executor = executor;
+        this.ownedExecutor = ownedExecutor;
         this.workspace = workspace;
+        this.isolation = new SubagentIsolation(workspace);
         this.cleanupExecutor = Executors.newScheduledThreadPool(1);
         startAutoCleanup();
     }
 
+    /**
+     * Create a manager over a non-blocking executor
+     */
+    public static SubagentManager withAsyncExecutor(AsyncSubagentExecutor executor, String workspace) {
+        return new SubagentManager(executor, null, workspace);
+    }
+
+    /**
+     * Run subagents as single-turn LLM calls; cancellation aborts the HTTP request.
+     * Given a BatchingProvider, bulk subagent runs go through the provider batch API.
+     */
+    public SubagentManager(LlmProvider provider, String workspace) {
+        this((AsyncSubagentExecutor) (task, systemPrompt, model) -> {
+            Subagent subagent = LAUNCHING.get();
+            return provider
+                .completeAsync(model, List.of(Map.of("role", "user", "content", task)), systemPrompt,
+                    subagent.getMaxOutputTokens())
+                .thenApply(response -> contentOf(subagent, response));
+        }, null, workspace);
+        // A single LLM call never reads the workspace, so an overlay would be a wasted copy
+        isolation.disableOverlays();
+    }
+
+    /**
+     * Run subagents as single-turn LLM calls queued at subagent priority behind interactive traffic
+     */
+    public SubagentManager(LlmProvider provider, AgentScheduler scheduler, String workspace) {
+        this((AsyncSubagentExecutor) (task, systemPrompt, model) -> {
+            Subagent subagent = LAUNCHING.get();
+            String tenant = subagent.getEnvironment().subagentId();
+            int maxOutputTokens = subagent.getMaxOutputTokens();
+            return scheduler.submit(AgentScheduler.Priority.SUBAGENT, tenant, () -> provider
+                .completeAsync(model, List.of(Map.of("role", "user", "content", task)), systemPrompt, maxOutputTokens)
+                .thenApply(response -> contentOf(subagent, response)));
+        }, null, workspace);
+        isolation.disableOverlays();
+    }
+
     /**
      * Constructor that accepts an ExecutorService for testing
      */
     public SubagentManager(ExecutorService executorService, String workspace) {
-        this.executor = (task, systemPrompt, model) -> {
-            // Simple mock executor for testing
-            return "Mock result for: " + task;
-        };
-        this.workspace = workspace;
-        this.cleanupExecutor = Executors.newScheduledThreadPool(1);
-        startAutoCleanup();
+        // Simple mock executor for testing, still run on the given service
+        this((SubagentExecutor) (task, systemPrompt, model) -> "Mock result for: " + task,
+            executorService, false, workspace);
+    }
+
+    /**
+     * Run a call on the service, bridged to a future whose cancel interrupts the call
+     */
+    private static CompletableFuture<String> submit(ExecutorService service, Callable<String> call) {
+        CompletableFuture<String> promise = new CompletableFuture<>();
+        Future<?> task = service.submit(() -> {
+            try {
+                promise.complete(call.call());
+            } catch (Throwable t) {
+                promise.completeExceptionally(t);
+            }
+        });
+        promise.whenComplete((result, error) -> {
+            if (promise.isCancelled()) {
+                task.cancel(true);
+            }
+        });
+        return promise;
+    }
+
+    /**
+     * Id of the subagent a blocking executor is running on this thread, or an async executor
+     * is starting, or null
+     */
+    public static String currentSubagentId() {
+        SubagentIsolation.Environment environment = CURRENT.get();
+        return environment != null ? environment.subagentId() : null;
+    }
+
+    /**
+     * Isolation environment of the subagent running on this thread, or null; executors
+     * should take session keys and the workspace from it
+     */
+    public static SubagentIsolation.Environment currentEnvironment() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Isolation tiers, for setting limits and the context store, tool registry and overlay root
+     */
+    public SubagentIsolation getIsolation() {
+        return isolation;
+    }
+
+    /**
+     * Result store, for setting the spill directory (e.g. dataPath/subagent-results),
+     * inline limit and retention
+     */
+    public SubagentResultStore getResultStore() {
+        return resultStore;
+    }
+
+    /**
+     * Read a result by subagent id, or by its store handle after the subagent has been cleaned up
+     */
+    public String readResult(String handle) {
+        Subagent subagent = activeSubagents.get(handle);
+        if (subagent != null && subagent.getResultRef() != null) {
+            return subagent.getResult();
+        }
+        return resultStore.read(handle);
+    }
+
+    /**
+     * Attribute tool calls to subagents by session id, for scope accounting
+     */
+    public void attachEventBus(EventBus eventBus) {
+        eventBus.subscribe(NanobotEvent.EventType.TOOL_CALLED, event -> {
+            if (event.getSessionId() != null) {
+                recordToolCall(event.getSessionId());
+            }
+        });
+    }
+
+    /**
+     * Count a tool call made on behalf of a subagent, by its id or a session key in its namespace
+     */
+    public void recordToolCall(String sessionId) {
+        Subagent subagent = subagentFor(sessionId);
+        if (subagent != null) {
+            subagent.toolCalls.incrementAndGet();
+        }
+    }
+
+    /**
+     * Add the provider-reported tokens of one LLM call made on behalf of a subagent, e.g. by an
+     * executor running a tool loop; identified like recordToolCall
+     */
+    public void recordUsage(String sessionId, int tokens) {
+        Subagent subagent = subagentFor(sessionId);
+        if (subagent != null && tokens > 0) {
+            subagent.usageTokens.addAndGet(tokens);
+        }
+    }
+
+    private Subagent subagentFor(String sessionId) {
+        Subagent subagent = activeSubagents.get(sessionId);
+        if (subagent == null && sessionId.startsWith("subagent-")) {
+            // Namespaced keys look like subagent-<tier>/<id>/<name>
+            String[] parts = sessionId.split("/", 3);
+            subagent = parts.length > 1 ? activeSubagents.get(parts[1]) : null;
+        }
+        return subagent;
+    }
+
+    private static String contentOf(Subagent subagent, LlmProvider.LlmResponse response) {
+        if (response.usageTokens() > 0) {
+            subagent.usageTokens.addAndGet(response.usageTokens());
+        }
+        return response.content();
     }
 
     /**
@@ -101,6 +383,23 @@ public class SubagentManager {
     public void stop() {
         running = false;
         cleanupExecutor.shutdown();
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Notify a listener whenever any subagent reaches a terminal state
+     */
+    public void addCompletionListener(Consumer<Subagent> listener) {
+        completionListeners.add(listener);
+    }
+
+    /**
+     * Run a callback when one subagent finishes, or right away if it already has
+     */
+    public void onComplete(String subagentId, Consumer<Subagent> callback) {
+        requireSubagent(subagentId).getCompletion().thenAccept(callback);
     }
 
     /**
@@ -110,31 +409,112 @@ public class SubagentManager {
         return createSubagent(task, systemPrompt, model, "none");
     }
 
+    /**
+     * Create a subagent at an isolation level: none, context or workspace. It stays
+     * pending until its tier has a free slot and its start rate allows.
+     */
     public String createSubagent(String task, String systemPrompt, String model, String isolationLevel) {
-        String subagentId = "sub_" + (++subagentCounter);
+        return createSubagent(task, systemPrompt, model, isolationLevel, 0);
+    }
+
+    /**
+     * Create a subagent whose reply is capped at maxOutputTokens, where the executor can cap it
+     */
+    String createSubagent(String task, String systemPrompt, String model, String isolationLevel, int maxOutputTokens) {
+        SubagentIsolation.Level level = SubagentIsolation.Level.parse(isolationLevel);
+        String subagentId = "sub_" + subagentCounter.incrementAndGet();
         Subagent subagent = new Subagent(task, systemPrompt, model);
+        subagent.store = resultStore;
+        subagent.maxOutputTokens = maxOutputTokens;
 
         activeSubagents.put(subagentId, subagent);
+        subagent.getCompletion().thenAccept(this::notifyListeners);
 
-        // Execute subagent in virtual thread
-        CompletableFuture.runAsync(() -> {
-            try {
-                subagent.setStatus(Subagent.SubagentStatus.RUNNING);
+        subagent.environment = isolation.open(subagentId, level);
+        isolation.admit(level, subagentId, () -> launch(subagent));
+        return subagentId;
+    }
 
-                String result = executor.execute(task, systemPrompt, model);
+    private void launch(Subagent subagent) {
+        SubagentIsolation.Environment admitted = subagent.getEnvironment();
+        if (!subagent.start()) {
+            // Cancelled between leaving the tier queue and starting
+            isolation.finished(admitted.level());
+            isolation.release(admitted);
+            return;
+        }
 
-                subagent.setResult(result);
-                subagent.setStatus(Subagent.SubagentStatus.COMPLETED);
-                subagent.setCompletedAt(System.currentTimeMillis());
+        // Overlays are copied only once admitted, so the tier's limits also bound the copies
+        SubagentIsolation.Environment environment;
+        try {
+            environment = isolation.prepare(admitted);
+        } catch (IOException | RuntimeException e) {
+            subagent.finish(Subagent.SubagentStatus.FAILED, null, "Failed to isolate subagent: " + e.getMessage());
+            isolation.finished(admitted.level());
+            isolation.release(admitted);
+            return;
+        }
+        subagent.environment = environment;
+        if (subagent.isDone()) {
+            // Cancelled while its overlay was being copied
+            isolation.finished(environment.level());
+            isolation.release(environment);
+            return;
+        }
 
-            } catch (Exception e) {
-                subagent.setError(e.getMessage());
-                subagent.setStatus(Subagent.SubagentStatus.FAILED);
-                subagent.setCompletedAt(System.currentTimeMillis());
+        String task = subagent.getTask();
+        String systemPrompt = subagent.getSystemPrompt();
+        String model = subagent.getModel();
+        CompletableFuture<String> future;
+        // A launch may run on another subagent's thread, whose environment is restored after
+        SubagentIsolation.Environment outer = CURRENT.get();
+        LAUNCHING.set(subagent);
+        CURRENT.set(environment);
+        try {
+            future = executor.executeAsync(task, systemPrompt, model);
+        } catch (Exception e) {
+            future = CompletableFuture.failedFuture(e);
+        } finally {
+            LAUNCHING.remove();
+            if (outer != null) {
+                CURRENT.set(outer);
+            } else {
+                CURRENT.remove();
+            }
+        }
+        subagent.setFuture(future);
+
+        future.whenComplete((result, error) -> {
+            if (error instanceof CancellationException) {
+                subagent.finish(Subagent.SubagentStatus.CANCELLED, null, null);
+            } else if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error;
+                subagent.finish(Subagent.SubagentStatus.FAILED, null, cause.getMessage());
+            } else {
+                subagent.finish(Subagent.SubagentStatus.COMPLETED, result, null);
             }
+            isolation.finished(environment.level());
+            isolation.release(environment);
         });
+    }
 
-        return subagentId;
+    private void notifyListeners(Subagent subagent) {
+        for (Consumer<Subagent> listener : completionListeners) {
+            try {
+                listener.accept(subagent);
+            } catch (Exception e) {
+                System.err.println("Subagent listener failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private Subagent requireSubagent(String subagentId) {
+        Subagent subagent = activeSubagents.get(subagentId);
+        if (subagent == null) {
+            throw new IllegalArgumentException("Unknown subagent: " + subagentId);
+        }
+        return subagent;
     }
 
     /**
@@ -149,28 +529,35 @@ public class SubagentManager {
      */
     public boolean cancelSubagent(String subagentId) {
         Subagent subagent = activeSubagents.get(subagentId);
-        if (subagent != null && subagent.getStatus() == Subagent.SubagentStatus.RUNNING) {
-            subagent.setStatus(Subagent.SubagentStatus.CANCELLED);
-            subagent.setCompletedAt(System.currentTimeMillis());
-            return true;
+        if (subagent == null || !subagent.finish(Subagent.SubagentStatus.CANCELLED, null, null)) {
+            return false;
+        }
+
+        // Still queued for its tier: drop the launch so it holds no queue slot
+        SubagentIsolation.Environment environment = subagent.getEnvironment();
+        if (environment != null && isolation.withdraw(environment.level(), subagentId)) {
+            isolation.release(environment);
         }
-        return false;
+
+        // Interrupt the work or abort the upstream request instead of letting it run to completion
+        Future<?> future = subagent.getFuture();
+        if (future != null) {
+            future.cancel(true);
+        }
+        return true;
     }
 
     /**
      * Get result from completed subagent
      */
     public String getSubagentResult(String subagentId) {
-        Subagent subagent = activeSubagents.get(subagentId);
-        if (subagent == null) {
-            throw new IllegalArgumentException("Unknown subagent: " + subagentId);
-        }
+        Subagent subagent = requireSubagent(subagentId);
 
         if (subagent.getStatus() == Subagent.SubagentStatus.FAILED) {
             throw new RuntimeException("Subagent failed: " + subagent.getError());
         }
 
-        if (subagent.getStatus() == Subagent.SubagentStatus.RUNNING) {
+        if (!subagent.isDone()) {
             throw new IllegalStateException("Subagent still running");
         }
 
@@ -181,30 +568,104 @@ public class SubagentManager {
      * Wait for subagent to complete
      */
     public String waitForSubagent(String subagentId, long timeoutMs) throws InterruptedException {
-        long start = System.currentTimeMillis();
-        Subagent subagent;
+        Subagent subagent = requireSubagent(subagentId);
+        await(CompletableFuture.allOf(subagent.getCompletion()), timeoutMs);
+        return resultOf(subagent);
+    }
 
-        while ((subagent = activeSubagents.get(subagentId)) != null) {
-            Subagent.SubagentStatus status = subagent.getStatus();
+    /**
+     * Wait until every subagent has finished; failed and cancelled ones are returned too
+     */
+    public List<Subagent> waitForAll(Collection<String> subagentIds, long timeoutMs) throws InterruptedException {
+        List<Subagent> subagents = subagentIds.stream().map(this::requireSubagent).toList();
+        await(CompletableFuture.allOf(subagents.stream()
+            .map(Subagent::getCompletion).toArray(CompletableFuture[]::new)), timeoutMs);
+        return subagents;
+    }
 
-            if (status == Subagent.SubagentStatus.COMPLETED) {
-                return subagent.getResult();
-            }
-            if (status == Subagent.SubagentStatus.FAILED) {
-                throw new RuntimeException("Subagent failed: " + subagent.getError());
-            }
-            if (status == Subagent.SubagentStatus.CANCELLED) {
-                throw new IllegalStateException("Subagent was cancelled");
-            }
+    /**
+     * Wait until the first of the subagents finishes and return it
+     */
+    public Subagent waitForAny(Collection<String> subagentIds, long timeoutMs) throws InterruptedException {
+        if (subagentIds.isEmpty()) {
+            throw new IllegalArgumentException("No subagents to wait for");
+        }
+        CompletableFuture<Object> first = CompletableFuture.anyOf(subagentIds.stream()
+            .map(id -> requireSubagent(id).getCompletion()).toArray(CompletableFuture[]::new));
+        await(first, timeoutMs);
+        return (Subagent) first.join();
+    }
 
-            if (System.currentTimeMillis() - start > timeoutMs) {
-                throw new IllegalStateException("Subagent timeout");
-            }
+    private static void await(CompletableFuture<?> future, long timeoutMs) throws InterruptedException {
+        try {
+            future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("Subagent timeout");
+        } catch (ExecutionException e) {
+            // Completion futures only ever complete normally
+            throw new IllegalStateException("Subagent wait failed: " + e.getCause().getMessage());
+        }
+    }
+
+    static String resultOf(Subagent subagent) {
+        return switch (subagent.getStatus()) {
+            case FAILED -> throw new RuntimeException("Subagent failed: " + subagent.getError());
+            case CANCELLED -> throw new IllegalStateException("Subagent was cancelled");
+            default -> subagent.getResult();
+        };
+    }
 
-            Thread.sleep(100);
+    /**
+     * Open a root task scope; close it to cancel whatever is still running in the tree
+     */
+    public SubagentScope openScope(String name, SubagentScope.Policy policy) {
+        return openScope(name, policy, currentSubagentId());
+    }
+
+    /**
+     * Open a root task scope owned by a subagent, or by nobody when ownerId is null. When the
+     * owner finishes or is cancelled the scope is shut down with it: failed if the owner failed,
+     * cancelled otherwise, so cancelling a subagent cancels the scopes it opened.
+     */
+    public SubagentScope openScope(String name, SubagentScope.Policy policy, String ownerId) {
+        SubagentScope scope = new SubagentScope(this, null, name, policy, ownerId);
+        openScopes.add(scope);
+
+        Subagent owner = ownerId != null ? activeSubagents.get(ownerId) : null;
+        if (owner != null) {
+            // Runs at once if the owner has already finished
+            owner.getCompletion().thenAccept(finished -> {
+                if (finished.getStatus() == Subagent.SubagentStatus.FAILED) {
+                    scope.fail("Owner subagent " + ownerId + " failed"
+                        + (finished.getError() != null ? ": " + finished.getError() : ""));
+                }
+                scope.close();
+            });
         }
+        return scope;
+    }
 
-        throw new IllegalArgumentException("Unknown subagent: " + subagentId);
+    void scopeClosed(SubagentScope scope) {
+        if (openScopes.remove(scope)) {
+            scopesClosed.incrementAndGet();
+            closedScopeTokens.addAndGet(scope.getTokens());
+            closedScopeToolCalls.addAndGet(scope.getToolCalls());
+        }
+    }
+
+    /**
+     * Fan sub-tasks out to at most concurrency subagents at a time
+     */
+    public MapReduceJob mapReduce(List<String> tasks, String systemPrompt, String model, int concurrency,
+                                  MapReduceJob.Budget budget, Consumer<MapReduceJob.Partial> onPartial) {
+        MapReduceJob job = new MapReduceJob(this, tasks, systemPrompt, model, concurrency, budget, onPartial);
+        mapReduceJobs.incrementAndGet();
+        job.start();
+        return job;
+    }
+
+    public MapReduceJob mapReduce(List<String> tasks, String systemPrompt, String model, int concurrency) {
+        return mapReduce(tasks, systemPrompt, model, concurrency, MapReduceJob.Budget.UNLIMITED, null);
     }
 
     /**
@@ -230,10 +691,29 @@ public class SubagentManager {
         long running = activeSubagents.values().stream()
             .filter(s -> s.getStatus() == Subagent.SubagentStatus.RUNNING)
             .count();
+        long pending = activeSubagents.values().stream()
+            .filter(s -> s.getStatus() == Subagent.SubagentStatus.PENDING)
+            .count();
+        long cancelled = activeSubagents.values().stream()
+            .filter(s -> s.getStatus() == Subagent.SubagentStatus.CANCELLED)
+            .count();
 
         stats.put("completed", completed);
         stats.put("failed", failed);
         stats.put("running", running);
+        stats.put("pending", pending);
+        stats.put("cancelled", cancelled);
+        stats.put("created", subagentCounter.get());
+        stats.put("mapReduceJobs", mapReduceJobs.get());
+
+        Map<String, Object> scopes = new HashMap<>();
+        scopes.put("open", openScopes.stream().map(SubagentScope::getStats).toList());
+        scopes.put("closed", scopesClosed.get());
+        scopes.put("closedTokens", closedScopeTokens.get());
+        scopes.put("closedToolCalls", closedScopeToolCalls.get());
+        stats.put("scopes", scopes);
+        stats.put("isolation", isolation.getStats());
+        stats.put("results", resultStore.getStats());
 
         return stats;
     }
@@ -245,7 +725,12 @@ public class SubagentManager {
         long cutoff = System.currentTimeMillis() - maxAgeMs;
         activeSubagents.entrySet().removeIf(entry -> {
             Subagent subagent = entry.getValue();
-            return subagent.getCompletedAt() > 0 && subagent.getCompletedAt() < cutoff;
+            if (subagent.getCompletedAt() > 0 && subagent.getCompletedAt() < cutoff) {
+                resultStore.release(subagent.getResultRef());
+                return true;
+            }
+            return false;
         });
+        resultStore.enforceRetention();
     }
 }
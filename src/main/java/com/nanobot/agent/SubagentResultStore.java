@@ -0,0 +1,271 @@
+package com.nanobot.agent;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
+import java.util.zip.*;
+
+/**
+ * Subagent Result Store - Inline small results, spill large ones to disk
+ * Results up to the inline limit stay on the heap. Larger ones are gzipped
+ * to <handle>.txt.gz under the store directory and read back only when
+ * asked for, so a finished subagent holds a handle rather than its report.
+ * Spilled files are kept for maxAge and within maxDiskBytes, oldest first out,
+ * except while pinned by a live subagent or an open scope.
+ */
+public class SubagentResultStore {
+    public static final int DEFAULT_INLINE_LIMIT = 16 * 1024;
+    private static final String SUFFIX = ".txt.gz";
+
+    /**
+     * How long spilled results live and how much disk they may use; zero means unlimited
+     */
+    public record Retention(long maxAgeMs, long maxDiskBytes) {
+        public static final Retention DEFAULT = new Retention(TimeUnit.HOURS.toMillis(24), 512L * 1024 * 1024);
+    }
+
+    /**
+     * A stored result; inline text is held directly, spilled text is read from disk on demand
+     */
+    public static final class Ref {
+        private final SubagentResultStore store;
+        private final String handle;
+        private final int chars;
+        private final String inline;
+
+        private Ref(SubagentResultStore store, String handle, int chars, String inline) {
+            this.store = store;
+            this.handle = handle;
+            this.chars = chars;
+            this.inline = inline;
+        }
+
+        static Ref inline(String text) {
+            return new Ref(null, null, text.length(), text);
+        }
+
+        public String getHandle() { return handle; }
+        public int getChars() { return chars; }
+        public boolean isSpilled() { return inline == null; }
+
+        /**
+         * The result text; a spill already removed by retention reads as a note saying so
+         */
+        public String text() {
+            if (inline != null) return inline;
+            try {
+                return store.read(handle);
+            } catch (IllegalStateException e) {
+                return "[Subagent result " + handle + " has expired from the result store]";
+            }
+        }
+    }
+
+    private record Spill(Path path, long bytes, long chars, long storedAt) {}
+
+    private volatile Path directory;
+    private volatile int inlineLimit = DEFAULT_INLINE_LIMIT;
+    private volatile Retention retention = Retention.DEFAULT;
+    private final ConcurrentHashMap<String, Spill> spills = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Integer> pins = new ConcurrentHashMap<>();
+
+    private final AtomicLong inlineCount = new AtomicLong();
+    private final AtomicLong inlineChars = new AtomicLong();
+    private final AtomicLong diskBytes = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong reads = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong writeFailures = new AtomicLong();
+
+    /**
+     * Spill large results under the directory; files left by an earlier run are adopted
+     * so retention still applies to them. Without a directory everything stays inline.
+     */
+    public void setDirectory(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        this.directory = directory;
+
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(path -> path.getFileName().toString().endsWith(SUFFIX)).forEach(path -> {
+                try {
+                    String name = path.getFileName().toString();
+                    String handle = name.substring(0, name.length() - SUFFIX.length());
+                    long bytes = Files.size(path);
+                    if (spills.putIfAbsent(handle, new Spill(path, bytes, -1,
+                            Files.getLastModifiedTime(path).toMillis())) == null) {
+                        diskBytes.addAndGet(bytes);
+                    }
+                } catch (IOException e) {
+                    // Unreadable leftovers are skipped
+                }
+            });
+        }
+        enforceRetention();
+    }
+
+    public void setInlineLimit(int inlineLimit) {
+        this.inlineLimit = inlineLimit;
+    }
+
+    public void setRetention(Retention retention) {
+        this.retention = retention;
+    }
+
+    /**
+     * Store a result under a handle; falls back to inline if the spill fails. A spilled
+     * result starts pinned for its subagent, until release.
+     */
+    Ref put(String handle, String text) {
+        Path dir = directory;
+        if (dir != null && text.length() > inlineLimit) {
+            Path path = dir.resolve(handle + SUFFIX);
+            Path temp = dir.resolve(handle + SUFFIX + ".tmp");
+            try {
+                try (Writer writer = new OutputStreamWriter(
+                        new GZIPOutputStream(Files.newOutputStream(temp), 8192), StandardCharsets.UTF_8)) {
+                    writer.write(text);
+                }
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+                long bytes = Files.size(path);
+                Ref ref = new Ref(this, handle, text.length(), null);
+                pin(ref);
+                spills.put(handle, new Spill(path, bytes, text.length(), System.currentTimeMillis()));
+                writes.incrementAndGet();
+                if (retention.maxDiskBytes() > 0 && diskBytes.addAndGet(bytes) > retention.maxDiskBytes()) {
+                    enforceRetention();
+                }
+                return ref;
+            } catch (IOException e) {
+                writeFailures.incrementAndGet();
+                System.err.println("Failed to spill subagent result " + handle + ": " + e.getMessage());
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                    // A leftover .tmp is never adopted, it only costs disk
+                }
+            }
+        }
+
+        inlineCount.incrementAndGet();
+        inlineChars.addAndGet(text.length());
+        return new Ref(this, handle, text.length(), text);
+    }
+
+    /**
+     * Read a spilled result back
+     */
+    public String read(String handle) {
+        try (Reader reader = open(handle)) {
+            StringWriter text = new StringWriter();
+            reader.transferTo(text);
+            return text.toString();
+        } catch (IOException e) {
+            throw new RuntimeException("Reading subagent result failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stream a spilled result without loading it whole
+     */
+    public Reader open(String handle) throws IOException {
+        Spill spill = spills.get(handle);
+        if (spill == null) {
+            throw new IllegalStateException("Result expired or unknown: " + handle);
+        }
+        reads.incrementAndGet();
+        return new BufferedReader(new InputStreamReader(
+            new GZIPInputStream(Files.newInputStream(spill.path()), 8192), StandardCharsets.UTF_8));
+    }
+
+    public boolean contains(String handle) {
+        return spills.containsKey(handle);
+    }
+
+    /**
+     * Forget a result whose subagent was cleaned up; spilled files stay until retention drops them
+     */
+    void release(Ref ref) {
+        if (ref == null || ref.store != this) return;
+        if (ref.isSpilled()) {
+            unpin(ref);
+        } else {
+            inlineCount.decrementAndGet();
+            inlineChars.addAndGet(-ref.getChars());
+        }
+    }
+
+    /**
+     * Keep a spilled result on disk whatever its age, until a matching unpin
+     */
+    void pin(Ref ref) {
+        if (ref != null && ref.isSpilled() && ref.store == this) {
+            pins.merge(ref.getHandle(), 1, Integer::sum);
+        }
+    }
+
+    void unpin(Ref ref) {
+        if (ref != null && ref.isSpilled() && ref.store == this) {
+            pins.computeIfPresent(ref.getHandle(), (handle, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    /**
+     * Delete unpinned spilled results past their age, then the oldest while over the disk budget
+     */
+    public void enforceRetention() {
+        Retention policy = retention;
+        if (policy.maxAgeMs() > 0) {
+            long cutoff = System.currentTimeMillis() - policy.maxAgeMs();
+            spills.forEach((handle, spill) -> {
+                if (spill.storedAt() < cutoff && !pins.containsKey(handle)) delete(handle, spill);
+            });
+        }
+
+        if (policy.maxDiskBytes() > 0 && diskBytes.get() > policy.maxDiskBytes()) {
+            List<Map.Entry<String, Spill>> oldestFirst = new ArrayList<>(spills.entrySet());
+            oldestFirst.sort(Comparator.comparingLong(entry -> entry.getValue().storedAt()));
+            for (Map.Entry<String, Spill> entry : oldestFirst) {
+                if (diskBytes.get() <= policy.maxDiskBytes()) break;
+                if (!pins.containsKey(entry.getKey())) delete(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void delete(String handle, Spill spill) {
+        if (!spills.remove(handle, spill)) return;
+        diskBytes.addAndGet(-spill.bytes());
+        expired.incrementAndGet();
+        try {
+            Files.deleteIfExists(spill.path());
+        } catch (IOException e) {
+            System.err.println("Failed to delete subagent result " + handle + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get storage statistics
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("inlineResults", inlineCount.get());
+        stats.put("inlineChars", inlineChars.get());
+        stats.put("spilledResults", spills.size());
+        stats.put("pinnedResults", pins.size());
+        stats.put("spilledChars", spills.values().stream().mapToLong(spill -> Math.max(0, spill.chars())).sum());
+        stats.put("diskBytes", diskBytes.get());
+        stats.put("writes", writes.get());
+        stats.put("reads", reads.get());
+        stats.put("expired", expired.get());
+        stats.put("writeFailures", writeFailures.get());
+        stats.put("inlineLimit", inlineLimit);
+        stats.put("maxAgeMs", retention.maxAgeMs());
+        stats.put("maxDiskBytes", retention.maxDiskBytes());
+        stats.put("directory", directory != null ? directory.toString() : null);
+        return stats;
+    }
+}
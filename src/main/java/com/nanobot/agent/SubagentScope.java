@@ -0,0 +1,330 @@
+package com.nanobot.agent;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Subagent Scope - A task tree of subagents with structured lifetimes
+ * Modeled on StructuredTaskScope: subagents are forked into a scope, the
+ * owner joins it, and closing it cancels whatever is still running. Child
+ * scopes nest, so cancelling or failing a scope cancels its whole subtree.
+ * ALL_SUCCESS shuts the scope down on the first failure, FIRST_SUCCESS on
+ * the first success. Tokens, tool calls and wall time roll up the tree;
+ * a member's counts and result are taken into the scope when it finishes,
+ * so they survive the manager's cleanup of old subagents; a spilled result
+ * stays pinned on disk until the scope is closed. A root scope opened by
+ * a subagent ends with it, so cancelling that subagent cancels its scopes.
+ */
+public class SubagentScope implements AutoCloseable {
+    public enum Policy { ALL_SUCCESS, FIRST_SUCCESS }
+
+    public enum State { OPEN, SUCCEEDED, FAILED, CANCELLED }
+
+    private final SubagentManager manager;
+    private final SubagentScope parent;
+    private final String name;
+    private final Policy policy;
+    private final String ownerId;
+    private final List<String> subagentIds = new CopyOnWriteArrayList<>();
+    private final List<SubagentScope> children = new CopyOnWriteArrayList<>();
+    private final Set<String> runningIds = ConcurrentHashMap.newKeySet();
+    private final Map<String, SubagentResultStore.Ref> memberResults = new ConcurrentHashMap<>();
+    private final List<SubagentResultStore.Ref> pinned = new ArrayList<>();
+    private final LongAdder finishedTokens = new LongAdder();
+    private final LongAdder finishedToolCalls = new LongAdder();
+    private final CompletableFuture<State> outcome = new CompletableFuture<>();
+    private final long openedAt = System.currentTimeMillis();
+
+    private volatile State state = State.OPEN;
+    private volatile long closedAt;
+    private volatile String winner;
+    private volatile String failure;
+    private boolean joining = false;
+    private boolean closed = false;
+    private int pendingMembers = 0;
+
+    SubagentScope(SubagentManager manager, SubagentScope parent, String name, Policy policy, String ownerId) {
+        this.manager = manager;
+        this.parent = parent;
+        this.name = name;
+        this.policy = policy != null ? policy : Policy.ALL_SUCCESS;
+        this.ownerId = ownerId;
+    }
+
+    /**
+     * Start a subagent as a member of this scope
+     */
+    public String fork(String task, String systemPrompt, String model) {
+        synchronized (this) {
+            ensureForkable();
+            // Count the member before it can finish, so a fast completion is never missed
+            pendingMembers++;
+        }
+        String subagentId = manager.createSubagent(task, systemPrompt, model);
+        subagentIds.add(subagentId);
+        runningIds.add(subagentId);
+        manager.onComplete(subagentId, subagent -> onSubagentDone(subagentId, subagent));
+        if (state != State.OPEN) {
+            // Shut down while this fork was starting
+            manager.cancelSubagent(subagentId);
+        }
+        return subagentId;
+    }
+
+    /**
+     * Open a nested scope whose outcome counts as one member of this one; its owner must join it
+     */
+    public SubagentScope openChild(String childName, Policy childPolicy) {
+        SubagentScope child = new SubagentScope(manager, this, childName, childPolicy, null);
+        synchronized (this) {
+            ensureForkable();
+            pendingMembers++;
+            children.add(child);
+        }
+        child.outcome.thenAccept(childState -> onChildDone(child, childState));
+        return child;
+    }
+
+    private void ensureForkable() {
+        if (state != State.OPEN) {
+            throw new IllegalStateException("Scope " + name + " is " + state.name().toLowerCase());
+        }
+        if (joining) {
+            throw new IllegalStateException("Scope " + name + " is already joined");
+        }
+    }
+
+    private void onSubagentDone(String subagentId, SubagentManager.Subagent subagent) {
+        finishedTokens.add(subagent.getTokens());
+        finishedToolCalls.add(subagent.getToolCalls());
+        SubagentResultStore.Ref ref = subagent.getResultRef();
+        if (subagent.getStatus() == SubagentManager.Subagent.SubagentStatus.COMPLETED && ref != null) {
+            memberResults.put(subagentId, ref);
+            synchronized (this) {
+                if (!closed) {
+                    manager.getResultStore().pin(ref);
+                    pinned.add(ref);
+                }
+            }
+        }
+        runningIds.remove(subagentId);
+        memberDone(subagent.getStatus() == SubagentManager.Subagent.SubagentStatus.COMPLETED, subagentId,
+            "Subagent " + subagentId + " " + subagent.getStatus().name().toLowerCase()
+                + (subagent.getError() != null ? ": " + subagent.getError() : ""));
+    }
+
+    private void onChildDone(SubagentScope child, State childState) {
+        memberDone(childState == State.SUCCEEDED, null,
+            "Scope " + child.name + " " + childState.name().toLowerCase()
+                + (child.failure != null ? ": " + child.failure : ""));
+    }
+
+    private void memberDone(boolean success, String subagentId, String error) {
+        State decided = null;
+        synchronized (this) {
+            pendingMembers--;
+            if (state != State.OPEN) return;
+
+            if (policy == Policy.FIRST_SUCCESS && success) {
+                winner = subagentId;
+                decided = State.SUCCEEDED;
+            } else if (policy == Policy.ALL_SUCCESS && !success) {
+                failure = error;
+                decided = State.FAILED;
+            } else if (joining && pendingMembers == 0) {
+                decided = decideOnCompletion();
+            }
+            if (decided != null) state = decided;
+        }
+        if (decided != null) settle(decided);
+    }
+
+    private State decideOnCompletion() {
+        if (policy == Policy.ALL_SUCCESS) return State.SUCCEEDED;
+        failure = "No subagent in scope " + name + " succeeded";
+        return State.FAILED;
+    }
+
+    /**
+     * Shut down the rest of the tree and publish the outcome; runs outside the lock
+     */
+    private void settle(State decided) {
+        shutdownMembers();
+        outcome.complete(decided);
+    }
+
+    private void shutdownMembers() {
+        for (String subagentId : subagentIds) {
+            manager.cancelSubagent(subagentId);
+        }
+        for (SubagentScope child : children) {
+            child.cancel();
+        }
+    }
+
+    /**
+     * Wait until the policy is satisfied or every member has finished; a timeout cancels the tree
+     */
+    public State join(long timeoutMs) throws InterruptedException {
+        State decided = null;
+        synchronized (this) {
+            joining = true;
+            if (state == State.OPEN && pendingMembers == 0) {
+                decided = decideOnCompletion();
+                state = decided;
+            }
+        }
+        if (decided != null) settle(decided);
+
+        try {
+            return outcome.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            fail("Scope " + name + " timed out after " + timeoutMs + "ms");
+            throw new IllegalStateException("Scope timeout");
+        } catch (ExecutionException e) {
+            // The outcome only ever completes normally
+            throw new IllegalStateException("Scope join failed: " + e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Cancel this scope and its subtree
+     */
+    public void cancel() {
+        end(State.CANCELLED, null);
+    }
+
+    /**
+     * Fail this scope, e.g. because its owner's turn failed; the subtree is cancelled
+     */
+    public void fail(String reason) {
+        end(State.FAILED, reason);
+    }
+
+    private void end(State terminal, String reason) {
+        synchronized (this) {
+            if (state != State.OPEN) return;
+            state = terminal;
+            failure = reason;
+        }
+        settle(terminal);
+    }
+
+    /**
+     * Result of the winning subagent of a FIRST_SUCCESS scope
+     */
+    public String result() {
+        requireSucceeded();
+        if (winner == null) {
+            throw new IllegalStateException("Scope " + name + " has no single winner");
+        }
+        SubagentResultStore.Ref ref = memberResults.get(winner);
+        return ref != null ? ref.text() : null;
+    }
+
+    /**
+     * Results of the successful subagents forked directly into this scope, in fork order
+     */
+    public List<String> results() {
+        requireSucceeded();
+        List<String> results = new ArrayList<>();
+        for (String subagentId : subagentIds) {
+            SubagentResultStore.Ref ref = memberResults.get(subagentId);
+            if (ref != null) {
+                results.add(ref.text());
+            }
+        }
+        return results;
+    }
+
+    private void requireSucceeded() {
+        if (state == State.FAILED) {
+            throw new RuntimeException("Scope failed: " + failure);
+        }
+        if (state != State.SUCCEEDED) {
+            throw new IllegalStateException("Scope " + name + " is " + state.name().toLowerCase());
+        }
+    }
+
+    /**
+     * Cancel anything still running, stop the wall clock and unpin the members' results
+     */
+    @Override
+    public void close() {
+        List<SubagentResultStore.Ref> unpin;
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            unpin = new ArrayList<>(pinned);
+            pinned.clear();
+        }
+        unpin.forEach(manager.getResultStore()::unpin);
+        cancel();
+        for (SubagentScope child : children) {
+            child.close();
+        }
+        closedAt = System.currentTimeMillis();
+        if (parent == null) {
+            manager.scopeClosed(this);
+        }
+    }
+
+    public String getName() { return name; }
+    public Policy getPolicy() { return policy; }
+    public State getState() { return state; }
+    public String getFailure() { return failure; }
+    public SubagentScope getParent() { return parent; }
+    /** Subagent that opened this root scope and ends it when it ends, or null */
+    public String getOwnerId() { return ownerId; }
+
+    /**
+     * Tokens used by every subagent in the tree; known once each has finished
+     */
+    public long getTokens() {
+        long tokens = finishedTokens.sum();
+        for (SubagentScope child : children) {
+            tokens += child.getTokens();
+        }
+        return tokens;
+    }
+
+    /**
+     * Tool calls attributed to subagents in the tree, including those of members still running
+     */
+    public long getToolCalls() {
+        long toolCalls = finishedToolCalls.sum();
+        for (String subagentId : runningIds) {
+            SubagentManager.Subagent subagent = manager.getSubagent(subagentId);
+            if (subagent != null) toolCalls += subagent.getToolCalls();
+        }
+        for (SubagentScope child : children) {
+            toolCalls += child.getToolCalls();
+        }
+        return toolCalls;
+    }
+
+    public long getWallTimeMs() {
+        return (closedAt > 0 ? closedAt : System.currentTimeMillis()) - openedAt;
+    }
+
+    /**
+     * Get tree statistics, including nested scopes
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("name", name);
+        stats.put("policy", policy.name());
+        stats.put("state", state.name());
+        if (ownerId != null) stats.put("owner", ownerId);
+        stats.put("subagents", subagentIds.size());
+        stats.put("tokens", getTokens());
+        stats.put("toolCalls", getToolCalls());
+        stats.put("wallTimeMs", getWallTimeMs());
+        if (failure != null) stats.put("failure", failure);
+        if (!children.isEmpty()) {
+            stats.put("children", children.stream().map(SubagentScope::getStats).toList());
+        }
+        return stats;
+    }
+}
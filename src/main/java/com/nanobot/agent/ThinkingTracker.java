@@ -1,18 +1,53 @@
 package com.nanobot.agent;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.function.*;
 
 /**
  * Thinking Tracker - Reasoning/Thinking process tracking
- * Captures and manages agent's reasoning steps for transparency
+ * Captures and manages agent's reasoning steps for transparency.
+ * Only a sampled fraction of thoughts is recorded; finished ones move to a
+ * fixed-size ring of recent thoughts and, with a trace directory set, are
+ * appended to a daily JSONL file by a background writer. Steps go into
+ * append-only chunked buffers, so adding one never takes a lock. Active
+ * thoughts are capped; past the cap the oldest unfinished one is cancelled,
+ * and later calls on it are ignored like calls on unsampled thoughts.
  */
 public class ThinkingTracker {
+    private static final int DEFAULT_RECENT_CAPACITY = 256;
+    private static final int FLUSH_QUEUE_CAPACITY = 1024;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
     private final Map<String, ThoughtProcess> activeThoughts = new ConcurrentHashMap<>();
+    private final Queue<ThoughtProcess> startOrder = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger startOrderSize = new AtomicInteger();
     private final List<ThoughtListener> listeners = new CopyOnWriteArrayList<>();
     private final int maxStepsPerThought;
-    private int thoughtCounter = 0;
+    private final AtomicLong thoughtCounter = new AtomicLong();
+    private final AtomicReferenceArray<ThoughtProcess> recent;
+    private final AtomicLong recentCursor = new AtomicLong();
+    private final int maxActive;
+    private volatile double sampleRate = 1.0;
+
+    private final LongAdder sampled = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    private final BlockingQueue<ThoughtProcess> flushQueue = new ArrayBlockingQueue<>(FLUSH_QUEUE_CAPACITY);
+    private final LongAdder flushed = new LongAdder();
+    private final LongAdder flushDropped = new LongAdder();
+    private volatile Path traceDirectory;
+    private Thread flushThread;
 
     public interface ThoughtListener {
         void onThoughtStarted(String thoughtId, String prompt);
@@ -25,36 +60,112 @@ public class ThinkingTracker {
         private final int stepNumber;
         private final String content;
         private final long timestamp;
-        private final Map<String, Object> metadata;
+        private Map<String, Object> metadata;
 
         public ThoughtStep(int stepNumber, String content) {
+            this(stepNumber, content, null);
+        }
+
+        ThoughtStep(int stepNumber, String content, Map<String, Object> metadata) {
             this.stepNumber = stepNumber;
             this.content = content;
             this.timestamp = System.currentTimeMillis();
-            this.metadata = new HashMap<>();
+            this.metadata = metadata != null && !metadata.isEmpty() ? Map.copyOf(metadata) : null;
         }
 
         public int getStepNumber() { return stepNumber; }
         public String getContent() { return content; }
         public long getTimestamp() { return timestamp; }
-        public Map<String, Object> getMetadata() { return metadata; }
+
+        /** Metadata is allocated on first use; most steps have none */
+        public synchronized Map<String, Object> getMetadata() {
+            if (metadata == null) {
+                metadata = new HashMap<>();
+            } else if (!(metadata instanceof HashMap)) {
+                metadata = new HashMap<>(metadata);
+            }
+            return metadata;
+        }
 
         public Map<String, Object> toMap() {
             Map<String, Object> map = new HashMap<>();
             map.put("step", stepNumber);
             map.put("content", content);
             map.put("timestamp", timestamp);
-            map.put("metadata", metadata);
+            Map<String, Object> meta = metadata;
+            map.put("metadata", meta != null ? meta : Map.of());
             return map;
         }
     }
 
+    /**
+     * Append-only step storage in chunks doubling from 8 slots; writers reserve a
+     * slot with a CAS, and readers skip slots whose writer has not stored yet
+     */
+    static final class StepBuffer {
+        private static final int FIRST_CHUNK = 8;
+
+        private final int capacity;
+        private final AtomicInteger reserved = new AtomicInteger();
+        private final AtomicReferenceArray<AtomicReferenceArray<ThoughtStep>> chunks;
+
+        StepBuffer(int capacity) {
+            this.capacity = capacity;
+            this.chunks = new AtomicReferenceArray<>(capacity > 0 ? chunkOf(capacity - 1) + 1 : 0);
+        }
+
+        private static int chunkOf(int index) {
+            return 31 - Integer.numberOfLeadingZeros(index / FIRST_CHUNK + 1);
+        }
+
+        /**
+         * Reserve the next slot and store the step built for its 1-based number; null when full
+         */
+        ThoughtStep append(IntFunction<ThoughtStep> factory) {
+            int index;
+            do {
+                index = reserved.get();
+                if (index >= capacity) return null;
+            } while (!reserved.compareAndSet(index, index + 1));
+
+            ThoughtStep step = factory.apply(index + 1);
+            int chunk = chunkOf(index);
+            chunk(chunk).set(index - FIRST_CHUNK * ((1 << chunk) - 1), step);
+            return step;
+        }
+
+        private AtomicReferenceArray<ThoughtStep> chunk(int chunk) {
+            AtomicReferenceArray<ThoughtStep> slots = chunks.get(chunk);
+            if (slots == null) {
+                chunks.compareAndSet(chunk, null, new AtomicReferenceArray<>(FIRST_CHUNK << chunk));
+                slots = chunks.get(chunk);
+            }
+            return slots;
+        }
+
+        int size() {
+            return Math.min(reserved.get(), capacity);
+        }
+
+        List<ThoughtStep> snapshot() {
+            int size = size();
+            List<ThoughtStep> steps = new ArrayList<>(size);
+            for (int index = 0; index < size; index++) {
+                int chunk = chunkOf(index);
+                AtomicReferenceArray<ThoughtStep> slots = chunks.get(chunk);
+                ThoughtStep step = slots != null ? slots.get(index - FIRST_CHUNK * ((1 << chunk) - 1)) : null;
+                if (step != null) steps.add(step);
+            }
+            return steps;
+        }
+    }
+
     public static class ThoughtProcess {
         private final String id;
         private final String prompt;
         private final String model;
         private volatile ThoughtStatus status;
-        private final List<ThoughtStep> steps = new ArrayList<>();
+        private final StepBuffer steps;
         private volatile String summary;
         private volatile String error;
         private final long createdAt;
@@ -65,10 +176,15 @@ public class ThinkingTracker {
         }
 
         public ThoughtProcess(String prompt, String model) {
-            this.id = UUID.randomUUID().toString();
+            this(UUID.randomUUID().toString(), prompt, model, 50);
+        }
+
+        ThoughtProcess(String id, String prompt, String model, int maxSteps) {
+            this.id = id;
             this.prompt = prompt;
             this.model = model;
             this.status = ThoughtStatus.ACTIVE;
+            this.steps = new StepBuffer(maxSteps);
             this.createdAt = System.currentTimeMillis();
         }
 
@@ -77,7 +193,8 @@ public class ThinkingTracker {
         public String getModel() { return model; }
         public ThoughtStatus getStatus() { return status; }
         public void setStatus(ThoughtStatus status) { this.status = status; }
-        public List<ThoughtStep> getSteps() { return steps; }
+        public List<ThoughtStep> getSteps() { return steps.snapshot(); }
+        public int getStepCount() { return steps.size(); }
         public String getSummary() { return summary; }
         public void setSummary(String summary) { this.summary = summary; }
         public String getError() { return error; }
@@ -91,18 +208,22 @@ public class ThinkingTracker {
         }
 
         public void addStep(ThoughtStep step) {
-            synchronized (steps) {
-                steps.add(step);
+            if (steps.append(number -> step) == null) {
+                throw new IllegalStateException("Max steps exceeded");
             }
         }
 
+        ThoughtStep appendStep(String content, Map<String, Object> metadata) {
+            return steps.append(number -> new ThoughtStep(number, content, metadata));
+        }
+
         public Map<String, Object> toMap() {
             Map<String, Object> map = new HashMap<>();
             map.put("id", id);
             map.put("prompt", prompt);
             map.put("model", model);
             map.put("status", status.name());
-            map.put("steps", steps.stream().map(ThoughtStep::toMap).toList());
+            map.put("steps", getSteps().stream().map(ThoughtStep::toMap).toList());
             map.put("summary", summary);
             map.put("error", error);
             map.put("createdAt", createdAt);
@@ -117,7 +238,55 @@ public class ThinkingTracker {
     }
 
     public ThinkingTracker(int maxStepsPerThought) {
+        this(maxStepsPerThought, DEFAULT_RECENT_CAPACITY, 1.0);
+    }
+
+    /**
+     * Tracker keeping the last recentCapacity finished thoughts and sampling the given fraction
+     */
+    public ThinkingTracker(int maxStepsPerThought, int recentCapacity, double sampleRate) {
         this.maxStepsPerThought = maxStepsPerThought;
+        this.recent = new AtomicReferenceArray<>(Math.max(1, recentCapacity));
+        this.maxActive = Math.max(64, recentCapacity * 4);
+        this.sampleRate = clampRate(sampleRate);
+    }
+
+    /**
+     * Fraction of thoughts to record, from 0 to 1; unsampled ones cost only an id
+     */
+    public void setSampleRate(double sampleRate) {
+        this.sampleRate = clampRate(sampleRate);
+    }
+
+    private static double clampRate(double sampleRate) {
+        return Math.max(0.0, Math.min(1.0, sampleRate));
+    }
+
+    /**
+     * Append finished thoughts to thoughts-YYYY-MM-DD.jsonl under the directory, off the caller's thread
+     */
+    public synchronized void setTraceDirectory(Path directory) {
+        this.traceDirectory = directory;
+        if (directory != null && flushThread == null) {
+            flushThread = new Thread(this::flushLoop, "thinking-flush");
+            flushThread.setDaemon(true);
+            flushThread.start();
+        }
+    }
+
+    /**
+     * Stop the trace writer after it drains what is queued
+     */
+    public synchronized void stop() {
+        if (flushThread != null) {
+            flushThread.interrupt();
+            try {
+                flushThread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            flushThread = null;
+        }
     }
 
     /**
@@ -128,10 +297,20 @@ public class ThinkingTracker {
     }
 
     public String startThinking(String prompt, String model) {
-        String thoughtId = "thought_" + (++thoughtCounter);
-        ThoughtProcess thought = new ThoughtProcess(prompt, model);
+        String thoughtId = "thought_" + thoughtCounter.incrementAndGet();
+
+        double rate = sampleRate;
+        if (rate < 1.0 && ThreadLocalRandom.current().nextDouble() >= rate) {
+            skipped.increment();
+            return thoughtId;
+        }
+        sampled.increment();
 
+        ThoughtProcess thought = new ThoughtProcess(thoughtId, prompt, model, maxStepsPerThought);
         activeThoughts.put(thoughtId, thought);
+        startOrder.add(thought);
+        startOrderSize.incrementAndGet();
+        evictOldest();
 
         // Notify listeners
         notifyThoughtStarted(thoughtId, prompt);
@@ -143,39 +322,24 @@ public class ThinkingTracker {
      * Add a reasoning step
      */
     public void addStep(String thoughtId, String content) {
-        ThoughtProcess thought = activeThoughts.get(thoughtId);
-        if (thought == null) {
-            throw new IllegalArgumentException("Unknown thought: " + thoughtId);
-        }
-
-        if (thought.getStatus() != ThoughtProcess.ThoughtStatus.ACTIVE) {
-            throw new IllegalStateException("Thought is not active");
-        }
-
-        if (thought.getSteps().size() >= maxStepsPerThought) {
-            throw new IllegalStateException("Max steps exceeded");
-        }
-
-        ThoughtStep step = new ThoughtStep(thought.getSteps().size() + 1, content);
-        thought.addStep(step);
-
-        // Notify listeners
-        notifyThoughtStep(thoughtId, step.getStepNumber(), content);
+        addStep(thoughtId, content, null);
     }
 
     /**
      * Add a step with metadata
      */
     public void addStep(String thoughtId, String content, Map<String, Object> metadata) {
-        ThoughtProcess thought = activeThoughts.get(thoughtId);
+        ThoughtProcess thought = activeThought(thoughtId);
         if (thought == null) {
-            throw new IllegalArgumentException("Unknown thought: " + thoughtId);
+            return;
         }
 
-        ThoughtStep step = new ThoughtStep(thought.getSteps().size() + 1, content);
-        step.getMetadata().putAll(metadata);
-        thought.addStep(step);
+        ThoughtStep step = thought.appendStep(content, metadata);
+        if (step == null) {
+            throw new IllegalStateException("Max steps exceeded");
+        }
 
+        // Notify listeners
         notifyThoughtStep(thoughtId, step.getStepNumber(), content);
     }
 
@@ -183,59 +347,190 @@ public class ThinkingTracker {
      * Complete thought with summary
      */
     public void completeThinking(String thoughtId, String summary) {
-        ThoughtProcess thought = activeThoughts.get(thoughtId);
+        ThoughtProcess thought = activeThought(thoughtId);
         if (thought == null) {
-            throw new IllegalArgumentException("Unknown thought: " + thoughtId);
+            return;
         }
 
         thought.setSummary(summary);
-        thought.setStatus(ThoughtProcess.ThoughtStatus.COMPLETED);
-        thought.setCompletedAt(System.currentTimeMillis());
-
-        notifyThoughtCompleted(thoughtId, summary);
+        if (finish(thoughtId, thought, ThoughtProcess.ThoughtStatus.COMPLETED)) {
+            completed.increment();
+            notifyThoughtCompleted(thoughtId, summary);
+        }
     }
 
     /**
      * Mark thought as failed
      */
     public void failThinking(String thoughtId, String error) {
-        ThoughtProcess thought = activeThoughts.get(thoughtId);
+        ThoughtProcess thought = activeThought(thoughtId);
         if (thought == null) {
-            throw new IllegalArgumentException("Unknown thought: " + thoughtId);
+            return;
         }
 
         thought.setError(error);
-        thought.setStatus(ThoughtProcess.ThoughtStatus.FAILED);
-        thought.setCompletedAt(System.currentTimeMillis());
-
-        notifyThoughtFailed(thoughtId, error);
+        if (finish(thoughtId, thought, ThoughtProcess.ThoughtStatus.FAILED)) {
+            failed.increment();
+            notifyThoughtFailed(thoughtId, error);
+        }
     }
 
     /**
      * Cancel thought
      */
     public void cancelThinking(String thoughtId) {
+        ThoughtProcess thought = activeThought(thoughtId);
+        if (thought != null && finish(thoughtId, thought, ThoughtProcess.ThoughtStatus.CANCELLED)) {
+            cancelled.increment();
+        }
+    }
+
+    /**
+     * The active thought, or null for one that was not sampled, already finished or evicted
+     * past the active cap, so callers see the same no-op whatever the timing; unknown ids are errors
+     */
+    private ThoughtProcess activeThought(String thoughtId) {
         ThoughtProcess thought = activeThoughts.get(thoughtId);
-        if (thought == null) {
+        if (thought != null) {
+            return thought;
+        }
+        if (!wasIssued(thoughtId)) {
             throw new IllegalArgumentException("Unknown thought: " + thoughtId);
         }
+        return null;
+    }
+
+    private boolean wasIssued(String thoughtId) {
+        if (thoughtId == null || !thoughtId.startsWith("thought_")) return false;
+        try {
+            long number = Long.parseLong(thoughtId.substring("thought_".length()));
+            return number > 0 && number <= thoughtCounter.get();
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
 
-        thought.setStatus(ThoughtProcess.ThoughtStatus.CANCELLED);
+    /**
+     * Move a thought from active to the recent ring and queue it for disk; the first caller wins
+     */
+    private boolean finish(String thoughtId, ThoughtProcess thought, ThoughtProcess.ThoughtStatus status) {
+        if (!activeThoughts.remove(thoughtId, thought)) {
+            return false;
+        }
+        thought.setStatus(status);
         thought.setCompletedAt(System.currentTimeMillis());
+
+        int slot = (int) (recentCursor.getAndIncrement() % recent.length());
+        recent.set(slot, thought);
+
+        if (traceDirectory != null && !flushQueue.offer(thought)) {
+            flushDropped.increment();
+        }
+        return true;
+    }
+
+    /**
+     * Cancel the oldest unfinished thoughts while over the cap. Finished thoughts are dropped
+     * from the start order as they reach its head, or in one sweep once it holds twice the cap.
+     */
+    private void evictOldest() {
+        ThoughtProcess oldest;
+        while ((oldest = startOrder.peek()) != null
+                && (oldest.getStatus() != ThoughtProcess.ThoughtStatus.ACTIVE || activeThoughts.size() > maxActive)) {
+            if (!startOrder.remove(oldest)) continue;
+            startOrderSize.decrementAndGet();
+            if (finish(oldest.getId(), oldest, ThoughtProcess.ThoughtStatus.CANCELLED)) {
+                cancelled.increment();
+                evicted.increment();
+            }
+        }
+
+        if (startOrderSize.get() > 2 * maxActive) {
+            synchronized (startOrder) {
+                if (startOrderSize.get() > 2 * maxActive) {
+                    startOrder.removeIf(thought -> thought.getStatus() != ThoughtProcess.ThoughtStatus.ACTIVE);
+                    startOrderSize.set(startOrder.size());
+                }
+            }
+        }
+    }
+
+    private ThoughtProcess findRecent(String thoughtId) {
+        for (int i = 0; i < recent.length(); i++) {
+            ThoughtProcess thought = recent.get(i);
+            if (thought != null && thought.getId().equals(thoughtId)) {
+                return thought;
+            }
+        }
+        return null;
     }
 
     /**
-     * Get thought process
+     * Get thought process, active or recently finished
      */
     public ThoughtProcess getThought(String thoughtId) {
-        return activeThoughts.get(thoughtId);
+        ThoughtProcess thought = activeThoughts.get(thoughtId);
+        return thought != null ? thought : findRecent(thoughtId);
+    }
+
+    /**
+     * Recently finished thoughts, newest first
+     */
+    public List<ThoughtProcess> getRecentThoughts() {
+        List<ThoughtProcess> thoughts = new ArrayList<>();
+        long cursor = recentCursor.get();
+        for (long i = cursor - 1; i >= 0 && i >= cursor - recent.length(); i--) {
+            ThoughtProcess thought = recent.get((int) (i % recent.length()));
+            if (thought != null) thoughts.add(thought);
+        }
+        return thoughts;
+    }
+
+    private void flushLoop() {
+        List<ThoughtProcess> batch = new ArrayList<>();
+        boolean stopping = false;
+        while (!stopping || !flushQueue.isEmpty()) {
+            try {
+                if (!stopping) {
+                    batch.add(flushQueue.take());
+                }
+            } catch (InterruptedException e) {
+                stopping = true;
+            }
+            flushQueue.drainTo(batch);
+            if (!batch.isEmpty()) {
+                writeBatch(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void writeBatch(List<ThoughtProcess> batch) {
+        Path directory = traceDirectory;
+        if (directory == null) return;
+
+        Path file = directory.resolve("thoughts-" + LocalDate.now() + ".jsonl");
+        try {
+            Files.createDirectories(directory);
+            try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                for (ThoughtProcess thought : batch) {
+                    writer.write(MAPPER.writeValueAsString(thought.toMap()));
+                    writer.write('\n');
+                }
+            }
+            flushed.add(batch.size());
+        } catch (IOException e) {
+            flushDropped.add(batch.size());
+            System.err.println("Failed to write thinking traces: " + e.getMessage());
+        }
     }
 
     /**
      * Format thinking for LLM context
      */
     public String formatThinkingForContext(String thoughtId) {
-        ThoughtProcess thought = activeThoughts.get(thoughtId);
+        ThoughtProcess thought = getThought(thoughtId);
         if (thought == null) {
             return "";
         }
@@ -260,7 +555,7 @@ public class ThinkingTracker {
      * Get formatted thinking trace
      */
     public String formatThinkingTrace(String thoughtId) {
-        ThoughtProcess thought = activeThoughts.get(thoughtId);
+        ThoughtProcess thought = getThought(thoughtId);
         if (thought == null) {
             return "Unknown thought: " + thoughtId;
         }
@@ -344,17 +639,18 @@ public class ThinkingTracker {
     public Map<String, Object> getStats() {
         Map<String, Object> stats = new HashMap<>();
         stats.put("activeThoughts", activeThoughts.size());
-
-        long completed = activeThoughts.values().stream()
-            .filter(t -> t.getStatus() == ThoughtProcess.ThoughtStatus.COMPLETED)
-            .count();
-        long failed = activeThoughts.values().stream()
-            .filter(t -> t.getStatus() == ThoughtProcess.ThoughtStatus.FAILED)
-            .count();
-
-        stats.put("completed", completed);
-        stats.put("failed", failed);
-
+        stats.put("recentThoughts", (int) Math.min(recentCursor.get(), recent.length()));
+        stats.put("completed", completed.sum());
+        stats.put("failed", failed.sum());
+        stats.put("cancelled", cancelled.sum());
+        stats.put("evicted", evicted.sum());
+        stats.put("maxActive", maxActive);
+        stats.put("sampleRate", sampleRate);
+        stats.put("sampled", sampled.sum());
+        stats.put("skipped", skipped.sum());
+        stats.put("flushed", flushed.sum());
+        stats.put("flushDropped", flushDropped.sum());
+        stats.put("flushQueued", flushQueue.size());
         return stats;
     }
 }
@@ -141,6 +141,54 @@ public class NanobotEvent {
         return new Event(EventType.TOOL_FAILED, "tool", data);
     }
 
+    /**
+     * Call event carrying argument names and short previews rather than the arguments
+     * themselves, so file contents passed to write_file never sit in the event log
+     */
+    public static Event toolCalled(String toolName, Map<String, Object> arguments, String sessionId) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("toolName", toolName);
+        Map<String, Object> previews = new TreeMap<>();
+        if (arguments != null) {
+            arguments.forEach((name, value) -> previews.put(name, preview(value)));
+        }
+        data.put("argumentNames", List.copyOf(previews.keySet()));
+        data.put("argumentPreviews", previews);
+        return withSession(EventType.TOOL_CALLED, data, sessionId);
+    }
+
+    /**
+     * Completion event carrying timing and result size rather than the result itself,
+     * so the event log does not retain large tool outputs
+     */
+    public static Event toolCompleted(String toolName, String sessionId, long durationMs, Object result) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("toolName", toolName);
+        data.put("durationMs", durationMs);
+        String text = result != null ? result.toString() : "";
+        data.put("resultSize", text.length());
+        data.put("resultPreview", preview(text));
+        return withSession(EventType.TOOL_COMPLETED, data, sessionId);
+    }
+
+    private static String preview(Object value) {
+        String text = String.valueOf(value);
+        return text.length() > 200 ? text.substring(0, 200) + "..." : text;
+    }
+
+    public static Event toolFailed(String toolName, String error, String sessionId, long durationMs) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("toolName", toolName);
+        data.put("error", error);
+        data.put("durationMs", durationMs);
+        return withSession(EventType.TOOL_FAILED, data, sessionId);
+    }
+
+    private static Event withSession(EventType type, Map<String, Object> data, String sessionId) {
+        if (sessionId != null) data.put("sessionId", sessionId);
+        return new Event(type, "tool", data);
+    }
+
     public static Event errorOccurred(String source, String error, Throwable exception) {
         Map<String, Object> data = new HashMap<>();
         data.put("error", error);
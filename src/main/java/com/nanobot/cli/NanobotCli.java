@@ -1,5 +1,7 @@
 package com.nanobot.cli;
 
+import com.nanobot.agent.SubagentManager;
+import com.nanobot.bus.*;
 import com.nanobot.config.*;
 import com.nanobot.core.*;
 import com.nanobot.llm.*;
@@ -10,6 +12,7 @@ import org.jline.reader.*;
 import java.io.*;
 import java.nio.file.*;
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * Interactive CLI - Main entry point for command-line usage
@@ -19,11 +22,16 @@ public class NanobotCli {
 
     private static NanobotConfig config;
     private static MessageBus messageBus;
+    private static EventBus eventBus;
     private static ContextManager contextManager;
     private static ToolRegistry toolRegistry;
     private static AgentLoop agentLoop;
     private static CronService cronService;
+    private static BatchingProvider batchingProvider;
+    private static AgentScheduler agentScheduler;
     private static MonitorServer monitorServer;
+    private static ToolHotReload toolHotReload;
+    private static SubagentManager subagentManager;
 
     public static void main(String[] args) {
         System.out.println("Nanobot v" + VERSION + " - AI Agent (Java 21)");
@@ -74,8 +82,10 @@ public class NanobotCli {
     private static void initialize() throws Exception {
         config = loadConfig();
         messageBus = new MessageBus();
+        eventBus = new EventBus();
         contextManager = new ContextManager(50, 8000);
         toolRegistry = createToolRegistry();
+        toolRegistry.setEventBus(eventBus);
         LlmProvider llmProvider = createLlmProvider();
         agentLoop = new AgentLoop(
             messageBus, llmProvider, toolRegistry, contextManager,
@@ -84,22 +94,63 @@ public class NanobotCli {
             config.getAgents().getMaxIterations()
         );
 
+        // Interactive, cron and subagent turns share one pool of LLM call slots
+        NanobotConfig.SchedulerConfig scheduling = config.getLlm().getScheduler();
+        agentScheduler = new AgentScheduler(
+            scheduling.getMaxConcurrent(),
+            scheduling.getReservedInteractive(),
+            scheduling.getMaxQueued()
+        );
+        agentLoop.setScheduler(agentScheduler);
+
+        // Subagents queue behind interactive turns on the same slots; large reports spill to disk
+        subagentManager = new SubagentManager(llmProvider, agentScheduler, config.getWorkspacePath());
+        subagentManager.getResultStore().setDirectory(Paths.get(config.getDataPath(), "subagent-results"));
+        subagentManager.getIsolation().setContextManager(contextManager);
+        subagentManager.getIsolation().setToolRegistry(toolRegistry);
+        subagentManager.attachEventBus(eventBus);
+
+        // Cron work is latency-insensitive, so it can ride the cheaper batch API; batch calls
+        // wait hours in the provider's own queue and so stay off the live call slots
+        AgentLoop cronAgent = batchingProvider == null ? agentLoop : new AgentLoop(
+            messageBus, batchingProvider, toolRegistry, contextManager,
+            config.getWorkspacePath(),
+            config.getAgents().getDefaultsModel(),
+            config.getAgents().getMaxIterations()
+        );
+
         cronService = new CronService(
             Paths.get(config.getDataPath(), "cron", "jobs.json"),
             job -> {
-                String result = agentLoop.process("cron:" + job.getId(), job.getMessage());
+                String result = cronAgent.process("cron:" + job.getId(), job.getMessage());
                 return new CronJob.ExecutedJob(job.getId(), job.getMessage(), result, 0);
             }
         );
 
         messageBus.start();
+        eventBus.start();
         agentLoop.start();
         cronService.start();
 
+        // Tool sources dropped here are compiled and registered without a restart; runs
+        // arbitrary code from that directory, so only when configured
+        NanobotConfig.HotReloadConfig hotReload = config.getTools().getHotReload();
+        if (hotReload.isEnabled()) {
+            String toolsPath = hotReload.getPath() != null ? hotReload.getPath() : config.getDataPath() + "/tools";
+            toolHotReload = new ToolHotReload(toolRegistry, Paths.get(toolsPath));
+            toolHotReload.start();
+        }
+
+        FetchCache.shared().setDiskDirectory(Paths.get(config.getDataPath(), "web-cache"));
+
+        // Build the search index in the background so the first search_code is fast
+        WorkspaceIndex.forWorkspace(config.getWorkspacePath());
+
         // Start monitoring server
         try {
             int monitorPort = Integer.parseInt(System.getenv().getOrDefault("MONITOR_PORT", "8080"));
-            monitorServer = new MonitorServer(monitorPort, messageBus, contextManager, null, null);
+            monitorServer = new MonitorServer(monitorPort, messageBus, contextManager, eventBus, subagentManager);
+            monitorServer.setToolRegistry(toolRegistry);
             monitorServer.start();
         } catch (Exception e) {
             System.err.println("⚠️  监控服务启动失败: " + e.getMessage());
@@ -127,9 +178,13 @@ public class NanobotCli {
         // File tools
         registry.register(
             "read_file",
-            "Read contents of a file",
+            "Read contents of a file, or a line window of a large file",
             Map.of(
-                "path", new ToolRegistry.ToolParameter("string", "Path to file", true)
+                "path", new ToolRegistry.ToolParameter("string", "Path to file", true),
+                "offset", new ToolRegistry.ToolParameter("integer", "First line to read (1-based)", false),
+                "limit", new ToolRegistry.ToolParameter("integer", "Number of lines to read", false),
+                "head", new ToolRegistry.ToolParameter("integer", "Read the first N lines", false),
+                "tail", new ToolRegistry.ToolParameter("integer", "Read the last N lines", false)
             ),
             true,
             FileTool::readFile
@@ -151,8 +206,10 @@ public class NanobotCli {
             "Replace text in a file",
             Map.of(
                 "path", new ToolRegistry.ToolParameter("string", "Path to file", true),
-                "old_text", new ToolRegistry.ToolParameter("string", "Text to replace", true),
-                "new_text", new ToolRegistry.ToolParameter("string", "Replacement text", true)
+                "old_text", new ToolRegistry.ToolParameter("string", "Text to replace", false),
+                "new_text", new ToolRegistry.ToolParameter("string", "Replacement text", false),
+                "edits", new ToolRegistry.ToolParameter("array",
+                    "Several {old_text, new_text} edits applied together in one pass", false, "object")
             ),
             true,
             FileTool::editFile
@@ -168,15 +225,17 @@ public class NanobotCli {
             FileTool::listDir
         );
 
-        // Shell tool
-        registry.register(
+        // Shell tool, echoing output to the console while the command runs
+        registry.registerSessionTool(
             "bash",
-            "Execute a shell command",
+            "Execute a shell command; cd and exported variables persist within the session",
             Map.of(
-                "command", new ToolRegistry.ToolParameter("string", "Command to execute", true)
+                "command", new ToolRegistry.ToolParameter("string", "Command to execute", true),
+                "timeout", new ToolRegistry.ToolParameter("integer", "Timeout in seconds (default 60, max 600)", false)
             ),
             true,
-            ShellTool::execute
+            (args, workspace, sessionId) -> ShellTool.executeInSession(args, workspace, sessionId,
+                shellEcho(sessionId))
         );
 
         // Web tools
@@ -206,19 +265,79 @@ public class NanobotCli {
         return registry;
     }
 
+    /**
+     * Per-call console echo of shell output; lines are tagged with the session so
+     * concurrent commands stay readable, and nothing is kept after printing
+     */
+    private static Consumer<String> shellEcho(String sessionId) {
+        String tag = "\033[2m[" + (sessionId != null ? sessionId : "bash") + "] ";
+        boolean[] lineStart = {true};
+        return text -> {
+            StringBuilder out = new StringBuilder();
+            for (int i = 0; i < text.length(); i++) {
+                if (lineStart[0]) {
+                    out.append(tag);
+                    lineStart[0] = false;
+                }
+                char c = text.charAt(i);
+                if (c == '\n') {
+                    out.append("\033[0m");
+                    lineStart[0] = true;
+                }
+                out.append(c);
+            }
+            if (!lineStart[0]) out.append("\033[0m");
+            synchronized (System.out) {
+                System.out.print(out);
+            }
+        };
+    }
+
     private static LlmProvider createLlmProvider() {
         String openaiKey = System.getenv("OPENAI_API_KEY");
         String anthropicKey = System.getenv("ANTHROPIC_API_KEY");
 
+        LlmProvider primary = null;
+        LlmProvider secondary = null;
+
         if (openaiKey != null && !openaiKey.isEmpty()) {
-            return new OpenAiProvider(openaiKey);
+            primary = new OpenAiProvider(openaiKey);
         }
 
         if (anthropicKey != null && !anthropicKey.isEmpty()) {
-            return new AnthropicProvider(anthropicKey);
+            if (primary == null) {
+                primary = new AnthropicProvider(anthropicKey);
+            } else {
+                secondary = new AnthropicProvider(anthropicKey);
+            }
+        }
+
+        if (primary == null) {
+            throw new IllegalArgumentException("Please set OPENAI_API_KEY or ANTHROPIC_API_KEY environment variable");
+        }
+
+        NanobotConfig.BatchConfig batch = config.getLlm().getBatch();
+        if (batch.isEnabled() && primary instanceof BatchProvider batchProvider) {
+            batchingProvider = new BatchingProvider(
+                batchProvider,
+                batch.getMaxBatchSize(),
+                batch.getMaxWaitMs(),
+                batch.getPollIntervalMs()
+            );
         }
 
-        throw new IllegalArgumentException("Please set OPENAI_API_KEY or ANTHROPIC_API_KEY environment variable");
+        NanobotConfig.HedgingConfig hedging = config.getLlm().getHedging();
+        if (hedging.isEnabled()) {
+            return new HedgingProvider(
+                primary, secondary,
+                hedging.getPercentile(),
+                hedging.getMaxExtraPercent() / 100.0,
+                hedging.getMinSamples(),
+                hedging.getMinDelayMs()
+            );
+        }
+
+        return primary;
     }
 
     private static void runInteractive() throws Exception {
@@ -297,6 +416,20 @@ public class NanobotCli {
                 Map<String, Object> stats = new HashMap<>();
                 stats.put("messageBus", messageBus.getStats());
                 stats.put("cron", cronService.getStats());
+                stats.put("shellSessions", ShellSessions.shared().getStats());
+                stats.put("webCache", FetchCache.shared().getStats());
+                stats.put("tools", toolRegistry.getMetrics().getStats());
+                stats.put("toolResultCache", toolRegistry.getResultCache().getStats());
+                stats.put("toolBulkheads", toolRegistry.getGuardStats());
+                stats.put("scheduler", agentScheduler.getStats());
+                stats.put("subagents", subagentManager.getStats());
+                if (toolHotReload != null) {
+                    stats.put("hotReload", toolHotReload.getStats());
+                }
+                stats.put("workspaceIndex", WorkspaceIndex.forWorkspace(config.getWorkspacePath()).getStats());
+                if (batchingProvider != null) {
+                    stats.put("batch", batchingProvider.getStats());
+                }
                 stats.put("sessions", contextManager.getSessionKeys().size());
                 System.out.println(stats);
             }
@@ -9,6 +9,7 @@ public class NanobotConfig {
     private AgentConfig agents = new AgentConfig();
     private McpServersConfig mcpServers = new McpServersConfig();
     private ToolsConfig tools = new ToolsConfig();
+    private LlmConfig llm = new LlmConfig();
     private String workspacePath = System.getProperty("user.home") + "/.nanobot/workspace";
     private String dataPath = System.getProperty("user.home") + "/.nanobot/data";
 
@@ -59,8 +60,20 @@ public class NanobotConfig {
 
     public static class ToolsConfig {
         private WebToolsConfig web = new WebToolsConfig();
+        private HotReloadConfig hotReload = new HotReloadConfig();
 
         public WebToolsConfig getWeb() { return web; }
+        public HotReloadConfig getHotReload() { return hotReload; }
+    }
+
+    public static class HotReloadConfig {
+        private boolean enabled = false;
+        private String path;
+
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+        public String getPath() { return path; }
+        public void setPath(String path) { this.path = path; }
     }
 
     public static class WebToolsConfig {
@@ -72,10 +85,69 @@ public class NanobotConfig {
         public String getSearchApiBase() { return searchApiBase; }
     }
 
+    public static class LlmConfig {
+        private HedgingConfig hedging = new HedgingConfig();
+        private BatchConfig batch = new BatchConfig();
+        private SchedulerConfig scheduler = new SchedulerConfig();
+
+        public HedgingConfig getHedging() { return hedging; }
+        public BatchConfig getBatch() { return batch; }
+        public SchedulerConfig getScheduler() { return scheduler; }
+    }
+
+    public static class HedgingConfig {
+        private boolean enabled = false;
+        private double percentile = 0.95;
+        private double maxExtraPercent = 5.0;
+        private int minSamples = 20;
+        private long minDelayMs = 200;
+
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+        public double getPercentile() { return percentile; }
+        public void setPercentile(double percentile) { this.percentile = percentile; }
+        public double getMaxExtraPercent() { return maxExtraPercent; }
+        public void setMaxExtraPercent(double percent) { this.maxExtraPercent = percent; }
+        public int getMinSamples() { return minSamples; }
+        public void setMinSamples(int minSamples) { this.minSamples = minSamples; }
+        public long getMinDelayMs() { return minDelayMs; }
+        public void setMinDelayMs(long minDelayMs) { this.minDelayMs = minDelayMs; }
+    }
+
+    public static class BatchConfig {
+        private boolean enabled = false;
+        private int maxBatchSize = 1000;
+        private long maxWaitMs = 60000;
+        private long pollIntervalMs = 60000;
+
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+        public int getMaxBatchSize() { return maxBatchSize; }
+        public void setMaxBatchSize(int maxBatchSize) { this.maxBatchSize = maxBatchSize; }
+        public long getMaxWaitMs() { return maxWaitMs; }
+        public void setMaxWaitMs(long maxWaitMs) { this.maxWaitMs = maxWaitMs; }
+        public long getPollIntervalMs() { return pollIntervalMs; }
+        public void setPollIntervalMs(long pollIntervalMs) { this.pollIntervalMs = pollIntervalMs; }
+    }
+
+    public static class SchedulerConfig {
+        private int maxConcurrent = 16;
+        private int reservedInteractive = 4;
+        private int maxQueued = 1000;
+
+        public int getMaxConcurrent() { return maxConcurrent; }
+        public void setMaxConcurrent(int maxConcurrent) { this.maxConcurrent = maxConcurrent; }
+        public int getReservedInteractive() { return reservedInteractive; }
+        public void setReservedInteractive(int reserved) { this.reservedInteractive = reserved; }
+        public int getMaxQueued() { return maxQueued; }
+        public void setMaxQueued(int maxQueued) { this.maxQueued = maxQueued; }
+    }
+
     // Getters and Setters
     public AgentConfig getAgents() { return agents; }
     public McpServersConfig getMcpServers() { return mcpServers; }
     public ToolsConfig getTools() { return tools; }
+    public LlmConfig getLlm() { return llm; }
     public String getWorkspacePath() { return workspacePath; }
     public void setWorkspacePath(String path) { this.workspacePath = path; }
     public String getDataPath() { return dataPath; }
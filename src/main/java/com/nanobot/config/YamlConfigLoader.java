@@ -49,6 +49,10 @@ public class YamlConfigLoader {
             parseTools(config, (Map<String, Object>) data.get("tools"));
         }
 
+        if (data.containsKey("llm")) {
+            parseLlm(config, (Map<String, Object>) data.get("llm"));
+        }
+
         if (data.containsKey("workspace")) {
             config.setWorkspacePath(String.valueOf(data.get("workspace")));
         }
@@ -129,6 +133,82 @@ public class YamlConfigLoader {
                 }
             }
         }
+
+        if (toolsData.get("hotReload") instanceof Map<?, ?> hotReloadData) {
+            NanobotConfig.HotReloadConfig hotReload = toolsConfig.getHotReload();
+            if (hotReloadData.containsKey("enabled")) {
+                hotReload.setEnabled(Boolean.parseBoolean(String.valueOf(hotReloadData.get("enabled"))));
+            }
+            if (hotReloadData.get("path") != null) {
+                hotReload.setPath(String.valueOf(hotReloadData.get("path")));
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void parseLlm(NanobotConfig config, Map<String, Object> llmData) {
+        if (llmData == null) return;
+
+        if (llmData.containsKey("hedging")) {
+            parseHedging(config, (Map<String, Object>) llmData.get("hedging"));
+        }
+        if (llmData.containsKey("batch")) {
+            parseBatch(config, (Map<String, Object>) llmData.get("batch"));
+        }
+        if (llmData.containsKey("scheduler")) {
+            parseScheduler(config, (Map<String, Object>) llmData.get("scheduler"));
+        }
+    }
+
+    private static void parseHedging(NanobotConfig config, Map<String, Object> hedgingData) {
+        NanobotConfig.HedgingConfig hedging = config.getLlm().getHedging();
+
+        if (hedgingData.containsKey("enabled")) {
+            hedging.setEnabled(Boolean.parseBoolean(String.valueOf(hedgingData.get("enabled"))));
+        }
+        if (hedgingData.containsKey("percentile")) {
+            hedging.setPercentile(((Number) hedgingData.get("percentile")).doubleValue());
+        }
+        if (hedgingData.containsKey("maxExtraPercent")) {
+            hedging.setMaxExtraPercent(((Number) hedgingData.get("maxExtraPercent")).doubleValue());
+        }
+        if (hedgingData.containsKey("minSamples")) {
+            hedging.setMinSamples(((Number) hedgingData.get("minSamples")).intValue());
+        }
+        if (hedgingData.containsKey("minDelayMs")) {
+            hedging.setMinDelayMs(((Number) hedgingData.get("minDelayMs")).longValue());
+        }
+    }
+
+    private static void parseBatch(NanobotConfig config, Map<String, Object> batchData) {
+        NanobotConfig.BatchConfig batch = config.getLlm().getBatch();
+
+        if (batchData.containsKey("enabled")) {
+            batch.setEnabled(Boolean.parseBoolean(String.valueOf(batchData.get("enabled"))));
+        }
+        if (batchData.containsKey("maxBatchSize")) {
+            batch.setMaxBatchSize(((Number) batchData.get("maxBatchSize")).intValue());
+        }
+        if (batchData.containsKey("maxWaitMs")) {
+            batch.setMaxWaitMs(((Number) batchData.get("maxWaitMs")).longValue());
+        }
+        if (batchData.containsKey("pollIntervalMs")) {
+            batch.setPollIntervalMs(((Number) batchData.get("pollIntervalMs")).longValue());
+        }
+    }
+
+    private static void parseScheduler(NanobotConfig config, Map<String, Object> schedulerData) {
+        NanobotConfig.SchedulerConfig scheduler = config.getLlm().getScheduler();
+
+        if (schedulerData.containsKey("maxConcurrent")) {
+            scheduler.setMaxConcurrent(((Number) schedulerData.get("maxConcurrent")).intValue());
+        }
+        if (schedulerData.containsKey("reservedInteractive")) {
+            scheduler.setReservedInteractive(((Number) schedulerData.get("reservedInteractive")).intValue());
+        }
+        if (schedulerData.containsKey("maxQueued")) {
+            scheduler.setMaxQueued(((Number) schedulerData.get("maxQueued")).intValue());
+        }
     }
 
     public static void save(NanobotConfig config, String path) {
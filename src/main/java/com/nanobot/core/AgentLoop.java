@@ -4,6 +4,8 @@ import com.nanobot.llm.LlmProvider;
 import com.nanobot.tool.ToolRegistry;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -19,6 +21,7 @@ public class AgentLoop {
     private final String model;
     private final int maxIterations;
     private volatile boolean running = false;
+    private volatile AgentScheduler scheduler;
     private ExecutorService virtualThreadPool;
 
     public AgentLoop(
@@ -40,6 +43,13 @@ public class AgentLoop {
         this.virtualThreadPool = Executors.newVirtualThreadPerTaskExecutor();
     }
 
+    /**
+     * Queue every LLM call through a scheduler shared with the other agent loops
+     */
+    public void setScheduler(AgentScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
     public void start() {
         this.running = true;
         // Subscribe to agent channel
@@ -90,65 +100,18 @@ public class AgentLoop {
      * Main agent processing loop
      */
     public String process(String sessionKey, String userMessage) {
-        // Add user message to context
-        contextManager.addMessage(sessionKey, "user", userMessage);
-
-        // Build conversation history
-        List<Map<String, String>> messages = contextManager.getMessages(sessionKey);
-
-        int iteration = 0;
-        String assistantResponse = null;
-
-        while (iteration < maxIterations) {
-            iteration++;
-
-            try {
-                // Call LLM
-                LlmProvider.LlmResponse response = llmProvider.complete(
-                    model,
-                    messages,
-                    getSystemPrompt()
-                );
-
-                assistantResponse = response.content();
-
-                // Check if assistant wants to use tools
-                if (response.toolCalls() != null && !response.toolCalls().isEmpty()) {
-                    // Process tool calls
-                    List<Map<String, Object>> toolResults = processToolCalls(
-                        sessionKey,
-                        response.toolCalls()
-                    );
-
-                    // Add tool results to conversation
-                    contextManager.addMessage(sessionKey, "assistant", assistantResponse);
-
-                    for (Map<String, Object> toolResult : toolResults) {
-                        contextManager.addMessage(
-                            sessionKey,
-                            "tool",
-                            String.valueOf(toolResult.get("result"))
-                        );
-                    }
+        CompletableFuture<String> future = processAsync(sessionKey, userMessage);
 
-                    // Continue loop with updated context
-                    messages = contextManager.getMessages(sessionKey);
-                } else {
-                    // No tools needed, add response and break
-                    contextManager.addMessage(sessionKey, "assistant", assistantResponse);
-                    break;
-                }
-
-            } catch (Exception e) {
-                return "Error processing request: " + e.getMessage();
-            }
-        }
-
-        if (assistantResponse == null) {
-            assistantResponse = "Max iterations reached without completion";
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            // Abort the in-flight LLM request along with the caller
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            return "Error processing request: interrupted";
+        } catch (ExecutionException e) {
+            return "Error processing request: " + rootCause(e).getMessage();
         }
-
-        return assistantResponse;
     }
 
     /**
@@ -201,12 +164,127 @@ public class AgentLoop {
     }
 
     /**
-     * Process message directly (for CLI use)
+     * Process message without blocking the caller, at the priority its session key implies.
+     * Cancelling the returned future cancels the in-flight LLM request or tool batch.
      */
     public CompletableFuture<String> processAsync(String sessionKey, String message) {
-        return CompletableFuture.supplyAsync(
-            () -> process(sessionKey, message),
-            virtualThreadPool
+        return processAsync(sessionKey, message, AgentScheduler.Priority.forSession(sessionKey));
+    }
+
+    /**
+     * Process message without blocking the caller; its LLM calls queue at the given priority
+     */
+    public CompletableFuture<String> processAsync(String sessionKey, String message,
+                                                  AgentScheduler.Priority priority) {
+        // Add user message to context
+        contextManager.addMessage(sessionKey, "user", message);
+
+        CompletableFuture<String> result = new CompletableFuture<>();
+        AtomicReference<Future<?>> inFlight = new AtomicReference<>();
+
+        result.whenComplete((response, error) -> {
+            Future<?> current = inFlight.get();
+            if (result.isCancelled() && current != null) {
+                current.cancel(true);
+            }
+        });
+
+        runIteration(sessionKey, priority, 1, null, result, inFlight);
+        return result;
+    }
+
+    /**
+     * One LLM round trip, followed by tool calls and the next iteration if requested
+     */
+    private void runIteration(String sessionKey, AgentScheduler.Priority priority,
+                              int iteration, String lastResponse,
+                              CompletableFuture<String> result,
+                              AtomicReference<Future<?>> inFlight) {
+        if (result.isDone()) return;
+
+        if (iteration > maxIterations) {
+            result.complete(lastResponse != null ? lastResponse : "Max iterations reached without completion");
+            return;
+        }
+
+        // Messages are read when the call starts, which may be after it waited in the scheduler
+        Supplier<CompletableFuture<LlmProvider.LlmResponse>> request = () -> llmProvider.completeAsync(
+            model,
+            contextManager.getMessages(sessionKey),
+            getSystemPrompt()
         );
+        AgentScheduler current = scheduler;
+        CompletableFuture<LlmProvider.LlmResponse> call = current != null
+            ? current.submit(priority, sessionKey, request)
+            : request.get();
+        inFlight.set(call);
+        if (result.isCancelled()) {
+            call.cancel(true);
+            return;
+        }
+
+        call.whenComplete((response, error) -> {
+            if (error != null) {
+                result.complete("Error processing request: " + rootCause(error).getMessage());
+                return;
+            }
+
+            String assistantResponse = response.content();
+
+            // No tools needed, add response and finish
+            if (response.toolCalls() == null || response.toolCalls().isEmpty()) {
+                contextManager.addMessage(sessionKey, "assistant", assistantResponse);
+                result.complete(assistantResponse);
+                return;
+            }
+
+            FutureTask<Void> toolTask = new FutureTask<>(() -> {
+                try {
+                    List<Map<String, Object>> toolResults = processToolCalls(
+                        sessionKey,
+                        response.toolCalls()
+                    );
+
+                    // Add tool results to conversation
+                    contextManager.addMessage(sessionKey, "assistant", assistantResponse);
+
+                    // A failed call shows the model why it failed, e.g. a timeout or a busy tool
+                    for (Map<String, Object> toolResult : toolResults) {
+                        contextManager.addMessage(
+                            sessionKey,
+                            "tool",
+                            Boolean.TRUE.equals(toolResult.get("success"))
+                                ? String.valueOf(toolResult.get("result"))
+                                : "Error: " + toolResult.get("error")
+                        );
+                    }
+
+                    // Continue loop with updated context
+                    runIteration(sessionKey, priority, iteration + 1, assistantResponse, result, inFlight);
+                } catch (Exception e) {
+                    result.complete("Error processing request: " + e.getMessage());
+                }
+            }, null);
+
+            inFlight.set(toolTask);
+            // A cancel that landed before the task was published never saw it
+            if (result.isCancelled()) {
+                toolTask.cancel(true);
+                return;
+            }
+            try {
+                virtualThreadPool.execute(toolTask);
+            } catch (RejectedExecutionException e) {
+                result.complete("Error processing request: agent loop stopped");
+            }
+        });
+    }
+
+    private static Throwable rootCause(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException)
+                && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
     }
 }
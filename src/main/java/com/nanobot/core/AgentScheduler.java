@@ -0,0 +1,307 @@
+package com.nanobot.core;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Agent Scheduler - Priority classes and fair queuing in front of LLM calls
+ * Every LLM round trip takes one of a global number of slots. When a slot
+ * frees, the class to serve (interactive, subagent, background) is chosen by
+ * weighted stride scheduling, then the call within it by start-time fair
+ * queuing across tenants, so one busy session cannot starve the others.
+ * Some slots are reserved for interactive calls, keeping live chat latency
+ * flat while cron jobs and subagents saturate the rest.
+ */
+public class AgentScheduler {
+    private static final int WAIT_WINDOW = 1024;
+
+    public enum Priority {
+        INTERACTIVE(8), SUBAGENT(3), BACKGROUND(1);
+
+        private final int weight;
+
+        Priority(int weight) {
+            this.weight = weight;
+        }
+
+        public int getWeight() { return weight; }
+
+        /**
+         * Class of a session key: cron jobs are background, subagent sessions are subagent
+         */
+        public static Priority forSession(String sessionKey) {
+            if (sessionKey == null) return INTERACTIVE;
+            if (sessionKey.startsWith("cron:")) return BACKGROUND;
+            if (sessionKey.startsWith("subagent-") || sessionKey.startsWith("sub_")) return SUBAGENT;
+            return INTERACTIVE;
+        }
+    }
+
+    private final int maxConcurrent;
+    private final int reservedInteractive;
+    private final int maxQueued;
+    private final ClassQueue[] queues = new ClassQueue[Priority.values().length];
+    private final Map<String, Double> tenantWeights = new ConcurrentHashMap<>();
+    private final AtomicInteger pumping = new AtomicInteger();
+    private volatile Function<String, String> tenantResolver = Function.identity();
+
+    private int running = 0;
+    private int sharedRunning = 0;
+    private double globalPass = 0;
+    private long sequence = 0;
+
+    public AgentScheduler() {
+        this(16, 4, 1000);
+    }
+
+    /**
+     * @param maxConcurrent       LLM calls in flight across all classes
+     * @param reservedInteractive slots that only interactive calls may use
+     * @param maxQueued           waiting calls per class before new ones are rejected
+     */
+    public AgentScheduler(int maxConcurrent, int reservedInteractive, int maxQueued) {
+        if (maxConcurrent < 1 || reservedInteractive < 0 || reservedInteractive >= maxConcurrent) {
+            throw new IllegalArgumentException("Need maxConcurrent >= 1 and 0 <= reservedInteractive < maxConcurrent");
+        }
+        this.maxConcurrent = maxConcurrent;
+        this.reservedInteractive = reservedInteractive;
+        this.maxQueued = maxQueued;
+        for (Priority priority : Priority.values()) {
+            queues[priority.ordinal()] = new ClassQueue(priority);
+        }
+    }
+
+    /**
+     * Map a session key to the tenant it is queued fairly against; defaults to the session itself
+     */
+    public void setTenantResolver(Function<String, String> tenantResolver) {
+        this.tenantResolver = tenantResolver;
+    }
+
+    /**
+     * Relative share of a tenant within its class; the default is 1
+     */
+    public void setTenantWeight(String tenant, double weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Tenant weight must be positive");
+        }
+        tenantWeights.put(tenant, weight);
+    }
+
+    /**
+     * Run an LLM call once a slot is free. Cancelling the returned future dequeues a
+     * waiting call or cancels a running one; a full class queue fails it immediately.
+     */
+    public <T> CompletableFuture<T> submit(Priority priority, String sessionKey,
+                                           Supplier<CompletableFuture<T>> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        String tenant = sessionKey != null ? tenantResolver.apply(sessionKey) : "";
+        Ticket ticket = new Ticket(priority, () -> start(call, result, priority));
+
+        synchronized (this) {
+            ClassQueue queue = queues[priority.ordinal()];
+            queue.submitted++;
+            if (queue.waiting.size() >= maxQueued) {
+                queue.rejected++;
+                return CompletableFuture.failedFuture(new RejectedExecutionException(
+                    "Agent scheduler queue full for " + priority.name().toLowerCase()));
+            }
+            if (queue.waiting.isEmpty()) {
+                // An idle class rejoins at the current pass instead of spending saved-up credit
+                queue.pass = Math.max(queue.pass, globalPass);
+            }
+            double weight = tenantWeights.getOrDefault(tenant, 1.0);
+            ticket.tag = Math.max(queue.virtualTime, queue.flowFinish.getOrDefault(tenant, 0.0));
+            ticket.seq = sequence++;
+            queue.flowFinish.put(tenant, ticket.tag + 1.0 / weight);
+            queue.waiting.add(ticket);
+        }
+
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                dequeue(ticket);
+            }
+        });
+        pump();
+        return result;
+    }
+
+    private synchronized void dequeue(Ticket ticket) {
+        ClassQueue queue = queues[ticket.priority.ordinal()];
+        if (queue.waiting.remove(ticket)) {
+            queue.cancelled++;
+        }
+    }
+
+    private <T> void start(Supplier<CompletableFuture<T>> call, CompletableFuture<T> result, Priority priority) {
+        if (result.isDone()) {
+            release(priority);
+            return;
+        }
+
+        CompletableFuture<T> inner;
+        try {
+            inner = call.get();
+        } catch (Exception e) {
+            inner = CompletableFuture.failedFuture(e);
+        }
+
+        CompletableFuture<T> started = inner;
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                started.cancel(true);
+            }
+        });
+        started.whenComplete((value, error) -> {
+            release(priority);
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                result.complete(value);
+            }
+        });
+    }
+
+    private void release(Priority priority) {
+        synchronized (this) {
+            running--;
+            if (priority != Priority.INTERACTIVE) sharedRunning--;
+            ClassQueue queue = queues[priority.ordinal()];
+            queue.running--;
+            queue.completed++;
+        }
+        pump();
+    }
+
+    /**
+     * Start waiting calls while slots allow; completions that arrive while pumping loop here instead of recursing
+     */
+    private void pump() {
+        if (pumping.getAndIncrement() != 0) return;
+        do {
+            Ticket ticket;
+            while ((ticket = next()) != null) {
+                ticket.start.run();
+            }
+        } while (pumping.decrementAndGet() != 0);
+    }
+
+    /**
+     * Take a slot for the next call to run, or null if none can start
+     */
+    private synchronized Ticket next() {
+        if (running >= maxConcurrent) return null;
+
+        ClassQueue chosen = null;
+        for (ClassQueue queue : queues) {
+            if (queue.waiting.isEmpty() || !canStart(queue.priority)) continue;
+            if (chosen == null || queue.pass < chosen.pass) {
+                chosen = queue;
+            }
+        }
+        if (chosen == null) return null;
+
+        Ticket ticket = chosen.waiting.poll();
+        globalPass = chosen.pass;
+        chosen.pass += 1.0 / chosen.priority.weight;
+        chosen.virtualTime = ticket.tag;
+        if (chosen.waiting.isEmpty()) {
+            // Every tenant is caught up, so the finish tags carry no information any more
+            chosen.flowFinish.clear();
+        }
+
+        running++;
+        if (chosen.priority != Priority.INTERACTIVE) sharedRunning++;
+        chosen.running++;
+        chosen.recordWait(System.currentTimeMillis() - ticket.enqueuedAt);
+        return ticket;
+    }
+
+    private boolean canStart(Priority priority) {
+        return priority == Priority.INTERACTIVE || sharedRunning < maxConcurrent - reservedInteractive;
+    }
+
+    /**
+     * Get scheduler statistics, with queue depth and wait percentiles per class
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("maxConcurrent", maxConcurrent);
+        stats.put("reservedInteractive", reservedInteractive);
+        stats.put("running", running);
+
+        Map<String, Object> classes = new TreeMap<>();
+        for (ClassQueue queue : queues) {
+            classes.put(queue.priority.name().toLowerCase(), queue.getStats());
+        }
+        stats.put("classes", classes);
+        return stats;
+    }
+
+    private static class Ticket {
+        private final Priority priority;
+        private final Runnable start;
+        private final long enqueuedAt = System.currentTimeMillis();
+        private double tag;
+        private long seq;
+
+        Ticket(Priority priority, Runnable start) {
+            this.priority = priority;
+            this.start = start;
+        }
+    }
+
+    private static class ClassQueue {
+        private final Priority priority;
+        private final PriorityQueue<Ticket> waiting = new PriorityQueue<>(
+            Comparator.comparingDouble((Ticket ticket) -> ticket.tag).thenComparingLong(ticket -> ticket.seq));
+        private final Map<String, Double> flowFinish = new HashMap<>();
+        private final long[] waits = new long[WAIT_WINDOW];
+        private int waitCount = 0;
+        private int waitIndex = 0;
+        private double pass = 0;
+        private double virtualTime = 0;
+        private int running = 0;
+        private long submitted = 0;
+        private long completed = 0;
+        private long rejected = 0;
+        private long cancelled = 0;
+
+        ClassQueue(Priority priority) {
+            this.priority = priority;
+        }
+
+        void recordWait(long waitMs) {
+            waits[waitIndex] = waitMs;
+            waitIndex = (waitIndex + 1) % WAIT_WINDOW;
+            waitCount = Math.min(waitCount + 1, WAIT_WINDOW);
+        }
+
+        long waitPercentile(long[] sorted, double percentile) {
+            if (sorted.length == 0) return 0;
+            int index = (int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1);
+            return sorted[Math.max(0, index)];
+        }
+
+        Map<String, Object> getStats() {
+            long[] sorted = Arrays.copyOf(waits, waitCount);
+            Arrays.sort(sorted);
+
+            Map<String, Object> stats = new HashMap<>();
+            stats.put("weight", priority.weight);
+            stats.put("queued", waiting.size());
+            stats.put("running", running);
+            stats.put("submitted", submitted);
+            stats.put("completed", completed);
+            stats.put("rejected", rejected);
+            stats.put("cancelled", cancelled);
+            stats.put("waitP50Ms", waitPercentile(sorted, 0.50));
+            stats.put("waitP95Ms", waitPercentile(sorted, 0.95));
+            stats.put("waitMaxMs", sorted.length > 0 ? sorted[sorted.length - 1] : 0);
+            return stats;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.nanobot.core;
 
+import com.nanobot.llm.TokenCounter;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.stream.Collectors;
@@ -50,6 +51,7 @@ public class ContextManager {
         private final String role;
         private final String content;
         private final long timestamp;
+        private int tokens = -1;
 
         public ContextMessage(String role, String content) {
             this.role = role;
@@ -69,8 +71,11 @@ public class ContextManager {
         }
 
         public int estimateTokens() {
-            // Rough estimate: 4 characters per token
-            return content.length() / 4;
+            // Counted once; pruning re-sums every message on each add
+            if (tokens < 0) {
+                tokens = TokenCounter.countTokens(content);
+            }
+            return tokens;
         }
     }
 
@@ -108,6 +113,13 @@ public class ContextManager {
         sessions.remove(sessionKey);
     }
 
+    /**
+     * Clear every session whose key starts with the prefix, e.g. an isolated subagent's namespace
+     */
+    public void clearNamespace(String prefix) {
+        sessions.keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
     /**
      * Get session info
      */
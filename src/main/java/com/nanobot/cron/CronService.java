@@ -5,6 +5,7 @@ import java.nio.file.*;
 import java.time.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 /**
  * Cron Service - Scheduled task execution
@@ -59,13 +60,23 @@ public class CronService {
     private void scheduleJob(CronJob job) {
         if (!running) return;
 
+        // The scheduler thread only triggers; a run may wait hours on a batch job
+        AtomicBoolean executing = new AtomicBoolean(false);
         Runnable task = () -> {
-            try {
-                CronJob.ExecutedJob result = executor.execute(job);
-                System.out.println("Cron job executed: " + job.getName());
-            } catch (Exception e) {
-                System.err.println("Cron job failed: " + job.getName() + " - " + e.getMessage());
+            if (!executing.compareAndSet(false, true)) {
+                System.err.println("Cron job still running, skipping: " + job.getName());
+                return;
             }
+            Thread.startVirtualThread(() -> {
+                try {
+                    CronJob.ExecutedJob result = executor.execute(job);
+                    System.out.println("Cron job executed: " + job.getName());
+                } catch (Exception e) {
+                    System.err.println("Cron job failed: " + job.getName() + " - " + e.getMessage());
+                } finally {
+                    executing.set(false);
+                }
+            });
         };
 
         long initialDelay = calculateInitialDelay(job.getSchedule());
@@ -5,12 +5,14 @@ import java.net.*;
 import java.net.http.*;
 import java.time.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Anthropic Provider - Claude models integration
  */
-public class AnthropicProvider implements LlmProvider {
+public class AnthropicProvider implements BatchProvider {
     private static final String ANTHROPIC_API_URL = "https://api.anthropic.com/v1/messages";
+    private static final String ANTHROPIC_BATCHES_URL = "https://api.anthropic.com/v1/messages/batches";
     private static final Set<String> ANTHROPIC_MODELS = Set.of(
         "claude-3-5-sonnet-latest", "claude-3-5-sonnet-20241022",
         "claude-3-opus-latest", "claude-3-opus-20240229",
@@ -40,58 +42,99 @@ public class AnthropicProvider implements LlmProvider {
                                           String systemPrompt,
                                           List<Map<String, Object>> tools) {
         try {
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("model", model);
-            requestBody.put("max_tokens", 4096);
-            requestBody.put("temperature", 0.7);
+            HttpRequest request = buildRequest(model, messages, systemPrompt, tools, 0);
 
-            // Build messages (Anthropic format)
-            List<Map<String, String>> allMessages = new ArrayList<>();
+            HttpResponse<String> response = client.send(request,
+                HttpResponse.BodyHandlers.ofString());
 
-            if (systemPrompt != null && !systemPrompt.isEmpty()) {
-                allMessages.add(Map.of("role", "user", "content", systemPrompt));
-            }
+            return handleResponse(response);
 
-            // Convert to Anthropic format
-            for (Map<String, String> msg : messages) {
-                String role = msg.getOrDefault("role", "user");
-                // Anthropic only supports user/assistant
-                if ("system".equals(role)) {
-                    role = "user";
-                }
-                allMessages.add(Map.of("role", role, "content", msg.getOrDefault("content", "")));
-            }
+        } catch (Exception e) {
+            throw new RuntimeException("Anthropic request failed: " + e.getMessage());
+        }
+    }
 
-            requestBody.put("messages", allMessages);
+    @Override
+    public CompletableFuture<LlmResponse> completeWithToolsAsync(String model,
+                                                                  List<Map<String, String>> messages,
+                                                                  String systemPrompt,
+                                                                  List<Map<String, Object>> tools) {
+        return completeWithToolsAsync(model, messages, systemPrompt, tools, 0);
+    }
 
-            // Add tools if provided
-            if (tools != null && !tools.isEmpty()) {
-                requestBody.put("tools", convertTools(tools));
-            }
+    @Override
+    public CompletableFuture<LlmResponse> completeWithToolsAsync(String model,
+                                                                  List<Map<String, String>> messages,
+                                                                  String systemPrompt,
+                                                                  List<Map<String, Object>> tools,
+                                                                  int maxOutputTokens) {
+        try {
+            HttpRequest request = buildRequest(model, messages, systemPrompt, tools, maxOutputTokens);
+            return AsyncExchange.send(client, request, this::handleResponse, "Anthropic request failed: ");
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(
+                new RuntimeException("Anthropic request failed: " + e.getMessage()));
+        }
+    }
 
-            String jsonBody = toJson(requestBody);
+    private HttpRequest buildRequest(String model, List<Map<String, String>> messages,
+                                     String systemPrompt, List<Map<String, Object>> tools,
+                                     int maxOutputTokens) {
+        Map<String, Object> requestBody = buildRequestBody(model, messages, systemPrompt, tools, maxOutputTokens);
 
-            HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(ANTHROPIC_API_URL))
-                .header("Content-Type", "application/json")
-                .header("x-api-key", apiKey)
-                .header("anthropic-version", "2023-06-01")
-                .timeout(Duration.ofSeconds(120))
-                .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
-                .build();
+        String jsonBody = toJson(requestBody);
 
-            HttpResponse<String> response = client.send(request,
-                HttpResponse.BodyHandlers.ofString());
+        return HttpRequest.newBuilder()
+            .uri(URI.create(ANTHROPIC_API_URL))
+            .header("Content-Type", "application/json")
+            .header("x-api-key", apiKey)
+            .header("anthropic-version", "2023-06-01")
+            .timeout(Duration.ofSeconds(120))
+            .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
+            .build();
+    }
+
+    private Map<String, Object> buildRequestBody(String model, List<Map<String, String>> messages,
+                                                 String systemPrompt, List<Map<String, Object>> tools,
+                                                 int maxOutputTokens) {
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("model", model);
+        requestBody.put("max_tokens", maxOutputTokens > 0 ? maxOutputTokens : 4096);
+        requestBody.put("temperature", 0.7);
+
+        // Build messages (Anthropic format)
+        List<Map<String, String>> allMessages = new ArrayList<>();
+
+        if (systemPrompt != null && !systemPrompt.isEmpty()) {
+            allMessages.add(Map.of("role", "user", "content", systemPrompt));
+        }
 
-            if (response.statusCode() != 200) {
-                throw new RuntimeException("Anthropic API error: " + response.body());
+        // Convert to Anthropic format
+        for (Map<String, String> msg : messages) {
+            String role = msg.getOrDefault("role", "user");
+            // Anthropic only supports user/assistant
+            if ("system".equals(role)) {
+                role = "user";
             }
+            allMessages.add(Map.of("role", role, "content", msg.getOrDefault("content", "")));
+        }
 
-            return parseResponse(response.body());
+        requestBody.put("messages", allMessages);
 
-        } catch (Exception e) {
-            throw new RuntimeException("Anthropic request failed: " + e.getMessage());
+        // Add tools if provided
+        if (tools != null && !tools.isEmpty()) {
+            requestBody.put("tools", convertTools(tools));
+        }
+
+        return requestBody;
+    }
+
+    private LlmResponse handleResponse(HttpResponse<String> response) {
+        if (response.statusCode() != 200) {
+            throw new RuntimeException("Anthropic API error: " + response.body());
         }
+
+        return parseResponse(response.body());
     }
 
     @Override
@@ -124,10 +167,13 @@ public class AnthropicProvider implements LlmProvider {
         return result;
     }
 
-    @SuppressWarnings("unchecked")
     private LlmResponse parseResponse(String json) {
+        return parseResponse(parseJson(json));
+    }
+
+    @SuppressWarnings("unchecked")
+    private LlmResponse parseResponse(Map<String, Object> response) {
         try {
-            Map<String, Object> response = parseJson(json);
             List<Map<String, Object>> content = (List<Map<String, Object>>) response.get("content");
 
             if (content == null || content.isEmpty()) {
@@ -151,7 +197,10 @@ public class AnthropicProvider implements LlmProvider {
             }
 
             Map<String, Object> usage = (Map<String, Object>) response.get("usage");
-            int tokens = usage != null ? (Integer) usage.getOrDefault("output_tokens", 0) : 0;
+            // Prompt plus reply, the total the other providers report
+            int tokens = usage != null
+                ? (Integer) usage.getOrDefault("input_tokens", 0) + (Integer) usage.getOrDefault("output_tokens", 0)
+                : 0;
 
             return new LlmResponse(contentBuilder.toString(), toolCalls, tokens);
 
@@ -160,6 +209,96 @@ public class AnthropicProvider implements LlmProvider {
         }
     }
 
+    @Override
+    public String submitBatch(List<BatchRequest> requests) {
+        try {
+            List<Map<String, Object>> entries = new ArrayList<>();
+            for (BatchRequest request : requests) {
+                Map<String, Object> entry = new HashMap<>();
+                entry.put("custom_id", request.customId());
+                entry.put("params", buildRequestBody(request.model(), request.messages(),
+                    request.systemPrompt(), request.tools(), request.maxOutputTokens()));
+                entries.add(entry);
+            }
+
+            HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(ANTHROPIC_BATCHES_URL))
+                .header("Content-Type", "application/json")
+                .header("x-api-key", apiKey)
+                .header("anthropic-version", "2023-06-01")
+                .timeout(Duration.ofSeconds(120))
+                .POST(HttpRequest.BodyPublishers.ofString(toJson(Map.of("requests", entries))))
+                .build();
+            return (String) parseJson(sendChecked(request)).get("id");
+
+        } catch (Exception e) {
+            throw new RuntimeException("Anthropic batch submit failed: " + e.getMessage());
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<BatchResult> fetchBatchResults(String batchId) {
+        try {
+            Map<String, Object> batch = parseJson(sendChecked(HttpRequest.newBuilder()
+                .uri(URI.create(ANTHROPIC_BATCHES_URL + "/" + batchId))
+                .header("x-api-key", apiKey)
+                .header("anthropic-version", "2023-06-01")
+                .timeout(Duration.ofSeconds(60))
+                .GET()
+                .build()));
+
+            if (!"ended".equals(batch.get("processing_status"))) {
+                return null;
+            }
+
+            Object resultsUrl = batch.get("results_url");
+            if (!(resultsUrl instanceof String)) {
+                throw new BatchFailedException("Anthropic batch " + batchId + " ended without results");
+            }
+
+            String body = sendChecked(HttpRequest.newBuilder()
+                .uri(URI.create((String) resultsUrl))
+                .header("x-api-key", apiKey)
+                .header("anthropic-version", "2023-06-01")
+                .timeout(Duration.ofSeconds(120))
+                .GET()
+                .build());
+
+            List<BatchResult> results = new ArrayList<>();
+            for (String line : body.split("\n")) {
+                if (line.isBlank()) continue;
+                Map<String, Object> entry = parseJson(line);
+                String customId = (String) entry.get("custom_id");
+                Map<String, Object> result = (Map<String, Object>) entry.get("result");
+                String type = result != null ? String.valueOf(result.get("type")) : "missing";
+
+                if ("succeeded".equals(type)) {
+                    results.add(new BatchResult(customId,
+                        parseResponse((Map<String, Object>) result.get("message")), null));
+                } else {
+                    Object detail = result != null && result.get("error") != null ? result.get("error") : type;
+                    results.add(new BatchResult(customId, null, "Anthropic batch " + type + ": " + toJson(detail)));
+                }
+            }
+            return results;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Anthropic batch poll interrupted");
+        } catch (IOException e) {
+            throw new RuntimeException("Anthropic batch poll failed: " + e.getMessage());
+        }
+    }
+
+    private String sendChecked(HttpRequest request) throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new RuntimeException("Anthropic API error: " + response.body());
+        }
+        return response.body();
+    }
+
     private String toJson(Object obj) {
         try {
             com.fasterxml.jackson.databind.ObjectMapper mapper =
@@ -0,0 +1,51 @@
+package com.nanobot.llm;
+
+import java.net.http.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * Async Exchange - Non-blocking HTTP calls for providers
+ * Cancelling the returned future aborts the underlying HTTP exchange.
+ */
+final class AsyncExchange {
+
+    private AsyncExchange() {}
+
+    static <T> CompletableFuture<T> send(HttpClient client, HttpRequest request,
+                                         Function<HttpResponse<String>, T> handler,
+                                         String errorPrefix) {
+        CompletableFuture<HttpResponse<String>> exchange =
+            client.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+        CompletableFuture<T> result = new CompletableFuture<>();
+
+        exchange.whenComplete((response, error) -> {
+            if (error != null) {
+                result.completeExceptionally(new RuntimeException(errorPrefix + unwrap(error).getMessage()));
+                return;
+            }
+            try {
+                result.complete(handler.apply(response));
+            } catch (Exception e) {
+                result.completeExceptionally(new RuntimeException(errorPrefix + e.getMessage()));
+            }
+        });
+
+        // Dependent stages never propagate cancellation upstream, so do it here
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                exchange.cancel(true);
+            }
+        });
+
+        return result;
+    }
+
+    static Throwable unwrap(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException)
+                && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+}
@@ -0,0 +1,47 @@
+package com.nanobot.llm;
+
+import java.util.*;
+
+/**
+ * Batch Provider - Provider-side asynchronous batch jobs
+ * Implemented by providers with a discounted batch endpoint.
+ */
+public interface BatchProvider extends LlmProvider {
+    record BatchRequest(
+        String customId,
+        String model,
+        List<Map<String, String>> messages,
+        String systemPrompt,
+        List<Map<String, Object>> tools,
+        int maxOutputTokens
+    ) {}
+
+    record BatchResult(
+        String customId,
+        LlmResponse response,
+        String error
+    ) {}
+
+    /**
+     * Submit a batch job and return its id
+     */
+    String submitBatch(List<BatchRequest> requests);
+
+    /**
+     * The provider reports the batch itself as failed, expired without output, or cancelled
+     */
+    class BatchFailedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public BatchFailedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Fetch results of a finished batch, or null while it is still running.
+     * Throws BatchFailedException if the batch will never produce results;
+     * any other exception is a failed poll and may be retried.
+     */
+    List<BatchResult> fetchBatchResults(String batchId);
+}
@@ -0,0 +1,255 @@
+package com.nanobot.llm;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Batching Provider - Routes latency-insensitive calls through batch jobs
+ * Requests are collected until the batch is full or the wait window closes,
+ * submitted as one provider batch job, and polled until their results arrive.
+ * A failed poll is retried with backoff, since the batch keeps running (and
+ * is billed) either way; futures fail only when the provider reports the batch
+ * failed, or after too many polls in a row have failed.
+ * Intended for cron and bulk subagent work, not interactive chat.
+ */
+public class BatchingProvider implements LlmProvider {
+    private static final int MAX_POLL_FAILURES = 20;
+    private static final long MAX_POLL_BACKOFF_MS = TimeUnit.MINUTES.toMillis(15);
+
+    private final BatchProvider delegate;
+    private final int maxBatchSize;
+    private final long maxWaitMs;
+    private final long pollIntervalMs;
+    private final ScheduledExecutorService scheduler;
+
+    private final List<PendingRequest> pending = new ArrayList<>();
+    private final Map<String, InFlightBatch> inFlight = new ConcurrentHashMap<>();
+    private ScheduledFuture<?> flushTimer;
+
+    private final AtomicLong requestCounter = new AtomicLong();
+    private final AtomicLong batchesSubmitted = new AtomicLong();
+    private final AtomicLong batchesFailed = new AtomicLong();
+    private final AtomicLong requestsCompleted = new AtomicLong();
+    private final AtomicLong pollFailures = new AtomicLong();
+
+    private record PendingRequest(BatchProvider.BatchRequest request, CompletableFuture<LlmResponse> future) {}
+
+    /**
+     * A submitted batch; only the poller thread touches the failure count and next poll time
+     */
+    private static class InFlightBatch {
+        private final Map<String, CompletableFuture<LlmResponse>> futures;
+        private int consecutiveFailures = 0;
+        private long nextPollAt = 0;
+
+        InFlightBatch(Map<String, CompletableFuture<LlmResponse>> futures) {
+            this.futures = futures;
+        }
+    }
+
+    public BatchingProvider(BatchProvider provider) {
+        this(provider, 1000, TimeUnit.MINUTES.toMillis(1), TimeUnit.MINUTES.toMillis(1));
+    }
+
+    public BatchingProvider(BatchProvider provider, int maxBatchSize, long maxWaitMs, long pollIntervalMs) {
+        this.delegate = provider;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitMs = maxWaitMs;
+        this.pollIntervalMs = pollIntervalMs;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "batch-poller");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::pollBatches, pollIntervalMs, pollIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public LlmResponse complete(String model, List<Map<String, String>> messages, String systemPrompt) {
+        return completeWithTools(model, messages, systemPrompt, null);
+    }
+
+    @Override
+    public LlmResponse completeWithTools(String model, List<Map<String, String>> messages,
+                                         String systemPrompt, List<Map<String, Object>> tools) {
+        CompletableFuture<LlmResponse> future = completeWithToolsAsync(model, messages, systemPrompt, tools);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Batch request interrupted");
+        } catch (ExecutionException e) {
+            throw new RuntimeException(AsyncExchange.unwrap(e).getMessage());
+        }
+    }
+
+    @Override
+    public CompletableFuture<LlmResponse> completeWithToolsAsync(String model, List<Map<String, String>> messages,
+                                                                 String systemPrompt,
+                                                                 List<Map<String, Object>> tools) {
+        return completeWithToolsAsync(model, messages, systemPrompt, tools, 0);
+    }
+
+    @Override
+    public CompletableFuture<LlmResponse> completeWithToolsAsync(String model, List<Map<String, String>> messages,
+                                                                 String systemPrompt,
+                                                                 List<Map<String, Object>> tools,
+                                                                 int maxOutputTokens) {
+        String customId = "req_" + requestCounter.incrementAndGet();
+        CompletableFuture<LlmResponse> future = new CompletableFuture<>();
+        BatchProvider.BatchRequest request = new BatchProvider.BatchRequest(
+            customId, model, List.copyOf(messages), systemPrompt, tools, maxOutputTokens);
+
+        boolean full;
+        synchronized (pending) {
+            pending.add(new PendingRequest(request, future));
+            full = pending.size() >= maxBatchSize;
+            if (!full && flushTimer == null) {
+                flushTimer = scheduler.schedule(this::flush, maxWaitMs, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        if (full) {
+            flush();
+        }
+
+        return future;
+    }
+
+    /**
+     * Submit everything collected so far as one batch job
+     */
+    public void flush() {
+        List<PendingRequest> batch;
+        synchronized (pending) {
+            if (flushTimer != null) {
+                flushTimer.cancel(false);
+                flushTimer = null;
+            }
+            // Requests cancelled while waiting are simply dropped
+            batch = pending.stream().filter(p -> !p.future().isDone()).toList();
+            pending.clear();
+        }
+
+        if (batch.isEmpty()) return;
+
+        Thread.startVirtualThread(() -> {
+            try {
+                String batchId = delegate.submitBatch(batch.stream().map(PendingRequest::request).toList());
+
+                Map<String, CompletableFuture<LlmResponse>> futures = new ConcurrentHashMap<>();
+                for (PendingRequest p : batch) {
+                    futures.put(p.request().customId(), p.future());
+                }
+                inFlight.put(batchId, new InFlightBatch(futures));
+                batchesSubmitted.incrementAndGet();
+
+            } catch (Exception e) {
+                batchesFailed.incrementAndGet();
+                RuntimeException error = new RuntimeException(
+                    delegate.getName() + " batch submission failed: " + e.getMessage());
+                batch.forEach(p -> p.future().completeExceptionally(error));
+            }
+        });
+    }
+
+    private void pollBatches() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, InFlightBatch> entry : inFlight.entrySet()) {
+            String batchId = entry.getKey();
+            InFlightBatch batch = entry.getValue();
+            Map<String, CompletableFuture<LlmResponse>> futures = batch.futures;
+            if (now < batch.nextPollAt) continue;
+
+            try {
+                List<BatchProvider.BatchResult> results = delegate.fetchBatchResults(batchId);
+                batch.consecutiveFailures = 0;
+                if (results == null) continue;
+
+                for (BatchProvider.BatchResult result : results) {
+                    CompletableFuture<LlmResponse> future = futures.remove(result.customId());
+                    if (future == null) continue;
+
+                    if (result.error() != null) {
+                        future.completeExceptionally(new RuntimeException(result.error()));
+                    } else {
+                        future.complete(result.response());
+                    }
+                    requestsCompleted.incrementAndGet();
+                }
+
+                failAll(futures, "No result returned for request in batch " + batchId);
+                inFlight.remove(batchId);
+
+            } catch (BatchProvider.BatchFailedException e) {
+                batchesFailed.incrementAndGet();
+                failAll(futures, delegate.getName() + " batch " + batchId + " failed: " + e.getMessage());
+                inFlight.remove(batchId);
+
+            } catch (Exception e) {
+                // The batch is still running upstream; a 5xx or timeout on the poll must not discard it
+                pollFailures.incrementAndGet();
+                int failures = ++batch.consecutiveFailures;
+                if (failures >= MAX_POLL_FAILURES) {
+                    batchesFailed.incrementAndGet();
+                    failAll(futures, delegate.getName() + " batch " + batchId + " unreachable after "
+                        + failures + " failed polls: " + e.getMessage());
+                    inFlight.remove(batchId);
+                } else {
+                    long backoff = Math.min(MAX_POLL_BACKOFF_MS, pollIntervalMs << Math.min(failures, 20));
+                    batch.nextPollAt = now + backoff;
+                    System.err.println("Polling " + delegate.getName() + " batch " + batchId + " failed ("
+                        + failures + "/" + MAX_POLL_FAILURES + "), retrying in " + backoff + "ms: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void failAll(Map<String, CompletableFuture<LlmResponse>> futures, String message) {
+        RuntimeException error = new RuntimeException(message);
+        futures.values().forEach(f -> f.completeExceptionally(error));
+        futures.clear();
+    }
+
+    /**
+     * Stop polling and fail anything still waiting
+     */
+    public void stop() {
+        scheduler.shutdownNow();
+        synchronized (pending) {
+            pending.forEach(p -> p.future().completeExceptionally(new RuntimeException("Batching stopped")));
+            pending.clear();
+        }
+        inFlight.values().forEach(batch -> failAll(batch.futures, "Batching stopped"));
+        inFlight.clear();
+    }
+
+    @Override
+    public boolean supportsModel(String model) {
+        return delegate.supportsModel(model);
+    }
+
+    @Override
+    public String getName() {
+        return delegate.getName() + " (batch)";
+    }
+
+    /**
+     * Get batching statistics
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        synchronized (pending) {
+            stats.put("pendingRequests", pending.size());
+        }
+        stats.put("inFlightBatches", inFlight.size());
+        stats.put("inFlightRequests", inFlight.values().stream().mapToInt(batch -> batch.futures.size()).sum());
+        stats.put("batchesSubmitted", batchesSubmitted.get());
+        stats.put("batchesFailed", batchesFailed.get());
+        stats.put("requestsCompleted", requestsCompleted.get());
+        stats.put("pollFailures", pollFailures.get());
+        return stats;
+    }
+}
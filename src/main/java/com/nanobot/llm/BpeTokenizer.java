@@ -0,0 +1,336 @@
+package com.nanobot.llm;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.regex.*;
+
+/**
+ * BPE Tokenizer - Exact byte-pair-encoding token counts
+ * Loads tiktoken-format vocabularies (cl100k_base, o200k_base) and counts
+ * tokens without materializing the encoded ids.
+ *
+ * Vocabulary files are looked up on the classpath under /tokenizers/ and then
+ * under ~/.nanobot/tokenizers/, e.g. tokenizers/cl100k_base.tiktoken.
+ */
+public class BpeTokenizer implements TokenCounter.Tokenizer {
+    public static final String CL100K_BASE = "cl100k_base";
+    public static final String O200K_BASE = "o200k_base";
+
+    private static final String CL100K_PATTERN =
+        "(?i:'s|'t|'re|'ve|'m|'ll|'d)|[^\\r\\n\\p{L}\\p{N}]?\\p{L}+|\\p{N}{1,3}"
+            + "| ?[^\\s\\p{L}\\p{N}]+[\\r\\n]*|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+";
+
+    private static final String O200K_PATTERN =
+        "[^\\r\\n\\p{L}\\p{N}]?[\\p{Lu}\\p{Lt}\\p{Lm}\\p{Lo}\\p{M}]*[\\p{Ll}\\p{Lm}\\p{Lo}\\p{M}]+(?i:'s|'t|'re|'ve|'m|'ll|'d)?"
+            + "|[^\\r\\n\\p{L}\\p{N}]?[\\p{Lu}\\p{Lt}\\p{Lm}\\p{Lo}\\p{M}]+[\\p{Ll}\\p{Lm}\\p{Lo}\\p{M}]*(?i:'s|'t|'re|'ve|'m|'ll|'d)?"
+            + "|\\p{N}{1,3}| ?[^\\s\\p{L}\\p{N}]+[\\r\\n/]*|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+";
+
+    private static final int NO_RANK = Integer.MAX_VALUE;
+    private static final int DEFAULT_CACHE_SIZE = 4096;
+
+    private final String name;
+    private final Pattern pattern;
+    private final MergeTable ranks;
+    private final Map<String, Integer> cache;
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+
+    public BpeTokenizer(String name, String pattern, MergeTable ranks) {
+        this(name, pattern, ranks, DEFAULT_CACHE_SIZE);
+    }
+
+    public BpeTokenizer(String name, String pattern, MergeTable ranks, int cacheSize) {
+        this.name = name;
+        this.pattern = Pattern.compile(pattern, Pattern.UNICODE_CHARACTER_CLASS);
+        this.ranks = ranks;
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<>(cacheSize, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                return size() > cacheSize;
+            }
+        });
+    }
+
+    /**
+     * Load a bundled or user-provided vocabulary, or null if none is available.
+     * A vocabulary that exists but cannot be read or parsed is an IOException.
+     */
+    public static BpeTokenizer load(String encoding) throws IOException {
+        String fileName = encoding + ".tiktoken";
+
+        try (InputStream is = BpeTokenizer.class.getResourceAsStream("/tokenizers/" + fileName)) {
+            if (is != null) {
+                return fromTiktoken(encoding, is);
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed vocabulary " + fileName + ": " + e.getMessage(), e);
+        }
+
+        Path userPath = Paths.get(System.getProperty("user.home"), ".nanobot", "tokenizers", fileName);
+        if (!Files.isRegularFile(userPath)) {
+            return null;
+        }
+
+        try (InputStream is = Files.newInputStream(userPath)) {
+            return fromTiktoken(encoding, is);
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed vocabulary " + userPath + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Parse a tiktoken file: one "base64(token) rank" pair per line
+     */
+    public static BpeTokenizer fromTiktoken(String encoding, InputStream in) throws IOException {
+        List<byte[]> tokens = new ArrayList<>();
+        List<Integer> tokenRanks = new ArrayList<>();
+        Base64.Decoder decoder = Base64.getDecoder();
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+                int space = line.indexOf(' ');
+                if (space <= 0) {
+                    throw new IOException("Malformed vocabulary line: " + line);
+                }
+                tokens.add(decoder.decode(line.substring(0, space)));
+                tokenRanks.add(Integer.parseInt(line.substring(space + 1).trim()));
+            }
+        }
+
+        String pattern = O200K_BASE.equals(encoding) ? O200K_PATTERN : CL100K_PATTERN;
+        return new BpeTokenizer(encoding, pattern, new MergeTable(tokens, tokenRanks));
+    }
+
+    @Override
+    public int countTokens(String text) {
+        if (text == null || text.isEmpty()) return 0;
+
+        Integer cached = cache.get(text);
+        if (cached != null) {
+            cacheHits.incrementAndGet();
+            return cached;
+        }
+        cacheMisses.incrementAndGet();
+
+        int count = countUncached(text);
+        cache.put(text, count);
+        return count;
+    }
+
+    @Override
+    public int countTokens(List<String> texts) {
+        if (texts == null || texts.isEmpty()) return 0;
+        return texts.stream().mapToInt(this::countTokens).sum();
+    }
+
+    private int countUncached(String text) {
+        Scratch scratch = new Scratch();
+        Matcher matcher = pattern.matcher(text);
+        int count = 0;
+
+        while (matcher.find()) {
+            int len = scratch.encode(text, matcher.start(), matcher.end());
+            if (len == 0) continue;
+
+            if (ranks.rank(scratch.bytes, 0, len) != NO_RANK) {
+                count++;
+            } else {
+                count += mergeCount(scratch, len);
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Apply merges lowest-rank first and return the number of resulting parts
+     */
+    private int mergeCount(Scratch scratch, int len) {
+        if (len == 1) return 1;
+
+        byte[] piece = scratch.bytes;
+        int[] starts = scratch.starts(len + 1);
+        int[] partRanks = scratch.ranks(len + 1);
+
+        for (int i = 0; i <= len; i++) {
+            starts[i] = i;
+        }
+        for (int i = 0; i < len - 1; i++) {
+            partRanks[i] = ranks.rank(piece, i, 2);
+        }
+        partRanks[len - 1] = NO_RANK;
+        partRanks[len] = NO_RANK;
+
+        int boundaries = len + 1;
+        while (boundaries > 2) {
+            int minRank = NO_RANK;
+            int minIdx = -1;
+            for (int i = 0; i < boundaries - 2; i++) {
+                if (partRanks[i] < minRank) {
+                    minRank = partRanks[i];
+                    minIdx = i;
+                }
+            }
+            if (minIdx < 0) break;
+
+            // Drop the boundary between the merged pair
+            System.arraycopy(starts, minIdx + 2, starts, minIdx + 1, boundaries - minIdx - 2);
+            System.arraycopy(partRanks, minIdx + 2, partRanks, minIdx + 1, boundaries - minIdx - 2);
+            boundaries--;
+
+            partRanks[minIdx] = pairRank(piece, starts, boundaries, minIdx);
+            if (minIdx > 0) {
+                partRanks[minIdx - 1] = pairRank(piece, starts, boundaries, minIdx - 1);
+            }
+        }
+
+        return boundaries - 1;
+    }
+
+    private int pairRank(byte[] piece, int[] starts, int boundaries, int i) {
+        if (i + 2 >= boundaries) return NO_RANK;
+        return ranks.rank(piece, starts[i], starts[i + 2] - starts[i]);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getVocabularySize() {
+        return ranks.size();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("encoding", name);
+        stats.put("vocabularySize", ranks.size());
+        stats.put("cacheSize", cache.size());
+        stats.put("cacheHits", cacheHits.get());
+        stats.put("cacheMisses", cacheMisses.get());
+        return stats;
+    }
+
+    /**
+     * Open-addressing rank table over a single byte pool.
+     * Lookups hash a slice of the caller's buffer, so no key objects are created.
+     */
+    public static class MergeTable {
+        private final byte[] pool;
+        private final int[] offsets;
+        private final int[] lengths;
+        private final int[] tokenRanks;
+        private final int[] slots;
+        private final int mask;
+
+        public MergeTable(List<byte[]> tokens, List<Integer> ranks) {
+            int total = 0;
+            for (byte[] token : tokens) total += token.length;
+
+            this.pool = new byte[total];
+            this.offsets = new int[tokens.size()];
+            this.lengths = new int[tokens.size()];
+            this.tokenRanks = new int[tokens.size()];
+
+            int capacity = Integer.highestOneBit(Math.max(16, tokens.size() * 2 - 1)) << 1;
+            this.slots = new int[capacity];
+            this.mask = capacity - 1;
+
+            int pos = 0;
+            for (int i = 0; i < tokens.size(); i++) {
+                byte[] token = tokens.get(i);
+                System.arraycopy(token, 0, pool, pos, token.length);
+                offsets[i] = pos;
+                lengths[i] = token.length;
+                tokenRanks[i] = ranks.get(i);
+                pos += token.length;
+
+                int slot = hash(token, 0, token.length) & mask;
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = i + 1;
+            }
+        }
+
+        public int rank(byte[] buf, int off, int len) {
+            int slot = hash(buf, off, len) & mask;
+            int entry;
+            while ((entry = slots[slot]) != 0) {
+                int idx = entry - 1;
+                if (lengths[idx] == len && Arrays.equals(pool, offsets[idx], offsets[idx] + len, buf, off, off + len)) {
+                    return tokenRanks[idx];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return NO_RANK;
+        }
+
+        public int size() {
+            return offsets.length;
+        }
+
+        private static int hash(byte[] buf, int off, int len) {
+            int h = 0x811c9dc5;
+            for (int i = off; i < off + len; i++) {
+                h = (h ^ (buf[i] & 0xff)) * 0x01000193;
+            }
+            return h ^ (h >>> 16);
+        }
+    }
+
+    /**
+     * Per-call work buffers, reused across all pieces of one text
+     */
+    private static class Scratch {
+        private byte[] bytes = new byte[64];
+        private int[] starts = new int[64];
+        private int[] ranks = new int[64];
+
+        int[] starts(int size) {
+            if (starts.length < size) starts = new int[size];
+            return starts;
+        }
+
+        int[] ranks(int size) {
+            if (ranks.length < size) ranks = new int[size];
+            return ranks;
+        }
+
+        /**
+         * UTF-8 encode text[start, end) into the byte buffer, returning the length
+         */
+        int encode(String text, int start, int end) {
+            int needed = (end - start) * 3;
+            if (bytes.length < needed) bytes = new byte[needed];
+
+            int pos = 0;
+            for (int i = start; i < end; i++) {
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    bytes[pos++] = (byte) c;
+                } else if (c < 0x800) {
+                    bytes[pos++] = (byte) (0xc0 | (c >> 6));
+                    bytes[pos++] = (byte) (0x80 | (c & 0x3f));
+                } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, text.charAt(++i));
+                    bytes[pos++] = (byte) (0xf0 | (cp >> 18));
+                    bytes[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                    bytes[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                    bytes[pos++] = (byte) (0x80 | (cp & 0x3f));
+                } else if (Character.isSurrogate(c)) {
+                    bytes[pos++] = (byte) '?';
+                } else {
+                    bytes[pos++] = (byte) (0xe0 | (c >> 12));
+                    bytes[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                    bytes[pos++] = (byte) (0x80 | (c & 0x3f));
+                }
+            }
+            return pos;
+        }
+    }
+}
@@ -6,6 +6,7 @@ import java.net.http.*;
 import java.nio.charset.*;
 import java.time.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * DeepSeek Provider - DeepSeek API integration
@@ -42,53 +43,86 @@ public class DeepSeekProvider implements LlmProvider {
                                           String systemPrompt,
                                           List<Map<String, Object>> tools) {
         try {
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("model", model);
-            requestBody.put("temperature", 0.7);
-            requestBody.put("max_tokens", 4096);
+            HttpRequest request = buildRequest(model, messages, systemPrompt, tools, 0);
 
-            // Build messages
-            List<Map<String, String>> allMessages = new ArrayList<>();
+            HttpResponse<String> response = client.send(request,
+                HttpResponse.BodyHandlers.ofString());
 
-            if (systemPrompt != null && !systemPrompt.isEmpty()) {
-                allMessages.add(Map.of("role", "system", "content", systemPrompt));
-            }
+            return handleResponse(response);
+
+        } catch (Exception e) {
+            throw new RuntimeException("DeepSeek request failed: " + e.getMessage());
+        }
+    }
 
-            allMessages.addAll(messages);
-            requestBody.put("messages", allMessages);
+    @Override
+    public CompletableFuture<LlmResponse> completeWithToolsAsync(String model,
+                                                                  List<Map<String, String>> messages,
+                                                                  String systemPrompt,
+                                                                  List<Map<String, Object>> tools) {
+        return completeWithToolsAsync(model, messages, systemPrompt, tools, 0);
+    }
 
-            // Add tools if provided
-            if (tools != null && !tools.isEmpty()) {
-                requestBody.put("tools", convertTools(tools));
-                requestBody.put("tool_choice", "auto");
-            }
+    @Override
+    public CompletableFuture<LlmResponse> completeWithToolsAsync(String model,
+                                                                  List<Map<String, String>> messages,
+                                                                  String systemPrompt,
+                                                                  List<Map<String, Object>> tools,
+                                                                  int maxOutputTokens) {
+        try {
+            HttpRequest request = buildRequest(model, messages, systemPrompt, tools, maxOutputTokens);
+            return AsyncExchange.send(client, request, this::handleResponse, "DeepSeek request failed: ");
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(
+                new RuntimeException("DeepSeek request failed: " + e.getMessage()));
+        }
+    }
 
-            String jsonBody = toJson(requestBody);
+    private HttpRequest buildRequest(String model, List<Map<String, String>> messages,
+                                     String systemPrompt, List<Map<String, Object>> tools,
+                                     int maxOutputTokens) {
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("model", model);
+        requestBody.put("temperature", 0.7);
+        requestBody.put("max_tokens", maxOutputTokens > 0 ? maxOutputTokens : 4096);
 
-            // Choose API URL based on model
-            String apiUrl = model.contains("reasoner") ?
-                DEEPSEEK_REASONER_URL : DEEPSEEK_API_URL;
+        // Build messages
+        List<Map<String, String>> allMessages = new ArrayList<>();
 
-            HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(apiUrl))
-                .header("Content-Type", "application/json")
-                .header("Authorization", "Bearer " + apiKey)
-                .timeout(Duration.ofSeconds(120))
-                .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
-                .build();
+        if (systemPrompt != null && !systemPrompt.isEmpty()) {
+            allMessages.add(Map.of("role", "system", "content", systemPrompt));
+        }
 
-            HttpResponse<String> response = client.send(request,
-                HttpResponse.BodyHandlers.ofString());
+        allMessages.addAll(messages);
+        requestBody.put("messages", allMessages);
 
-            if (response.statusCode() != 200) {
-                throw new RuntimeException("DeepSeek API error: " + response.body());
-            }
+        // Add tools if provided
+        if (tools != null && !tools.isEmpty()) {
+            requestBody.put("tools", convertTools(tools));
+            requestBody.put("tool_choice", "auto");
+        }
 
-            return parseResponse(response.body());
+        String jsonBody = toJson(requestBody);
 
-        } catch (Exception e) {
-            throw new RuntimeException("DeepSeek request failed: " + e.getMessage());
+        // Choose API URL based on model
+        String apiUrl = model.contains("reasoner") ?
+            DEEPSEEK_REASONER_URL : DEEPSEEK_API_URL;
+
+        return HttpRequest.newBuilder()
+            .uri(URI.create(apiUrl))
+            .header("Content-Type", "application/json")
+            .header("Authorization", "Bearer " + apiKey)
+            .timeout(Duration.ofSeconds(120))
+            .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
+            .build();
+    }
+
+    private LlmResponse handleResponse(HttpResponse<String> response) {
+        if (response.statusCode() != 200) {
+            throw new RuntimeException("DeepSeek API error: " + response.body());
         }
+
+        return parseResponse(response.body());
     }
 
     @Override
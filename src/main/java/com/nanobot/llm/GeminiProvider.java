@@ -5,6 +5,7 @@ import java.net.*;
 import java.net.http.*;
 import java.time.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Gemini Provider - Google Gemini API integration
@@ -44,45 +45,78 @@ public class GeminiProvider implements LlmProvider {
                                           String systemPrompt,
                                           List<Map<String, Object>> tools) {
         try {
-            String normalizedModel = normalizeModelName(model);
-            String apiUrl = String.format(GEMINI_API_URL, normalizedModel);
+            HttpRequest request = buildRequest(model, messages, systemPrompt, tools, 0);
 
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("contents", buildContents(messages, systemPrompt));
+            HttpResponse<String> response = client.send(request,
+                HttpResponse.BodyHandlers.ofString());
 
-            Map<String, Object> generationConfig = new HashMap<>();
-            generationConfig.put("temperature", 0.7);
-            generationConfig.put("maxOutputTokens", 4096);
-            generationConfig.put("topP", 0.95);
-            requestBody.put("generationConfig", generationConfig);
+            return handleResponse(response);
 
-            if (tools != null && !tools.isEmpty()) {
-                requestBody.put("tools", convertTools(tools));
-            }
+        } catch (Exception e) {
+            throw new RuntimeException("Gemini request failed: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public CompletableFuture<LlmResponse> completeWithToolsAsync(String model,
+                                                                  List<Map<String, String>> messages,
+                                                                  String systemPrompt,
+                                                                  List<Map<String, Object>> tools) {
+        return completeWithToolsAsync(model, messages, systemPrompt, tools, 0);
+    }
+
+    @Override
+    public CompletableFuture<LlmResponse> completeWithToolsAsync(String model,
+                                                                  List<Map<String, String>> messages,
+                                                                  String systemPrompt,
+                                                                  List<Map<String, Object>> tools,
+                                                                  int maxOutputTokens) {
+        try {
+            HttpRequest request = buildRequest(model, messages, systemPrompt, tools, maxOutputTokens);
+            return AsyncExchange.send(client, request, this::handleResponse, "Gemini request failed: ");
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(
+                new RuntimeException("Gemini request failed: " + e.getMessage()));
+        }
+    }
 
-            String jsonBody = toJson(requestBody);
+    private HttpRequest buildRequest(String model, List<Map<String, String>> messages,
+                                     String systemPrompt, List<Map<String, Object>> tools,
+                                     int maxOutputTokens) {
+        String normalizedModel = normalizeModelName(model);
+        String apiUrl = String.format(GEMINI_API_URL, normalizedModel);
 
-            String finalUrl = apiUrl + "?key=" + apiKey;
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("contents", buildContents(messages, systemPrompt));
 
-            HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(finalUrl))
-                .header("Content-Type", "application/json")
-                .timeout(Duration.ofSeconds(120))
-                .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
-                .build();
+        Map<String, Object> generationConfig = new HashMap<>();
+        generationConfig.put("temperature", 0.7);
+        generationConfig.put("maxOutputTokens", maxOutputTokens > 0 ? maxOutputTokens : 4096);
+        generationConfig.put("topP", 0.95);
+        requestBody.put("generationConfig", generationConfig);
 
-            HttpResponse<String> response = client.send(request,
-                HttpResponse.BodyHandlers.ofString());
+        if (tools != null && !tools.isEmpty()) {
+            requestBody.put("tools", convertTools(tools));
+        }
 
-            if (response.statusCode() != 200) {
-                throw new RuntimeException("Gemini API error: " + response.body());
-            }
+        String jsonBody = toJson(requestBody);
 
-            return parseResponse(response.body());
+        String finalUrl = apiUrl + "?key=" + apiKey;
 
-        } catch (Exception e) {
-            throw new RuntimeException("Gemini request failed: " + e.getMessage());
+        return HttpRequest.newBuilder()
+            .uri(URI.create(finalUrl))
+            .header("Content-Type", "application/json")
+            .timeout(Duration.ofSeconds(120))
+            .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
+            .build();
+    }
+
+    private LlmResponse handleResponse(HttpResponse<String> response) {
+        if (response.statusCode() != 200) {
+            throw new RuntimeException("Gemini API error: " + response.body());
         }
+
+        return parseResponse(response.body());
     }
 
     @Override
@@ -0,0 +1,200 @@
+package com.nanobot.llm;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Hedging Provider - Speculative duplicate requests for tail latency
+ * If a call is still outstanding after the observed latency percentile, a
+ * second copy is sent (to the secondary provider when it supports the model).
+ * The first success wins and the other exchange is cancelled.
+ */
+public class HedgingProvider implements LlmProvider {
+    private static final int WINDOW_SIZE = 512;
+
+    private final LlmProvider primary;
+    private final LlmProvider secondary;
+    private final double percentile;
+    private final double maxHedgeRatio;
+    private final int minSamples;
+    private final long minDelayMs;
+
+    private final long[] latencies = new long[WINDOW_SIZE];
+    private int latencyCount = 0;
+    private int latencyIndex = 0;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hedged = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong budgetDenied = new AtomicLong();
+
+    public HedgingProvider(LlmProvider primary) {
+        this(primary, null, 0.95, 0.05, 20, 200);
+    }
+
+    /**
+     * @param percentile    latency percentile after which to hedge, e.g. 0.95
+     * @param maxHedgeRatio cap on hedged requests as a fraction of all requests, e.g. 0.05
+     * @param minSamples    latencies to observe before hedging starts
+     * @param minDelayMs    lower bound on the hedge delay
+     */
+    public HedgingProvider(LlmProvider primary, LlmProvider secondary, double percentile,
+                           double maxHedgeRatio, int minSamples, long minDelayMs) {
+        this.primary = primary;
+        this.secondary = secondary;
+        this.percentile = percentile;
+        this.maxHedgeRatio = maxHedgeRatio;
+        this.minSamples = Math.min(minSamples, WINDOW_SIZE);
+        this.minDelayMs = minDelayMs;
+    }
+
+    @Override
+    public LlmResponse complete(String model, List<Map<String, String>> messages, String systemPrompt) {
+        return completeWithTools(model, messages, systemPrompt, null);
+    }
+
+    @Override
+    public LlmResponse completeWithTools(String model, List<Map<String, String>> messages,
+                                         String systemPrompt, List<Map<String, Object>> tools) {
+        CompletableFuture<LlmResponse> future = completeWithToolsAsync(model, messages, systemPrompt, tools);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Request interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = AsyncExchange.unwrap(e);
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause.getMessage());
+        }
+    }
+
+    @Override
+    public CompletableFuture<LlmResponse> completeWithToolsAsync(String model, List<Map<String, String>> messages,
+                                                                 String systemPrompt,
+                                                                 List<Map<String, Object>> tools) {
+        return completeWithToolsAsync(model, messages, systemPrompt, tools, 0);
+    }
+
+    @Override
+    public CompletableFuture<LlmResponse> completeWithToolsAsync(String model, List<Map<String, String>> messages,
+                                                                 String systemPrompt,
+                                                                 List<Map<String, Object>> tools,
+                                                                 int maxOutputTokens) {
+        requests.incrementAndGet();
+
+        CompletableFuture<LlmResponse> result = new CompletableFuture<>();
+        List<CompletableFuture<LlmResponse>> attempts = new CopyOnWriteArrayList<>();
+        AtomicInteger outstanding = new AtomicInteger(1);
+
+        attempts.add(launch(primary, model, messages, systemPrompt, tools, maxOutputTokens,
+            result, outstanding, false));
+
+        long delayMs = hedgeDelayMs();
+        if (delayMs >= 0) {
+            CompletableFuture.delayedExecutor(delayMs, TimeUnit.MILLISECONDS).execute(() -> {
+                if (result.isDone() || !acquireHedgeBudget()) return;
+
+                LlmProvider target = secondary != null && secondary.supportsModel(model) ? secondary : primary;
+                outstanding.incrementAndGet();
+                CompletableFuture<LlmResponse> hedge =
+                    launch(target, model, messages, systemPrompt, tools, maxOutputTokens, result, outstanding, true);
+                attempts.add(hedge);
+                if (result.isDone()) {
+                    hedge.cancel(true);
+                }
+            });
+        }
+
+        // Cancelling the caller's future cancels every attempt still in flight
+        result.whenComplete((response, error) -> {
+            for (CompletableFuture<LlmResponse> attempt : attempts) {
+                if (!attempt.isDone()) {
+                    attempt.cancel(true);
+                }
+            }
+        });
+
+        return result;
+    }
+
+    private CompletableFuture<LlmResponse> launch(LlmProvider provider, String model,
+                                                  List<Map<String, String>> messages, String systemPrompt,
+                                                  List<Map<String, Object>> tools, int maxOutputTokens,
+                                                  CompletableFuture<LlmResponse> result,
+                                                  AtomicInteger outstanding, boolean isHedge) {
+        long start = System.nanoTime();
+        CompletableFuture<LlmResponse> attempt =
+            provider.completeWithToolsAsync(model, messages, systemPrompt, tools, maxOutputTokens);
+
+        attempt.whenComplete((response, error) -> {
+            if (error == null) {
+                recordLatency(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                if (result.complete(response) && isHedge) {
+                    hedgeWins.incrementAndGet();
+                }
+            } else if (outstanding.decrementAndGet() == 0 && !attempt.isCancelled()) {
+                // Only fail once no other attempt can still succeed
+                result.completeExceptionally(AsyncExchange.unwrap(error));
+            }
+        });
+
+        return attempt;
+    }
+
+    /**
+     * Delay before hedging, or -1 while there is not enough history
+     */
+    private synchronized long hedgeDelayMs() {
+        if (latencyCount < minSamples) return -1;
+
+        long[] sorted = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1);
+        return Math.max(minDelayMs, sorted[Math.max(0, index)]);
+    }
+
+    private synchronized void recordLatency(long latencyMs) {
+        latencies[latencyIndex] = latencyMs;
+        latencyIndex = (latencyIndex + 1) % WINDOW_SIZE;
+        latencyCount = Math.min(latencyCount + 1, WINDOW_SIZE);
+    }
+
+    private boolean acquireHedgeBudget() {
+        while (true) {
+            long current = hedged.get();
+            if (current + 1 > requests.get() * maxHedgeRatio) {
+                budgetDenied.incrementAndGet();
+                return false;
+            }
+            if (hedged.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public boolean supportsModel(String model) {
+        return primary.supportsModel(model);
+    }
+
+    @Override
+    public String getName() {
+        return primary.getName();
+    }
+
+    /**
+     * Get hedging statistics
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("requests", requests.get());
+        stats.put("hedged", hedged.get());
+        stats.put("hedgeWins", hedgeWins.get());
+        stats.put("budgetDenied", budgetDenied.get());
+        stats.put("hedgeDelayMs", hedgeDelayMs());
+        stats.put("secondary", secondary != null ? secondary.getName() : null);
+        return stats;
+    }
+}
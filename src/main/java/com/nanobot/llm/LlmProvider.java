@@ -1,6 +1,7 @@
 package com.nanobot.llm;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * LLM Provider Interface
@@ -29,6 +30,47 @@ public interface LlmProvider {
     LlmResponse completeWithTools(String model, List<Map<String, String>> messages,
                                    String systemPrompt, List<Map<String, Object>> tools);
 
+    /**
+     * Complete a conversation without blocking the caller.
+     * Cancelling the returned future cancels the upstream request.
+     */
+    default CompletableFuture<LlmResponse> completeAsync(String model, List<Map<String, String>> messages,
+                                                         String systemPrompt) {
+        return completeWithToolsAsync(model, messages, systemPrompt, null);
+    }
+
+    /**
+     * Complete with tools without blocking the caller
+     */
+    default CompletableFuture<LlmResponse> completeWithToolsAsync(String model, List<Map<String, String>> messages,
+                                                                  String systemPrompt,
+                                                                  List<Map<String, Object>> tools) {
+        // Fallback for blocking-only providers: run on a virtual thread
+        return CompletableFuture.supplyAsync(
+            () -> completeWithTools(model, messages, systemPrompt, tools),
+            Thread::startVirtualThread
+        );
+    }
+
+    /**
+     * Complete without blocking, with the reply capped at maxOutputTokens; 0 keeps the provider's default
+     */
+    default CompletableFuture<LlmResponse> completeAsync(String model, List<Map<String, String>> messages,
+                                                         String systemPrompt, int maxOutputTokens) {
+        return completeWithToolsAsync(model, messages, systemPrompt, null, maxOutputTokens);
+    }
+
+    /**
+     * Complete with tools without blocking, with the reply capped at maxOutputTokens.
+     * Providers that cannot cap a reply ignore the limit.
+     */
+    default CompletableFuture<LlmResponse> completeWithToolsAsync(String model, List<Map<String, String>> messages,
+                                                                  String systemPrompt,
+                                                                  List<Map<String, Object>> tools,
+                                                                  int maxOutputTokens) {
+        return completeWithToolsAsync(model, messages, systemPrompt, tools);
+    }
+
     /**
      * Check if model is supported
      */
@@ -6,12 +6,15 @@ import java.net.http.*;
 import java.nio.charset.*;
 import java.time.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * OpenAI Provider - OpenAI GPT models integration
  */
-public class OpenAiProvider implements LlmProvider {
+public class OpenAiProvider implements BatchProvider {
     private static final String OPENAI_API_URL = "https://api.openai.com/v1/chat/completions";
+    private static final String OPENAI_FILES_URL = "https://api.openai.com/v1/files";
+    private static final String OPENAI_BATCHES_URL = "https://api.openai.com/v1/batches";
     private static final Set<String> OPENAI_MODELS = Set.of(
         "gpt-4", "gpt-4-turbo", "gpt-4o", "gpt-4o-mini",
         "gpt-3.5-turbo", "gpt-3.5-turbo-16k"
@@ -39,59 +42,103 @@ public class OpenAiProvider implements LlmProvider {
                                           String systemPrompt,
                                           List<Map<String, Object>> tools) {
         try {
-            // Build request body
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("model", model);
-            requestBody.put("temperature", 0.7);
+            HttpRequest request = buildRequest(model, messages, systemPrompt, tools, 0);
 
-            // Build messages
-            List<Map<String, String>> allMessages = new ArrayList<>();
+            HttpResponse<String> response = client.send(request,
+                HttpResponse.BodyHandlers.ofString());
 
-            if (systemPrompt != null && !systemPrompt.isEmpty()) {
-                allMessages.add(Map.of("role", "system", "content", systemPrompt));
-            }
+            return handleResponse(response);
 
-            allMessages.addAll(messages);
+        } catch (Exception e) {
+            throw new RuntimeException("OpenAI request failed: " + e.getMessage());
+        }
+    }
 
-            requestBody.put("messages", allMessages);
+    @Override
+    public CompletableFuture<LlmResponse> completeWithToolsAsync(String model,
+                                                                  List<Map<String, String>> messages,
+                                                                  String systemPrompt,
+                                                                  List<Map<String, Object>> tools) {
+        return completeWithToolsAsync(model, messages, systemPrompt, tools, 0);
+    }
 
-            // Add tools if provided
-            if (tools != null && !tools.isEmpty()) {
-                List<Map<String, Object>> functions = new ArrayList<>();
-                for (Map<String, Object> tool : tools) {
-                    Object functionObj = tool.get("function");
-                    if (functionObj instanceof Map) {
-                        functions.add((Map<String, Object>) functionObj);
-                    }
-                }
-                if (!functions.isEmpty()) {
-                    requestBody.put("tools", functions);
-                    requestBody.put("tool_choice", "auto");
-                }
-            }
+    @Override
+    public CompletableFuture<LlmResponse> completeWithToolsAsync(String model,
+                                                                  List<Map<String, String>> messages,
+                                                                  String systemPrompt,
+                                                                  List<Map<String, Object>> tools,
+                                                                  int maxOutputTokens) {
+        try {
+            HttpRequest request = buildRequest(model, messages, systemPrompt, tools, maxOutputTokens);
+            return AsyncExchange.send(client, request, this::handleResponse, "OpenAI request failed: ");
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(
+                new RuntimeException("OpenAI request failed: " + e.getMessage()));
+        }
+    }
 
-            String jsonBody = toJson(requestBody);
+    private HttpRequest buildRequest(String model, List<Map<String, String>> messages,
+                                     String systemPrompt, List<Map<String, Object>> tools,
+                                     int maxOutputTokens) {
+        Map<String, Object> requestBody = buildRequestBody(model, messages, systemPrompt, tools, maxOutputTokens);
 
-            HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(OPENAI_API_URL))
-                .header("Content-Type", "application/json")
-                .header("Authorization", "Bearer " + apiKey)
-                .timeout(Duration.ofSeconds(120))
-                .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
-                .build();
+        String jsonBody = toJson(requestBody);
 
-            HttpResponse<String> response = client.send(request,
-                HttpResponse.BodyHandlers.ofString());
+        return HttpRequest.newBuilder()
+            .uri(URI.create(OPENAI_API_URL))
+            .header("Content-Type", "application/json")
+            .header("Authorization", "Bearer " + apiKey)
+            .timeout(Duration.ofSeconds(120))
+            .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
+            .build();
+    }
 
-            if (response.statusCode() != 200) {
-                throw new RuntimeException("OpenAI API error: " + response.body());
+    private Map<String, Object> buildRequestBody(String model, List<Map<String, String>> messages,
+                                                 String systemPrompt, List<Map<String, Object>> tools,
+                                                 int maxOutputTokens) {
+        // Build request body
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("model", model);
+        requestBody.put("temperature", 0.7);
+        if (maxOutputTokens > 0) {
+            requestBody.put("max_tokens", maxOutputTokens);
+        }
+
+        // Build messages
+        List<Map<String, String>> allMessages = new ArrayList<>();
+
+        if (systemPrompt != null && !systemPrompt.isEmpty()) {
+            allMessages.add(Map.of("role", "system", "content", systemPrompt));
+        }
+
+        allMessages.addAll(messages);
+
+        requestBody.put("messages", allMessages);
+
+        // Add tools if provided
+        if (tools != null && !tools.isEmpty()) {
+            List<Map<String, Object>> functions = new ArrayList<>();
+            for (Map<String, Object> tool : tools) {
+                Object functionObj = tool.get("function");
+                if (functionObj instanceof Map) {
+                    functions.add((Map<String, Object>) functionObj);
+                }
+            }
+            if (!functions.isEmpty()) {
+                requestBody.put("tools", functions);
+                requestBody.put("tool_choice", "auto");
             }
+        }
 
-            return parseResponse(response.body());
+        return requestBody;
+    }
 
-        } catch (Exception e) {
-            throw new RuntimeException("OpenAI request failed: " + e.getMessage());
+    private LlmResponse handleResponse(HttpResponse<String> response) {
+        if (response.statusCode() != 200) {
+            throw new RuntimeException("OpenAI API error: " + response.body());
         }
+
+        return parseResponse(response.body());
     }
 
     @Override
@@ -105,10 +152,13 @@ public class OpenAiProvider implements LlmProvider {
         return "OpenAI";
     }
 
-    @SuppressWarnings("unchecked")
     private LlmResponse parseResponse(String json) {
+        return parseResponse(parseJson(json));
+    }
+
+    @SuppressWarnings("unchecked")
+    private LlmResponse parseResponse(Map<String, Object> response) {
         try {
-            Map<String, Object> response = parseJson(json);
             List<Map<String, Object>> choices = (List<Map<String, Object>>) response.get("choices");
 
             if (choices == null || choices.isEmpty()) {
@@ -158,6 +208,136 @@ public class OpenAiProvider implements LlmProvider {
         }
     }
 
+    @Override
+    public String submitBatch(List<BatchRequest> requests) {
+        try {
+            StringBuilder jsonl = new StringBuilder();
+            for (BatchRequest request : requests) {
+                Map<String, Object> line = new LinkedHashMap<>();
+                line.put("custom_id", request.customId());
+                line.put("method", "POST");
+                line.put("url", "/v1/chat/completions");
+                line.put("body", buildRequestBody(request.model(), request.messages(),
+                    request.systemPrompt(), request.tools(), request.maxOutputTokens()));
+                jsonl.append(toJson(line)).append('\n');
+            }
+
+            String boundary = "nanobot-" + UUID.randomUUID();
+            String multipart = "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"purpose\"\r\n\r\n"
+                + "batch\r\n"
+                + "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"batch.jsonl\"\r\n"
+                + "Content-Type: application/jsonl\r\n\r\n"
+                + jsonl
+                + "\r\n--" + boundary + "--\r\n";
+
+            HttpRequest upload = HttpRequest.newBuilder()
+                .uri(URI.create(OPENAI_FILES_URL))
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .header("Authorization", "Bearer " + apiKey)
+                .timeout(Duration.ofSeconds(120))
+                .POST(HttpRequest.BodyPublishers.ofString(multipart, StandardCharsets.UTF_8))
+                .build();
+            Map<String, Object> file = sendJson(upload);
+
+            Map<String, Object> batchBody = new HashMap<>();
+            batchBody.put("input_file_id", file.get("id"));
+            batchBody.put("endpoint", "/v1/chat/completions");
+            batchBody.put("completion_window", "24h");
+
+            HttpRequest create = HttpRequest.newBuilder()
+                .uri(URI.create(OPENAI_BATCHES_URL))
+                .header("Content-Type", "application/json")
+                .header("Authorization", "Bearer " + apiKey)
+                .timeout(Duration.ofSeconds(60))
+                .POST(HttpRequest.BodyPublishers.ofString(toJson(batchBody)))
+                .build();
+            return (String) sendJson(create).get("id");
+
+        } catch (Exception e) {
+            throw new RuntimeException("OpenAI batch submit failed: " + e.getMessage());
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<BatchResult> fetchBatchResults(String batchId) {
+        Map<String, Object> batch;
+        try {
+            batch = sendJson(HttpRequest.newBuilder()
+                .uri(URI.create(OPENAI_BATCHES_URL + "/" + batchId))
+                .header("Authorization", "Bearer " + apiKey)
+                .timeout(Duration.ofSeconds(60))
+                .GET()
+                .build());
+        } catch (Exception e) {
+            throw new RuntimeException("OpenAI batch poll failed: " + e.getMessage());
+        }
+
+        String status = String.valueOf(batch.get("status"));
+        switch (status) {
+            case "validating", "in_progress", "finalizing", "cancelling":
+                return null;
+            case "completed", "expired":
+                break;
+            default:
+                throw new BatchFailedException("OpenAI batch " + batchId + " " + status);
+        }
+
+        List<BatchResult> results = new ArrayList<>();
+        for (String fileKey : List.of("output_file_id", "error_file_id")) {
+            Object fileId = batch.get(fileKey);
+            if (!(fileId instanceof String)) continue;
+
+            for (String line : downloadFile((String) fileId).split("\n")) {
+                if (line.isBlank()) continue;
+                Map<String, Object> entry = parseJson(line);
+                String customId = (String) entry.get("custom_id");
+                Map<String, Object> response = (Map<String, Object>) entry.get("response");
+                Object error = entry.get("error");
+
+                if (error == null && response != null && Integer.valueOf(200).equals(response.get("status_code"))) {
+                    results.add(new BatchResult(customId,
+                        parseResponse((Map<String, Object>) response.get("body")), null));
+                } else {
+                    Object detail = error != null ? error : response != null ? response.get("body") : "no response";
+                    results.add(new BatchResult(customId, null, "OpenAI API error: " + toJson(detail)));
+                }
+            }
+        }
+        return results;
+    }
+
+    private String downloadFile(String fileId) {
+        try {
+            HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(OPENAI_FILES_URL + "/" + fileId + "/content"))
+                .header("Authorization", "Bearer " + apiKey)
+                .timeout(Duration.ofSeconds(120))
+                .GET()
+                .build();
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                throw new RuntimeException("OpenAI API error: " + response.body());
+            }
+            return response.body();
+        } catch (IOException e) {
+            throw new RuntimeException("OpenAI file download failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("OpenAI file download interrupted");
+        }
+    }
+
+    private Map<String, Object> sendJson(HttpRequest request) throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new RuntimeException("OpenAI API error: " + response.body());
+        }
+        return parseJson(response.body());
+    }
+
     private String toJson(Object obj) {
         try {
             com.fasterxml.jackson.databind.ObjectMapper mapper =
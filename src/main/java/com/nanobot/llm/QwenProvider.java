@@ -5,6 +5,7 @@ import java.net.*;
 import java.net.http.*;
 import java.time.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Qwen Provider - Alibaba Qwen (通义千问) API integration
@@ -43,48 +44,81 @@ public class QwenProvider implements LlmProvider {
                                           String systemPrompt,
                                           List<Map<String, Object>> tools) {
         try {
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("model", model);
+            HttpRequest request = buildRequest(model, messages, systemPrompt, tools, 0);
 
-            Map<String, Object> input = new HashMap<>();
-            input.put("messages", buildMessages(messages, systemPrompt));
-            requestBody.put("input", input);
+            HttpResponse<String> response = client.send(request,
+                HttpResponse.BodyHandlers.ofString());
 
-            Map<String, Object> parameters = new HashMap<>();
-            parameters.put("temperature", 0.7);
-            parameters.put("max_tokens", 4096);
-            parameters.put("top_p", 0.95);
+            return handleResponse(response);
 
-            if (tools != null && !tools.isEmpty()) {
-                parameters.put("tools", convertTools(tools));
-                parameters.put("tool_choice", "auto");
-            }
+        } catch (Exception e) {
+            throw new RuntimeException("Qwen request failed: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public CompletableFuture<LlmResponse> completeWithToolsAsync(String model,
+                                                                  List<Map<String, String>> messages,
+                                                                  String systemPrompt,
+                                                                  List<Map<String, Object>> tools) {
+        return completeWithToolsAsync(model, messages, systemPrompt, tools, 0);
+    }
+
+    @Override
+    public CompletableFuture<LlmResponse> completeWithToolsAsync(String model,
+                                                                  List<Map<String, String>> messages,
+                                                                  String systemPrompt,
+                                                                  List<Map<String, Object>> tools,
+                                                                  int maxOutputTokens) {
+        try {
+            HttpRequest request = buildRequest(model, messages, systemPrompt, tools, maxOutputTokens);
+            return AsyncExchange.send(client, request, this::handleResponse, "Qwen request failed: ");
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(
+                new RuntimeException("Qwen request failed: " + e.getMessage()));
+        }
+    }
 
-            requestBody.put("parameters", parameters);
+    private HttpRequest buildRequest(String model, List<Map<String, String>> messages,
+                                     String systemPrompt, List<Map<String, Object>> tools,
+                                     int maxOutputTokens) {
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("model", model);
 
-            String jsonBody = toJson(requestBody);
+        Map<String, Object> input = new HashMap<>();
+        input.put("messages", buildMessages(messages, systemPrompt));
+        requestBody.put("input", input);
 
-            HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(QWEN_API_URL))
-                .header("Content-Type", "application/json")
-                .header("Authorization", "Bearer " + apiKey)
-                .header("X-DashScope-Session-Id", UUID.randomUUID().toString())
-                .timeout(Duration.ofSeconds(120))
-                .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
-                .build();
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("temperature", 0.7);
+        parameters.put("max_tokens", maxOutputTokens > 0 ? maxOutputTokens : 4096);
+        parameters.put("top_p", 0.95);
 
-            HttpResponse<String> response = client.send(request,
-                HttpResponse.BodyHandlers.ofString());
+        if (tools != null && !tools.isEmpty()) {
+            parameters.put("tools", convertTools(tools));
+            parameters.put("tool_choice", "auto");
+        }
 
-            if (response.statusCode() != 200) {
-                throw new RuntimeException("Qwen API error: " + response.body());
-            }
+        requestBody.put("parameters", parameters);
 
-            return parseResponse(response.body());
+        String jsonBody = toJson(requestBody);
 
-        } catch (Exception e) {
-            throw new RuntimeException("Qwen request failed: " + e.getMessage());
+        return HttpRequest.newBuilder()
+            .uri(URI.create(QWEN_API_URL))
+            .header("Content-Type", "application/json")
+            .header("Authorization", "Bearer " + apiKey)
+            .header("X-DashScope-Session-Id", UUID.randomUUID().toString())
+            .timeout(Duration.ofSeconds(120))
+            .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
+            .build();
+    }
+
+    private LlmResponse handleResponse(HttpResponse<String> response) {
+        if (response.statusCode() != 200) {
+            throw new RuntimeException("Qwen API error: " + response.body());
         }
+
+        return parseResponse(response.body());
     }
 
     @Override
@@ -0,0 +1,331 @@
+package com.nanobot.llm;
+
+import com.fasterxml.jackson.core.*;
+
+import java.io.*;
+import java.net.http.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * SSE Decoder - Incremental Server-Sent Events decoding
+ * Consumes response body buffers as they arrive, reassembles lines split
+ * across buffers, and feeds text and tool-call deltas into a StreamHandler.
+ * Understands OpenAI chat completion chunks and Anthropic message events.
+ */
+public class SseDecoder implements Flow.Subscriber<List<ByteBuffer>> {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final byte[] DONE = "[DONE]".getBytes(StandardCharsets.US_ASCII);
+
+    private final StreamHandler handler;
+    private Flow.Subscription subscription;
+
+    // Current line, carried over when a buffer ends mid-line
+    private byte[] line = new byte[256];
+    private int lineLength = 0;
+
+    // Data lines of the current event, joined with '\n'
+    private byte[] data = new byte[1024];
+    private int dataLength = 0;
+    private boolean hasData = false;
+
+    private boolean finished = false;
+
+    public SseDecoder(StreamHandler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Body handler that streams an SSE response into the given handler
+     */
+    public static HttpResponse.BodyHandler<Void> bodyHandler(StreamHandler handler) {
+        return info -> HttpResponse.BodySubscribers.fromSubscriber(new SseDecoder(handler));
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        handler.start();
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> buffers) {
+        if (handler.getStatus() == StreamHandler.StreamStatus.CANCELLED) {
+            subscription.cancel();
+            return;
+        }
+
+        for (ByteBuffer buffer : buffers) {
+            feed(buffer);
+        }
+        subscription.request(1);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        if (!finished) {
+            finished = true;
+            handler.error(String.valueOf(throwable.getMessage()));
+        }
+    }
+
+    @Override
+    public void onComplete() {
+        if (lineLength > 0) {
+            processLine();
+        }
+        dispatch();
+        if (!finished) {
+            finished = true;
+            handler.complete();
+        }
+    }
+
+    /**
+     * Decode one body buffer, keeping any trailing partial line
+     */
+    public void feed(ByteBuffer buffer) {
+        while (buffer.hasRemaining() && !finished) {
+            int start = buffer.position();
+            int limit = buffer.limit();
+            int newline = -1;
+
+            for (int i = start; i < limit; i++) {
+                if (buffer.get(i) == '\n') {
+                    newline = i;
+                    break;
+                }
+            }
+
+            int end = newline >= 0 ? newline : limit;
+            appendLine(buffer, end - start);
+            buffer.position(newline >= 0 ? newline + 1 : limit);
+
+            if (newline >= 0) {
+                processLine();
+            }
+        }
+    }
+
+    private void appendLine(ByteBuffer buffer, int length) {
+        if (lineLength + length > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + length));
+        }
+        buffer.get(line, lineLength, length);
+        lineLength += length;
+    }
+
+    private void processLine() {
+        int length = lineLength;
+        lineLength = 0;
+
+        if (length > 0 && line[length - 1] == '\r') {
+            length--;
+        }
+
+        if (length == 0) {
+            dispatch();
+            return;
+        }
+
+        // Only data fields carry payload; event names are repeated inside the JSON
+        if (length < 5 || line[0] != 'd' || line[1] != 'a' || line[2] != 't' || line[3] != 'a' || line[4] != ':') {
+            return;
+        }
+
+        int offset = length > 5 && line[5] == ' ' ? 6 : 5;
+        int needed = dataLength + (hasData ? 1 : 0) + length - offset;
+        if (needed > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, needed));
+        }
+        if (hasData) {
+            data[dataLength++] = '\n';
+        }
+        System.arraycopy(line, offset, data, dataLength, length - offset);
+        dataLength += length - offset;
+        hasData = true;
+    }
+
+    private void dispatch() {
+        if (!hasData) return;
+
+        int length = dataLength;
+        dataLength = 0;
+        hasData = false;
+
+        if (Arrays.equals(data, 0, length, DONE, 0, DONE.length)) {
+            finish();
+            return;
+        }
+
+        try {
+            parseDelta(length);
+        } catch (IOException e) {
+            // Not JSON: pass the payload through as text
+            handler.addChunk(new String(data, 0, length, StandardCharsets.UTF_8));
+        }
+    }
+
+    private void parseDelta(int length) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(data, 0, length)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Expected object");
+            }
+
+            String type = null;
+            int index = 0;
+            String text = null;
+            String partialJson = null;
+            String blockType = null;
+            String blockId = null;
+            String blockName = null;
+            String errorMessage = null;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+
+                switch (field) {
+                    case "choices" -> readChoices(parser);
+                    case "type" -> type = parser.getValueAsString();
+                    case "index" -> index = parser.getValueAsInt(index);
+                    case "delta" -> {
+                        while (value == JsonToken.START_OBJECT && parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String name = parser.getCurrentName();
+                            parser.nextToken();
+                            switch (name) {
+                                case "text" -> text = parser.getValueAsString();
+                                case "partial_json" -> partialJson = parser.getValueAsString();
+                                default -> parser.skipChildren();
+                            }
+                        }
+                    }
+                    case "content_block" -> {
+                        while (value == JsonToken.START_OBJECT && parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String name = parser.getCurrentName();
+                            parser.nextToken();
+                            switch (name) {
+                                case "type" -> blockType = parser.getValueAsString();
+                                case "id" -> blockId = parser.getValueAsString();
+                                case "name" -> blockName = parser.getValueAsString();
+                                default -> parser.skipChildren();
+                            }
+                        }
+                    }
+                    case "error" -> {
+                        while (value == JsonToken.START_OBJECT && parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String name = parser.getCurrentName();
+                            parser.nextToken();
+                            if ("message".equals(name)) {
+                                errorMessage = parser.getValueAsString();
+                            } else {
+                                parser.skipChildren();
+                            }
+                        }
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+
+            if (text != null && !text.isEmpty()) {
+                handler.addChunk(text);
+            }
+            if ("tool_use".equals(blockType)) {
+                handler.addToolCallDelta(index, blockId, blockName, null);
+            }
+            if (partialJson != null) {
+                handler.addToolCallDelta(index, null, null, partialJson);
+            }
+            if ("error".equals(type)) {
+                finished = true;
+                handler.error(errorMessage != null ? errorMessage : "Stream error");
+            } else if ("message_stop".equals(type)) {
+                finish();
+            }
+        }
+    }
+
+    /**
+     * OpenAI: choices[0].delta.{content, tool_calls[]}
+     */
+    private void readChoices(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return;
+        }
+
+        boolean first = true;
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            if (!first) {
+                parser.skipChildren();
+                continue;
+            }
+            first = false;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (!"delta".equals(field) || value != JsonToken.START_OBJECT) {
+                    parser.skipChildren();
+                    continue;
+                }
+
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.getCurrentName();
+                    JsonToken deltaValue = parser.nextToken();
+                    if ("content".equals(name) && deltaValue == JsonToken.VALUE_STRING) {
+                        String text = parser.getText();
+                        if (!text.isEmpty()) {
+                            handler.addChunk(text);
+                        }
+                    } else if ("tool_calls".equals(name) && deltaValue == JsonToken.START_ARRAY) {
+                        readToolCalls(parser);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            }
+        }
+    }
+
+    private void readToolCalls(JsonParser parser) throws IOException {
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            int index = 0;
+            String id = null;
+            String name = null;
+            String arguments = null;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "index" -> index = parser.getValueAsInt();
+                    case "id" -> id = parser.getValueAsString();
+                    case "function" -> {
+                        while (value == JsonToken.START_OBJECT && parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String fn = parser.getCurrentName();
+                            parser.nextToken();
+                            switch (fn) {
+                                case "name" -> name = parser.getValueAsString();
+                                case "arguments" -> arguments = parser.getValueAsString();
+                                default -> parser.skipChildren();
+                            }
+                        }
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+
+            handler.addToolCallDelta(index, id, name, arguments);
+        }
+    }
+
+    private void finish() {
+        if (finished) return;
+        finished = true;
+        handler.complete();
+    }
+}
@@ -1,5 +1,7 @@
 package com.nanobot.llm;
 
+import java.nio.*;
+import java.nio.charset.*;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
@@ -10,12 +12,17 @@ import java.util.function.*;
  * Handles SSE (Server-Sent Events) and chunked responses
  */
 public class StreamHandler {
+    private static final AtomicLong CHUNK_SEQUENCE = new AtomicLong();
+    private static final com.fasterxml.jackson.databind.ObjectMapper JSON =
+        new com.fasterxml.jackson.databind.ObjectMapper();
+
     private final BlockingQueue<StreamChunk> chunkQueue = new LinkedBlockingQueue<>();
     private final AtomicReference<StreamStatus> status = new AtomicReference<>(StreamStatus.IDLE);
     private final List<Consumer<StreamChunk>> chunkListeners = new CopyOnWriteArrayList<>();
     private final List<Consumer<String>> tokenListeners = new CopyOnWriteArrayList<>();
     private final List<Consumer<StreamEvent>> eventListeners = new CopyOnWriteArrayList<>();
     private final StringBuilder currentContent = new StringBuilder();
+    private final Map<Integer, ToolCallBuffer> toolCalls = new TreeMap<>();
     private ExecutorService executor;
 
     public enum StreamStatus {
@@ -23,41 +30,52 @@ public class StreamHandler {
     }
 
     public static class StreamChunk {
-        private final String chunkId;
+        private final long sequence;
         private final String content;
         private final boolean isComplete;
         private final boolean isError;
         private final String errorMessage;
-        private final Map<String, Object> metadata;
+        private Map<String, Object> metadata;
         private final long timestamp;
 
         public StreamChunk(String content, boolean isComplete) {
-            this.chunkId = UUID.randomUUID().toString();
-            this.content = content;
-            this.isComplete = isComplete;
-            this.isError = false;
-            this.errorMessage = null;
-            this.metadata = new HashMap<>();
-            this.timestamp = System.currentTimeMillis();
+            this(content, isComplete, null);
         }
 
         public StreamChunk(String errorMessage) {
-            this.chunkId = UUID.randomUUID().toString();
-            this.content = "";
-            this.isComplete = true;
-            this.isError = true;
+            this("", true, errorMessage);
+        }
+
+        private StreamChunk(String content, boolean isComplete, String errorMessage) {
+            this.sequence = CHUNK_SEQUENCE.incrementAndGet();
+            this.content = content;
+            this.isComplete = isComplete;
+            this.isError = errorMessage != null;
             this.errorMessage = errorMessage;
-            this.metadata = new HashMap<>();
             this.timestamp = System.currentTimeMillis();
         }
 
-        public String getChunkId() { return chunkId; }
+        public String getChunkId() { return Long.toString(sequence); }
+        public long getSequence() { return sequence; }
         public String getContent() { return content; }
         public boolean isComplete() { return isComplete; }
         public boolean isError() { return isError; }
         public String getErrorMessage() { return errorMessage; }
-        public Map<String, Object> getMetadata() { return metadata; }
         public long getTimestamp() { return timestamp; }
+
+        public Map<String, Object> getMetadata() {
+            // Most chunks never carry metadata, so the map is created on demand
+            if (metadata == null) {
+                metadata = new HashMap<>();
+            }
+            return metadata;
+        }
+    }
+
+    private static class ToolCallBuffer {
+        private String id;
+        private String name;
+        private final StringBuilder arguments = new StringBuilder();
     }
 
     public static class StreamEvent {
@@ -87,6 +105,9 @@ public class StreamHandler {
         status.set(StreamStatus.CONNECTED);
         currentContent.setLength(0);
         chunkQueue.clear();
+        synchronized (toolCalls) {
+            toolCalls.clear();
+        }
     }
 
     /**
@@ -119,6 +140,40 @@ public class StreamHandler {
         }
     }
 
+    /**
+     * Accumulate a tool call fragment; id and name arrive once, arguments in pieces
+     */
+    public void addToolCallDelta(int index, String id, String name, String argumentsDelta) {
+        synchronized (toolCalls) {
+            ToolCallBuffer buffer = toolCalls.computeIfAbsent(index, i -> new ToolCallBuffer());
+            if (id != null) buffer.id = id;
+            if (name != null) buffer.name = name;
+            if (argumentsDelta != null) buffer.arguments.append(argumentsDelta);
+        }
+    }
+
+    /**
+     * Get tool calls accumulated so far, with their arguments parsed
+     */
+    @SuppressWarnings("unchecked")
+    public List<LlmProvider.ToolCall> getToolCalls() {
+        List<LlmProvider.ToolCall> result = new ArrayList<>();
+        synchronized (toolCalls) {
+            for (ToolCallBuffer buffer : toolCalls.values()) {
+                Map<String, Object> args = new HashMap<>();
+                if (buffer.arguments.length() > 0) {
+                    try {
+                        args = JSON.readValue(buffer.arguments.toString(), Map.class);
+                    } catch (Exception e) {
+                        args.put("_raw", buffer.arguments.toString());
+                    }
+                }
+                result.add(new LlmProvider.ToolCall(buffer.id, buffer.name, args));
+            }
+        }
+        return result;
+    }
+
     /**
      * Complete the stream
      */
@@ -249,80 +304,22 @@ public class StreamHandler {
     }
 
     /**
-     * Parse SSE (Server-Sent Events) format
+     * Parse a complete SSE (Server-Sent Events) payload
      */
     public static List<StreamChunk> parseSSE(String sseData) {
+        StreamHandler handler = new StreamHandler();
         List<StreamChunk> chunks = new ArrayList<>();
+        handler.addChunkListener(chunks::add);
 
-        String[] lines = sseData.split("\n");
-        StringBuilder currentChunk = new StringBuilder();
-        boolean inChunk = false;
-
-        for (String line : lines) {
-            if (line.startsWith("data:")) {
-                String data = line.substring(5).trim();
-
-                if ("[DONE]".equals(data)) {
-                    if (currentChunk.length() > 0) {
-                        chunks.add(new StreamChunk(currentChunk.toString(), false));
-                        currentChunk.setLength(0);
-                    }
-                    chunks.add(new StreamChunk("", true));
-                    break;
-                }
-
-                if (!data.isEmpty()) {
-                    try {
-                        currentChunk.append(parseJsonChunk(data));
-                    } catch (Exception e) {
-                        currentChunk.append(data);
-                    }
-                }
-
-                inChunk = true;
-            } else if (line.isEmpty() && inChunk) {
-                if (currentChunk.length() > 0) {
-                    chunks.add(new StreamChunk(currentChunk.toString(), false));
-                    currentChunk.setLength(0);
-                }
-                inChunk = false;
-            }
-        }
+        handler.start();
+        SseDecoder decoder = new SseDecoder(handler);
+        decoder.feed(ByteBuffer.wrap(sseData.getBytes(StandardCharsets.UTF_8)));
+        // Terminate a trailing event that lacks its blank line
+        decoder.feed(ByteBuffer.wrap(new byte[] {'\n', '\n'}));
 
         return chunks;
     }
 
-    private static String parseJsonChunk(String json) {
-        try {
-            com.fasterxml.jackson.databind.ObjectMapper mapper =
-                new com.fasterxml.jackson.databind.ObjectMapper();
-
-            Map<String, Object> data = mapper.readValue(json, Map.class);
-
-            List<Map<String, Object>> choices = (List<Map<String, Object>>) data.get("choices");
-            if (choices == null || choices.isEmpty()) {
-                return "";
-            }
-
-            Map<String, Object> choice = choices.get(0);
-            Map<String, Object> delta = (Map<String, Object>) choice.get("delta");
-
-            if (delta == null) {
-                return "";
-            }
-
-            Object contentObj = delta.get("content");
-            if (contentObj == null) {
-                return "";
-            }
-
-            return contentObj.toString();
-
-        } catch (Exception e) {
-            return json;
-        }
-    }
-
     /**
      * Format content as SSE
      */
@@ -340,6 +337,9 @@ public class StreamHandler {
         Map<String, Object> stats = new HashMap<>();
         stats.put("status", status.get());
         stats.put("accumulatedLength", currentContent.length());
+        synchronized (toolCalls) {
+            stats.put("toolCalls", toolCalls.size());
+        }
         stats.put("queuedChunks", chunkQueue.size());
         stats.put("chunkListeners", chunkListeners.size());
         stats.put("tokenListeners", tokenListeners.size());
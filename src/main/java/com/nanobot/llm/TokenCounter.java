@@ -1,5 +1,6 @@
 package com.nanobot.llm;
 
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.*;
 
@@ -15,8 +16,13 @@ public class TokenCounter {
         // Register default tokenizers
         TOKENIZERS.put("claude", new ClaudeTokenizer());
         TOKENIZERS.put("gpt-4", new Gpt4Tokenizer());
+        TOKENIZERS.put("gpt-4o", new Gpt4Tokenizer());
         TOKENIZERS.put("gpt-3.5", new Gpt35Tokenizer());
+        TOKENIZERS.put("other", new Gpt4Tokenizer());
         TOKENIZERS.put("default", new DefaultTokenizer());
+
+        // Prefer exact BPE counts for OpenAI models when a vocabulary is available
+        registerBpeTokenizers();
     }
 
     public interface Tokenizer {
@@ -173,6 +179,39 @@ public class TokenCounter {
         return Math.max(0, contextLimit - usedTokens - 100); // Reserve 100 tokens buffer
     }
 
+    private static void registerBpeTokenizers() {
+        // Only the models that use these vocabularies; Claude, Gemini, DeepSeek and Qwen
+        // tokenize differently and keep their estimates rather than a wrong "exact" count
+        install(loadVocabulary(BpeTokenizer.CL100K_BASE), "gpt-4", "gpt-3.5");
+        install(loadVocabulary(BpeTokenizer.O200K_BASE), "gpt-4o");
+    }
+
+    private static void install(BpeTokenizer tokenizer, String... modelKeys) {
+        if (tokenizer == null) return;
+        for (String key : modelKeys) {
+            TOKENIZERS.put(key, tokenizer);
+        }
+    }
+
+    /**
+     * Load a vocabulary once at startup; a broken one is reported here and counts stay estimates
+     */
+    private static BpeTokenizer loadVocabulary(String encoding) {
+        try {
+            return BpeTokenizer.load(encoding);
+        } catch (IOException e) {
+            System.err.println("Tokenizer " + encoding + " unavailable, estimating instead: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Check whether counts for a model come from an exact BPE vocabulary
+     */
+    public static boolean isExact(String model) {
+        return TOKENIZERS.get(getModelKey(model)) instanceof BpeTokenizer;
+    }
+
     /**
      * Register a custom tokenizer
      */
@@ -189,11 +228,12 @@ public class TokenCounter {
         String lower = model.toLowerCase();
 
         if (lower.contains("claude")) return "claude";
+        if (lower.contains("gpt-4o")) return "gpt-4o";
         if (lower.contains("gpt-4")) return "gpt-4";
         if (lower.contains("gpt-3.5")) return "gpt-3.5";
-        if (lower.contains("gemini")) return "gpt-4"; // Use GPT-4 as approximation
-        if (lower.contains("deepseek")) return "gpt-4";
-        if (lower.contains("qwen")) return "gpt-4";
+        if (lower.contains("gemini")) return "other"; // GPT-4 estimate as approximation
+        if (lower.contains("deepseek")) return "other";
+        if (lower.contains("qwen")) return "other";
 
         return "default";
     }
@@ -4,12 +4,14 @@ import com.nanobot.core.MessageBus;
 import com.nanobot.core.ContextManager;
 import com.nanobot.bus.EventBus;
 import com.nanobot.agent.SubagentManager;
+import com.nanobot.tool.ToolRegistry;
 import com.sun.net.httpserver.HttpServer;
 import com.sun.net.httpserver.HttpExchange;
 
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.Executors;
 
@@ -24,6 +26,7 @@ public class MonitorServer {
     private final EventBus eventBus;
     private final SubagentManager subagentManager;
     private final int port;
+    private volatile ToolRegistry toolRegistry;
 
     public MonitorServer(int port, MessageBus messageBus, ContextManager contextManager,
                          EventBus eventBus, SubagentManager subagentManager) throws IOException {
@@ -43,6 +46,14 @@ public class MonitorServer {
         server.createContext("/", this::handleRoot);
         server.createContext("/api/stats", this::handleStats);
         server.createContext("/api/health", this::handleHealth);
+        server.createContext("/api/tools", this::handleTools);
+    }
+
+    /**
+     * Expose tool execution metrics on /api/tools and in /api/stats
+     */
+    public void setToolRegistry(ToolRegistry toolRegistry) {
+        this.toolRegistry = toolRegistry;
     }
 
     public void start() {
@@ -64,6 +75,20 @@ public class MonitorServer {
         sendResponse(exchange, 200, json, "application/json");
     }
 
+    private void handleTools(HttpExchange exchange) throws IOException {
+        String json = toJson(toolStats());
+        sendResponse(exchange, 200, json, "application/json");
+    }
+
+    private Map<String, Object> toolStats() {
+        ToolRegistry registry = toolRegistry;
+        if (registry == null) return Map.of();
+        Map<String, Object> stats = registry.getMetrics().getStats();
+        stats.put("resultCache", registry.getResultCache().getStats());
+        stats.put("bulkheads", registry.getGuardStats());
+        return stats;
+    }
+
     private void handleHealth(HttpExchange exchange) throws IOException {
         String json = "{\"status\":\"healthy\",\"timestamp\":" + System.currentTimeMillis() + "}";
         sendResponse(exchange, 200, json, "application/json");
@@ -89,6 +114,7 @@ public class MonitorServer {
         Map<String, Object> messageBusStats = messageBus != null ? messageBus.getStats() : Map.of();
         Map<String, Object> eventBusStats = eventBus != null ? eventBus.getStats() : Map.of();
         Map<String, Object> subagentStats = subagentManager != null ? subagentManager.getStats() : Map.of();
+        Map<String, Object> toolStats = toolStats();
 
         return String.format("""
             {
@@ -105,6 +131,7 @@ public class MonitorServer {
               "messageBus": %s,
               "eventBus": %s,
               "subagents": %s,
+              "tools": %s,
               "sessions": %d,
               "timestamp": %d
             }
@@ -117,6 +144,7 @@ public class MonitorServer {
             toJson(messageBusStats),
             toJson(eventBusStats),
             toJson(subagentStats),
+            toJson(toolStats),
             contextManager != null ? contextManager.getSessionKeys().size() : 0,
             System.currentTimeMillis()
         );
@@ -128,23 +156,53 @@ public class MonitorServer {
         boolean first = true;
         for (Map.Entry<String, Object> entry : map.entrySet()) {
             if (!first) sb.append(",");
-            sb.append("\"").append(entry.getKey()).append("\":");
-            Object value = entry.getValue();
-            if (value instanceof String) {
-                sb.append("\"").append(value).append("\"");
-            } else if (value instanceof Map) {
-                @SuppressWarnings("unchecked")
-                Map<String, Object> mapValue = (Map<String, Object>) value;
-                sb.append(toJson(mapValue));
-            } else {
-                sb.append(value);
-            }
+            sb.append("\"").append(escape(entry.getKey())).append("\":");
+            sb.append(toJsonValue(entry.getValue()));
             first = false;
         }
         sb.append("}");
         return sb.toString();
     }
 
+    private String toJsonValue(Object value) {
+        if (value instanceof String) {
+            return "\"" + escape((String) value) + "\"";
+        } else if (value instanceof Map) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> mapValue = (Map<String, Object>) value;
+            return toJson(mapValue);
+        } else if (value instanceof Collection<?> items) {
+            StringBuilder sb = new StringBuilder("[");
+            for (Object item : items) {
+                if (sb.length() > 1) sb.append(",");
+                sb.append(toJsonValue(item));
+            }
+            return sb.append("]").toString();
+        }
+        return String.valueOf(value);
+    }
+
+    private static String escape(String value) {
+        StringBuilder sb = new StringBuilder(value.length());
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        return sb.toString();
+    }
+
     private String generateDashboard() {
         return """
 <!DOCTYPE html>
@@ -343,6 +401,26 @@ public class MonitorServer {
                     <span class="stat-value" id="handlers">-</span>
                 </div>
             </div>
+
+            <div class="card">
+                <h2>工具调用</h2>
+                <div class="stat">
+                    <span class="stat-label">调用次数</span>
+                    <span class="stat-value" id="toolCalls">-</span>
+                </div>
+                <div class="stat">
+                    <span class="stat-label">失败次数</span>
+                    <span class="stat-value" id="toolErrors">-</span>
+                </div>
+                <div class="stat">
+                    <span class="stat-label">执行中</span>
+                    <span class="stat-value" id="toolsInFlight">-</span>
+                </div>
+                <div class="stat">
+                    <span class="stat-label">慢调用</span>
+                    <span class="stat-value" id="slowCalls">-</span>
+                </div>
+            </div>
         </div>
 
         <div class="refresh-info">
@@ -382,6 +460,12 @@ public class MonitorServer {
                     document.getElementById('eventTypes').textContent = data.eventBus.totalEventTypes || 0;
                     document.getElementById('handlers').textContent = data.eventBus.totalHandlers || 0;
 
+                    // Tools
+                    document.getElementById('toolCalls').textContent = data.tools.totalCalls || 0;
+                    document.getElementById('toolErrors').textContent = data.tools.totalErrors || 0;
+                    document.getElementById('toolsInFlight').textContent = data.tools.inFlight || 0;
+                    document.getElementById('slowCalls').textContent = (data.tools.slowCalls || []).length;
+
                     // Last update
                     document.getElementById('lastUpdate').textContent = new Date().toLocaleTimeString('zh-CN');
                 })
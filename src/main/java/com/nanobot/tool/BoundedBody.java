@@ -0,0 +1,178 @@
+package com.nanobot.tool;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.util.*;
+
+/**
+ * Bounded Body - Capped, incremental reading of HTTP response bodies
+ * Bytes are decoded chunk by chunk with a CharsetDecoder and pushed to a
+ * sink, so a page is never held as one string. Reading stops at a byte cap
+ * or as soon as the sink has enough, and the caller closes the stream to
+ * cancel the rest of the exchange.
+ */
+class BoundedBody {
+    static final long DEFAULT_MAX_BYTES = 5L * 1024 * 1024;
+    private static final int CHUNK = 8192;
+
+    private static final List<String> TEXT_TYPES = List.of(
+        "text/", "application/xhtml", "application/xml", "application/json", "application/javascript",
+        "application/ld+json", "application/rss+xml", "application/atom+xml");
+
+    /**
+     * Receives decoded characters; feed returns false once it wants no more
+     */
+    interface Sink {
+        void start(String contentType);
+
+        boolean feed(char[] chars, int offset, int length);
+    }
+
+    record Outcome(long bytes, boolean complete, boolean capped, byte[] captured) {}
+
+    /**
+     * Whether a content type is worth downloading as text; a missing type is allowed
+     */
+    static boolean isAccepted(String contentType) {
+        if (contentType == null || contentType.isBlank()) return true;
+        String type = contentType.toLowerCase(Locale.ROOT).trim();
+        for (String prefix : TEXT_TYPES) {
+            if (type.startsWith(prefix)) return true;
+        }
+        return type.contains("+xml") || type.contains("+json");
+    }
+
+    static boolean isHtml(String contentType) {
+        if (contentType == null || contentType.isBlank()) return true;
+        String type = contentType.toLowerCase(Locale.ROOT);
+        return type.contains("html");
+    }
+
+    /**
+     * Decode up to maxBytes from the stream into the sink. With a capture limit
+     * the raw bytes are also kept, and a body that fits is read to the end even
+     * after the sink is satisfied so it can be cached whole.
+     */
+    static Outcome pump(InputStream in, Charset charset, long maxBytes, Sink sink,
+                        int captureLimit) throws IOException {
+        CharsetDecoder decoder = charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bytes = ByteBuffer.allocate(CHUNK);
+        CharBuffer chars = CharBuffer.allocate(CHUNK);
+        ByteArrayOutputStream capture = captureLimit > 0 ? new ByteArrayOutputStream() : null;
+
+        long total = 0;
+        boolean wanted = true;
+        boolean capped = false;
+        boolean eof = false;
+
+        while ((wanted || capture != null) && !eof) {
+            int room = (int) Math.min(bytes.remaining(), maxBytes - total);
+            int read;
+            if (room > 0) {
+                read = in.read(bytes.array(), bytes.position(), room);
+            } else if (in.read() < 0) {
+                // A body of exactly maxBytes is complete; only a further byte means it was cut off
+                read = -1;
+            } else {
+                capped = wanted;
+                break;
+            }
+
+            if (read < 0) {
+                eof = true;
+            } else {
+                if (capture != null) {
+                    if (capture.size() + read > captureLimit) {
+                        capture = null;
+                    } else {
+                        capture.write(bytes.array(), bytes.position(), read);
+                    }
+                }
+                bytes.position(bytes.position() + read);
+                total += read;
+            }
+
+            bytes.flip();
+            if (wanted) {
+                wanted = drain(decoder, bytes, chars, eof, sink);
+            }
+            if (wanted) {
+                bytes.compact();
+            } else {
+                bytes.clear();
+            }
+        }
+
+        if (wanted && eof) {
+            CoderResult result;
+            do {
+                result = decoder.flush(chars);
+                chars.flip();
+                wanted = sink.feed(chars.array(), chars.position(), chars.remaining());
+                chars.clear();
+            } while (wanted && result.isOverflow());
+        }
+
+        return new Outcome(total, eof, capped, eof && capture != null ? capture.toByteArray() : null);
+    }
+
+    private static boolean drain(CharsetDecoder decoder, ByteBuffer bytes, CharBuffer chars,
+                                 boolean endOfInput, Sink sink) {
+        while (true) {
+            CoderResult result = decoder.decode(bytes, chars, endOfInput);
+            chars.flip();
+            boolean wanted = chars.remaining() == 0 || sink.feed(chars.array(), chars.position(), chars.remaining());
+            chars.clear();
+            if (!wanted) return false;
+            if (!result.isOverflow()) return true;
+        }
+    }
+
+    /**
+     * Extracts markdown or text from HTML, or passes other text types through, up to maxChars
+     */
+    static class Extraction implements Sink {
+        private final String mode;
+        private final int maxChars;
+        private HtmlExtractor html;
+        private StringBuilder plain;
+        private boolean full;
+
+        Extraction(String mode, int maxChars) {
+            this.mode = mode;
+            this.maxChars = maxChars;
+        }
+
+        @Override
+        public void start(String contentType) {
+            html = null;
+            plain = null;
+            full = false;
+            if (isHtml(contentType)) {
+                html = new HtmlExtractor(mode, maxChars);
+            } else {
+                plain = new StringBuilder();
+            }
+        }
+
+        @Override
+        public boolean feed(char[] chars, int offset, int length) {
+            if (html != null) {
+                return html.feed(chars, offset, length);
+            }
+            int take = Math.min(length, maxChars - plain.length());
+            plain.append(chars, offset, take);
+            full = plain.length() >= maxChars;
+            return !full;
+        }
+
+        HtmlExtractor.Result result() {
+            if (html != null) return html.finish();
+            if (plain != null) return new HtmlExtractor.Result(plain.toString().strip(), null, full);
+            return new HtmlExtractor.Result("", null, false);
+        }
+    }
+}
@@ -28,45 +28,51 @@ public class EnhancedWebTool {
         int maxChars = getIntArg(args, "maxChars", 50000);
 
         try {
-            HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(url))
-                .header("User-Agent", "Nanobot/1.0 (Java)")
-                .header("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8")
-                .timeout(Duration.ofSeconds(30))
-                .GET()
-                .build();
-
-            HttpResponse<String> response = client.send(request,
-                HttpResponse.BodyHandlers.ofString());
+            BoundedBody.Extraction extraction = new BoundedBody.Extraction(extractMode, maxChars);
+            FetchCache.Response response = FetchCache.shared().get(client, url, Map.of(
+                "User-Agent", "Nanobot/1.0 (Java)",
+                "Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8"),
+                Duration.ofSeconds(30), BoundedBody.DEFAULT_MAX_BYTES, extraction);
 
-            int status = response.statusCode();
+            int status = response.status();
             if (status >= 400) {
                 return createResult(url, url, status, null, "HTTP Error " + status);
             }
 
-            String content = response.body();
-            if (content == null || content.isEmpty()) {
+            if (!response.accepted()) {
+                return createResult(url, url, status, null, "Unsupported content type: " + response.contentType());
+            }
+            if (response.bytes() == 0) {
                 return createResult(url, url, status, null, "No content received");
             }
 
-            String extracted = extractContent(content, extractMode);
-
-            if (extracted.length() > maxChars) {
-                extracted = extracted.substring(0, maxChars) + "\n\n[Content truncated]";
+            HtmlExtractor.Result extracted = extraction.result();
+            boolean truncated = extracted.truncated() || response.capped();
+            String text = extracted.text();
+            if (!"text".equals(extractMode) && extracted.title() != null) {
+                text = "# " + extracted.title() + "\n\n" + text;
+            }
+            if (truncated) {
+                text += "\n\n[Content truncated]";
             }
 
             Map<String, Object> result = new HashMap<>();
             result.put("url", url);
             result.put("finalUrl", url);
             result.put("status", status);
+            result.put("cache", response.source());
             result.put("extractor", extractMode);
-            result.put("length", extracted.length());
-            result.put("truncated", extracted.length() >= maxChars);
-            result.put("text", extracted);
+            result.put("length", extracted.text().length());
+            result.put("truncated", truncated);
+            result.put("title", extracted.title());
+            result.put("text", text);
 
             return result;
 
         } catch (Exception e) {
+            if (ToolGuard.isTransient(e)) {
+                throw new ToolGuard.TransientToolException("Error fetching URL: " + e.getMessage(), e);
+            }
             return createResult(url, url, 0, null, "Error: " + e.getMessage());
         }
     }
@@ -176,77 +182,6 @@ public class EnhancedWebTool {
         return result;
     }
 
-    private String extractContent(String html, String mode) {
-        if ("text".equals(mode)) {
-            return html.replaceAll("(?s)<script[^>]*>.*?</script>", "")
-                       .replaceAll("(?s)<style[^>]*>.*?</style>", "")
-                       .replaceAll("<[^>]+>", "")
-                       .replaceAll("\\s+", " ")
-                       .trim();
-        }
-
-        // Markdown extraction with basic readability
-        String markdown = html;
-
-        // Extract title
-        String title = extractTitle(html);
-
-        // Remove scripts and styles
-        markdown = markdown.replaceAll("(?s)<script[^>]*>.*?</script>", "");
-        markdown = markdown.replaceAll("(?s)<style[^>]*>.*?</style>", "");
-
-        // Convert basic HTML to markdown
-        markdown = markdown.replaceAll("<h1[^>]*>(.*?)</h1>", "\n# $1\n\n");
-        markdown = markdown.replaceAll("<h2[^>]*>(.*?)</h2>", "\n## $1\n\n");
-        markdown = markdown.replaceAll("<h3[^>]*>(.*?)</h3>", "\n### $1\n\n");
-        markdown = markdown.replaceAll("<p[^>]*>(.*?)</p>", "$1\n\n");
-        markdown = markdown.replaceAll("<br\\s*/?>", "\n");
-        markdown = markdown.replaceAll("<a[^>]*href=\"([^\"]*)\"[^>]*>(.*?)</a>", "[$2]($1)");
-        markdown = markdown.replaceAll("<strong[^>]*>(.*?)</strong>", "**$1**");
-        markdown = markdown.replaceAll("<b[^>]*>(.*?)</b>", "**$1**");
-        markdown = markdown.replaceAll("<em[^>]*>(.*?)</em>", "*$1*");
-        markdown = markdown.replaceAll("<i[^>]*>(.*?)</i>", "*$1*");
-        markdown = markdown.replaceAll("<li[^>]*>(.*?)</li>", "- $1\n");
-        markdown = markdown.replaceAll("<code[^>]*>(.*?)</code>", "`$1`");
-        markdown = markdown.replaceAll("<pre[^>]*>(.*?)</pre>", "\n```\n$1\n```\n");
-
-        // Clean up
-        markdown = markdown.replaceAll("<[^>]+>", "");
-        markdown = markdown.replaceAll("\\n{3,}", "\n\n");
-        markdown = markdown.replaceAll("[ \t]+", " ");
-
-        StringBuilder sb = new StringBuilder();
-        if (title != null && !title.isEmpty()) {
-            sb.append("# ").append(title).append("\n\n");
-        }
-        sb.append(markdown.trim());
-
-        return sb.toString();
-    }
-
-    private String extractTitle(String html) {
-        // Try Open Graph title first
-        String ogTitle = extractMetaContent(html, "og:title");
-        if (ogTitle != null) return ogTitle;
-
-        // Try regular title tag
-        String titleMatch = html.replaceAll("(?s).*<title[^>]*>(.*?)</title>.*", "$1");
-        if (!titleMatch.equals(html)) {
-            return titleMatch.trim();
-        }
-
-        return null;
-    }
-
-    private String extractMetaContent(String html, String property) {
-        String pattern = String.format("(?s).*<meta[^>]*(?:property|name)=[\"']%s[\"'][^>]*content=[\"']([^\"']*)[\"'][^>]*>.*", property);
-        String match = html.replaceAll(pattern, "$1");
-        if (!match.equals(html)) {
-            return match.trim();
-        }
-        return null;
-    }
-
     private Map<String, Object> createResult(String url, String finalUrl, int status,
                                              String content, String error) {
         Map<String, Object> result = new HashMap<>();
@@ -0,0 +1,474 @@
+package com.nanobot.tool;
+
+import java.io.*;
+import java.net.*;
+import java.net.http.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.security.*;
+import java.time.*;
+import java.time.format.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.zip.*;
+
+/**
+ * Fetch Cache - HTTP cache for web_fetch
+ * A bounded in-memory LRU backed by a compressed disk tier. Freshness follows
+ * Cache-Control (max-age, no-cache, no-store) with the usual Last-Modified
+ * heuristic; stale entries carrying an ETag or Last-Modified are revalidated
+ * with a conditional request, and a 304 is served from the cached body.
+ */
+public class FetchCache {
+    private static final FetchCache SHARED = new FetchCache(256, 32L * 1024 * 1024, 256L * 1024 * 1024);
+
+    private static final int DISK_MAGIC = 0x4E424643;
+    private static final long MAX_HEURISTIC_MS = TimeUnit.DAYS.toMillis(1);
+    private static final int MAX_CAPTURE_BYTES = 512 * 1024;
+
+    private final int maxEntries;
+    private final long maxMemoryBytes;
+    private final long maxDiskBytes;
+    private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<>(64, 0.75f, true);
+    private long memoryBytes = 0;
+
+    private volatile Path diskDir;
+    private final AtomicLong diskBytes = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong revalidated = new AtomicLong();
+    private final AtomicLong stores = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong bytesFromNetwork = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+
+    /**
+     * A cached response; freshUntil is wall-clock millis
+     */
+    record Entry(String url, int status, String contentType, byte[] body,
+                 String etag, String lastModified, long storedAt, long freshUntil) {
+        boolean isFresh(long now) {
+            return now < freshUntil;
+        }
+
+        boolean hasValidator() {
+            return etag != null || lastModified != null;
+        }
+    }
+
+    /**
+     * A fetched response; source is "network", "cache" or "revalidated".
+     * The body itself went to the caller's sink, and capped means the byte
+     * limit cut it short.
+     */
+    record Response(int status, String contentType, String source, long bytes, boolean capped) {
+        boolean accepted() {
+            return BoundedBody.isAccepted(contentType);
+        }
+    }
+
+    public FetchCache(int maxEntries, long maxMemoryBytes, long maxDiskBytes) {
+        this.maxEntries = maxEntries;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.maxDiskBytes = maxDiskBytes;
+    }
+
+    public static FetchCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Enable the disk tier under the given directory
+     */
+    public void setDiskDirectory(Path dir) {
+        try {
+            Files.createDirectories(dir);
+            long total = 0;
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.cache")) {
+                for (Path file : files) {
+                    total += Files.size(file);
+                }
+            }
+            diskBytes.set(total);
+            diskDir = dir;
+        } catch (IOException e) {
+            System.err.println("Web cache disabled on disk: " + e.getMessage());
+        }
+    }
+
+    /**
+     * GET a URL through the cache, streaming at most maxBytes of the body into the sink.
+     * Error statuses and non-text content types are not read at all.
+     */
+    Response get(HttpClient client, String url, Map<String, String> headers, Duration timeout,
+                 long maxBytes, BoundedBody.Sink sink) throws IOException, InterruptedException {
+        long now = System.currentTimeMillis();
+        Entry cached = lookup(url);
+
+        if (cached != null && cached.isFresh(now)) {
+            hits.incrementAndGet();
+            bytesSaved.addAndGet(cached.body().length);
+            return replay(cached, "cache", maxBytes, sink);
+        }
+
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+            .uri(URI.create(url))
+            .header("Accept-Encoding", "gzip, deflate")
+            .timeout(timeout)
+            .GET();
+        headers.forEach(builder::header);
+        if (cached != null) {
+            if (cached.etag() != null) builder.header("If-None-Match", cached.etag());
+            if (cached.lastModified() != null) builder.header("If-Modified-Since", cached.lastModified());
+        }
+
+        // ofInputStream returns once headers arrive; closing the stream cancels the exchange
+        HttpResponse<InputStream> response = client.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+        HttpHeaders responseHeaders = response.headers();
+        int status = response.statusCode();
+        String contentType = responseHeaders.firstValue("Content-Type").orElse(null);
+
+        // Body reads ignore interrupts; a timed-out fetch closes the stream to abort the exchange
+        InputStream stream = response.body();
+        ToolGuard.onCancel(() -> {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        });
+        try (InputStream body = stream) {
+            if (status == 304 && cached != null) {
+                revalidated.incrementAndGet();
+                bytesSaved.addAndGet(cached.body().length);
+                Entry refreshed = new Entry(url, cached.status(), cached.contentType(), cached.body(),
+                    responseHeaders.firstValue("ETag").orElse(cached.etag()),
+                    responseHeaders.firstValue("Last-Modified").orElse(cached.lastModified()),
+                    now, freshUntil(responseHeaders, now));
+                put(refreshed);
+                return replay(cached, "revalidated", maxBytes, sink);
+            }
+
+            misses.incrementAndGet();
+            if (status < 200 || status >= 300 || !BoundedBody.isAccepted(contentType)) {
+                return new Response(status, contentType, "network", 0, false);
+            }
+
+            // Small storable bodies are read to the end for the cache; anything else stops early
+            long declared = responseHeaders.firstValueAsLong("Content-Length").orElse(-1);
+            int captureLimit = (int) Math.min(MAX_CAPTURE_BYTES, maxBytes);
+            if (!cacheable(status, responseHeaders) || declared > captureLimit) {
+                captureLimit = 0;
+            }
+
+            sink.start(contentType);
+            BoundedBody.Outcome outcome;
+            try (InputStream in = decode(body, responseHeaders)) {
+                outcome = BoundedBody.pump(in, charsetOf(contentType), maxBytes, sink, captureLimit);
+            }
+            bytesFromNetwork.addAndGet(outcome.bytes());
+            if (outcome.captured() != null) {
+                store(url, status, contentType, outcome.captured(), responseHeaders, now);
+            }
+            return new Response(status, contentType, "network", outcome.bytes(), outcome.capped());
+        }
+    }
+
+    private Response replay(Entry entry, String source, long maxBytes, BoundedBody.Sink sink) throws IOException {
+        sink.start(entry.contentType());
+        BoundedBody.Outcome outcome = BoundedBody.pump(new ByteArrayInputStream(entry.body()),
+            charsetOf(entry.contentType()), maxBytes, sink, 0);
+        return new Response(entry.status(), entry.contentType(), source, outcome.bytes(), outcome.capped());
+    }
+
+    private static boolean cacheable(int status, HttpHeaders headers) {
+        if (status != 200 || cacheControl(headers).containsKey("no-store")) return false;
+
+        // Only Accept-Encoding variance is safe to ignore; we always send the same value
+        for (String vary : headers.allValues("Vary")) {
+            for (String field : vary.split(",")) {
+                String name = field.trim();
+                if (!name.isEmpty() && !name.equalsIgnoreCase("Accept-Encoding")) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Store a response if its headers allow caching
+     */
+    void store(String url, int status, String contentType, byte[] body, HttpHeaders headers, long now) {
+        if (!cacheable(status, headers)) return;
+
+        Entry entry = new Entry(url, status, contentType, body,
+            headers.firstValue("ETag").orElse(null),
+            headers.firstValue("Last-Modified").orElse(null),
+            now, freshUntil(headers, now));
+        if (!entry.isFresh(now) && !entry.hasValidator()) return;
+
+        stores.incrementAndGet();
+        put(entry);
+    }
+
+    private Entry lookup(String url) {
+        synchronized (memory) {
+            Entry entry = memory.get(url);
+            if (entry != null) return entry;
+        }
+
+        Entry entry = readDisk(url);
+        if (entry != null) {
+            diskHits.incrementAndGet();
+            putMemory(entry);
+        }
+        return entry;
+    }
+
+    private void put(Entry entry) {
+        putMemory(entry);
+        writeDisk(entry);
+    }
+
+    private void putMemory(Entry entry) {
+        if (entry.body().length > maxMemoryBytes / 4) return;
+
+        synchronized (memory) {
+            Entry previous = memory.put(entry.url(), entry);
+            if (previous != null) memoryBytes -= previous.body().length;
+            memoryBytes += entry.body().length;
+
+            Iterator<Entry> eldest = memory.values().iterator();
+            while ((memory.size() > maxEntries || memoryBytes > maxMemoryBytes) && eldest.hasNext()) {
+                memoryBytes -= eldest.next().body().length;
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    static long freshUntil(HttpHeaders headers, long now) {
+        Map<String, String> directives = cacheControl(headers);
+        if (directives.containsKey("no-cache")) return now;
+
+        long age = headers.firstValue("Age").map(FetchCache::parseLong).orElse(0L) * 1000;
+        String maxAge = directives.get("max-age");
+        if (maxAge != null) {
+            return now + parseLong(maxAge) * 1000 - age;
+        }
+
+        Optional<Long> expires = headers.firstValue("Expires").map(FetchCache::parseDate);
+        Optional<Long> date = headers.firstValue("Date").map(FetchCache::parseDate);
+        if (expires.isPresent()) {
+            return now + expires.get() - date.orElse(now);
+        }
+
+        // Heuristic freshness: a tenth of the time since last modification
+        Optional<Long> lastModified = headers.firstValue("Last-Modified").map(FetchCache::parseDate);
+        if (lastModified.isPresent() && lastModified.get() > 0) {
+            long sinceModified = date.orElse(now) - lastModified.get();
+            return now + Math.min(MAX_HEURISTIC_MS, Math.max(0, sinceModified / 10)) - age;
+        }
+        return now;
+    }
+
+    private static Map<String, String> cacheControl(HttpHeaders headers) {
+        Map<String, String> directives = new HashMap<>();
+        for (String value : headers.allValues("Cache-Control")) {
+            for (String directive : value.split(",")) {
+                String[] parts = directive.trim().split("=", 2);
+                if (parts[0].isEmpty()) continue;
+                directives.put(parts[0].toLowerCase(Locale.ROOT),
+                    parts.length > 1 ? parts[1].replace("\"", "").trim() : "");
+            }
+        }
+        return directives;
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static long parseDate(String value) {
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            // Invalid dates, such as Expires: 0, mean already expired
+            return 0;
+        }
+    }
+
+    static InputStream decode(InputStream body, HttpHeaders headers) throws IOException {
+        String encoding = headers.firstValue("Content-Encoding").orElse("identity").trim().toLowerCase(Locale.ROOT);
+        return switch (encoding) {
+            case "gzip", "x-gzip" -> new GZIPInputStream(body, 8192);
+            case "deflate" -> new InflaterInputStream(body);
+            case "identity", "" -> body;
+            default -> {
+                body.close();
+                throw new IOException("Unsupported Content-Encoding: " + encoding);
+            }
+        };
+    }
+
+    static Charset charsetOf(String contentType) {
+        if (contentType != null) {
+            for (String param : contentType.split(";")) {
+                String[] parts = param.trim().split("=", 2);
+                if (parts.length == 2 && parts[0].equalsIgnoreCase("charset")) {
+                    try {
+                        return Charset.forName(parts[1].replace("\"", "").trim());
+                    } catch (IllegalArgumentException e) {
+                        break;
+                    }
+                }
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    // Disk tier: one gzip file per URL, named by the URL's SHA-256
+
+    private Path diskPath(String url) {
+        Path dir = diskDir;
+        if (dir == null) return null;
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(url.getBytes(StandardCharsets.UTF_8));
+            return dir.resolve(HexFormat.of().formatHex(hash) + ".cache");
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    private Entry readDisk(String url) {
+        Path file = diskPath(url);
+        if (file == null || !Files.isRegularFile(file)) return null;
+
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != DISK_MAGIC || !in.readUTF().equals(url)) return null;
+            int status = in.readInt();
+            String contentType = nullIfEmpty(in.readUTF());
+            String etag = nullIfEmpty(in.readUTF());
+            String lastModified = nullIfEmpty(in.readUTF());
+            long storedAt = in.readLong();
+            long freshUntil = in.readLong();
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+            return new Entry(url, status, contentType, body, etag, lastModified, storedAt, freshUntil);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void writeDisk(Entry entry) {
+        Path file = diskPath(entry.url());
+        if (file == null || entry.body().length > maxDiskBytes / 4) return;
+
+        Path temp = file.resolveSibling(file.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(Files.newOutputStream(temp), 8192))) {
+                out.writeInt(DISK_MAGIC);
+                out.writeUTF(entry.url());
+                out.writeInt(entry.status());
+                out.writeUTF(Objects.toString(entry.contentType(), ""));
+                out.writeUTF(Objects.toString(entry.etag(), ""));
+                out.writeUTF(Objects.toString(entry.lastModified(), ""));
+                out.writeLong(entry.storedAt());
+                out.writeLong(entry.freshUntil());
+                out.writeInt(entry.body().length);
+                out.write(entry.body());
+            }
+
+            long previous = Files.exists(file) ? Files.size(file) : 0;
+            long written = Files.size(temp);
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            if (diskBytes.addAndGet(written - previous) > maxDiskBytes) {
+                trimDisk();
+            }
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // Best effort
+            }
+        }
+    }
+
+    private synchronized void trimDisk() {
+        Path dir = diskDir;
+        if (dir == null || diskBytes.get() <= maxDiskBytes) return;
+
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.cache")) {
+            stream.forEach(files::add);
+        } catch (IOException e) {
+            return;
+        }
+        files.sort(Comparator.comparingLong(FetchCache::lastModifiedMillis));
+
+        // Trim to three quarters so we do not rescan on every store
+        long target = maxDiskBytes * 3 / 4;
+        for (Path file : files) {
+            if (diskBytes.get() <= target) break;
+            try {
+                long size = Files.size(file);
+                if (Files.deleteIfExists(file)) {
+                    diskBytes.addAndGet(-size);
+                    evictions.incrementAndGet();
+                }
+            } catch (IOException e) {
+                // Skip files removed concurrently
+            }
+        }
+    }
+
+    private static long lastModifiedMillis(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static String nullIfEmpty(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    public void clear() {
+        synchronized (memory) {
+            memory.clear();
+            memoryBytes = 0;
+        }
+    }
+
+    /**
+     * Get cache statistics
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        synchronized (memory) {
+            stats.put("memoryEntries", memory.size());
+            stats.put("memoryBytes", memoryBytes);
+        }
+        stats.put("diskEnabled", diskDir != null);
+        stats.put("diskBytes", diskBytes.get());
+        stats.put("hits", hits.get());
+        stats.put("diskHits", diskHits.get());
+        stats.put("misses", misses.get());
+        stats.put("revalidated", revalidated.get());
+        stats.put("stores", stores.get());
+        stats.put("evictions", evictions.get());
+        stats.put("bytesFromNetwork", bytesFromNetwork.get());
+        stats.put("bytesSaved", bytesSaved.get());
+
+        long lookups = hits.get() + revalidated.get() + misses.get();
+        stats.put("hitRate", lookups == 0 ? 0.0 : (double) (hits.get() + revalidated.get()) / lookups);
+        return stats;
+    }
+}
@@ -0,0 +1,224 @@
+package com.nanobot.tool;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+
+/**
+ * File Line Index - Sparse line-offset index for paging through large files
+ * Records the byte offset of every 128th line, built once by scanning a
+ * memory-mapped view and cached per file until its mtime or size changes.
+ * Window reads then touch only the bytes between the nearest checkpoint and
+ * the end of the window.
+ */
+class FileLineIndex {
+    static final int CHECKPOINT_INTERVAL = 128;
+    private static final long MAP_SEGMENT = 256L * 1024 * 1024;
+    private static final int READ_BLOCK = 64 * 1024;
+    private static final int MAX_CACHED = 32;
+
+    private static final Map<Path, FileLineIndex> CACHE = Collections.synchronizedMap(
+        new LinkedHashMap<>(MAX_CACHED, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, FileLineIndex> eldest) {
+                return size() > MAX_CACHED;
+            }
+        });
+
+    private final long mtime;
+    private final long size;
+    private final long[] checkpoints;
+    private final long lineCount;
+
+    record Window(String content, long firstLine, int lines, boolean truncated, boolean lineCut) {}
+
+    private FileLineIndex(long mtime, long size, long[] checkpoints, long lineCount) {
+        this.mtime = mtime;
+        this.size = size;
+        this.checkpoints = checkpoints;
+        this.lineCount = lineCount;
+    }
+
+    /**
+     * Get the cached index for a file, rebuilding it if the file changed
+     */
+    static FileLineIndex get(Path path) throws IOException {
+        Path key = path.toAbsolutePath().normalize();
+        BasicFileAttributes attrs = Files.readAttributes(key, BasicFileAttributes.class);
+        long mtime = attrs.lastModifiedTime().toMillis();
+
+        FileLineIndex index = CACHE.get(key);
+        if (index != null && index.mtime == mtime && index.size == attrs.size()) {
+            return index;
+        }
+
+        index = build(key, mtime, attrs.size());
+        CACHE.put(key, index);
+        return index;
+    }
+
+    private static FileLineIndex build(Path path, long mtime, long size) throws IOException {
+        long[] checkpoints = new long[16];
+        int count = 1;
+        long newlines = 0;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            for (long base = 0; base < size; base += MAP_SEGMENT) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, base, Math.min(MAP_SEGMENT, size - base));
+                int limit = buffer.limit();
+                for (int i = 0; i < limit; i++) {
+                    if (buffer.get(i) != '\n') continue;
+
+                    newlines++;
+                    long nextLineStart = base + i + 1;
+                    if (newlines % CHECKPOINT_INTERVAL == 0 && nextLineStart < size) {
+                        if (count == checkpoints.length) {
+                            checkpoints = Arrays.copyOf(checkpoints, count * 2);
+                        }
+                        checkpoints[count++] = nextLineStart;
+                    }
+                }
+            }
+
+            boolean trailingPartialLine = size > 0 && lastByte(channel, size) != '\n';
+            return new FileLineIndex(mtime, size, Arrays.copyOf(checkpoints, count),
+                newlines + (trailingPartialLine ? 1 : 0));
+        }
+    }
+
+    private static byte lastByte(FileChannel channel, long size) throws IOException {
+        ByteBuffer one = ByteBuffer.allocate(1);
+        channel.read(one, size - 1);
+        return one.get(0);
+    }
+
+    long getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Read lines [firstLine, firstLine + maxLines), zero-based
+     */
+    Window read(FileChannel channel, long firstLine, int maxLines, int maxBytes) throws IOException {
+        int checkpoint = (int) (firstLine / CHECKPOINT_INTERVAL);
+        int skip = (int) (firstLine % CHECKPOINT_INTERVAL);
+        return readForward(channel, checkpoints[checkpoint], skip, firstLine, maxLines, maxBytes);
+    }
+
+    /**
+     * Read up to maxLines lines starting at a line boundary, after skipping some lines.
+     * Stops before the first line that does not fit in maxBytes; if that is the first
+     * line of the window, its head is returned instead, cut on a character boundary.
+     */
+    static Window readForward(FileChannel channel, long start, int skip, long firstLine,
+                              int maxLines, int maxBytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(maxBytes, READ_BLOCK));
+        ByteBuffer block = ByteBuffer.allocate(READ_BLOCK);
+        long position = start;
+        int lines = 0;
+        int lineStart = 0;
+        boolean truncated = false;
+        boolean lineCut = false;
+        boolean partialLine = false;
+
+        outer:
+        while (lines < maxLines) {
+            block.clear();
+            int read = channel.read(block, position);
+            if (read <= 0) break;
+
+            byte[] bytes = block.array();
+            int from = 0;
+            for (int i = 0; i < read; i++) {
+                if (bytes[i] != '\n') continue;
+
+                if (skip > 0) {
+                    skip--;
+                    from = i + 1;
+                    continue;
+                }
+
+                if (out.size() + (i + 1 - from) > maxBytes) {
+                    truncated = true;
+                    lineCut = lines == 0;
+                    if (lineCut) out.write(bytes, from, maxBytes - out.size());
+                    break outer;
+                }
+                out.write(bytes, from, i + 1 - from);
+                from = i + 1;
+                lineStart = out.size();
+                partialLine = false;
+                if (++lines == maxLines) break outer;
+            }
+
+            if (skip == 0 && from < read) {
+                if (out.size() + (read - from) > maxBytes) {
+                    truncated = true;
+                    lineCut = lines == 0;
+                    if (lineCut) out.write(bytes, from, maxBytes - out.size());
+                    break;
+                }
+                out.write(bytes, from, read - from);
+                partialLine = true;
+            }
+            position += read;
+        }
+
+        // A final line without a trailing newline, or the head of a line too long to return whole
+        if ((partialLine && !truncated) || lineCut) {
+            lines++;
+        }
+
+        byte[] content = out.toByteArray();
+        int end = lineCut ? characterBoundary(content, content.length) : truncated ? lineStart : content.length;
+        return new Window(new String(content, 0, end, StandardCharsets.UTF_8), firstLine, lines, truncated, lineCut);
+    }
+
+    /**
+     * The largest cut point at or before end that does not split a UTF-8 sequence
+     */
+    private static int characterBoundary(byte[] bytes, int end) {
+        int lead = end - 1;
+        while (lead > 0 && (bytes[lead] & 0xC0) == 0x80 && end - lead < 4) {
+            lead--;
+        }
+        if (lead < 0) return end;
+
+        int b = bytes[lead] & 0xFF;
+        int length = b < 0x80 ? 1 : b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : b >= 0xC0 ? 2 : 1;
+        return lead + length <= end ? end : lead;
+    }
+
+    /**
+     * Byte offset where the last n lines begin, scanning backwards from the end
+     */
+    static long tailStart(FileChannel channel, long size, int n) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(READ_BLOCK);
+        long end = size;
+        // A trailing newline terminates the last line rather than starting a new one
+        boolean skipTrailing = size > 0 && lastByte(channel, size) == '\n';
+        int newlines = 0;
+
+        while (end > 0) {
+            int length = (int) Math.min(READ_BLOCK, end);
+            long start = end - length;
+            block.clear().limit(length);
+            channel.read(block, start);
+
+            byte[] bytes = block.array();
+            for (int i = length - 1; i >= 0; i--) {
+                if (bytes[i] != '\n') continue;
+                if (skipTrailing && start + i == size - 1) continue;
+                if (++newlines == n) {
+                    return start + i + 1;
+                }
+            }
+            end = start;
+        }
+        return 0;
+    }
+}
@@ -1,14 +1,20 @@
 package com.nanobot.tool;
 
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * File Tool - File system operations
  */
 public class FileTool {
     private static final int MAX_FILE_SIZE = 1024 * 1024; // 1MB
+    private static final int DEFAULT_WINDOW_LINES = 2000;
+    private static final int EDIT_BLOCK_SIZE = 1024 * 1024;
 
     public static String readFile(Map<String, Object> args, String workspace) {
         String path = getPath(args, workspace);
@@ -24,18 +30,74 @@ public class FileTool {
 
         try {
             long size = Files.size(filePath);
-            if (size > MAX_FILE_SIZE) {
-                throw new IllegalArgumentException("File too large: " + size + " bytes (max: " + MAX_FILE_SIZE + ")");
+            boolean ranged = args.containsKey("offset") || args.containsKey("limit")
+                || args.containsKey("head") || args.containsKey("tail");
+
+            if (!ranged && size <= MAX_FILE_SIZE) {
+                String content = Files.readString(filePath);
+                return "File: " + path + "\n\n" + content;
             }
 
-            String content = Files.readString(filePath);
-            return "File: " + path + "\n\n" + content;
+            return readWindow(filePath, path, size, args);
 
         } catch (IOException e) {
             throw new RuntimeException("Failed to read file: " + e.getMessage());
         }
     }
 
+    /**
+     * Read a line window; cost follows the window size, not the file size
+     */
+    private static String readWindow(Path filePath, String path, long size, Map<String, Object> args) throws IOException {
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            FileLineIndex.Window window;
+            String range;
+
+            if (args.containsKey("tail")) {
+                int tail = positive(getIntArg(args, "tail", DEFAULT_WINDOW_LINES), "tail");
+                long start = FileLineIndex.tailStart(channel, size, tail);
+                window = FileLineIndex.readForward(channel, start, 0, -1, tail, MAX_FILE_SIZE);
+                range = "last " + window.lines() + " lines";
+
+            } else if (args.containsKey("head") || !args.containsKey("offset")) {
+                int head = positive(getIntArg(args, "head", getIntArg(args, "limit", DEFAULT_WINDOW_LINES)), "head");
+                window = FileLineIndex.readForward(channel, 0, 0, 0, head, MAX_FILE_SIZE);
+                range = "lines 1-" + window.lines();
+
+            } else {
+                long offset = positive(getIntArg(args, "offset", 1), "offset");
+                int limit = positive(getIntArg(args, "limit", DEFAULT_WINDOW_LINES), "limit");
+                FileLineIndex index = FileLineIndex.get(filePath);
+                if (offset > index.getLineCount()) {
+                    throw new IllegalArgumentException("Offset " + offset + " is past the end of the file ("
+                        + index.getLineCount() + " lines)");
+                }
+                window = index.read(channel, offset - 1, limit, MAX_FILE_SIZE);
+                range = "lines " + offset + "-" + (offset - 1 + window.lines()) + " of " + index.getLineCount();
+            }
+
+            StringBuilder sb = new StringBuilder();
+            sb.append("File: ").append(path).append(" (").append(range).append(")\n\n");
+            sb.append(window.content());
+            if (window.lineCut()) {
+                // offset/limit count whole lines, so they cannot page within this one
+                sb.append("\n[Line truncated at ").append(formatSize(MAX_FILE_SIZE))
+                    .append("; the rest of this line cannot be read with offset/limit]");
+            } else if (window.truncated()) {
+                sb.append("\n[Output truncated at ").append(formatSize(MAX_FILE_SIZE))
+                    .append("; use offset/limit to read further]");
+            }
+            return sb.toString();
+        }
+    }
+
+    private static int positive(int value, String name) {
+        if (value < 1) {
+            throw new IllegalArgumentException(name + " must be at least 1");
+        }
+        return value;
+    }
+
     public static String writeFile(Map<String, Object> args, String workspace) {
         String path = getPath(args, workspace);
         String content = getStringArg(args, "content", "Content is required");
@@ -44,12 +106,26 @@ public class FileTool {
             Path filePath = Paths.get(path);
 
             // Create parent directories if needed
-            Path parent = filePath.getParent();
+            Path parent = filePath.toAbsolutePath().getParent();
             if (parent != null && !Files.exists(parent)) {
                 Files.createDirectories(parent);
             }
 
-            Files.writeString(filePath, content);
+            // Write beside the target and rename over it, so readers never see a torn file
+            Path target = resolveTarget(filePath);
+            Path temp = createSiblingTemp(target);
+            try {
+                try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                    ByteBuffer buffer = ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8));
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                    out.force(true);
+                }
+                replaceAtomically(temp, target);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
 
             return "Successfully wrote " + content.length() + " bytes to " + path;
 
@@ -58,10 +134,13 @@ public class FileTool {
         }
     }
 
+    /**
+     * Replace text in a file. Accepts old_text/new_text or a list of edits, all
+     * located against the original content and applied in a single pass.
+     */
     public static String editFile(Map<String, Object> args, String workspace) {
         String path = getPath(args, workspace);
-        String oldText = getStringArg(args, "old_text", "old_text is required");
-        String newText = getStringArg(args, "new_text", "new_text is required");
+        List<Map<String, Object>> edits = getEdits(args);
 
         try {
             Path filePath = Paths.get(path);
@@ -69,22 +148,188 @@ public class FileTool {
                 throw new IllegalArgumentException("File not found: " + path);
             }
 
-            String content = Files.readString(filePath);
+            List<Replacement> replacements = new ArrayList<>();
+            try (FileChannel in = FileChannel.open(filePath, StandardOpenOption.READ)) {
+                for (Map<String, Object> edit : edits) {
+                    String oldText = getStringArg(edit, "old_text", "old_text is required");
+                    String newText = getStringArg(edit, "new_text", "new_text is required");
+                    if (oldText.isEmpty()) {
+                        throw new IllegalArgumentException("old_text must not be empty");
+                    }
+
+                    byte[] needle = oldText.getBytes(StandardCharsets.UTF_8);
+                    byte[] replacement = newText.getBytes(StandardCharsets.UTF_8);
+                    List<Long> offsets = findAll(in, needle);
+                    if (offsets.isEmpty()) {
+                        throw new IllegalArgumentException("Text not found in file: " + oldText);
+                    }
+                    for (long offset : offsets) {
+                        replacements.add(new Replacement(offset, needle.length, replacement));
+                    }
+                }
+            }
 
-            if (!content.contains(oldText)) {
-                throw new IllegalArgumentException("Text not found in file: " + oldText);
+            replacements.sort(Comparator.comparingLong(Replacement::offset));
+            for (int i = 1; i < replacements.size(); i++) {
+                Replacement previous = replacements.get(i - 1);
+                if (previous.offset() + previous.length() > replacements.get(i).offset()) {
+                    throw new IllegalArgumentException("Edits overlap at byte " + replacements.get(i).offset());
+                }
             }
 
-            String newContent = content.replace(oldText, newText);
-            Files.writeString(filePath, newContent);
+            applyReplacements(filePath, replacements);
 
-            return "Successfully edited " + path;
+            return "Successfully edited " + path + " (" + replacements.size()
+                + (replacements.size() == 1 ? " replacement)" : " replacements)");
 
         } catch (IOException e) {
             throw new RuntimeException("Failed to edit file: " + e.getMessage());
         }
     }
 
+    private record Replacement(long offset, int length, byte[] bytes) {}
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> getEdits(Map<String, Object> args) {
+        Object edits = args.get("edits");
+        if (edits == null) {
+            return List.of(args);
+        }
+
+        if (edits instanceof String) {
+            try {
+                edits = new com.fasterxml.jackson.databind.ObjectMapper().readValue((String) edits, List.class);
+            } catch (Exception e) {
+                throw new IllegalArgumentException("edits must be a list of {old_text, new_text}");
+            }
+        }
+        if (!(edits instanceof List) || ((List<?>) edits).isEmpty()) {
+            throw new IllegalArgumentException("edits must be a non-empty list of {old_text, new_text}");
+        }
+
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (Object edit : (List<Object>) edits) {
+            if (!(edit instanceof Map)) {
+                throw new IllegalArgumentException("edits must be a list of {old_text, new_text}");
+            }
+            result.add((Map<String, Object>) edit);
+        }
+        return result;
+    }
+
+    /**
+     * Offsets of all non-overlapping occurrences, scanning the file in blocks
+     */
+    private static List<Long> findAll(FileChannel channel, byte[] needle) throws IOException {
+        List<Long> offsets = new ArrayList<>();
+        int overlap = needle.length - 1;
+        byte[] block = new byte[Math.max(EDIT_BLOCK_SIZE, needle.length * 2)];
+        ByteBuffer buffer = ByteBuffer.wrap(block);
+
+        long blockStart = 0;
+        int filled = 0;
+        long nextAllowed = 0;
+
+        while (true) {
+            buffer.limit(block.length).position(filled);
+            int read = channel.read(buffer, blockStart + filled);
+            if (read > 0) filled += read;
+            boolean eof = read < 0 || blockStart + filled >= channel.size();
+
+            int searchEnd = filled - needle.length;
+            for (int i = 0; i <= searchEnd; i++) {
+                if (block[i] != needle[0] || blockStart + i < nextAllowed) continue;
+                if (Arrays.equals(block, i, i + needle.length, needle, 0, needle.length)) {
+                    offsets.add(blockStart + i);
+                    nextAllowed = blockStart + i + needle.length;
+                }
+            }
+
+            if (eof) break;
+
+            // Keep the tail that could start a match spanning into the next block
+            int keep = Math.min(overlap, filled);
+            System.arraycopy(block, filled - keep, block, 0, keep);
+            blockStart += filled - keep;
+            filled = keep;
+        }
+
+        return offsets;
+    }
+
+    /**
+     * Copy unchanged regions with channel transfers and splice in the replacements
+     */
+    private static void applyReplacements(Path filePath, List<Replacement> replacements) throws IOException {
+        Path target = resolveTarget(filePath);
+        Path temp = createSiblingTemp(target);
+        try {
+            try (FileChannel in = FileChannel.open(target, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                long position = 0;
+                for (Replacement replacement : replacements) {
+                    transferFully(in, position, replacement.offset() - position, out);
+                    ByteBuffer bytes = ByteBuffer.wrap(replacement.bytes());
+                    while (bytes.hasRemaining()) {
+                        out.write(bytes);
+                    }
+                    position = replacement.offset() + replacement.length();
+                }
+                transferFully(in, position, in.size() - position, out);
+                out.force(true);
+            }
+            replaceAtomically(temp, target);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * The file a rename must replace: an existing symlink is written through to
+     * the file it points at, as a plain write would, instead of being replaced
+     */
+    private static Path resolveTarget(Path filePath) throws IOException {
+        if (Files.exists(filePath)) {
+            return filePath.toRealPath();
+        }
+        return filePath.toAbsolutePath();
+    }
+
+    private static void transferFully(FileChannel in, long position, long count, FileChannel out) throws IOException {
+        while (count > 0) {
+            long transferred = in.transferTo(position, count, out);
+            if (transferred <= 0) {
+                throw new IOException("Short transfer at byte " + position);
+            }
+            position += transferred;
+            count -= transferred;
+        }
+    }
+
+    private static Path createSiblingTemp(Path target) throws IOException {
+        Path absolute = target.toAbsolutePath();
+        // Files.createFile keeps the default umask permissions, unlike createTempFile
+        Path temp = absolute.resolveSibling("." + absolute.getFileName() + "."
+            + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+        Files.createFile(temp);
+        if (Files.exists(absolute)) {
+            try {
+                Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(absolute));
+            } catch (UnsupportedOperationException e) {
+                // Non-POSIX file system
+            }
+        }
+        return temp;
+    }
+
+    private static void replaceAtomically(Path temp, Path target) throws IOException {
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
     public static String listDir(Map<String, Object> args, String workspace) {
         String path = getPath(args, workspace);
 
@@ -99,7 +344,11 @@ public class FileTool {
 
         try {
             StringBuilder sb = new StringBuilder();
-            Files.list(dirPath)
+            List<Path> entries;
+            try (var listing = Files.list(dirPath)) {
+                entries = listing.toList();
+            }
+            entries.stream()
                 .sorted(Comparator.comparing(p -> !Files.isDirectory(p)))
                 .forEach(p -> {
                     try {
@@ -139,47 +388,22 @@ public class FileTool {
             startPath = Paths.get(workspace);
         }
 
-        try {
-            StringBuilder sb = new StringBuilder();
-            sb.append("Pattern: ").append(pattern).append("\n\n");
-
-            String globPattern = patternPath.endsWith("**") ?
-                patternPath + "*" :
-                patternPath.contains("*") ? patternPath : "**/" + patternPath;
-
-            int maxResults = getIntArg(args, "maxResults", 50);
-
-            try (var stream = Files.walk(startPath)) {
-                stream
-                    .filter(path -> {
-                        try {
-                            String relative = startPath.relativize(path).toString();
-                            return matchesGlob(relative, globPattern);
-                        } catch (Exception e) {
-                            return false;
-                        }
-                    })
-                    .limit(maxResults + 1)
-                    .forEach(p -> sb.append(p.toString()).append("\n"));
-            }
+        String globPattern = GlobMatcher.hasWildcard(patternPath) ? patternPath : "**/" + patternPath;
+        int maxResults = getIntArg(args, "maxResults", 50);
+        boolean respectIgnore = !"false".equals(String.valueOf(args.getOrDefault("respectGitignore", "true")));
 
-            return sb.toString();
+        GlobMatcher.Result result = GlobMatcher.find(startPath, globPattern, maxResults, respectIgnore);
 
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to glob files: " + e.getMessage());
+        StringBuilder sb = new StringBuilder();
+        sb.append("Pattern: ").append(pattern).append("\n\n");
+        for (Path p : result.paths()) {
+            sb.append(p.toString()).append("\n");
+        }
+        if (result.truncated()) {
+            sb.append("\n[Results truncated at ").append(maxResults).append("]\n");
         }
-    }
-
-    private static boolean matchesGlob(String path, String pattern) {
-        // Simple glob matching
-        String regex = pattern
-            .replace(".", "\\.")
-            .replace("**/", "(.*/)?")
-            .replace("**", ".*")
-            .replace("*", "[^/]*")
-            .replace("?", ".");
 
-        return path.matches(regex);
+        return sb.toString();
     }
 
     private static String getPath(Map<String, Object> args, String workspace) {
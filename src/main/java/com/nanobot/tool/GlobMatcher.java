@@ -0,0 +1,337 @@
+package com.nanobot.tool;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.*;
+
+/**
+ * Glob Matcher - Compiled path globs with subtree pruning
+ * A pattern is compiled once into per-segment matchers and run as a small
+ * automaton over path segments, so a directory is only descended when some
+ * path below it could still match. Supports *, ?, [...], {a,b} and **.
+ */
+class GlobMatcher {
+    private final int length;
+    private final boolean[] doubleStar;
+    private final String[] literals;
+    private final Pattern[] patterns;
+
+    record Result(List<Path> paths, boolean truncated) {}
+
+    GlobMatcher(String glob) {
+        List<String> segments = new ArrayList<>();
+        for (String segment : glob.split("/")) {
+            if (!segment.isEmpty()) {
+                segments.add(segment);
+            }
+        }
+
+        this.length = segments.size();
+        this.doubleStar = new boolean[length];
+        this.literals = new String[length];
+        this.patterns = new Pattern[length];
+
+        for (int i = 0; i < length; i++) {
+            String segment = segments.get(i);
+            if (segment.equals("**")) {
+                doubleStar[i] = true;
+            } else if (hasWildcard(segment)) {
+                patterns[i] = Pattern.compile(toRegex(segment));
+            } else {
+                literals[i] = segment;
+            }
+        }
+    }
+
+    static boolean hasWildcard(String glob) {
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == '{') return true;
+        }
+        return false;
+    }
+
+    private static String toRegex(String segment) {
+        StringBuilder regex = new StringBuilder();
+        boolean inBraces = false;
+
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            switch (c) {
+                case '*' -> regex.append("[^/]*");
+                case '?' -> regex.append("[^/]");
+                case '[' -> {
+                    int close = segment.indexOf(']', i + 2);
+                    if (close < 0) {
+                        regex.append("\\[");
+                    } else {
+                        String body = segment.substring(i + 1, close);
+                        if (body.startsWith("!")) body = "^" + body.substring(1);
+                        regex.append('[').append(body.replace("\\", "\\\\")).append(']');
+                        i = close;
+                    }
+                }
+                case '{' -> {
+                    inBraces = true;
+                    regex.append("(?:");
+                }
+                case '}' -> {
+                    if (inBraces) {
+                        inBraces = false;
+                        regex.append(')');
+                    } else {
+                        regex.append("\\}");
+                    }
+                }
+                case ',' -> regex.append(inBraces ? "|" : ",");
+                default -> {
+                    if ("\\.^$|()+".indexOf(c) >= 0) regex.append('\\');
+                    regex.append(c);
+                }
+            }
+        }
+        return regex.toString();
+    }
+
+    /**
+     * States before any segment has been consumed
+     */
+    BitSet start() {
+        BitSet states = new BitSet(length + 1);
+        states.set(0);
+        return closure(states);
+    }
+
+    /**
+     * Consume one path segment; an empty result means nothing below can match
+     */
+    BitSet advance(BitSet states, String name) {
+        BitSet next = new BitSet(length + 1);
+        for (int i = states.nextSetBit(0); i >= 0 && i < length; i = states.nextSetBit(i + 1)) {
+            if (doubleStar[i]) {
+                next.set(i);
+            } else if (literals[i] != null ? literals[i].equals(name) : patterns[i].matcher(name).matches()) {
+                next.set(i + 1);
+            }
+        }
+        return closure(next);
+    }
+
+    boolean accepts(BitSet states) {
+        return states.get(length);
+    }
+
+    boolean matches(String relativePath) {
+        BitSet states = start();
+        for (String segment : relativePath.split("/")) {
+            if (segment.isEmpty()) continue;
+            states = advance(states, segment);
+            if (states.isEmpty()) return false;
+        }
+        return accepts(states);
+    }
+
+    private BitSet closure(BitSet states) {
+        // ** may match zero segments
+        for (int i = states.nextSetBit(0); i >= 0 && i < length; i = states.nextSetBit(i + 1)) {
+            if (doubleStar[i]) {
+                states.set(i + 1);
+            }
+        }
+        return states;
+    }
+
+    /**
+     * Find paths under base matching the glob. When more than maxResults match, the
+     * first maxResults in path order are returned; once maxResults + 1 matches are held,
+     * directories sorting after the largest of them are not walked.
+     */
+    static Result find(Path base, String glob, int maxResults, boolean respectIgnoreFiles) {
+        // Leading literal segments select the starting directory instead of being matched
+        Path start = base;
+        List<String> segments = new ArrayList<>(Arrays.asList(glob.split("/")));
+        segments.removeIf(String::isEmpty);
+        while (segments.size() > 1 && !hasWildcard(segments.get(0))) {
+            start = start.resolve(segments.remove(0));
+        }
+
+        if (!Files.isDirectory(start)) {
+            return new Result(List.of(), false);
+        }
+
+        IgnoreRules ignore = null;
+        if (respectIgnoreFiles) {
+            Path dir = base;
+            ignore = IgnoreRules.load(dir, null);
+            for (Path part : base.relativize(start)) {
+                dir = dir.resolve(part);
+                ignore = IgnoreRules.load(dir, ignore);
+            }
+        }
+
+        GlobMatcher matcher = new GlobMatcher(String.join("/", segments));
+        int limit = Math.max(0, maxResults);
+        WalkContext context = new WalkContext(matcher, limit, respectIgnoreFiles);
+        ForkJoinPool.commonPool().invoke(new WalkTask(start, matcher.start(), ignore, context, false));
+
+        List<Path> paths = context.results();
+        boolean truncated = paths.size() > limit;
+        return new Result(truncated ? List.copyOf(paths.subList(0, limit)) : paths, truncated);
+    }
+
+    private static class WalkContext {
+        private final GlobMatcher matcher;
+        private final int keep;
+        private final boolean respectIgnoreFiles;
+        // The smallest maxResults + 1 matches so far; the extra one tells whether to truncate
+        private final TreeSet<Path> kept = new TreeSet<>();
+        private volatile Path bound;
+
+        WalkContext(GlobMatcher matcher, int maxResults, boolean respectIgnoreFiles) {
+            this.matcher = matcher;
+            this.keep = maxResults + 1;
+            this.respectIgnoreFiles = respectIgnoreFiles;
+        }
+
+        /**
+         * True once keep smaller matches are held. Nothing at or below path can make the
+         * cut then, since every path under a directory sorts after the directory itself.
+         */
+        boolean beyondBound(Path path) {
+            Path last = bound;
+            return last != null && path.compareTo(last) >= 0;
+        }
+
+        synchronized void add(Path path) {
+            if (beyondBound(path)) return;
+            kept.add(path);
+            if (kept.size() > keep) {
+                kept.pollLast();
+            }
+            if (kept.size() == keep) {
+                bound = kept.last();
+            }
+        }
+
+        synchronized List<Path> results() {
+            return new ArrayList<>(kept);
+        }
+    }
+
+    private static class WalkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        // ForkJoinTask is Serializable, but a walk only lives inside one pool run
+        private final transient Path dir;
+        private final BitSet states;
+        private final transient IgnoreRules parentIgnore;
+        private final transient WalkContext context;
+        private final boolean loadIgnore;
+
+        WalkTask(Path dir, BitSet states, IgnoreRules parentIgnore, WalkContext context, boolean loadIgnore) {
+            this.dir = dir;
+            this.states = states;
+            this.parentIgnore = parentIgnore;
+            this.context = context;
+            this.loadIgnore = loadIgnore;
+        }
+
+        @Override
+        protected void compute() {
+            if (context.beyondBound(dir)) return;
+
+            IgnoreRules ignore = loadIgnore ? IgnoreRules.load(dir, parentIgnore) : parentIgnore;
+            List<Path> children = new ArrayList<>();
+            try (DirectoryStream<Path> listing = Files.newDirectoryStream(dir)) {
+                listing.forEach(children::add);
+            } catch (IOException | DirectoryIteratorException e) {
+                // Skip unreadable directories
+                return;
+            }
+            Collections.sort(children);
+
+            List<WalkTask> subtasks = new ArrayList<>();
+            for (Path child : children) {
+                // Later siblings and everything under them sort after this one
+                if (context.beyondBound(child)) break;
+
+                String name = child.getFileName().toString();
+                boolean isDir = Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS);
+                if (isDir && name.equals(".git") && context.respectIgnoreFiles) continue;
+                if (ignore != null && ignore.isIgnored(child, isDir)) continue;
+
+                BitSet next = context.matcher.advance(states, name);
+                if (next.isEmpty()) continue;
+
+                if (context.matcher.accepts(next)) {
+                    context.add(child);
+                }
+                if (isDir) {
+                    subtasks.add(new WalkTask(child, next, ignore, context, context.respectIgnoreFiles));
+                }
+            }
+
+            invokeAll(subtasks);
+        }
+    }
+
+    /**
+     * Rules from one .gitignore, falling back to the parent directory's rules
+     */
+    static class IgnoreRules {
+        private final IgnoreRules parent;
+        private final Path base;
+        private final List<Rule> rules;
+
+        private record Rule(GlobMatcher matcher, boolean negate, boolean dirOnly) {}
+
+        private IgnoreRules(IgnoreRules parent, Path base, List<Rule> rules) {
+            this.parent = parent;
+            this.base = base;
+            this.rules = rules;
+        }
+
+        static IgnoreRules load(Path dir, IgnoreRules parent) {
+            Path file = dir.resolve(".gitignore");
+            if (!Files.isRegularFile(file)) return parent;
+
+            List<Rule> rules = new ArrayList<>();
+            try {
+                for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                    String pattern = line.strip();
+                    if (pattern.isEmpty() || pattern.startsWith("#")) continue;
+
+                    boolean negate = pattern.startsWith("!");
+                    if (negate) pattern = pattern.substring(1);
+                    boolean dirOnly = pattern.endsWith("/");
+                    if (dirOnly) pattern = pattern.substring(0, pattern.length() - 1);
+                    if (pattern.isEmpty()) continue;
+
+                    // Patterns without an inner slash match at any depth
+                    boolean anchored = pattern.contains("/");
+                    if (pattern.startsWith("/")) pattern = pattern.substring(1);
+                    rules.add(new Rule(new GlobMatcher(anchored ? pattern : "**/" + pattern), negate, dirOnly));
+                }
+            } catch (IOException | UncheckedIOException e) {
+                return parent;
+            }
+
+            return rules.isEmpty() ? parent : new IgnoreRules(parent, dir, rules);
+        }
+
+        boolean isIgnored(Path path, boolean isDir) {
+            String relative = base.relativize(path).toString().replace('\\', '/');
+            for (int i = rules.size() - 1; i >= 0; i--) {
+                Rule rule = rules.get(i);
+                if (rule.dirOnly() && !isDir) continue;
+                if (rule.matcher().matches(relative)) {
+                    return !rule.negate();
+                }
+            }
+            return parent != null && parent.isIgnored(path, isDir);
+        }
+    }
+}
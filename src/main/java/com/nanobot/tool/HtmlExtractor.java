@@ -0,0 +1,479 @@
+package com.nanobot.tool;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HTML Extractor - Single-pass streaming HTML to markdown or text
+ * Characters are pushed through a small tokenizer state machine that keeps
+ * its state across chunks, so a page can be converted as it is downloaded.
+ * Only the current tag and entity are buffered, never the document, and
+ * feeding stops as soon as maxChars of output have been produced.
+ */
+class HtmlExtractor {
+    private static final int MAX_TAG_CHARS = 4096;
+    private static final int MAX_ENTITY_CHARS = 10;
+    private static final Set<String> RAW_TEXT = Set.of("script", "style", "noscript", "template", "textarea");
+    private static final Set<String> SKIPPED = Set.of("svg", "iframe", "object", "select", "button", "canvas");
+    private static final Set<String> BLOCKS = Set.of(
+        "p", "div", "section", "article", "header", "footer", "nav", "aside", "main",
+        "table", "tr", "ul", "ol", "dl", "dt", "dd", "blockquote", "figure", "figcaption",
+        "form", "fieldset", "address", "details", "summary", "body", "html");
+
+    private enum State { TEXT, TAG, COMMENT, RAW, ENTITY }
+
+    private final boolean markdown;
+    private final int maxChars;
+    private final StringBuilder out = new StringBuilder();
+
+    private State state = State.TEXT;
+    private final StringBuilder tag = new StringBuilder();
+    private final StringBuilder entity = new StringBuilder();
+    private char quote = 0;
+    private int commentDashes = 0;
+    private String rawTag;
+    private int rawMatch = 0;
+
+    private int pendingBreaks = 0;
+    private boolean pendingSpace = false;
+    private boolean done = false;
+
+    private int preDepth = 0;
+    private int skipDepth = 0;
+    private boolean inHead = false;
+    private StringBuilder titleText;
+    private String title;
+    private String ogTitle;
+    private final Deque<String> linkTargets = new ArrayDeque<>();
+
+    record Result(String text, String title, boolean truncated) {}
+
+    HtmlExtractor(String mode, int maxChars) {
+        this.markdown = !"text".equals(mode);
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * Convert a whole document, reading only as far as needed
+     */
+    static Result extract(Reader reader, String mode, int maxChars) throws IOException {
+        HtmlExtractor extractor = new HtmlExtractor(mode, maxChars);
+        char[] chunk = new char[8192];
+        int read;
+        while ((read = reader.read(chunk)) != -1) {
+            if (!extractor.feed(chunk, 0, read)) break;
+        }
+        return extractor.finish();
+    }
+
+    static Result extract(String html, String mode, int maxChars) {
+        HtmlExtractor extractor = new HtmlExtractor(mode, maxChars);
+        extractor.feed(html.toCharArray(), 0, html.length());
+        return extractor.finish();
+    }
+
+    /**
+     * Feed the next chunk; returns false once maxChars has been reached
+     */
+    boolean feed(char[] chars, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset; i < end && !done; i++) {
+            char c = chars[i];
+            switch (state) {
+                case TEXT -> {
+                    if (c == '<') {
+                        state = State.TAG;
+                        tag.setLength(0);
+                        quote = 0;
+                    } else if (c == '&') {
+                        state = State.ENTITY;
+                        entity.setLength(0);
+                    } else {
+                        text(c);
+                    }
+                }
+                case ENTITY -> {
+                    if (c == ';') {
+                        state = State.TEXT;
+                        String decoded = decodeEntity(entity.toString());
+                        if (decoded != null) {
+                            text(decoded);
+                        } else {
+                            text("&" + entity + ";");
+                        }
+                    } else if ((Character.isLetterOrDigit(c) || c == '#') && entity.length() < MAX_ENTITY_CHARS) {
+                        entity.append(c);
+                    } else {
+                        // Not an entity after all; replay the character as text
+                        state = State.TEXT;
+                        text("&" + entity);
+                        i--;
+                    }
+                }
+                case TAG -> tagChar(c);
+                case COMMENT -> {
+                    if (c == '>' && commentDashes >= 2) {
+                        state = State.TEXT;
+                    }
+                    commentDashes = c == '-' ? commentDashes + 1 : 0;
+                }
+                case RAW -> rawChar(c);
+            }
+        }
+        return !done;
+    }
+
+    private void tagChar(char c) {
+        if (quote != 0) {
+            if (c == quote) quote = 0;
+            appendTag(c);
+            return;
+        }
+
+        if (c == '>') {
+            state = State.TEXT;
+            handleTag(tag.toString());
+            return;
+        }
+
+        if ((c == '"' || c == '\'') && tag.indexOf("=") >= 0) {
+            quote = c;
+        }
+        appendTag(c);
+
+        if (tag.length() == 3 && tag.toString().equals("!--")) {
+            state = State.COMMENT;
+            commentDashes = 0;
+        } else if (tag.length() == 1 && !Character.isLetter(c) && c != '/' && c != '!' && c != '?') {
+            // A bare '<' in text, such as "a < b"
+            state = State.TEXT;
+            text('<');
+            text(c);
+        }
+    }
+
+    private void appendTag(char c) {
+        if (tag.length() < MAX_TAG_CHARS) {
+            tag.append(c);
+        }
+    }
+
+    private void rawChar(char c) {
+        // Match "</" + rawTag case-insensitively, then skip to the closing '>'
+        String close = "</" + rawTag;
+        if (rawMatch < close.length()) {
+            if (Character.toLowerCase(c) == close.charAt(rawMatch)) {
+                rawMatch++;
+            } else {
+                rawMatch = c == '<' ? 1 : 0;
+            }
+        } else if (c == '>') {
+            state = State.TEXT;
+            rawTag = null;
+            rawMatch = 0;
+        } else if (!Character.isWhitespace(c) && rawMatch == close.length() && c != '/') {
+            // "</scripts" is not our closing tag
+            rawMatch = 0;
+        }
+    }
+
+    private void handleTag(String raw) {
+        if (raw.isEmpty() || raw.charAt(0) == '!' || raw.charAt(0) == '?') return;
+
+        boolean closing = raw.charAt(0) == '/';
+        int start = closing ? 1 : 0;
+        int nameEnd = start;
+        while (nameEnd < raw.length() && !Character.isWhitespace(raw.charAt(nameEnd))
+               && raw.charAt(nameEnd) != '/') {
+            nameEnd++;
+        }
+        String name = raw.substring(start, nameEnd).toLowerCase(Locale.ROOT);
+        if (name.isEmpty()) return;
+        boolean selfClosing = raw.endsWith("/");
+
+        if (!closing && RAW_TEXT.contains(name) && !selfClosing) {
+            state = State.RAW;
+            rawTag = name;
+            rawMatch = 0;
+            return;
+        }
+
+        if (SKIPPED.contains(name)) {
+            if (closing) {
+                skipDepth = Math.max(0, skipDepth - 1);
+            } else if (!selfClosing) {
+                skipDepth++;
+            }
+            return;
+        }
+
+        if (name.equals("body")) inHead = false;
+
+        switch (name) {
+            case "head" -> inHead = !closing;
+            case "title" -> {
+                if (closing) {
+                    if (titleText != null && title == null) title = titleText.toString().trim();
+                    titleText = null;
+                } else {
+                    titleText = new StringBuilder();
+                }
+            }
+            case "meta" -> {
+                String property = attribute(raw, "property");
+                if (property == null) property = attribute(raw, "name");
+                if ("og:title".equals(property)) ogTitle = attribute(raw, "content");
+            }
+            default -> {
+                if (skipDepth == 0 && !inHead) {
+                    if (markdown) {
+                        markdownTag(name, closing, raw);
+                    } else {
+                        textTag(name);
+                    }
+                }
+            }
+        }
+    }
+
+    private void markdownTag(String name, boolean closing, String raw) {
+        switch (name) {
+            case "h1", "h2", "h3", "h4", "h5", "h6" -> {
+                breaks(2);
+                if (!closing) {
+                    emit("#".repeat(name.charAt(1) - '0') + " ");
+                }
+            }
+            case "br" -> breaks(1, true);
+            case "hr" -> {
+                breaks(2);
+                emit("---");
+                breaks(2);
+            }
+            case "li" -> {
+                if (!closing) {
+                    breaks(1);
+                    emit("- ");
+                }
+            }
+            case "strong", "b" -> inline("**", closing);
+            case "em", "i" -> inline("*", closing);
+            case "code" -> {
+                if (preDepth == 0) inline("`", closing);
+            }
+            case "pre" -> {
+                if (closing) {
+                    breaks(1);
+                    emit("```");
+                    preDepth = Math.max(0, preDepth - 1);
+                    breaks(2);
+                } else {
+                    breaks(2);
+                    emit("```");
+                    preDepth++;
+                    breaks(1);
+                }
+            }
+            case "a" -> {
+                if (closing) {
+                    String href = linkTargets.pollLast();
+                    if (href != null && !href.isEmpty()) inline("](" + href + ")", true);
+                } else {
+                    String href = attribute(raw, "href");
+                    if (href == null || href.startsWith("#") || href.startsWith("javascript:")) href = "";
+                    linkTargets.addLast(href);
+                    if (!href.isEmpty()) emit("[");
+                }
+            }
+            default -> {
+                if (BLOCKS.contains(name)) {
+                    breaks(name.equals("p") || name.equals("blockquote") ? 2 : 1);
+                }
+            }
+        }
+    }
+
+    private void inline(String markup, boolean closing) {
+        // Keep "**bold** text" rather than "**bold **text"
+        boolean space = pendingSpace;
+        if (closing) pendingSpace = false;
+        emit(markup);
+        if (closing) pendingSpace = space;
+    }
+
+    private void textTag(String name) {
+        if (BLOCKS.contains(name) || name.equals("br") || name.equals("li") || name.equals("pre")
+            || (name.length() == 2 && name.charAt(0) == 'h' && Character.isDigit(name.charAt(1)))) {
+            pendingSpace = true;
+        }
+    }
+
+    private static String attribute(String raw, String name) {
+        String lower = raw.toLowerCase(Locale.ROOT);
+        int from = 0;
+        while (true) {
+            int at = lower.indexOf(name, from);
+            if (at < 0) return null;
+            from = at + name.length();
+            if (at == 0 || !Character.isWhitespace(lower.charAt(at - 1))) continue;
+
+            int i = from;
+            while (i < raw.length() && Character.isWhitespace(raw.charAt(i))) i++;
+            if (i >= raw.length() || raw.charAt(i) != '=') continue;
+            i++;
+            while (i < raw.length() && Character.isWhitespace(raw.charAt(i))) i++;
+            if (i >= raw.length()) return "";
+
+            char q = raw.charAt(i);
+            int end;
+            if (q == '"' || q == '\'') {
+                end = raw.indexOf(q, i + 1);
+                i++;
+            } else {
+                end = i;
+                while (end < raw.length() && !Character.isWhitespace(raw.charAt(end)) && raw.charAt(end) != '/') end++;
+            }
+            if (end < 0) end = raw.length();
+            return decodeAll(raw.substring(i, end).trim());
+        }
+    }
+
+    private static String decodeAll(String value) {
+        if (value.indexOf('&') < 0) return value;
+        StringBuilder sb = new StringBuilder(value.length());
+        int i = 0;
+        while (i < value.length()) {
+            char c = value.charAt(i);
+            int semi = c == '&' ? value.indexOf(';', i) : -1;
+            String decoded = semi > i && semi - i <= MAX_ENTITY_CHARS + 1 ? decodeEntity(value.substring(i + 1, semi)) : null;
+            if (decoded != null) {
+                sb.append(decoded);
+                i = semi + 1;
+            } else {
+                sb.append(c);
+                i++;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String decodeEntity(String name) {
+        if (name.startsWith("#")) {
+            try {
+                int code = name.length() > 1 && (name.charAt(1) == 'x' || name.charAt(1) == 'X')
+                    ? Integer.parseInt(name.substring(2), 16)
+                    : Integer.parseInt(name.substring(1));
+                return Character.isValidCodePoint(code) ? new String(Character.toChars(code)) : null;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return switch (name) {
+            case "amp" -> "&";
+            case "lt" -> "<";
+            case "gt" -> ">";
+            case "quot" -> "\"";
+            case "apos", "#39" -> "'";
+            case "nbsp" -> " ";
+            case "mdash" -> "—";
+            case "ndash" -> "–";
+            case "hellip" -> "…";
+            case "copy" -> "©";
+            default -> null;
+        };
+    }
+
+    // Output: whitespace is collapsed lazily so breaks and spaces never pile up
+
+    private void text(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            text(s.charAt(i));
+        }
+    }
+
+    private void text(char c) {
+        if (titleText != null) {
+            if (titleText.length() < 1024) titleText.append(c);
+            return;
+        }
+        if (skipDepth > 0 || inHead) return;
+
+        if (preDepth > 0 && markdown) {
+            if (c == '\n') {
+                breaks(1, true);
+            } else {
+                put(c);
+            }
+            return;
+        }
+
+        if (Character.isWhitespace(c)) {
+            pendingSpace = true;
+        } else {
+            put(c);
+        }
+    }
+
+    private void emit(String markup) {
+        for (int i = 0; i < markup.length(); i++) {
+            put(markup.charAt(i));
+        }
+    }
+
+    private void breaks(int count) {
+        breaks(count, false);
+    }
+
+    private void breaks(int count, boolean force) {
+        if (out.length() == 0) return;
+        // A forced break (br, pre line) adds a line even right after another one
+        pendingBreaks = force ? Math.min(2, pendingBreaks + count) : Math.max(pendingBreaks, count);
+        pendingSpace = false;
+    }
+
+    private void put(char c) {
+        if (done) return;
+
+        if (pendingBreaks > 0) {
+            if (out.length() > 0) {
+                trimTrailingSpace();
+                for (int i = 0; i < pendingBreaks; i++) out.append('\n');
+            }
+            pendingBreaks = 0;
+            pendingSpace = false;
+        } else if (pendingSpace) {
+            char last = out.length() > 0 ? out.charAt(out.length() - 1) : '\n';
+            if (last != '\n' && last != ' ' && last != '[') out.append(' ');
+            pendingSpace = false;
+        }
+
+        out.append(c);
+        if (out.length() >= maxChars) {
+            out.setLength(maxChars);
+            done = true;
+        }
+    }
+
+    private void trimTrailingSpace() {
+        int end = out.length();
+        while (end > 0 && out.charAt(end - 1) == ' ') end--;
+        out.setLength(end);
+    }
+
+    boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Finish conversion; the title prefers og:title over the title element
+     */
+    Result finish() {
+        if (state == State.ENTITY && !done) {
+            text("&" + entity);
+        }
+        trimTrailingSpace();
+        String resolvedTitle = ogTitle != null && !ogTitle.isBlank() ? ogTitle.trim()
+            : (title != null && !title.isEmpty() ? title : null);
+        return new Result(out.toString().strip(), resolvedTitle, done);
+    }
+}
@@ -0,0 +1,160 @@
+package com.nanobot.tool;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+
+/**
+ * Process Runner - Bounded, time-limited process execution
+ * stdout and stderr are drained concurrently on virtual threads into a
+ * head-and-tail buffer, so the process never blocks on a full pipe and the
+ * end of long output is kept. The listener is called by one drain at a time,
+ * in the same order chunks enter the buffer. On timeout the whole process tree is killed
+ * outright rather than signalled, since a shell may ignore SIGTERM.
+ */
+class ProcessRunner {
+    private static final long DRAIN_WAIT_MS = 1000;
+
+    record Result(int exitCode, String output, boolean timedOut, long omittedChars) {}
+
+    /**
+     * Start the process and wait for it, streaming output chunks to the listener if given
+     */
+    static Result run(ProcessBuilder builder, long timeoutMs, int maxOutput,
+                      Consumer<String> listener) throws IOException, InterruptedException {
+        Process process = builder.start();
+        process.getOutputStream().close();
+        ToolGuard.onCancel(() -> killTree(process));
+
+        HeadTailBuffer buffer = new HeadTailBuffer(maxOutput);
+        Lock output = new ReentrantLock();
+        Thread stdout = Thread.startVirtualThread(() -> drain(process.getInputStream(), buffer, output, listener));
+        Thread stderr = Thread.startVirtualThread(() -> drain(process.getErrorStream(), buffer, output, listener));
+
+        boolean timedOut = false;
+        try {
+            if (!process.waitFor(timeoutMs, TimeUnit.MILLISECONDS)) {
+                timedOut = true;
+                killTree(process);
+            }
+        } catch (InterruptedException e) {
+            killTree(process);
+            throw e;
+        }
+
+        // Background children can keep the pipes open after the shell exits
+        stdout.join(DRAIN_WAIT_MS);
+        stderr.join(DRAIN_WAIT_MS);
+        if (stdout.isAlive() || stderr.isAlive()) {
+            closeQuietly(process.getInputStream());
+            closeQuietly(process.getErrorStream());
+        }
+
+        return new Result(timedOut ? -1 : process.exitValue(), buffer.toString(), timedOut, buffer.omitted());
+    }
+
+    /**
+     * Kill the process and all of its descendants
+     */
+    static void killTree(Process process) {
+        // Capture descendants first; they are reparented once the shell dies
+        List<ProcessHandle> descendants = process.descendants().toList();
+
+        // Kill the shell first so it cannot move on to its next command
+        process.destroyForcibly();
+        descendants.forEach(ProcessHandle::destroyForcibly);
+    }
+
+    private static void drain(InputStream in, HeadTailBuffer buffer, Lock output, Consumer<String> listener) {
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            char[] chunk = new char[8192];
+            int read;
+            while ((read = reader.read(chunk)) != -1) {
+                // Listeners such as the console echo keep per-line state and are not thread-safe
+                output.lock();
+                try {
+                    buffer.append(chunk, read);
+                    if (listener != null) {
+                        listener.accept(new String(chunk, 0, read));
+                    }
+                } finally {
+                    output.unlock();
+                }
+            }
+        } catch (IOException e) {
+            // Stream closed after a kill or drain timeout
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    /**
+     * Keeps the first and last halves of the output, counting what falls in between
+     */
+    static class HeadTailBuffer {
+        private final int headLimit;
+        private final StringBuilder head = new StringBuilder();
+        private final char[] tail;
+        private int tailStart = 0;
+        private int tailSize = 0;
+        private long omitted = 0;
+
+        HeadTailBuffer(int maxChars) {
+            this.headLimit = maxChars / 2;
+            this.tail = new char[maxChars - headLimit];
+        }
+
+        synchronized void append(char[] chars, int length) {
+            int offset = 0;
+            if (head.length() < headLimit) {
+                int take = Math.min(length, headLimit - head.length());
+                head.append(chars, 0, take);
+                offset = take;
+            }
+
+            for (int i = offset; i < length; i++) {
+                if (tail.length == 0) {
+                    omitted++;
+                    continue;
+                }
+                if (tailSize == tail.length) {
+                    tail[tailStart] = chars[i];
+                    tailStart = (tailStart + 1) % tail.length;
+                    omitted++;
+                } else {
+                    tail[(tailStart + tailSize++) % tail.length] = chars[i];
+                }
+            }
+        }
+
+        void append(String text) {
+            append(text.toCharArray(), text.length());
+        }
+
+        synchronized long omitted() {
+            return omitted;
+        }
+
+        @Override
+        public synchronized String toString() {
+            StringBuilder sb = new StringBuilder(head.length() + tailSize + 64);
+            sb.append(head);
+            if (omitted > 0) {
+                sb.append("\n\n[... ").append(omitted).append(" characters omitted ...]\n\n");
+            }
+            for (int i = 0; i < tailSize; i++) {
+                sb.append(tail[(tailStart + i) % tail.length]);
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.nanobot.tool;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+
+/**
+ * Shell Sessions - Pool of long-lived shells keyed by agent session
+ * Each agent session keeps one /bin/sh process, so cwd, exported variables
+ * and warm caches survive between commands. A command is written to the
+ * shell's stdin followed by a printf of a one-time marker carrying the exit
+ * status and working directory; output is read up to that marker. The command
+ * travels in a quoted here-doc and is syntax-checked before eval, so an
+ * unterminated quote or here-doc can never swallow the marker.
+ */
+public class ShellSessions {
+    private static final int READ_CHUNK = 8192;
+    private static final int MAX_STATUS_LINE = 8192;
+    private static final ShellSessions SHARED = new ShellSessions(16, TimeUnit.MINUTES.toMillis(10));
+
+    private final int maxSessions;
+    private final long idleTimeoutMs;
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService evictor;
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong commands = new AtomicLong();
+
+    public ShellSessions(int maxSessions, long idleTimeoutMs) {
+        this.maxSessions = maxSessions;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "shell-session-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, idleTimeoutMs / 4);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public static ShellSessions shared() {
+        return SHARED;
+    }
+
+    /**
+     * Run a command in the session's shell, starting the shell if needed
+     */
+    ProcessRunner.Result run(String sessionId, String workspace, String command, long timeoutMs,
+                             int maxOutput, Consumer<String> listener) throws IOException, InterruptedException {
+        String key = sessionId + "|" + workspace;
+
+        while (true) {
+            Session session = sessions.get(key);
+            if (session == null) {
+                session = startSession(key, workspace);
+            }
+
+            session.lock.lock();
+            try {
+                // Evicted or exited while we waited for the lock; drop it so the next pass starts afresh
+                if (!session.process.isAlive() || sessions.get(key) != session) {
+                    close(key, session);
+                    continue;
+                }
+
+                commands.incrementAndGet();
+                ProcessRunner.Result result = session.run(command, timeoutMs, maxOutput, listener);
+                if (!session.process.isAlive()) {
+                    close(key, session);
+                }
+                return result;
+            } finally {
+                session.lock.unlock();
+            }
+        }
+    }
+
+    private Session startSession(String key, String workspace) throws IOException {
+        if (sessions.size() >= maxSessions) {
+            sessions.entrySet().stream()
+                .filter(e -> !e.getValue().lock.isLocked())
+                .min(Comparator.comparingLong(e -> e.getValue().lastUsed))
+                .ifPresent(e -> {
+                    close(e.getKey(), e.getValue());
+                    evicted.incrementAndGet();
+                });
+        }
+
+        ProcessBuilder pb = new ProcessBuilder("/bin/sh");
+        pb.directory(new File(workspace));
+        pb.redirectErrorStream(true);
+
+        Session session = new Session(pb.start(), workspace);
+        Session existing = sessions.putIfAbsent(key, session);
+        if (existing != null) {
+            ProcessRunner.killTree(session.process);
+            return existing;
+        }
+        created.incrementAndGet();
+        return session;
+    }
+
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        sessions.forEach((key, session) -> {
+            if (now - session.lastUsed > idleTimeoutMs && session.lock.tryLock()) {
+                try {
+                    close(key, session);
+                    evicted.incrementAndGet();
+                } finally {
+                    session.lock.unlock();
+                }
+            }
+        });
+    }
+
+    private void close(String key, Session session) {
+        sessions.remove(key, session);
+        if (session.process.isAlive()) {
+            ProcessRunner.killTree(session.process);
+        }
+    }
+
+    /**
+     * Close a session's shell, e.g. when the agent session ends
+     */
+    public void closeSession(String sessionId, String workspace) {
+        String key = sessionId + "|" + workspace;
+        Session session = sessions.get(key);
+        if (session != null) {
+            close(key, session);
+        }
+    }
+
+    /**
+     * Close every session's shell in a workspace, e.g. when the workspace is deleted
+     */
+    public void closeWorkspace(String workspace) {
+        String suffix = "|" + workspace;
+        sessions.forEach((key, session) -> {
+            if (key.endsWith(suffix)) {
+                close(key, session);
+            }
+        });
+    }
+
+    public void closeAll() {
+        sessions.forEach(this::close);
+    }
+
+    /**
+     * Get session pool statistics
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("activeSessions", sessions.size());
+        stats.put("maxSessions", maxSessions);
+        stats.put("created", created.get());
+        stats.put("evicted", evicted.get());
+        stats.put("commands", commands.get());
+
+        Map<String, Object> cwds = new HashMap<>();
+        sessions.forEach((key, session) -> cwds.put(key.substring(0, key.lastIndexOf('|')), session.cwd));
+        stats.put("cwd", cwds);
+        return stats;
+    }
+
+    private static class Session {
+        private final Process process;
+        private final Writer stdin;
+        private final Reader stdout;
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile long lastUsed = System.currentTimeMillis();
+        private volatile String cwd;
+
+        Session(Process process, String workspace) {
+            this.process = process;
+            this.stdin = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+            this.stdout = new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8);
+            this.cwd = workspace;
+        }
+
+        ProcessRunner.Result run(String command, long timeoutMs, int maxOutput,
+                                 Consumer<String> listener) throws IOException, InterruptedException {
+            String marker = "__NANOBOT_" + Long.toHexString(ThreadLocalRandom.current().nextLong()) + "__";
+            ProcessRunner.HeadTailBuffer buffer = new ProcessRunner.HeadTailBuffer(maxOutput);
+            AtomicInteger exitCode = new AtomicInteger(-1);
+            AtomicBoolean framed = new AtomicBoolean(false);
+
+            Thread reader = Thread.startVirtualThread(() -> {
+                try {
+                    String status = readUntilMarker(marker, buffer, listener);
+                    if (status != null) {
+                        String[] parts = status.trim().split(" ", 2);
+                        exitCode.set(Integer.parseInt(parts[0]));
+                        if (parts.length > 1) cwd = parts[1];
+                        framed.set(true);
+                    }
+                } catch (IOException | NumberFormatException e) {
+                    // Shell killed or output unframed
+                }
+            });
+
+            // The quoted here-doc ends at its own delimiter whatever the command contains; eval runs
+            // in the current shell so cd and export persist, with stdin detached from the framing channel
+            String delimiter = marker + "CMD";
+            stdin.write("__nanobot_cmd=$(cat <<'" + delimiter + "'\n" + command + "\n" + delimiter + "\n)\n");
+            stdin.write("if printf '%s\\n' \"$__nanobot_cmd\" | /bin/sh -n; then eval \"$__nanobot_cmd\" </dev/null;"
+                + " else (exit 2); fi\n");
+            stdin.write("printf '" + marker + " %d %s\\n' \"$?\" \"$PWD\"\n");
+            stdin.flush();
+
+            // readUntilMarker ignores interrupts; killing the shell is what actually stops the command
+            ToolGuard.onCancel(() -> ProcessRunner.killTree(process));
+            try {
+                reader.join(timeoutMs);
+            } catch (InterruptedException e) {
+                ProcessRunner.killTree(process);
+                throw e;
+            }
+            lastUsed = System.currentTimeMillis();
+
+            if (reader.isAlive()) {
+                ProcessRunner.killTree(process);
+                reader.join(1000);
+                return new ProcessRunner.Result(-1, buffer.toString(), true, buffer.omitted());
+            }
+
+            if (!framed.get()) {
+                // The command ended the shell itself, e.g. with exit
+                int status = process.waitFor(1, TimeUnit.SECONDS) ? process.exitValue() : -1;
+                return new ProcessRunner.Result(status, buffer.toString(), false, buffer.omitted());
+            }
+
+            return new ProcessRunner.Result(exitCode.get(), buffer.toString(), false, buffer.omitted());
+        }
+
+        /**
+         * Feed output to the buffer chunk by chunk until the marker; returns the status after it,
+         * or null if the shell closed first. Only a marker-length tail is held back between chunks,
+         * so a long line without newlines never piles up on the heap.
+         */
+        private String readUntilMarker(String marker, ProcessRunner.HeadTailBuffer buffer,
+                                       Consumer<String> listener) throws IOException {
+            char[] chunk = new char[READ_CHUNK];
+            StringBuilder pending = new StringBuilder();
+            int n;
+            while ((n = stdout.read(chunk)) != -1) {
+                pending.append(chunk, 0, n);
+                int at = pending.indexOf(marker);
+                if (at >= 0) {
+                    emit(pending.substring(0, at), buffer, listener);
+                    StringBuilder status = new StringBuilder(pending.substring(at + marker.length()));
+                    while (status.indexOf("\n") < 0 && status.length() < MAX_STATUS_LINE
+                            && (n = stdout.read(chunk)) != -1) {
+                        status.append(chunk, 0, n);
+                    }
+                    int end = status.indexOf("\n");
+                    return end >= 0 ? status.substring(0, end) : status.toString();
+                }
+
+                // Keep just enough to match a marker split across chunks
+                int keep = Math.min(pending.length(), marker.length() - 1);
+                emit(pending.substring(0, pending.length() - keep), buffer, listener);
+                pending.delete(0, pending.length() - keep);
+            }
+            return null;
+        }
+
+        private static void emit(String text, ProcessRunner.HeadTailBuffer buffer, Consumer<String> listener) {
+            if (text.isEmpty()) return;
+            buffer.append(text);
+            if (listener != null) listener.accept(text);
+        }
+    }
+}
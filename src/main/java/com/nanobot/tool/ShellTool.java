@@ -2,67 +2,85 @@ package com.nanobot.tool;
 
 import java.io.*;
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * Shell Tool - Execute shell commands
+ * With a session id, commands run in that agent session's persistent shell
+ * so cd and exported variables carry over between calls.
  */
 public class ShellTool {
     private static final int TIMEOUT_SECONDS = 60;
+    private static final int MAX_TIMEOUT_SECONDS = 600;
     private static final int MAX_OUTPUT = 100000; // 100KB
 
     public static String execute(Map<String, Object> args, String workspace) {
+        return execute(args, workspace, null);
+    }
+
+    /**
+     * Execute a command, passing its output to the listener as it arrives; the
+     * listener sees each chunk once and nothing is retained beyond MAX_OUTPUT
+     */
+    public static String execute(Map<String, Object> args, String workspace, Consumer<String> output) {
+        return executeInSession(args, workspace, null, output);
+    }
+
+    /**
+     * Execute a command in the agent session's persistent shell
+     */
+    public static String executeInSession(Map<String, Object> args, String workspace, String sessionId) {
+        return executeInSession(args, workspace, sessionId, null);
+    }
+
+    /**
+     * Execute in the session's persistent shell, or a fresh one when sessionId is null
+     */
+    public static String executeInSession(Map<String, Object> args, String workspace, String sessionId,
+                                          Consumer<String> output) {
         String command = getStringArg(args, "command", "command is required");
+        int timeoutSeconds = Math.min(MAX_TIMEOUT_SECONDS, Math.max(1, getIntArg(args, "timeout", TIMEOUT_SECONDS)));
 
         // Security: Block dangerous commands
         validateCommand(command);
 
         try {
-            // Change to workspace directory if specified
-            ProcessBuilder pb;
-            if (command.contains("cd ")) {
-                // Handle cd command specially
-                String newDir = extractCdPath(command);
-                if (newDir != null && !newDir.startsWith("/") && !newDir.contains(":")) {
-                    newDir = workspace + "/" + newDir;
-                }
-                pb = new ProcessBuilder("/bin/sh", "-c", "cd " + quote(newDir) + " && " + command);
+            ProcessRunner.Result result;
+            if (sessionId != null) {
+                result = ShellSessions.shared().run(sessionId, workspace, command, timeoutSeconds * 1000L,
+                    MAX_OUTPUT, output);
             } else {
-                pb = new ProcessBuilder("/bin/sh", "-c", command);
+                ProcessBuilder pb = new ProcessBuilder("/bin/sh", "-c", command);
+                pb.directory(new File(workspace));
+                result = ProcessRunner.run(pb, timeoutSeconds * 1000L, MAX_OUTPUT, output);
             }
 
-            pb.directory(new File(workspace));
-            pb.redirectErrorStream(true);
-
-            Process process = pb.start();
-
-            // Read output with timeout
-            StringBuilder output = new StringBuilder();
-            try (BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(process.getInputStream()))) {
-
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    if (output.length() > MAX_OUTPUT) {
-                        output.append("\n\n[Output truncated - too large]");
-                        break;
-                    }
-                    output.append(line).append("\n");
-                }
-            }
-
-            int exitCode = process.waitFor();
-
-            if (exitCode != 0 && output.length() == 0) {
-                output.append("[Command failed with exit code ").append(exitCode).append("]");
+            String formatted = formatResult(result, timeoutSeconds);
+            if (sessionId != null && result.timedOut()) {
+                formatted += "\n[Shell session was reset; working directory and variables are back to defaults]";
             }
+            return formatted;
 
-            return output.toString();
-
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Command interrupted");
         } catch (Exception e) {
             throw new RuntimeException("Command failed: " + e.getMessage());
         }
     }
 
+    static String formatResult(ProcessRunner.Result result, int timeoutSeconds) {
+        StringBuilder output = new StringBuilder(result.output());
+
+        if (result.timedOut()) {
+            output.append("\n[Command timed out after ").append(timeoutSeconds).append("s and was killed]");
+        } else if (result.exitCode() != 0 && output.length() == 0) {
+            output.append("[Command failed with exit code ").append(result.exitCode()).append("]");
+        }
+
+        return output.toString();
+    }
+
     private static void validateCommand(String command) {
         String lower = command.toLowerCase();
 
@@ -85,32 +103,6 @@ public class ShellTool {
         }
     }
 
-    private static String extractCdPath(String command) {
-        int cdIndex = command.indexOf("cd ");
-        if (cdIndex == -1) return null;
-
-        String afterCd = command.substring(cdIndex + 3).trim();
-
-        // Extract path (handle quotes)
-        if (afterCd.startsWith("\"")) {
-            int endQuote = afterCd.indexOf("\"", 1);
-            return endQuote > 0 ? afterCd.substring(1, endQuote) : afterCd.substring(1);
-        }
-        if (afterCd.startsWith("'")) {
-            int endQuote = afterCd.indexOf("'", 1);
-            return endQuote > 0 ? afterCd.substring(1, endQuote) : afterCd.substring(1);
-        }
-
-        // Extract first word
-        String[] parts = afterCd.split("\\s+");
-        return parts[0];
-    }
-
-    private static String quote(String str) {
-        if (str == null) return "''";
-        return "'" + str.replace("'", "'\\''") + "'";
-    }
-
     private static String getStringArg(Map<String, Object> args, String key, String errorMsg) {
         Object value = args.get(key);
         if (value == null) {
@@ -118,4 +110,11 @@ public class ShellTool {
         }
         return value.toString();
     }
+
+    private static int getIntArg(Map<String, Object> args, String key, int defaultValue) {
+        Object value = args.get(key);
+        if (value == null) return defaultValue;
+        if (value instanceof Number) return ((Number) value).intValue();
+        return Integer.parseInt(value.toString());
+    }
 }
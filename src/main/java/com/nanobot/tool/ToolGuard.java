@@ -0,0 +1,303 @@
+package com.nanobot.tool;
+
+import java.io.*;
+import java.net.*;
+import java.net.http.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Tool Guard - Timeouts, bulkheads and retries around tool execution
+ * A call with a timeout runs on a virtual thread; when the time is up the
+ * caller gets an error, the thread is interrupted and the call's cancel hooks
+ * run (killing its process, closing its response stream), since blocking
+ * reads ignore interrupts. Each tool's semaphore caps its concurrent calls and
+ * a call holds its permits until it has really ended, so the cap bounds work
+ * actually running. Session limits cap all tool calls from sessions sharing
+ * a key prefix.
+ */
+public class ToolGuard {
+    private static final long BULKHEAD_WAIT_MS = 5000;
+    private static final long MAX_BACKOFF_MS = 10_000;
+
+    private static final ThreadLocal<Cancellation> CURRENT = new ThreadLocal<>();
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ConcurrentHashMap<String, Bulkhead> bulkheads = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Bulkhead> sessionLimits = new ConcurrentHashMap<>();
+    private final ToolMetrics metrics;
+
+    /**
+     * Execution limits for one tool; zero disables the timeout, concurrency cap or retries
+     */
+    public record Policy(long timeoutMs, int maxConcurrent, int maxRetries, long retryBackoffMs) {
+        public static final Policy DEFAULT = new Policy(0, 0, 0, 0);
+
+        public static Policy timeout(long timeoutMs, int maxConcurrent) {
+            return new Policy(timeoutMs, maxConcurrent, 0, 0);
+        }
+
+        public Policy withRetries(int maxRetries, long retryBackoffMs) {
+            return new Policy(timeoutMs, maxConcurrent, maxRetries, retryBackoffMs);
+        }
+    }
+
+    /**
+     * Thrown by tools for failures worth retrying, such as a dropped connection
+     */
+    public static class TransientToolException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public TransientToolException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private record Bulkhead(int permits, Semaphore semaphore) {}
+
+    /**
+     * Semaphores taken for one attempt; released once, by whichever thread finishes the work
+     */
+    private static final class Permits {
+        private final List<Semaphore> held = new ArrayList<>(2);
+        private boolean released = false;
+
+        synchronized void release() {
+            if (released) return;
+            released = true;
+            held.forEach(Semaphore::release);
+        }
+    }
+
+    /**
+     * Cancel hooks registered by the call running on a guarded thread
+     */
+    private static final class Cancellation {
+        private final List<Runnable> hooks = new ArrayList<>();
+        private boolean cancelled = false;
+
+        void add(Runnable hook) {
+            synchronized (this) {
+                if (!cancelled) {
+                    hooks.add(hook);
+                    return;
+                }
+            }
+            runHook(hook);
+        }
+
+        void cancel() {
+            List<Runnable> toRun;
+            synchronized (this) {
+                if (cancelled) return;
+                cancelled = true;
+                toRun = new ArrayList<>(hooks);
+            }
+            toRun.forEach(Cancellation::runHook);
+        }
+
+        private static void runHook(Runnable hook) {
+            try {
+                hook.run();
+            } catch (RuntimeException e) {
+                System.err.println("Tool cancel hook failed: " + e.getMessage());
+            }
+        }
+    }
+
+    ToolGuard(ToolMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Register how to abort the tool call running on this thread, e.g. kill its process or
+     * close its response stream; runs if the call times out. A no-op outside a timed call.
+     */
+    public static void onCancel(Runnable hook) {
+        Cancellation cancellation = CURRENT.get();
+        if (cancellation != null) {
+            cancellation.add(hook);
+        }
+    }
+
+    /**
+     * Cap concurrent tool calls across all sessions whose id starts with the prefix
+     */
+    void limitSessions(String sessionPrefix, int maxConcurrent) {
+        if (maxConcurrent <= 0) {
+            sessionLimits.remove(sessionPrefix);
+        } else {
+            sessionLimits.put(sessionPrefix, new Bulkhead(maxConcurrent, new Semaphore(maxConcurrent)));
+        }
+    }
+
+    /**
+     * Run a call under the policy and any limit on the calling session
+     */
+    Object run(String tool, Policy policy, String sessionId, Callable<Object> call) {
+        if (policy == null) policy = Policy.DEFAULT;
+
+        for (int attempt = 0; ; attempt++) {
+            try {
+                // Permits are taken per attempt, so backoff sleeps hold none
+                return attempt(tool, policy, call, acquire(tool, policy, sessionId));
+            } catch (RuntimeException e) {
+                if (attempt >= policy.maxRetries() || !isTransient(e)) throw e;
+                metrics.recordRetry(tool);
+                sleep(backoff(policy.retryBackoffMs(), attempt));
+            }
+        }
+    }
+
+    private Permits acquire(String tool, Policy policy, String sessionId) {
+        Permits permits = new Permits();
+        try {
+            if (sessionId != null && !sessionLimits.isEmpty()) {
+                for (Map.Entry<String, Bulkhead> limit : sessionLimits.entrySet()) {
+                    if (sessionId.startsWith(limit.getKey())) {
+                        permits.held.add(await(limit.getValue().semaphore(), tool,
+                            "Too many concurrent tool calls from " + limit.getKey() + " sessions ("
+                                + limit.getValue().permits() + "), try again later"));
+                        break;
+                    }
+                }
+            }
+
+            if (policy.maxConcurrent() > 0) {
+                Bulkhead bulkhead = bulkheads.compute(tool, (key, existing) ->
+                    existing != null && existing.permits() == policy.maxConcurrent()
+                        ? existing : new Bulkhead(policy.maxConcurrent(), new Semaphore(policy.maxConcurrent())));
+                permits.held.add(await(bulkhead.semaphore(), tool, "Tool " + tool + " is busy: "
+                    + policy.maxConcurrent() + " calls already running, try again later"));
+            }
+            return permits;
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private Semaphore await(Semaphore semaphore, String tool, String busyMessage) {
+        try {
+            if (!semaphore.tryAcquire(BULKHEAD_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                metrics.recordRejected(tool);
+                throw new RuntimeException(busyMessage);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Tool " + tool + " interrupted while waiting to run");
+        }
+        return semaphore;
+    }
+
+    /**
+     * Run one attempt; the permits are released when the work itself ends, not when the caller stops waiting
+     */
+    private Object attempt(String tool, Policy policy, Callable<Object> call, Permits permits) {
+        if (policy.timeoutMs() <= 0) {
+            try {
+                return callDirect(call);
+            } finally {
+                permits.release();
+            }
+        }
+
+        Cancellation cancellation = new Cancellation();
+        Future<Object> future;
+        try {
+            future = executor.submit(() -> {
+                CURRENT.set(cancellation);
+                try {
+                    return call.call();
+                } finally {
+                    CURRENT.remove();
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw new RuntimeException("Tool " + tool + " could not be started: " + e.getMessage());
+        }
+
+        try {
+            return future.get(policy.timeoutMs(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            cancellation.cancel();
+            metrics.recordTimeout(tool);
+            throw new RuntimeException("Tool " + tool + " timed out after " + policy.timeoutMs() + "ms");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            cancellation.cancel();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Tool " + tool + " interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtime) throw runtime;
+            if (cause instanceof Error error) throw error;
+            throw new RuntimeException(cause.getMessage(), cause);
+        }
+    }
+
+    private static Object callDirect(Callable<Object> call) {
+        try {
+            return call.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Transient failures are network and I/O hiccups, not bad arguments or missing files
+     */
+    static boolean isTransient(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof TransientToolException) return true;
+            if (t instanceof FileNotFoundException || t instanceof NoSuchFileException
+                || t instanceof AccessDeniedException || t instanceof UnknownHostException) {
+                return false;
+            }
+            if (t instanceof HttpTimeoutException || t instanceof ConnectException
+                || t instanceof SocketTimeoutException || t instanceof SocketException) {
+                return true;
+            }
+            if (t.getCause() == t) break;
+        }
+        return false;
+    }
+
+    private static long backoff(long baseMs, int attempt) {
+        long base = Math.max(1, baseMs) << Math.min(attempt, 10);
+        // Full jitter keeps retries from many sessions from lining up
+        return ThreadLocalRandom.current().nextLong(Math.min(base, MAX_BACKOFF_MS) + 1);
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while retrying");
+        }
+    }
+
+    /**
+     * Permits in use per bulkheaded tool and per limited session prefix
+     */
+    Map<String, Object> getStats() {
+        Map<String, Object> stats = new TreeMap<>();
+        bulkheads.forEach((tool, bulkhead) -> stats.put(tool, occupancy(bulkhead)));
+        sessionLimits.forEach((prefix, bulkhead) -> stats.put("sessions:" + prefix, occupancy(bulkhead)));
+        return stats;
+    }
+
+    private static Map<String, Object> occupancy(Bulkhead bulkhead) {
+        return Map.of(
+            "maxConcurrent", bulkhead.permits(),
+            "inUse", bulkhead.permits() - bulkhead.semaphore().availablePermits(),
+            "waiting", bulkhead.semaphore().getQueueLength());
+    }
+}
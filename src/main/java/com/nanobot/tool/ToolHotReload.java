@@ -1,21 +1,39 @@
 package com.nanobot.tool;
 
+import javax.tools.*;
 import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
 import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 /**
  * Tool Hot Reload - Dynamic tool reloading without restart
- * Watches tool files and reloads them automatically
+ * Watches a directory of tool sources with a WatchService. A changed file is
+ * compiled in memory with javax.tools, loaded in its own classloader, and
+ * every ReloadableTool it defines is swapped into the registry. Calls already
+ * running keep the executor they started with; the old generation's loader
+ * becomes unreachable once they finish. A tool may not take the name of a
+ * built-in tool or of one defined in another file.
  */
 public class ToolHotReload {
+    private static final long DEBOUNCE_MS = 200;
+
     private final ToolRegistry registry;
     private final Path toolsPath;
-    private final Map<String, Path> toolFiles = new ConcurrentHashMap<>();
-    private final ScheduledExecutorService watcher;
-    private volatile boolean running = false;
+    private final Map<Path, Generation> generations = new ConcurrentHashMap<>();
+    private final Map<WatchKey, Path> watchedDirs = new ConcurrentHashMap<>();
     private final List<ToolChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean running = false;
+    private WatchService watchService;
+    private Thread watcher;
+
+    private final AtomicLong compiles = new AtomicLong();
+    private final AtomicLong compileFailures = new AtomicLong();
+    private final AtomicLong generationCounter = new AtomicLong();
+    private volatile String lastError;
 
     public interface ToolChangeListener {
         void onToolAdded(String toolName);
@@ -24,104 +42,339 @@ public class ToolHotReload {
         void onError(String toolName, String error);
     }
 
+    /**
+     * A tool defined in a hot-reloadable source file; needs a public no-arg constructor
+     */
+    public interface ReloadableTool {
+        String name();
+
+        String description();
+
+        Map<String, ToolRegistry.ToolParameter> parameters();
+
+        default boolean requiresWorkspace() {
+            return true;
+        }
+
+        Object execute(Map<String, Object> arguments, String workspace, String sessionId);
+    }
+
+    /**
+     * Tools loaded from one source file, with the loader that owns their classes
+     */
+    private record Generation(long id, Set<String> toolNames, ClassLoader loader, long loadedAt) {}
+
     public ToolHotReload(ToolRegistry registry, Path toolsPath) {
         this.registry = registry;
         this.toolsPath = toolsPath;
-        this.watcher = Executors.newSingleThreadScheduledExecutor();
     }
 
     /**
      * Start watching for tool changes
      */
-    public void start() {
+    public synchronized void start() {
         if (running) return;
+
+        try {
+            Files.createDirectories(toolsPath);
+            watchService = toolsPath.getFileSystem().newWatchService();
+            registerTree(toolsPath);
+        } catch (IOException e) {
+            System.err.println("Failed to watch tools: " + e.getMessage());
+            return;
+        }
         running = true;
 
-        // Initial scan
-        scanForTools();
+        // Initial load
+        try (var stream = Files.walk(toolsPath)) {
+            stream.filter(ToolHotReload::isSource).sorted().forEach(this::load);
+        } catch (IOException e) {
+            System.err.println("Failed to scan tools: " + e.getMessage());
+        }
 
-        // Watch for changes
-        watcher.scheduleAtFixedRate(this::scanForChanges, 1, 1, TimeUnit.SECONDS);
+        watcher = Thread.ofPlatform().daemon().name("tool-hot-reload").start(this::watchLoop);
     }
 
     /**
      * Stop watching
      */
-    public void stop() {
+    public synchronized void stop() {
         running = false;
-        watcher.shutdown();
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+        if (watcher != null) {
+            watcher.interrupt();
+        }
     }
 
-    /**
-     * Scan for tool files
-     */
-    private void scanForTools() {
-        if (!Files.exists(toolsPath)) {
-            return;
+    private void registerTree(Path root) throws IOException {
+        try (var dirs = Files.walk(root)) {
+            for (Path dir : (Iterable<Path>) dirs.filter(Files::isDirectory)::iterator) {
+                WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                watchedDirs.put(key, dir);
+            }
         }
+    }
 
-        try (var stream = Files.walk(toolsPath)) {
-            stream.filter(Files::isRegularFile)
-                  .filter(p -> p.toString().endsWith(".java"))
-                  .forEach(this::registerToolFile);
-        } catch (Exception e) {
-            System.err.println("Failed to scan tools: " + e.getMessage());
+    private void watchLoop() {
+        while (running) {
+            Set<Path> changed = new TreeSet<>();
+            try {
+                WatchKey key = watchService.take();
+                collect(key, changed);
+
+                // Editors save in several steps; wait for the burst to settle
+                while ((key = watchService.poll(DEBOUNCE_MS, TimeUnit.MILLISECONDS)) != null) {
+                    collect(key, changed);
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            for (Path path : changed) {
+                if (Files.isRegularFile(path)) {
+                    load(path);
+                } else {
+                    unload(path);
+                }
+            }
+        }
+    }
+
+    private void collect(WatchKey key, Set<Path> changed) {
+        Path dir = watchedDirs.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (dir == null || event.kind() == StandardWatchEventKinds.OVERFLOW) continue;
+
+            Path path = dir.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                try {
+                    registerTree(path);
+                    try (var stream = Files.walk(path)) {
+                        stream.filter(ToolHotReload::isSource).forEach(changed::add);
+                    }
+                } catch (IOException e) {
+                    notifyError(path.toString(), e.getMessage());
+                }
+            } else if (isSource(path) || generations.containsKey(path)) {
+                changed.add(path);
+            }
+        }
+        if (!key.reset()) {
+            watchedDirs.remove(key);
         }
     }
 
+    private static boolean isSource(Path path) {
+        return path.toString().endsWith(".java") && !Files.isDirectory(path);
+    }
+
     /**
-     * Detect changes and reload
+     * Compile a source file and swap its tools into the registry
      */
-    private void scanForChanges() {
-        for (Map.Entry<String, Path> entry : toolFiles.entrySet()) {
+    private synchronized void load(Path source) {
+        String label = toolsPath.relativize(source).toString();
+        Map<String, byte[]> classes;
+        try {
+            classes = compile(source);
+        } catch (IOException | IllegalStateException e) {
+            compileFailures.incrementAndGet();
+            lastError = label + ": " + e.getMessage();
+            notifyError(label, e.getMessage());
+            return;
+        }
+
+        GenerationLoader loader = new GenerationLoader(classes, ToolHotReload.class.getClassLoader());
+        List<ReloadableTool> tools = new ArrayList<>();
+        try {
+            for (String className : classes.keySet()) {
+                Class<?> type = loader.loadClass(className);
+                if (ReloadableTool.class.isAssignableFrom(type) && !type.isInterface()
+                    && !java.lang.reflect.Modifier.isAbstract(type.getModifiers())) {
+                    tools.add((ReloadableTool) type.getDeclaredConstructor().newInstance());
+                }
+            }
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            lastError = label + ": " + e;
+            notifyError(label, "Load failed: " + e);
+            return;
+        }
+
+        Generation previous = generations.get(source);
+        Set<String> names = new LinkedHashSet<>();
+        for (ReloadableTool tool : tools) {
+            // Tool code is untrusted; one bad tool must not take down the rest of the file
+            String name;
             try {
-                long lastModified = Files.getLastModifiedTime(entry.getValue()).toMillis();
-                Path toolPath = entry.getValue();
+                name = tool.name();
+                if (name == null || name.isBlank()) {
+                    throw new IllegalArgumentException(tool.getClass().getName() + " has no name");
+                }
+                String owner = ownerOf(name);
+                if (owner == null ? registry.getTool(name) != null : !owner.equals(label)) {
+                    throw new IllegalArgumentException("Tool name " + name + " is already taken by "
+                        + (owner == null ? "a built-in tool" : owner));
+                }
+                if (names.contains(name)) {
+                    throw new IllegalArgumentException("Tool name " + name + " is defined twice");
+                }
+                registry.registerSessionTool(name, tool.description(), tool.parameters(),
+                    tool.requiresWorkspace(), tool::execute);
+                names.add(name);
+            } catch (RuntimeException | LinkageError e) {
+                lastError = label + ": " + e;
+                notifyError(label, "Tool rejected: " + e.getMessage());
+                continue;
+            }
 
-                if (needsReload(toolPath, lastModified)) {
-                    reloadTool(entry.getKey(), toolPath);
+            if (previous != null && previous.toolNames().contains(name)) {
+                notifyToolChanged(name);
+            } else {
+                notifyToolAdded(name);
+            }
+        }
+
+        // Tools that disappeared from the file
+        if (previous != null) {
+            for (String name : previous.toolNames()) {
+                if (!names.contains(name)) {
+                    registry.unregister(name);
+                    notifyToolRemoved(name);
                 }
-            } catch (Exception e) {
-                notifyError(entry.getKey(), e.getMessage());
             }
         }
+
+        generations.put(source, new Generation(generationCounter.incrementAndGet(), names, loader,
+            System.currentTimeMillis()));
     }
 
-    private boolean needsReload(Path path, long lastModified) {
-        Long cached = lastModifiedTimes.get(path);
-        return cached == null || cached < lastModified;
+    /**
+     * Source file whose generation defines the tool, or null if no hot-reloaded file does
+     */
+    private String ownerOf(String toolName) {
+        for (Map.Entry<Path, Generation> entry : generations.entrySet()) {
+            if (entry.getValue().toolNames().contains(toolName)) {
+                return toolsPath.relativize(entry.getKey()).toString();
+            }
+        }
+        return null;
     }
 
-    private final Map<Path, Long> lastModifiedTimes = new ConcurrentHashMap<>();
+    private synchronized void unload(Path source) {
+        Generation previous = generations.remove(source);
+        if (previous == null) return;
+        for (String name : previous.toolNames()) {
+            registry.unregister(name);
+            notifyToolRemoved(name);
+        }
+    }
 
-    private void registerToolFile(Path path) {
-        try {
-            String toolName = path.getFileName().toString()
-                .replace(".java", "")
-                .replace("Tool", "")
-                .toLowerCase();
+    private Map<String, byte[]> compile(Path source) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("No Java compiler available; run on a JDK, not a JRE");
+        }
+        compiles.incrementAndGet();
+
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        try (StandardJavaFileManager standard = compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8)) {
+            MemoryFileManager fileManager = new MemoryFileManager(standard);
 
-            toolFiles.put(toolName, path);
-            lastModifiedTimes.put(path, Files.getLastModifiedTime(path).toMillis());
+            List<String> options = List.of("-classpath", classPath(), "-proc:none", "-g");
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, options, null,
+                standard.getJavaFileObjects(source));
 
-            notifyToolAdded(toolName);
-        } catch (Exception e) {
-            // Ignore errors during registration
+            if (!task.call()) {
+                StringBuilder error = new StringBuilder("Compile failed");
+                for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                    if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                        error.append("\n  line ").append(diagnostic.getLineNumber()).append(": ")
+                             .append(diagnostic.getMessage(Locale.ROOT));
+                    }
+                }
+                throw new IllegalStateException(error.toString());
+            }
+            return fileManager.classes;
         }
     }
 
-    private void reloadTool(String toolName, Path toolPath) {
+    private static String classPath() {
+        // The running application's classes, so tool sources can use ToolRegistry and friends
+        Set<String> entries = new LinkedHashSet<>(List.of(System.getProperty("java.class.path").split(File.pathSeparator)));
         try {
-            // Unregister old version
-            registry.getToolNames().remove(toolName);
+            URL location = ToolHotReload.class.getProtectionDomain().getCodeSource().getLocation();
+            entries.add(Paths.get(location.toURI()).toString());
+        } catch (URISyntaxException | RuntimeException e) {
+            // Fall back to java.class.path
+        }
+        return String.join(File.pathSeparator, entries);
+    }
 
-            // Update timestamp
-            lastModifiedTimes.put(toolPath, Files.getLastModifiedTime(toolPath).toMillis());
+    /**
+     * Keeps compiler output in memory instead of writing class files
+     */
+    private static class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+        private final Map<String, byte[]> classes = new ConcurrentHashMap<>();
 
-            notifyToolChanged(toolName);
+        MemoryFileManager(StandardJavaFileManager fileManager) {
+            super(fileManager);
+        }
 
-        } catch (Exception e) {
-            notifyError(toolName, e.getMessage());
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className,
+                                                   JavaFileObject.Kind kind, FileObject sibling) {
+            return new SimpleJavaFileObject(URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind) {
+                @Override
+                public OutputStream openOutputStream() {
+                    return new ByteArrayOutputStream() {
+                        @Override
+                        public void close() {
+                            classes.put(className, toByteArray());
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+    /**
+     * One loader per generation; compiled classes win over the parent so a reload
+     * never sees the previous generation's copy
+     */
+    private static class GenerationLoader extends ClassLoader {
+        private final Map<String, byte[]> classes;
+
+        GenerationLoader(Map<String, byte[]> classes, ClassLoader parent) {
+            super("tool-generation", parent);
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> type = findLoadedClass(name);
+                if (type == null && classes.containsKey(name)) {
+                    type = findClass(name);
+                }
+                if (type == null) {
+                    return super.loadClass(name, resolve);
+                }
+                if (resolve) resolveClass(type);
+                return type;
+            }
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes = classes.get(name);
+            if (bytes == null) throw new ClassNotFoundException(name);
+            return defineClass(name, bytes, 0, bytes.length);
         }
     }
 
@@ -129,9 +382,11 @@ public class ToolHotReload {
      * Manually reload a tool
      */
     public void reloadTool(String toolName) {
-        Path toolPath = toolFiles.get(toolName);
-        if (toolPath != null) {
-            reloadTool(toolName, toolPath);
+        for (Map.Entry<Path, Generation> entry : generations.entrySet()) {
+            if (entry.getValue().toolNames().contains(toolName)) {
+                load(entry.getKey());
+                return;
+            }
         }
     }
 
@@ -139,7 +394,9 @@ public class ToolHotReload {
      * Get watched tools
      */
     public Set<String> getWatchedTools() {
-        return new HashSet<>(toolFiles.keySet());
+        Set<String> names = new HashSet<>();
+        generations.values().forEach(generation -> names.addAll(generation.toolNames()));
+        return names;
     }
 
     /**
@@ -187,6 +444,7 @@ public class ToolHotReload {
     }
 
     private void notifyError(String toolName, String error) {
+        System.err.println("Tool reload failed for " + toolName + ": " + error);
         for (ToolChangeListener listener : listeners) {
             try {
                 listener.onError(toolName, error);
@@ -201,9 +459,16 @@ public class ToolHotReload {
      */
     public Map<String, Object> getStats() {
         Map<String, Object> stats = new HashMap<>();
-        stats.put("watchedTools", toolFiles.size());
+        stats.put("watchedTools", getWatchedTools().size());
+        stats.put("sourceFiles", generations.size());
         stats.put("running", running);
         stats.put("watchPath", toolsPath.toString());
+        stats.put("compiles", compiles.get());
+        stats.put("compileFailures", compileFailures.get());
+        stats.put("generations", generationCounter.get());
+        if (lastError != null) {
+            stats.put("lastError", lastError);
+        }
         return stats;
     }
 }
@@ -0,0 +1,224 @@
+package com.nanobot.tool;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Tool Metrics - Per-tool latency, outcome and result-size accounting
+ * Counters are LongAdders and histograms use fixed buckets, so recording a
+ * call never takes a lock. Calls slower than the threshold are logged and
+ * kept in a short list of recent slow calls.
+ */
+public class ToolMetrics {
+    private static final long[] LATENCY_BOUNDS_MS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000, 60000};
+    private static final long[] SIZE_BOUNDS_CHARS = {100, 1000, 10_000, 100_000, 1_000_000};
+    private static final int MAX_SLOW_CALLS = 20;
+
+    private final ConcurrentHashMap<String, ToolStats> tools = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Deque<Map<String, Object>> slowCalls = new ArrayDeque<>();
+    private volatile long slowCallThresholdMs = 5000;
+
+    /**
+     * An in-progress call; finish it with either complete or fail
+     */
+    public class Call {
+        private final ToolStats stats;
+        private final String tool;
+        private final String sessionId;
+        private final long startNanos = System.nanoTime();
+
+        private Call(ToolStats stats, String tool, String sessionId) {
+            this.stats = stats;
+            this.tool = tool;
+            this.sessionId = sessionId;
+        }
+
+        /**
+         * Record a successful call; returns its duration in milliseconds
+         */
+        public long complete(Object result) {
+            long durationMs = finish(null);
+            stats.resultSize.record(resultSize(result));
+            return durationMs;
+        }
+
+        /**
+         * Record a failed call; returns its duration in milliseconds
+         */
+        public long fail(Throwable error) {
+            stats.errors.increment();
+            return finish(error);
+        }
+
+        private long finish(Throwable error) {
+            long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            stats.inFlight.decrementAndGet();
+            inFlight.decrementAndGet();
+            stats.latency.record(durationMs);
+
+            if (durationMs >= slowCallThresholdMs) {
+                recordSlowCall(tool, sessionId, durationMs, error);
+            }
+            return durationMs;
+        }
+    }
+
+    /**
+     * Start timing a call
+     */
+    public Call begin(String tool, String sessionId) {
+        ToolStats stats = tools.computeIfAbsent(tool, k -> new ToolStats());
+        stats.calls.increment();
+        stats.inFlight.incrementAndGet();
+        inFlight.incrementAndGet();
+        return new Call(stats, tool, sessionId);
+    }
+
+    void recordTimeout(String tool) {
+        tools.computeIfAbsent(tool, k -> new ToolStats()).timeouts.increment();
+    }
+
+    void recordRejected(String tool) {
+        tools.computeIfAbsent(tool, k -> new ToolStats()).rejected.increment();
+    }
+
+    void recordRetry(String tool) {
+        tools.computeIfAbsent(tool, k -> new ToolStats()).retries.increment();
+    }
+
+    public void setSlowCallThresholdMs(long slowCallThresholdMs) {
+        this.slowCallThresholdMs = slowCallThresholdMs;
+    }
+
+    private void recordSlowCall(String tool, String sessionId, long durationMs, Throwable error) {
+        System.err.println("Slow tool call: " + tool + " took " + durationMs + "ms"
+            + (sessionId != null ? " (session " + sessionId + ")" : "")
+            + (error != null ? " and failed: " + error.getMessage() : ""));
+
+        Map<String, Object> call = new HashMap<>();
+        call.put("tool", tool);
+        call.put("durationMs", durationMs);
+        call.put("timestamp", System.currentTimeMillis());
+        if (sessionId != null) call.put("sessionId", sessionId);
+        call.put("success", error == null);
+
+        synchronized (slowCalls) {
+            slowCalls.addFirst(call);
+            if (slowCalls.size() > MAX_SLOW_CALLS) {
+                slowCalls.removeLast();
+            }
+        }
+    }
+
+    private static long resultSize(Object result) {
+        if (result == null) return 0;
+        if (result instanceof CharSequence text) return text.length();
+        return String.valueOf(result).length();
+    }
+
+    /**
+     * Get per-tool metrics
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("inFlight", inFlight.get());
+        stats.put("slowCallThresholdMs", slowCallThresholdMs);
+
+        Map<String, Object> perTool = new TreeMap<>();
+        long totalCalls = 0;
+        long totalErrors = 0;
+        for (Map.Entry<String, ToolStats> entry : tools.entrySet()) {
+            ToolStats tool = entry.getValue();
+            long calls = tool.calls.sum();
+            long errors = tool.errors.sum();
+            totalCalls += calls;
+            totalErrors += errors;
+
+            Map<String, Object> toolStats = new HashMap<>();
+            toolStats.put("calls", calls);
+            toolStats.put("errors", errors);
+            toolStats.put("inFlight", tool.inFlight.get());
+            toolStats.put("timeouts", tool.timeouts.sum());
+            toolStats.put("rejected", tool.rejected.sum());
+            toolStats.put("retries", tool.retries.sum());
+            toolStats.put("latencyMs", tool.latency.summary());
+            toolStats.put("resultChars", tool.resultSize.summary());
+            perTool.put(entry.getKey(), toolStats);
+        }
+        stats.put("totalCalls", totalCalls);
+        stats.put("totalErrors", totalErrors);
+        stats.put("tools", perTool);
+
+        synchronized (slowCalls) {
+            stats.put("slowCalls", new ArrayList<>(slowCalls));
+        }
+        return stats;
+    }
+
+    private static class ToolStats {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final Histogram latency = new Histogram(LATENCY_BOUNDS_MS);
+        private final Histogram resultSize = new Histogram(SIZE_BOUNDS_CHARS);
+    }
+
+    /**
+     * Fixed-bucket histogram; percentiles resolve to a bucket's upper bound
+     */
+    static class Histogram {
+        private final long[] bounds;
+        private final LongAdder[] buckets;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        Histogram(long[] bounds) {
+            this.bounds = bounds;
+            this.buckets = new LongAdder[bounds.length + 1];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long value) {
+            int index = Arrays.binarySearch(bounds, value);
+            buckets[index >= 0 ? index : -index - 1].increment();
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        long percentile(double p) {
+            long total = count.sum();
+            if (total == 0) return 0;
+
+            long rank = (long) Math.ceil(p * total);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i].sum();
+                if (seen >= rank) {
+                    return i < bounds.length ? Math.min(bounds[i], max.get()) : max.get();
+                }
+            }
+            return max.get();
+        }
+
+        Map<String, Object> summary() {
+            long total = count.sum();
+            Map<String, Object> summary = new HashMap<>();
+            summary.put("count", total);
+            summary.put("mean", total == 0 ? 0 : sum.sum() / total);
+            summary.put("p50", percentile(0.50));
+            summary.put("p95", percentile(0.95));
+            summary.put("p99", percentile(0.99));
+            summary.put("max", max.get());
+            return summary;
+        }
+    }
+}
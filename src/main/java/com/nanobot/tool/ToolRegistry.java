@@ -1,26 +1,65 @@
 package com.nanobot.tool;
 
+import com.nanobot.bus.*;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.BiFunction;
 
 /**
  * Tool Registry - Manages all available tools
- * Thread-safe registration and execution
+ * Thread-safe registration and execution. Cache and execution policies are
+ * kept by tool name, so they survive re-registration and hot reload and can
+ * be set before the tool they govern is registered.
  */
 public class ToolRegistry {
     private final ConcurrentHashMap<String, ToolDescriptor> tools = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, BiFunction<Map<String, Object>, String, Object>> executors = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, SessionToolExecutor> executors = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ToolResultCache.Policy> cachePolicies = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ToolGuard.Policy> executionPolicies = new ConcurrentHashMap<>();
+    private final ToolMetrics metrics = new ToolMetrics();
+    private final ToolResultCache resultCache = new ToolResultCache(1024, 8L * 1024 * 1024);
+    private final ToolGuard guard = new ToolGuard(metrics);
+    private volatile EventBus eventBus;
+
+    /**
+     * Executor for tools that keep per-session state
+     */
+    @FunctionalInterface
+    public interface SessionToolExecutor {
+        Object execute(Map<String, Object> arguments, String workspace, String sessionId);
+    }
 
     public ToolRegistry() {
+        configureDefaultPolicies();
         registerDefaultTools();
     }
 
+    /**
+     * Policies for the built-in tools, including names the CLI registers its own variants under
+     */
+    private void configureDefaultPolicies() {
+        // Idempotent reads; file results stay valid until the file changes. web_fetch is left
+        // to FetchCache, which honours each response's own Cache-Control freshness
+        enableCache("read_file", ToolResultCache.Policy.files(ToolResultCache.Scope.SESSION, "path"));
+        enableCache("list_dir", ToolResultCache.Policy.files(ToolResultCache.Scope.SESSION, "path"));
+
+        // Shell enforces its own per-command timeout (max 600s); this only backstops a wedged session
+        ToolGuard.Policy shellPolicy = ToolGuard.Policy.timeout(TimeUnit.SECONDS.toMillis(630), 8);
+        setExecutionPolicy("shell", shellPolicy);
+        setExecutionPolicy("bash", shellPolicy);
+        setExecutionPolicy("web_fetch", ToolGuard.Policy.timeout(TimeUnit.SECONDS.toMillis(60), 16).withRetries(2, 500));
+    }
+
     private void registerDefaultTools() {
         // Register read_file tool
         Map<String, ToolParameter> readFileParams = new HashMap<>();
         readFileParams.put("path", new ToolParameter("string", "Path to the file to read", true));
-        register("read_file", "Read contents of a file", readFileParams, true, FileTool::readFile);
+        readFileParams.put("offset", new ToolParameter("integer", "First line to read (1-based)", false));
+        readFileParams.put("limit", new ToolParameter("integer", "Number of lines to read", false));
+        readFileParams.put("head", new ToolParameter("integer", "Read the first N lines", false));
+        readFileParams.put("tail", new ToolParameter("integer", "Read the last N lines", false));
+        register("read_file", "Read contents of a file, or a line window of a large file", readFileParams, true, FileTool::readFile);
 
         // Register write_file tool
         Map<String, ToolParameter> writeFileParams = new HashMap<>();
@@ -28,10 +67,28 @@ public class ToolRegistry {
         writeFileParams.put("content", new ToolParameter("string", "Content to write to the file", true));
         register("write_file", "Write content to a file", writeFileParams, true, FileTool::writeFile);
 
+        // Register glob tool
+        Map<String, ToolParameter> globParams = new HashMap<>();
+        globParams.put("pattern", new ToolParameter("string", "Glob pattern, e.g. src/**/*.java", true));
+        globParams.put("maxResults", new ToolParameter("integer", "Maximum paths to return", false));
+        globParams.put("respectGitignore", new ToolParameter("boolean", "Skip paths ignored by .gitignore (default true)", false));
+        register("glob", "Find files by glob pattern", globParams, true, FileTool::globFiles);
+
+        // Register search_code tool
+        Map<String, ToolParameter> searchParams = new HashMap<>();
+        searchParams.put("query", new ToolParameter("string", "Text to search for (case-insensitive)", true));
+        searchParams.put("path", new ToolParameter("string", "Only search under this workspace directory", false));
+        searchParams.put("page", new ToolParameter("integer", "Result page, starting at 1", false));
+        searchParams.put("pageSize", new ToolParameter("integer", "Files per page (max 100)", false));
+        register("search_code", "Search file names and contents in the workspace", searchParams, true,
+            WorkspaceIndex::searchCode);
+
         // Register shell tool
         Map<String, ToolParameter> shellParams = new HashMap<>();
         shellParams.put("command", new ToolParameter("string", "Shell command to execute", true));
-        register("shell", "Execute a shell command", shellParams, true, ShellTool::execute);
+        shellParams.put("timeout", new ToolParameter("integer", "Timeout in seconds (default 60, max 600)", false));
+        registerSessionTool("shell", "Execute a shell command in this session's persistent shell", shellParams, true,
+            ShellTool::executeInSession);
 
         // Register web_fetch tool
         Map<String, ToolParameter> webFetchParams = new HashMap<>();
@@ -44,34 +101,59 @@ public class ToolRegistry {
         private final String description;
         private final Map<String, ToolParameter> parameters;
         private final boolean requiresWorkspace;
+        private final ToolResultCache.Policy cachePolicy;
+        private final ToolGuard.Policy executionPolicy;
 
         public ToolDescriptor(String name, String description, Map<String, ToolParameter> parameters, boolean requiresWorkspace) {
+            this(name, description, parameters, requiresWorkspace, null, ToolGuard.Policy.DEFAULT);
+        }
+
+        public ToolDescriptor(String name, String description, Map<String, ToolParameter> parameters,
+                              boolean requiresWorkspace, ToolResultCache.Policy cachePolicy) {
+            this(name, description, parameters, requiresWorkspace, cachePolicy, ToolGuard.Policy.DEFAULT);
+        }
+
+        public ToolDescriptor(String name, String description, Map<String, ToolParameter> parameters,
+                              boolean requiresWorkspace, ToolResultCache.Policy cachePolicy,
+                              ToolGuard.Policy executionPolicy) {
             this.name = name;
             this.description = description;
             this.parameters = parameters;
             this.requiresWorkspace = requiresWorkspace;
+            this.cachePolicy = cachePolicy;
+            this.executionPolicy = executionPolicy != null ? executionPolicy : ToolGuard.Policy.DEFAULT;
         }
 
         public String getName() { return name; }
         public String getDescription() { return description; }
         public Map<String, ToolParameter> getParameters() { return parameters; }
         public boolean isRequiresWorkspace() { return requiresWorkspace; }
+        public ToolResultCache.Policy getCachePolicy() { return cachePolicy; }
+        public boolean isCacheable() { return cachePolicy != null; }
+        public ToolGuard.Policy getExecutionPolicy() { return executionPolicy; }
     }
 
     public static class ToolParameter {
         private final String type;
         private final String description;
         private final boolean required;
+        private final String itemType;
 
         public ToolParameter(String type, String description, boolean required) {
+            this(type, description, required, null);
+        }
+
+        public ToolParameter(String type, String description, boolean required, String itemType) {
             this.type = type;
             this.description = description;
             this.required = required;
+            this.itemType = itemType;
         }
 
         public String getType() { return type; }
         public String getDescription() { return description; }
         public boolean isRequired() { return required; }
+        public String getItemType() { return itemType; }
     }
 
     /**
@@ -80,8 +162,60 @@ public class ToolRegistry {
     public void register(String name, String description, Map<String, ToolParameter> parameters,
                          boolean requiresWorkspace,
                          BiFunction<Map<String, Object>, String, Object> executor) {
-        tools.put(name, new ToolDescriptor(name, description, parameters, requiresWorkspace));
+        executors.put(name, (arguments, workspace, sessionId) -> executor.apply(arguments, workspace));
+        tools.put(name, describe(name, description, parameters, requiresWorkspace));
+    }
+
+    /**
+     * Register a tool that receives the calling session's id
+     */
+    public void registerSessionTool(String name, String description, Map<String, ToolParameter> parameters,
+                                    boolean requiresWorkspace, SessionToolExecutor executor) {
+        // Executor first, so a visible descriptor always has one; put is the atomic swap on reload
         executors.put(name, executor);
+        tools.put(name, describe(name, description, parameters, requiresWorkspace));
+    }
+
+    private ToolDescriptor describe(String name, String description, Map<String, ToolParameter> parameters,
+                                    boolean requiresWorkspace) {
+        return new ToolDescriptor(name, description, parameters, requiresWorkspace,
+            cachePolicies.get(name), executionPolicies.get(name));
+    }
+
+    /**
+     * Opt a tool into result caching, now or when it is registered; only for tools without side effects
+     */
+    public void enableCache(String name, ToolResultCache.Policy policy) {
+        cachePolicies.put(name, policy);
+        refresh(name);
+    }
+
+    /**
+     * Set a tool's timeout, concurrency limit and retries, now or when it is registered
+     */
+    public void setExecutionPolicy(String name, ToolGuard.Policy policy) {
+        executionPolicies.put(name, policy);
+        refresh(name);
+    }
+
+    private void refresh(String name) {
+        tools.computeIfPresent(name, (key, tool) -> describe(tool.getName(), tool.getDescription(),
+            tool.getParameters(), tool.isRequiresWorkspace()));
+    }
+
+    /**
+     * Cap concurrent tool calls across all sessions whose id starts with the prefix; 0 removes the cap
+     */
+    public void limitSessions(String sessionPrefix, int maxConcurrent) {
+        guard.limitSessions(sessionPrefix, maxConcurrent);
+    }
+
+    /**
+     * Remove a tool; calls already running keep their executor
+     */
+    public void unregister(String name) {
+        tools.remove(name);
+        executors.remove(name);
     }
 
     /**
@@ -93,12 +227,78 @@ public class ToolRegistry {
             throw new IllegalArgumentException("Unknown tool: " + name);
         }
 
-        BiFunction<Map<String, Object>, String, Object> executor = executors.get(name);
+        SessionToolExecutor executor = executors.get(name);
         if (executor == null) {
             throw new IllegalArgumentException("No executor for tool: " + name);
         }
 
-        return executor.apply(arguments, workspace);
+        EventBus bus = eventBus;
+        if (bus != null) {
+            bus.publish(NanobotEvent.toolCalled(name, arguments, sessionId));
+        }
+
+        // A cache hit is still a call: it is announced, timed and reported like any other
+        ToolMetrics.Call call = metrics.begin(name, sessionId);
+        ToolResultCache.Policy policy = descriptor.getCachePolicy();
+        Object cached = null;
+        String cacheKey = null;
+        Map<Path, String> stamps = null;
+        Object result;
+        try {
+            cacheKey = policy != null ? resultCache.key(name, policy, arguments, sessionId) : null;
+            if (cacheKey != null) {
+                cached = resultCache.get(name, cacheKey);
+                if (cached == null) {
+                    stamps = resultCache.stamps(policy, arguments, workspace);
+                }
+            }
+            result = cached != null ? cached : guard.run(name, descriptor.getExecutionPolicy(), sessionId,
+                () -> executor.execute(arguments, workspace, sessionId));
+        } catch (RuntimeException | Error e) {
+            long durationMs = call.fail(e);
+            if (bus != null) {
+                bus.publish(NanobotEvent.toolFailed(name, String.valueOf(e.getMessage()), sessionId, durationMs));
+            }
+            throw e;
+        }
+
+        long durationMs = call.complete(result);
+        if (bus != null) {
+            bus.publish(NanobotEvent.toolCompleted(name, sessionId, durationMs, result));
+        }
+        if (cached == null && cacheKey != null && result != null && !isError(result)) {
+            resultCache.put(cacheKey, policy, result, stamps);
+        }
+        return result;
+    }
+
+    /**
+     * Tools that report failure in a result map rather than by throwing set its "error" entry
+     */
+    private static boolean isError(Object result) {
+        return result instanceof Map<?, ?> map && map.get("error") != null;
+    }
+
+    /**
+     * Publish TOOL_CALLED, TOOL_COMPLETED and TOOL_FAILED events to the bus
+     */
+    public void setEventBus(EventBus eventBus) {
+        this.eventBus = eventBus;
+    }
+
+    public ToolMetrics getMetrics() {
+        return metrics;
+    }
+
+    public ToolResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Bulkhead occupancy per tool
+     */
+    public Map<String, Object> getGuardStats() {
+        return guard.getStats();
     }
 
     /**
@@ -160,6 +360,10 @@ public class ToolRegistry {
             Map<String, Object> paramDef = new HashMap<>();
             paramDef.put("type", entry.getValue().getType());
             paramDef.put("description", entry.getValue().getDescription());
+            if ("array".equals(entry.getValue().getType())) {
+                String itemType = entry.getValue().getItemType();
+                paramDef.put("items", Map.of("type", itemType != null ? itemType : "string"));
+            }
 
             ((Map<String, Object>) parameters.get("properties")).put(entry.getKey(), paramDef);
 
@@ -0,0 +1,243 @@
+package com.nanobot.tool;
+
+import com.fasterxml.jackson.core.*;
+import com.fasterxml.jackson.databind.*;
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
+
+/**
+ * Tool Result Cache - Memoized results for idempotent tools
+ * Keys are the tool name plus its arguments serialized with sorted keys, so
+ * argument order does not matter. An entry is dropped when its TTL expires
+ * or when any file it was computed from (for a directory, any entry listed)
+ * has a different mtime, size or identity. Bounded by entry count and total
+ * characters, evicting LRU.
+ */
+public class ToolResultCache {
+    private static final int MAX_STAMPED_ENTRIES = 1000;
+    private static final ObjectMapper CANONICAL = new ObjectMapper()
+        .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+    public enum Scope { SESSION, GLOBAL }
+
+    /**
+     * How a tool's results may be reused; pathArgs name arguments holding file or directory paths
+     */
+    public record Policy(Scope scope, long ttlMs, List<String> pathArgs) {
+        /** Valid while the files named by pathArgs are unchanged */
+        public static Policy files(Scope scope, String... pathArgs) {
+            return new Policy(scope, 0, List.of(pathArgs));
+        }
+
+        /** Valid for a fixed time */
+        public static Policy ttl(Scope scope, long ttlMs) {
+            return new Policy(scope, ttlMs, List.of());
+        }
+    }
+
+    private record Entry(Object result, long size, long expiresAt, Map<Path, String> stamps) {}
+
+    private final int maxEntries;
+    private final long maxChars;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long chars = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stale = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final ConcurrentHashMap<String, ToolCounters> perTool = new ConcurrentHashMap<>();
+
+    public ToolResultCache(int maxEntries, long maxChars) {
+        this.maxEntries = maxEntries;
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * Key for a call, or null when the arguments cannot be canonicalized
+     */
+    String key(String tool, Policy policy, Map<String, Object> arguments, String sessionId) {
+        try {
+            String scope = policy.scope() == Scope.SESSION ? "s:" + Objects.toString(sessionId, "") : "g";
+            return scope + "|" + tool + "|" + CANONICAL.writeValueAsString(arguments != null ? arguments : Map.of());
+        } catch (JsonProcessingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Cached result, or null on a miss
+     */
+    Object get(String tool, String key) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        ToolCounters counters = perTool.computeIfAbsent(tool, k -> new ToolCounters());
+
+        if (entry != null && isValid(entry)) {
+            hits.incrementAndGet();
+            counters.hits.increment();
+            return entry.result();
+        }
+
+        if (entry != null) {
+            stale.incrementAndGet();
+            remove(key, entry);
+        }
+        misses.incrementAndGet();
+        counters.misses.increment();
+        return null;
+    }
+
+    /**
+     * Snapshot file stamps before running the tool, so a change during the call invalidates it.
+     * For a directory every listed entry is stamped too, since a listing shows sizes that change
+     * without touching the directory. Null when a directory is too large to be worth revalidating.
+     */
+    Map<Path, String> stamps(Policy policy, Map<String, Object> arguments, String workspace) {
+        if (policy.pathArgs().isEmpty()) return Map.of();
+
+        Map<Path, String> stamps = new HashMap<>();
+        for (String arg : policy.pathArgs()) {
+            Path path = resolve(arguments.get(arg), workspace);
+            stamps.put(path, stamp(path));
+
+            if (Files.isDirectory(path)) {
+                try {
+                    List<Path> entries = listEntries(path);
+                    if (entries.size() > MAX_STAMPED_ENTRIES) return null;
+                    for (Path entry : entries) {
+                        stamps.put(entry, stamp(entry));
+                    }
+                } catch (IOException e) {
+                    return null;
+                }
+            }
+        }
+        return stamps;
+    }
+
+    private static List<Path> listEntries(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.list(dir)) {
+            return paths.toList();
+        }
+    }
+
+    void put(String key, Policy policy, Object result, Map<Path, String> stamps) {
+        if (stamps == null) return;
+        long size = key.length() + (result instanceof CharSequence text ? text.length() : String.valueOf(result).length());
+        if (size > maxChars / 8) return;
+
+        long expiresAt = policy.ttlMs() > 0 ? System.currentTimeMillis() + policy.ttlMs() : Long.MAX_VALUE;
+        Entry entry = new Entry(result, size, expiresAt, stamps);
+
+        synchronized (entries) {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) chars -= previous.size();
+            chars += size;
+
+            Iterator<Entry> eldest = entries.values().iterator();
+            while ((entries.size() > maxEntries || chars > maxChars) && eldest.hasNext()) {
+                chars -= eldest.next().size();
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private boolean isValid(Entry entry) {
+        if (System.currentTimeMillis() >= entry.expiresAt()) return false;
+        for (Map.Entry<Path, String> stamp : entry.stamps().entrySet()) {
+            if (!stamp.getValue().equals(stamp(stamp.getKey()))) return false;
+        }
+        return true;
+    }
+
+    private void remove(String key, Entry entry) {
+        synchronized (entries) {
+            if (entries.remove(key, entry)) {
+                chars -= entry.size();
+            }
+        }
+    }
+
+    private static Path resolve(Object arg, String workspace) {
+        // Same resolution as FileTool: ~ and absolute paths as given, the rest under the workspace
+        String path = arg != null ? arg.toString() : "";
+        if (path.startsWith("~/")) {
+            path = System.getProperty("user.home") + path.substring(1);
+        } else if (!path.startsWith("/") && !path.contains(":")) {
+            path = workspace + "/" + path;
+        }
+        return Paths.get(path).toAbsolutePath().normalize();
+    }
+
+    private static String stamp(Path path) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            return attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS) + ":" + attrs.size() + ":" + attrs.fileKey();
+        } catch (IOException e) {
+            return "missing";
+        }
+    }
+
+    /**
+     * Drop every entry for one session, e.g. when it ends
+     */
+    public void invalidateSession(String sessionId) {
+        String prefix = "s:" + sessionId + "|";
+        synchronized (entries) {
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Entry> entry = it.next();
+                if (entry.getKey().startsWith(prefix)) {
+                    chars -= entry.getValue().size();
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            chars = 0;
+        }
+    }
+
+    /**
+     * Get cache statistics
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        synchronized (entries) {
+            stats.put("entries", entries.size());
+            stats.put("chars", chars);
+        }
+        stats.put("maxEntries", maxEntries);
+        stats.put("maxChars", maxChars);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("stale", stale.get());
+        stats.put("evictions", evictions.get());
+        long lookups = hits.get() + misses.get();
+        stats.put("hitRate", lookups == 0 ? 0.0 : (double) hits.get() / lookups);
+
+        Map<String, Object> tools = new TreeMap<>();
+        perTool.forEach((tool, counters) -> tools.put(tool,
+            Map.of("hits", counters.hits.sum(), "misses", counters.misses.sum())));
+        stats.put("tools", tools);
+        return stats;
+    }
+
+    private static class ToolCounters {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+    }
+}
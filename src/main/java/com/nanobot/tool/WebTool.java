@@ -22,45 +22,45 @@ public class WebTool {
         int maxChars = getIntArg(args, "maxChars", 50000);
 
         try {
-            HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(url))
-                .header("User-Agent", "Nanobot/1.0")
-                .timeout(Duration.ofSeconds(30))
-                .GET()
-                .build();
+            BoundedBody.Extraction extraction = new BoundedBody.Extraction(extractMode, maxChars);
+            FetchCache.Response response = FetchCache.shared().get(client, url,
+                Map.of("User-Agent", "Nanobot/1.0"), Duration.ofSeconds(30),
+                BoundedBody.DEFAULT_MAX_BYTES, extraction);
 
-            HttpResponse<String> response = client.send(request,
-                HttpResponse.BodyHandlers.ofString());
-
-            int status = response.statusCode();
+            int status = response.status();
             if (status >= 400) {
                 return "HTTP Error " + status + " for URL: " + url;
             }
 
-            String content = response.body();
-            if (content == null || content.isEmpty()) {
+            if (!response.accepted()) {
+                return "Unsupported content type " + response.contentType() + " for URL: " + url;
+            }
+            if (response.bytes() == 0) {
                 return "No content received from: " + url;
             }
 
             // Simple extraction (in production, use readability-java)
-            String extracted = extractContent(content, extractMode);
-
-            if (extracted.length() > maxChars) {
-                extracted = extracted.substring(0, maxChars) + "\n\n[Content truncated]";
-            }
+            HtmlExtractor.Result extracted = extraction.result();
+            boolean truncated = extracted.truncated() || response.capped();
+            String text = truncated ? extracted.text() + "\n\n[Content truncated]" : extracted.text();
 
             Map<String, Object> result = new HashMap<>();
             result.put("url", url);
             result.put("finalUrl", url);
             result.put("status", status);
+            result.put("cache", response.source());
             result.put("extractor", extractMode);
-            result.put("length", extracted.length());
-            result.put("truncated", extracted.length() >= maxChars);
-            result.put("text", extracted);
+            result.put("length", extracted.text().length());
+            result.put("truncated", truncated);
+            result.put("text", text);
 
             return formatResult(result);
 
         } catch (Exception e) {
+            // Network hiccups propagate so the registry can retry them
+            if (ToolGuard.isTransient(e)) {
+                throw new ToolGuard.TransientToolException("Error fetching URL: " + e.getMessage(), e);
+            }
             return "Error fetching URL: " + e.getMessage();
         }
     }
@@ -78,37 +78,14 @@ public class WebTool {
             """.formatted(query);
     }
 
-    private static String extractContent(String html, String mode) {
-        if ("text".equals(mode)) {
-            return html.replaceAll("(?s)<script[^>]*>.*?</script>", "")
-                       .replaceAll("(?s)<style[^>]*>.*?</style>", "")
-                       .replaceAll("<[^>]+>", "")
-                       .replaceAll("\\s+", " ")
-                       .trim();
-        }
-
-        // Markdown extraction (simplified)
-        String markdown = html.replaceAll("(?s)<script[^>]*>.*?</script>", "")
-                              .replaceAll("(?s)<style[^>]*>.*?</style>", "")
-                              .replaceAll("#", "\\#")
-                              .replaceAll("\\*\\*", "**")
-                              .replaceAll("<h1[^>]*>(.*?)</h1>", "\\n# $1\\n")
-                              .replaceAll("<h2[^>]*>(.*?)</h2>", "\\n## $1\\n")
-                              .replaceAll("<h3[^>]*>(.*?)</h3>", "\\n### $1\\n")
-                              .replaceAll("<p[^>]*>(.*?)</p>", "$1\\n\\n")
-                              .replaceAll("<br\\s*/?>", "\\n")
-                              .replaceAll("<[^>]+>", "")
-                              .replaceAll("\\n{3,}", "\\n\\n")
-                              .replaceAll("[ \t]+", " ")
-                              .trim();
-
-        return markdown;
-    }
-
     private static String formatResult(Map<String, Object> result) {
         StringBuilder sb = new StringBuilder();
         sb.append("URL: ").append(result.get("url")).append("\n");
-        sb.append("Status: ").append(result.get("status")).append("\n");
+        sb.append("Status: ").append(result.get("status"));
+        if (!"network".equals(result.get("cache"))) {
+            sb.append(" (").append(result.get("cache")).append(")");
+        }
+        sb.append("\n");
         sb.append("Length: ").append(result.get("length")).append(" chars\n");
 
         if (Boolean.TRUE.equals(result.get("truncated"))) {
@@ -0,0 +1,541 @@
+package com.nanobot.tool;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Workspace Index - File list and trigram content index for code search
+ * Built in parallel when first requested, then kept current by a WatchService.
+ * A query is narrowed to the files containing all of its trigrams and only
+ * those candidates are read to confirm and rank matches.
+ */
+public class WorkspaceIndex {
+    private static final int MAX_INDEXED_BYTES = 1024 * 1024;
+    private static final int BINARY_PROBE_BYTES = 8000;
+    private static final int MAX_LINES_PER_FILE = 5;
+    private static final int MAX_LINE_LENGTH = 200;
+    private static final Set<String> IGNORED_DIRS = Set.of(
+        ".git", ".hg", ".svn", ".idea", ".gradle", ".venv",
+        "node_modules", "target", "build", "dist", "__pycache__"
+    );
+
+    private static final ConcurrentHashMap<String, WorkspaceIndex> INDEXES = new ConcurrentHashMap<>();
+
+    private final Path root;
+    private final ConcurrentHashMap<String, Integer> pathToId = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, FileEntry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Postings> postings = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final AtomicInteger deadEntries = new AtomicInteger();
+    private final Map<WatchKey, Path> watchKeys = new ConcurrentHashMap<>();
+    private final CountDownLatch built = new CountDownLatch(1);
+
+    private WatchService watchService;
+    private volatile boolean running = false;
+    private volatile long lastBuildMs = 0;
+
+    private record FileEntry(String path, long mtime, long size, boolean contentIndexed) {}
+
+    private record Hit(String path, boolean nameMatch, int matchCount, List<String> lines) {}
+
+    /**
+     * Posting list of file ids; ids of replaced or deleted files are filtered at query time
+     */
+    private static class Postings {
+        private int[] ids = new int[4];
+        private int size = 0;
+
+        synchronized void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        synchronized void fill(BitSet target) {
+            for (int i = 0; i < size; i++) {
+                target.set(ids[i]);
+            }
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized void retainLive(Map<Integer, FileEntry> live) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (live.containsKey(ids[i])) {
+                    ids[kept++] = ids[i];
+                }
+            }
+            size = kept;
+        }
+    }
+
+    public WorkspaceIndex(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+    }
+
+    /**
+     * Get the shared index for a workspace, building it on first use
+     */
+    public static WorkspaceIndex forWorkspace(String workspace) {
+        return INDEXES.computeIfAbsent(workspace, w -> {
+            WorkspaceIndex index = new WorkspaceIndex(Paths.get(w));
+            index.start();
+            return index;
+        });
+    }
+
+    /**
+     * Stop and forget the index of a workspace that is going away, e.g. a discarded overlay
+     */
+    public static void evict(String workspace) {
+        Path root = Paths.get(workspace).toAbsolutePath().normalize();
+        INDEXES.entrySet().removeIf(entry -> {
+            if (!entry.getValue().root.equals(root)) return false;
+            entry.getValue().stop();
+            return true;
+        });
+    }
+
+    /**
+     * search_code tool entry point
+     */
+    public static String searchCode(Map<String, Object> args, String workspace) {
+        String query = getStringArg(args, "query", "query is required");
+        String path = args.get("path") != null ? args.get("path").toString() : null;
+        int page = Math.max(1, getIntArg(args, "page", 1));
+        int pageSize = Math.min(100, Math.max(1, getIntArg(args, "pageSize", 20)));
+
+        return forWorkspace(workspace).search(query, path, page, pageSize);
+    }
+
+    /**
+     * Start the background build and file watcher
+     */
+    public void start() {
+        if (running) return;
+        running = true;
+
+        if (!Files.isDirectory(root)) {
+            built.countDown();
+            return;
+        }
+
+        try {
+            watchService = root.getFileSystem().newWatchService();
+        } catch (IOException e) {
+            System.err.println("Workspace watcher unavailable: " + e.getMessage());
+        }
+
+        Thread builder = new Thread(() -> {
+            rescan();
+            built.countDown();
+            if (watchService != null) {
+                watchLoop();
+            }
+        }, "workspace-index");
+        builder.setDaemon(true);
+        builder.start();
+    }
+
+    public void stop() {
+        running = false;
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    /**
+     * Walk the tree, registering watches and (re)indexing changed files in parallel
+     */
+    private void rescan() {
+        long start = System.currentTimeMillis();
+        List<Path> files = collectFiles(root);
+        files.parallelStream().forEach(this::indexFile);
+
+        Set<String> present = ConcurrentHashMap.newKeySet();
+        files.forEach(f -> present.add(relative(f)));
+        pathToId.keySet().stream()
+            .filter(p -> !present.contains(p))
+            .toList()
+            .forEach(this::removePath);
+
+        lastBuildMs = System.currentTimeMillis() - start;
+    }
+
+    private List<Path> collectFiles(Path dir) {
+        List<Path> files = new ArrayList<>();
+        try {
+            Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) {
+                    if (!d.equals(root) && isIgnored(d)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    watch(d);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile()) {
+                        files.add(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Workspace scan failed: " + e.getMessage());
+        }
+        return files;
+    }
+
+    private void watch(Path dir) {
+        if (watchService == null) return;
+        try {
+            WatchKey key = dir.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+            watchKeys.put(key, dir);
+        } catch (IOException e) {
+            // Directory vanished or watch limit reached; the next rescan picks it up
+        } catch (ClosedWatchServiceException e) {
+            // Stopped while building
+        }
+    }
+
+    private void watchLoop() {
+        while (running) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            Path dir = watchKeys.get(key);
+            boolean overflow = false;
+
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                    overflow = true;
+                    continue;
+                }
+
+                Path child = dir.resolve((Path) event.context());
+                if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                    removeTree(relative(child));
+                } else if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                    if (!isIgnored(child)) {
+                        collectFiles(child).parallelStream().forEach(this::indexFile);
+                    }
+                } else if (Files.isRegularFile(child)) {
+                    indexFile(child);
+                }
+            }
+
+            if (!key.reset()) {
+                watchKeys.remove(key);
+            }
+            if (overflow) {
+                rescan();
+            }
+        }
+    }
+
+    private void indexFile(Path file) {
+        String rel = relative(file);
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException e) {
+            removePath(rel);
+            return;
+        }
+
+        long mtime = attrs.lastModifiedTime().toMillis();
+        Integer currentId = pathToId.get(rel);
+        if (currentId != null) {
+            FileEntry current = entries.get(currentId);
+            if (current != null && current.mtime() == mtime && current.size() == attrs.size()) {
+                return;
+            }
+        }
+
+        int[] trigrams = null;
+        if (attrs.size() <= MAX_INDEXED_BYTES) {
+            try {
+                trigrams = trigramsOf(Files.readAllBytes(file));
+            } catch (IOException e) {
+                // Unreadable files stay searchable by name only
+            }
+        }
+
+        int id = nextId.incrementAndGet();
+        entries.put(id, new FileEntry(rel, mtime, attrs.size(), trigrams != null));
+        if (trigrams != null) {
+            for (int trigram : trigrams) {
+                // Inside compute so compaction cannot drop the list between lookup and add
+                postings.compute(trigram, (t, list) -> {
+                    Postings target = list != null ? list : new Postings();
+                    target.add(id);
+                    return target;
+                });
+            }
+        }
+
+        Integer previous = pathToId.put(rel, id);
+        if (previous != null) {
+            retire(previous);
+        }
+    }
+
+    private void removePath(String rel) {
+        Integer id = pathToId.remove(rel);
+        if (id != null) {
+            retire(id);
+        }
+    }
+
+    private void removeTree(String rel) {
+        removePath(rel);
+        String prefix = rel + "/";
+        pathToId.keySet().stream()
+            .filter(p -> p.startsWith(prefix))
+            .toList()
+            .forEach(this::removePath);
+    }
+
+    private void retire(int id) {
+        if (entries.remove(id) != null && deadEntries.incrementAndGet() > Math.max(10000, entries.size())) {
+            compact();
+        }
+    }
+
+    /**
+     * Drop ids of replaced and deleted files from every posting list
+     */
+    private synchronized void compact() {
+        if (deadEntries.get() <= Math.max(10000, entries.size())) return;
+        deadEntries.set(0);
+        for (Integer trigram : postings.keySet()) {
+            // Per-key atomic, so a concurrent indexFile either lands before the check or after removal
+            postings.computeIfPresent(trigram, (t, list) -> {
+                list.retainLive(entries);
+                return list.size() == 0 ? null : list;
+            });
+        }
+    }
+
+    /**
+     * Distinct byte trigrams of the text case-folded as the search scan folds it, or null for binary content
+     */
+    private static int[] trigramsOf(byte[] content) {
+        int probe = Math.min(content.length, BINARY_PROBE_BYTES);
+        for (int i = 0; i < probe; i++) {
+            if (content[i] == 0) return null;
+        }
+
+        byte[] bytes = fold(content);
+        if (bytes.length < 3) return new int[0];
+
+        int[] trigrams = new int[bytes.length - 2];
+        for (int i = 0; i < trigrams.length; i++) {
+            trigrams[i] = ((bytes[i] & 0xff) << 16) | ((bytes[i + 1] & 0xff) << 8) | (bytes[i + 2] & 0xff);
+        }
+        Arrays.sort(trigrams);
+
+        int unique = 0;
+        for (int i = 0; i < trigrams.length; i++) {
+            if (i == 0 || trigrams[i] != trigrams[i - 1]) {
+                trigrams[unique++] = trigrams[i];
+            }
+        }
+        return Arrays.copyOf(trigrams, unique);
+    }
+
+    /**
+     * Lowercase UTF-8 text with the same Unicode folding scanFile applies, so that a file
+     * matching only through a non-ASCII case variant (É and é) is still a candidate
+     */
+    private static byte[] fold(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8).toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Case-insensitive literal search over file contents and paths
+     */
+    public String search(String query, String pathPrefix, int page, int pageSize) {
+        boolean complete;
+        try {
+            complete = built.await(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Search interrupted");
+        }
+
+        String needle = query.toLowerCase(Locale.ROOT);
+        String prefix = pathPrefix == null || pathPrefix.isEmpty() || pathPrefix.equals(".")
+            ? null : pathPrefix.replaceAll("^\\./", "").replaceAll("/+$", "") + "/";
+
+        BitSet contentCandidates = candidates(needle.getBytes(StandardCharsets.UTF_8));
+
+        List<Hit> hits = entries.entrySet().parallelStream()
+            .filter(e -> prefix == null || e.getValue().path().startsWith(prefix))
+            .map(e -> {
+                FileEntry entry = e.getValue();
+                boolean nameMatch = entry.path().toLowerCase(Locale.ROOT).contains(needle);
+                boolean contentCandidate = entry.contentIndexed()
+                    && (contentCandidates == null || contentCandidates.get(e.getKey()));
+                if (!nameMatch && !contentCandidate) return null;
+
+                Hit hit = contentCandidate ? scanFile(entry.path(), needle, nameMatch) : null;
+                if (hit == null && nameMatch) {
+                    hit = new Hit(entry.path(), true, 0, List.of());
+                }
+                return hit;
+            })
+            .filter(Objects::nonNull)
+            .sorted(Comparator.comparing(Hit::nameMatch).reversed()
+                .thenComparing(Comparator.comparingInt(Hit::matchCount).reversed())
+                .thenComparingInt(h -> h.path().length())
+                .thenComparing(Hit::path))
+            .toList();
+
+        int totalPages = Math.max(1, (hits.size() + pageSize - 1) / pageSize);
+        StringBuilder sb = new StringBuilder();
+        sb.append("Query: ").append(query).append("\n");
+        sb.append("Found ").append(hits.size()).append(" files (page ").append(page)
+            .append(" of ").append(totalPages).append(")");
+        if (!complete) {
+            sb.append(" [index still building, results may be incomplete]");
+        }
+        sb.append("\n\n");
+
+        int from = (page - 1) * pageSize;
+        for (Hit hit : hits.subList(Math.min(from, hits.size()), Math.min(from + pageSize, hits.size()))) {
+            sb.append(hit.path());
+            if (hit.matchCount() > 0) {
+                sb.append(" (").append(hit.matchCount()).append(hit.matchCount() == 1 ? " match)" : " matches)");
+            }
+            sb.append("\n");
+            for (String line : hit.lines()) {
+                sb.append("  ").append(line).append("\n");
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Files containing every trigram of the query, or null when the query is too short to filter
+     */
+    private BitSet candidates(byte[] query) {
+        if (query.length < 3) return null;
+
+        int[] trigrams = trigramsOf(query);
+        if (trigrams == null) return new BitSet();
+
+        List<Postings> lists = new ArrayList<>();
+        for (int trigram : trigrams) {
+            Postings list = postings.get(trigram);
+            if (list == null) return new BitSet();
+            lists.add(list);
+        }
+        lists.sort(Comparator.comparingInt(Postings::size));
+
+        BitSet result = new BitSet();
+        lists.get(0).fill(result);
+        for (int i = 1; i < lists.size() && !result.isEmpty(); i++) {
+            BitSet next = new BitSet();
+            lists.get(i).fill(next);
+            result.and(next);
+        }
+        return result;
+    }
+
+    private Hit scanFile(String rel, String needle, boolean nameMatch) {
+        List<String> lines = new ArrayList<>();
+        int matches = 0;
+        int lineNumber = 0;
+
+        try (BufferedReader reader = Files.newBufferedReader(root.resolve(rel), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (!line.toLowerCase(Locale.ROOT).contains(needle)) continue;
+
+                matches++;
+                if (lines.size() < MAX_LINES_PER_FILE) {
+                    String text = line.strip();
+                    if (text.length() > MAX_LINE_LENGTH) {
+                        text = text.substring(0, MAX_LINE_LENGTH) + "...";
+                    }
+                    lines.add(lineNumber + ": " + text);
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            // Deleted or undecodable since indexing
+            return null;
+        }
+
+        return matches > 0 ? new Hit(rel, nameMatch, matches, lines) : null;
+    }
+
+    private boolean isIgnored(Path dir) {
+        Path name = dir.getFileName();
+        return name != null && IGNORED_DIRS.contains(name.toString());
+    }
+
+    private String relative(Path path) {
+        return root.relativize(path.toAbsolutePath().normalize()).toString().replace('\\', '/');
+    }
+
+    /**
+     * Get index statistics
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("root", root.toString());
+        stats.put("files", pathToId.size());
+        stats.put("trigrams", postings.size());
+        stats.put("deadEntries", deadEntries.get());
+        stats.put("watchedDirs", watchKeys.size());
+        stats.put("building", built.getCount() > 0);
+        stats.put("lastBuildMs", lastBuildMs);
+        return stats;
+    }
+
+    private static String getStringArg(Map<String, Object> args, String key, String errorMsg) {
+        Object value = args.get(key);
+        if (value == null) {
+            throw new IllegalArgumentException(errorMsg);
+        }
+        return value.toString();
+    }
+
+    private static int getIntArg(Map<String, Object> args, String key, int defaultValue) {
+        Object value = args.get(key);
+        if (value == null) return defaultValue;
+        if (value instanceof Number) return ((Number) value).intValue();
+        return Integer.parseInt(value.toString());
+    }
+}
@@ -0,0 +1,143 @@
+package com.nanobot.tool;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+/**
+ * Workspace Overlay - Copy-on-write clone of a workspace for isolated subagents
+ * The upper directory starts as a clone of the base workspace, made with
+ * reflinks where the filesystem supports them so unchanged files share their
+ * blocks with the base. Being a real tree, it works the same for the shell,
+ * glob, search and file tools, and nothing written there reaches the base.
+ */
+public class WorkspaceOverlay {
+    private static final ConcurrentHashMap<Path, Path> OVERLAYS = new ConcurrentHashMap<>();
+
+    /**
+     * Create an overlay of base under root; returns the upper directory to use as workspace
+     */
+    public static Path create(Path base, Path root, String name) throws IOException {
+        Path lower = base.toAbsolutePath().normalize();
+        Path overlayRoot = root.toAbsolutePath().normalize();
+        Path upper = overlayRoot.resolve(name);
+        Files.createDirectories(upper);
+
+        try {
+            // cp cannot leave out an overlay root that lives inside the base
+            if (overlayRoot.startsWith(lower) || !cloneWithCp(lower, upper)) {
+                deleteTree(upper);
+                Files.createDirectories(upper);
+                copyTree(lower, upper, overlayRoot);
+            }
+        } catch (IOException | RuntimeException e) {
+            deleteTree(upper);
+            throw e;
+        }
+
+        OVERLAYS.put(upper, lower);
+        return upper;
+    }
+
+    /**
+     * GNU cp clones extents on btrfs and XFS and copies elsewhere; false if cp is missing or failed
+     */
+    private static boolean cloneWithCp(Path lower, Path upper) {
+        try {
+            Process cp = new ProcessBuilder("cp", "-a", "--reflink=auto", lower + "/.", upper.toString())
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+            return cp.waitFor() == 0;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while cloning workspace " + lower);
+        }
+    }
+
+    private static void copyTree(Path lower, Path upper, Path skip) throws IOException {
+        Files.walkFileTree(lower, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (dir.startsWith(skip)) return FileVisitResult.SKIP_SUBTREE;
+                Files.createDirectories(upper.resolve(lower.relativize(dir).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.copy(file, upper.resolve(lower.relativize(file).toString()),
+                    StandardCopyOption.COPY_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // Unreadable in the base, so unreadable in the overlay too
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Unregister an overlay, stop whatever was watching or running in it, and delete it
+     */
+    public static void discard(Path upper) {
+        Path key = upper.toAbsolutePath().normalize();
+        if (OVERLAYS.remove(key) == null) return;
+
+        WorkspaceIndex.evict(key.toString());
+        ShellSessions.shared().closeWorkspace(key.toString());
+        deleteTree(key);
+    }
+
+    private static void deleteTree(Path root) {
+        if (!Files.exists(root, LinkOption.NOFOLLOW_LINKS)) return;
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    // Best effort; a leftover file only costs disk
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Failed to delete overlay " + root + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Files created or modified in the overlay, relative to the workspace root
+     */
+    public static List<String> changes(Path upper) throws IOException {
+        Path key = upper.toAbsolutePath().normalize();
+        Path lower = OVERLAYS.get(key);
+        try (Stream<Path> paths = Files.walk(key)) {
+            return paths.filter(path -> Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS))
+                .filter(path -> lower == null || differs(path, lower.resolve(key.relativize(path).toString())))
+                .map(path -> key.relativize(path).toString())
+                .sorted()
+                .toList();
+        }
+    }
+
+    private static boolean differs(Path copy, Path original) {
+        try {
+            return !Files.isRegularFile(original, LinkOption.NOFOLLOW_LINKS)
+                || Files.size(copy) != Files.size(original)
+                || Files.mismatch(copy, original) != -1;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    public static boolean isOverlay(String workspace) {
+        return workspace != null && !OVERLAYS.isEmpty()
+            && OVERLAYS.containsKey(Paths.get(workspace).toAbsolutePath().normalize());
+    }
+}
@@ -21,6 +21,8 @@ public class WebServer {
     private final AgentLoop agentLoop;
     private final ToolRegistry toolRegistry;
     private final int port;
+    private static final long CHAT_TIMEOUT_MS = 60_000;
+    private static final long CHAT_PROBE_MS = 2_000;
 
     // SSE connections for streaming
     private final Map<String, HttpExchange> sseConnections = new ConcurrentHashMap<>();
@@ -89,31 +91,71 @@ public class WebServer {
             return;
         }
 
+        String sessionId;
+        String message;
         try {
             String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
             Map<String, Object> request = parseJson(body);
 
-            String sessionId = (String) request.getOrDefault("sessionId", "default");
-            String message = (String) request.get("message");
+            sessionId = (String) request.getOrDefault("sessionId", "default");
+            message = (String) request.get("message");
+        } catch (Exception e) {
+            sendJsonResponse(exchange, 500, Map.of("error", String.valueOf(e.getMessage())));
+            return;
+        }
 
-            if (message == null || message.trim().isEmpty()) {
-                sendJsonResponse(exchange, 400, Map.of("error", "Message is required"));
-                return;
-            }
+        if (message == null || message.trim().isEmpty()) {
+            sendJsonResponse(exchange, 400, Map.of("error", "Message is required"));
+            return;
+        }
 
-            // Process message asynchronously
-            CompletableFuture<String> future = agentLoop.processAsync(sessionId, message);
-            String response = future.get(60, TimeUnit.SECONDS);
+        // Process message asynchronously
+        CompletableFuture<String> future = agentLoop.processAsync(sessionId, message);
 
+        // HttpServer reports a closed connection only as a failed write, so the headers go out
+        // now and the wait below probes the client with whitespace, which JSON ignores
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
             Map<String, Object> result = new HashMap<>();
-            result.put("response", response);
-            result.put("sessionId", sessionId);
-            result.put("timestamp", System.currentTimeMillis());
-
-            sendJsonResponse(exchange, 200, result);
+            try {
+                result.put("response", awaitWhileConnected(future, out));
+                result.put("sessionId", sessionId);
+                result.put("timestamp", System.currentTimeMillis());
+            } catch (ExecutionException e) {
+                result.put("error", String.valueOf(e.getMessage()));
+            } catch (TimeoutException | InterruptedException e) {
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                future.cancel(true);
+                result.put("error", String.valueOf(e.getMessage()));
+            }
+            out.write(toJson(result).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // Client gone: don't leave the upstream request running
+            future.cancel(true);
+        }
+    }
 
-        } catch (Exception e) {
-            sendJsonResponse(exchange, 500, Map.of("error", e.getMessage()));
+    /**
+     * Wait for the reply, writing a space every CHAT_PROBE_MS; throws IOException once the client has gone
+     */
+    private static String awaitWhileConnected(CompletableFuture<String> future, OutputStream out)
+            throws IOException, ExecutionException, InterruptedException, TimeoutException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CHAT_TIMEOUT_MS);
+        while (true) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException("No reply within " + CHAT_TIMEOUT_MS / 1000 + "s");
+            }
+            try {
+                return future.get(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(CHAT_PROBE_MS)),
+                    TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                out.write(' ');
+                out.flush();
+            }
         }
     }
 
@@ -2,6 +2,7 @@ package com.nanobot.test;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 /**
  * Simple verification test for Nanobot Java components
@@ -24,10 +25,31 @@ public class NanobotTest {
         testMessageBus();
         testToolRegistry();
         testTokenCounter();
+        testTokenCounterExactness();
+        testBpeTokenizer();
         testEventSystem();
         testStreamHandler();
+        testSseDecoder();
         testThinkingTracker();
+        testThinkingTrackerEviction();
         testSubagentManager();
+        testSubagentWaits();
+        testMapReduceJob();
+        testSubagentResultStore();
+        testAgentScheduler();
+        testToolResultCache();
+        testHtmlExtractor();
+        testBoundedBody();
+        testSubagentScope();
+        testSubagentOverlays();
+        testAgentLoopToolErrors();
+        testFileToolWrites();
+        testFileToolWindows();
+        testGlobMatcher();
+        testWorkspaceIndex();
+        testShellSessions();
+        testProcessRunner();
+        testFetchCache();
         
         // Print results
         printResults();
@@ -134,7 +156,91 @@ public class NanobotTest {
             failed("TokenCounter", e);
         }
     }
+
+    @SuppressWarnings("unchecked")
+    private static void testTokenCounterExactness() {
+        printTest("TokenCounter - Exact Counts per Model");
+        try {
+            // A cl100k vocabulary makes OpenAI counts exact and leaves other vendors on estimates
+            Class<?> counterClass = Class.forName("com.nanobot.llm.TokenCounter");
+            Class<?> bpeClass = Class.forName("com.nanobot.llm.BpeTokenizer");
+            java.lang.reflect.Field registry = counterClass.getDeclaredField("TOKENIZERS");
+            java.lang.reflect.Method install = counterClass.getDeclaredMethod("install", bpeClass, String[].class);
+            java.lang.reflect.Method isExact = counterClass.getMethod("isExact", String.class);
+            registry.setAccessible(true);
+            install.setAccessible(true);
+            Map<String, Object> tokenizers = (Map<String, Object>) registry.get(null);
+            Map<String, Object> saved = new HashMap<>(tokenizers);
+            StringBuilder vocab = new StringBuilder();
+            for (int b = 0; b < 256; b++) {
+                vocab.append(Base64.getEncoder().encodeToString(new byte[] {(byte) b})).append(' ').append(b).append('\n');
+            }
+            Object cl100k = bpeClass.getMethod("fromTiktoken", String.class, java.io.InputStream.class)
+                .invoke(null, "cl100k_base", new java.io.ByteArrayInputStream(vocab.toString().getBytes("UTF-8")));
+            java.util.function.Predicate<String> exact = model -> {
+                try {
+                    return (Boolean) isExact.invoke(null, model);
+                } catch (ReflectiveOperationException e) {
+                    throw new RuntimeException(e);
+                }
+            };
+            install.invoke(null, cl100k, new String[] {"gpt-4", "gpt-3.5"});
+            boolean exactOpenAi = exact.test("gpt-4-turbo") && exact.test("gpt-3.5-turbo");
+            boolean estimatedOthers = !exact.test("claude-3-5-sonnet-20241022") && !exact.test("gemini-pro")
+                && !exact.test("deepseek-chat") && !exact.test("qwen-max") && !exact.test("gpt-4o")
+                && !exact.test(null);
+            tokenizers.clear();
+            tokenizers.putAll(saved);
+
+            if (exactOpenAi && estimatedOthers) {
+                passed("TokenCounter exact counts only for OpenAI models");
+            } else {
+                failed("TokenCounter exactness", new Exception("exactOpenAi=" + exactOpenAi
+                    + " estimatedOthers=" + estimatedOthers));
+            }
+            
+        } catch (Exception e) {
+            failed("TokenCounter exactness", e);
+        }
+    }
     
+    private static void testBpeTokenizer() {
+        printTest("BpeTokenizer - Byte Pair Merges");
+        try {
+            // Byte-level base vocabulary plus a few merges
+            StringBuilder vocab = new StringBuilder();
+            int rank = 0;
+            for (int b = 0; b < 256; b++) {
+                vocab.append(Base64.getEncoder().encodeToString(new byte[] {(byte) b}))
+                    .append(' ').append(rank++).append('\n');
+            }
+            for (String merge : new String[] {"he", "ll", "hell"}) {
+                vocab.append(Base64.getEncoder().encodeToString(merge.getBytes("UTF-8")))
+                    .append(' ').append(rank++).append('\n');
+            }
+
+            Object tokenizer = Class.forName("com.nanobot.llm.BpeTokenizer")
+                .getMethod("fromTiktoken", String.class, java.io.InputStream.class)
+                .invoke(null, "cl100k_base", new java.io.ByteArrayInputStream(vocab.toString().getBytes("UTF-8")));
+
+            java.lang.reflect.Method count = tokenizer.getClass().getMethod("countTokens", String.class);
+
+            // "hello" -> [hell, o]; " hello" -> [" ", hell, o]
+            int tokens = (Integer) count.invoke(tokenizer, "hello hello");
+            int cached = (Integer) count.invoke(tokenizer, "hello hello");
+            int cjk = (Integer) count.invoke(tokenizer, "你好");
+
+            if (tokens == 5 && cached == 5 && cjk == 6) {
+                passed("BpeTokenizer byte pair merges");
+            } else {
+                failed("BpeTokenizer", new Exception("Unexpected counts: " + tokens + ", " + cached + ", " + cjk));
+            }
+
+        } catch (Exception e) {
+            failed("BpeTokenizer", e);
+        }
+    }
+
     private static void testEventSystem() {
         printTest("EventBus - Publish/Subscribe");
         try {
@@ -179,6 +285,46 @@ public class NanobotTest {
             failed("StreamHandler", e);
         }
     }
+
+    private static void testSseDecoder() {
+        printTest("SseDecoder - Incremental SSE Parsing");
+        try {
+            Object handler = Class.forName("com.nanobot.llm.StreamHandler")
+                .getDeclaredConstructor()
+                .newInstance();
+            Class<?> shClass = handler.getClass();
+
+            // Feed an SSE body in pieces that split a line and a UTF-8 character
+            byte[] body = ("data: {\"choices\":[{\"delta\":{\"content\":\"Hi 你\"}}]}\n\n"
+                + "data: {\"choices\":[{\"delta\":{\"tool_calls\":[{\"index\":0,\"id\":\"call_1\","
+                + "\"function\":{\"name\":\"read_file\",\"arguments\":\"{\\\"path\\\":\"}}]}}]}\n\n"
+                + "data: {\"choices\":[{\"delta\":{\"tool_calls\":[{\"index\":0,"
+                + "\"function\":{\"arguments\":\"\\\"a.txt\\\"}\"}}]}}]}\n\n"
+                + "data: [DONE]\n\n").getBytes("UTF-8");
+            Object decoder = Class.forName("com.nanobot.llm.SseDecoder")
+                .getConstructor(shClass)
+                .newInstance(handler);
+            java.lang.reflect.Method feed = decoder.getClass().getMethod("feed", java.nio.ByteBuffer.class);
+            shClass.getMethod("start").invoke(handler);
+            for (int i = 0; i < body.length; i += 7) {
+                feed.invoke(decoder, java.nio.ByteBuffer.wrap(body, i, Math.min(7, body.length - i)));
+            }
+
+            String content = (String) shClass.getMethod("getAccumulatedContent").invoke(handler);
+            String toolCalls = String.valueOf(shClass.getMethod("getToolCalls").invoke(handler));
+            String finalStatus = shClass.getMethod("getStatus").invoke(handler).toString();
+
+            if ("Hi 你".equals(content) && toolCalls.contains("read_file") && toolCalls.contains("path=a.txt")
+                    && "COMPLETED".equals(finalStatus)) {
+                passed("SseDecoder split lines, characters and tool call deltas");
+            } else {
+                failed("SseDecoder", new Exception("Unexpected stream: " + content + " " + toolCalls + " " + finalStatus));
+            }
+            
+        } catch (Exception e) {
+            failed("SseDecoder", e);
+        }
+    }
     
     private static void testThinkingTracker() {
         printTest("ThinkingTracker - Reasoning");
@@ -206,6 +352,53 @@ public class NanobotTest {
             failed("ThinkingTracker", e);
         }
     }
+
+    private static void testThinkingTrackerEviction() {
+        printTest("ThinkingTracker - Eviction at the Active Cap");
+        try {
+            Class<?> ttClass = Class.forName("com.nanobot.agent.ThinkingTracker");
+
+            // 70 live thoughts against a cap of 64 evict the six oldest; their owners carry on unaffected
+            Object bounded = ttClass.getConstructor(int.class, int.class, double.class).newInstance(50, 16, 1.0);
+            java.lang.reflect.Method start = ttClass.getMethod("startThinking", String.class);
+            java.lang.reflect.Method addStep = ttClass.getMethod("addStep", String.class, String.class);
+            java.lang.reflect.Method complete = ttClass.getMethod("completeThinking", String.class, String.class);
+            java.lang.reflect.Method getThought = ttClass.getMethod("getThought", String.class);
+            List<String> ids = new ArrayList<>();
+            for (int i = 0; i < 70; i++) {
+                ids.add((String) start.invoke(bounded, "thought " + i));
+            }
+            Map<?, ?> boundedStats = (Map<?, ?>) ttClass.getMethod("getStats").invoke(bounded);
+            boolean capped = Integer.valueOf(64).equals(boundedStats.get("activeThoughts"))
+                && Long.valueOf(6).equals(boundedStats.get("evicted"));
+            Object evictedThought = getThought.invoke(bounded, ids.get(0));
+            boolean evictedCancelled = evictedThought != null
+                && "CANCELLED".equals(evictedThought.getClass().getMethod("getStatus").invoke(evictedThought).toString());
+
+            // Steps and completion on an evicted thought are ignored, in the ring and after leaving it
+            addStep.invoke(bounded, ids.get(0), "late step");
+            complete.invoke(bounded, ids.get(0), "late summary");
+            for (int i = 6; i < 30; i++) {
+                complete.invoke(bounded, ids.get(i), "done");
+            }
+            boolean leftRing = getThought.invoke(bounded, ids.get(1)) == null;
+            addStep.invoke(bounded, ids.get(1), "later step");
+            complete.invoke(bounded, ids.get(1), "later summary");
+            addStep.invoke(bounded, ids.get(69), "live step");
+            Object live = getThought.invoke(bounded, ids.get(69));
+            boolean liveStep = Integer.valueOf(1).equals(live.getClass().getMethod("getStepCount").invoke(live));
+
+            if (capped && evictedCancelled && leftRing && liveStep) {
+                passed("ThinkingTracker eviction leaves owners unaffected");
+            } else {
+                failed("ThinkingTracker eviction", new Exception("capped=" + capped
+                    + " evictedCancelled=" + evictedCancelled + " leftRing=" + leftRing + " liveStep=" + liveStep));
+            }
+
+        } catch (Exception e) {
+            failed("ThinkingTracker eviction", e);
+        }
+    }
     
     private static void testSubagentManager() {
         printTest("SubagentManager - Background Tasks");
@@ -235,6 +428,1345 @@ public class NanobotTest {
         }
     }
     
+    private static void testSubagentWaits() {
+        printTest("SubagentManager - Waits and Interrupting Cancel");
+        try {
+            Class<?> managerClass = Class.forName("com.nanobot.agent.SubagentManager");
+            Class<?> executorClass = Class.forName("com.nanobot.agent.SubagentManager$SubagentExecutor");
+            Class<?> subagentClass = Class.forName("com.nanobot.agent.SubagentManager$Subagent");
+
+            // Tasks script the executor: "ok:x" returns x, "slow:x" returns x later, "block" sleeps until interrupted
+            CountDownLatch interrupted = new CountDownLatch(1);
+            Object executor = java.lang.reflect.Proxy.newProxyInstance(executorClass.getClassLoader(),
+                new Class<?>[] {executorClass}, (proxy, method, args) -> switch (method.getName()) {
+                    case "execute" -> {
+                        String task = (String) args[0];
+                        if (task.startsWith("ok:")) yield task.substring(3);
+                        if (task.startsWith("slow:")) {
+                            Thread.sleep(200);
+                            yield task.substring(5);
+                        }
+                        try {
+                            Thread.sleep(60_000);
+                        } catch (InterruptedException e) {
+                            interrupted.countDown();
+                            throw new RuntimeException("interrupted");
+                        }
+                        yield "not interrupted";
+                    }
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    default -> "scripted executor";
+                });
+            Object manager = managerClass.getConstructor(executorClass, String.class)
+                .newInstance(executor, System.getProperty("java.io.tmpdir"));
+            java.lang.reflect.Method create = managerClass.getMethod("createSubagent", String.class, String.class, String.class);
+            java.lang.reflect.Method waitForAll = managerClass.getMethod("waitForAll", Collection.class, long.class);
+            java.lang.reflect.Method waitForAny = managerClass.getMethod("waitForAny", Collection.class, long.class);
+            java.lang.reflect.Method waitFor = managerClass.getMethod("waitForSubagent", String.class, long.class);
+            java.lang.reflect.Method cancel = managerClass.getMethod("cancelSubagent", String.class);
+            java.lang.reflect.Method getSubagent = managerClass.getMethod("getSubagent", String.class);
+            java.lang.reflect.Method getResult = subagentClass.getMethod("getResult");
+            java.lang.reflect.Method getStatus = subagentClass.getMethod("getStatus");
+
+            // waitForAll returns every subagent in the order asked, once the slow one is done too
+            String slow = (String) create.invoke(manager, "slow:b", null, null);
+            String quick = (String) create.invoke(manager, "ok:a", null, null);
+            List<?> all = (List<?>) waitForAll.invoke(manager, List.of(quick, slow), 5000L);
+            boolean waitedAll = all.size() == 2 && "a".equals(getResult.invoke(all.get(0)))
+                && "b".equals(getResult.invoke(all.get(1)))
+                && "COMPLETED".equals(getStatus.invoke(all.get(1)).toString());
+
+            // waitForAny returns the first to finish while the other keeps running
+            String blocked = (String) create.invoke(manager, "block", null, null);
+            String winner = (String) create.invoke(manager, "ok:c", null, null);
+            Object first = waitForAny.invoke(manager, List.of(blocked, winner), 5000L);
+            boolean waitedAny = first == getSubagent.invoke(manager, winner)
+                && "RUNNING".equals(getStatus.invoke(getSubagent.invoke(manager, blocked)).toString());
+
+            // Cancelling interrupts the executor thread, and only the first cancel counts
+            boolean cancelled = (boolean) cancel.invoke(manager, blocked)
+                && interrupted.await(5, TimeUnit.SECONDS)
+                && !(boolean) cancel.invoke(manager, blocked)
+                && "CANCELLED".equals(getStatus.invoke(getSubagent.invoke(manager, blocked)).toString());
+            boolean waitRejected = false;
+            try {
+                waitFor.invoke(manager, blocked, 1000L);
+            } catch (java.lang.reflect.InvocationTargetException e) {
+                waitRejected = e.getCause() instanceof IllegalStateException
+                    && e.getCause().getMessage().contains("cancelled");
+            }
+
+            managerClass.getMethod("stop").invoke(manager);
+
+            if (waitedAll && waitedAny && cancelled && waitRejected) {
+                passed("SubagentManager waitForAll, waitForAny and interrupting cancel");
+            } else {
+                failed("SubagentWaits", new Exception("waitedAll=" + waitedAll + " waitedAny=" + waitedAny
+                    + " cancelled=" + cancelled + " waitRejected=" + waitRejected));
+            }
+
+        } catch (Exception e) {
+            failed("SubagentWaits", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void testMapReduceJob() {
+        printTest("MapReduceJob - Concurrency, Ordering, Budgets and Cancel");
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        try {
+            Class<?> managerClass = Class.forName("com.nanobot.agent.SubagentManager");
+            Class<?> executorClass = Class.forName("com.nanobot.agent.SubagentManager$AsyncSubagentExecutor");
+            Class<?> jobClass = Class.forName("com.nanobot.agent.MapReduceJob");
+            Class<?> budgetClass = Class.forName("com.nanobot.agent.MapReduceJob$Budget");
+            Class<?> partialClass = Class.forName("com.nanobot.agent.MapReduceJob$Partial");
+            Class<?> counterClass = Class.forName("com.nanobot.llm.TokenCounter");
+            java.lang.reflect.Method getSubagent = managerClass.getMethod("getSubagent", String.class);
+            java.lang.reflect.Method currentId = managerClass.getMethod("currentSubagentId");
+            java.lang.reflect.Method maxOutput = Class.forName("com.nanobot.agent.SubagentManager$Subagent")
+                .getMethod("getMaxOutputTokens");
+
+            // "t<n>:<ms>" finishes after ms, "hang" runs until cancelled, "cancel-job" cancels the job as it starts
+            Object[] holder = new Object[2];
+            AtomicInteger inFlight = new AtomicInteger();
+            AtomicInteger maxInFlight = new AtomicInteger();
+            AtomicInteger launches = new AtomicInteger();
+            List<CompletableFuture<String>> hanging = new CopyOnWriteArrayList<>();
+            Map<String, Integer> caps = new ConcurrentHashMap<>();
+            Object executor = java.lang.reflect.Proxy.newProxyInstance(executorClass.getClassLoader(),
+                new Class<?>[] {executorClass}, (proxy, method, args) -> switch (method.getName()) {
+                    case "executeAsync" -> {
+                        String task = (String) args[0];
+                        launches.incrementAndGet();
+                        caps.put(task, (Integer) maxOutput.invoke(getSubagent.invoke(holder[0], currentId.invoke(null))));
+                        CompletableFuture<String> running = new CompletableFuture<>();
+                        if (task.equals("cancel-job")) {
+                            jobClass.getMethod("cancel").invoke(holder[1]);
+                        }
+                        if (task.equals("hang") || task.equals("cancel-job")) {
+                            hanging.add(running);
+                            yield running;
+                        }
+                        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                        timer.schedule(() -> {
+                            inFlight.decrementAndGet();
+                            running.complete("r:" + task);
+                        }, Long.parseLong(task.substring(task.indexOf(':') + 1)), TimeUnit.MILLISECONDS);
+                        yield running;
+                    }
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    default -> "scripted executor";
+                });
+            Object manager = managerClass.getMethod("withAsyncExecutor", executorClass, String.class)
+                .invoke(null, executor, System.getProperty("java.io.tmpdir"));
+            holder[0] = manager;
+            java.lang.reflect.Method mapReduce = managerClass.getMethod("mapReduce", List.class, String.class,
+                String.class, int.class, budgetClass, java.util.function.Consumer.class);
+            java.lang.reflect.Method results = jobClass.getMethod("results");
+            java.lang.reflect.Method index = partialClass.getMethod("index");
+            java.lang.reflect.Method status = partialClass.getMethod("status");
+            java.lang.reflect.Method result = partialClass.getMethod("result");
+            Object unlimited = budgetClass.getField("UNLIMITED").get(null);
+
+            // Later tasks finish first, yet partials come back in task order and no more than 3 run at once
+            List<String> tasks = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                tasks.add("t" + i + ":" + (8 - i) * 15);
+            }
+            List<Object> streamed = new CopyOnWriteArrayList<>();
+            Object job = mapReduce.invoke(manager, tasks, null, null, 3, unlimited,
+                (java.util.function.Consumer<Object>) streamed::add);
+            List<Object> partials = ((CompletableFuture<List<Object>>) results.invoke(job)).get(10, TimeUnit.SECONDS);
+            boolean ordered = partials.size() == 8 && streamed.size() == 8;
+            for (int i = 0; i < partials.size(); i++) {
+                ordered &= (int) index.invoke(partials.get(i)) == i
+                    && ("r:" + tasks.get(i)).equals(result.invoke(partials.get(i)));
+            }
+            boolean limited = maxInFlight.get() == 3;
+
+            // Replies are capped at what the prompt leaves of the token budget, or of the cost budget
+            java.lang.reflect.Method count = counterClass.getMethod("countTokens", String.class, String.class);
+            java.lang.reflect.Method estimate = counterClass.getMethod("estimateCost", String.class, int.class, int.class);
+            java.lang.reflect.Constructor<?> budget = budgetClass.getConstructor(int.class, double.class);
+            String capped = "t8:1";
+            int input = (int) count.invoke(null, capped, "gpt-4o");
+            ((CompletableFuture<?>) results.invoke(mapReduce.invoke(manager, List.of(capped), null, "gpt-4o", 1,
+                budget.newInstance(100, 0.0), null))).get(10, TimeUnit.SECONDS);
+            boolean tokenCap = caps.get(capped) == 100 - input && caps.get(tasks.get(0)) == 0;
+            String priced = "t9:1";
+            double maxCost = 0.001;
+            double inputCost = (double) estimate.invoke(null, "gpt-4o", (int) count.invoke(null, priced, "gpt-4o"), 0);
+            double perOutput = (double) estimate.invoke(null, "gpt-4o", 0, 1_000_000) / 1_000_000;
+            ((CompletableFuture<?>) results.invoke(mapReduce.invoke(manager, List.of(priced), null, "gpt-4o", 1,
+                budget.newInstance(0, maxCost), null))).get(10, TimeUnit.SECONDS);
+            boolean costCap = caps.get(priced) == (int) ((maxCost - inputCost) / perOutput);
+
+            // cancel() stops the running sub-tasks and never launches the queued ones
+            launches.set(0);
+            Object hangJob = mapReduce.invoke(manager, List.of("hang", "hang", "hang", "hang"), null, null, 2,
+                unlimited, null);
+            jobClass.getMethod("cancel").invoke(hangJob);
+            List<Object> stopped = ((CompletableFuture<List<Object>>) results.invoke(hangJob)).get(10, TimeUnit.SECONDS);
+            boolean cancelled = launches.get() == 2 && hanging.size() == 2
+                && hanging.stream().allMatch(CompletableFuture::isCancelled);
+            for (Object partial : stopped) {
+                cancelled &= "CANCELLED".equals(status.invoke(partial).toString());
+            }
+
+            // A cancel that lands while a sub-task is being launched still reaches that sub-task
+            java.lang.reflect.Constructor<?> newJob = jobClass.getDeclaredConstructor(managerClass, List.class,
+                String.class, String.class, int.class, budgetClass, java.util.function.Consumer.class);
+            newJob.setAccessible(true);
+            holder[1] = newJob.newInstance(manager, List.of("hang", "cancel-job", "hang"), null, null, 2, unlimited, null);
+            java.lang.reflect.Method start = jobClass.getDeclaredMethod("start");
+            start.setAccessible(true);
+            start.invoke(holder[1]);
+            List<Object> raced = ((CompletableFuture<List<Object>>) results.invoke(holder[1])).get(10, TimeUnit.SECONDS);
+            boolean raceHandled = raced.size() == 3 && hanging.size() == 4
+                && hanging.stream().allMatch(CompletableFuture::isCancelled);
+
+            managerClass.getMethod("stop").invoke(manager);
+
+            if (ordered && limited && tokenCap && costCap && cancelled && raceHandled) {
+                passed("MapReduceJob concurrency limit, ordered partials, reply caps and cancel");
+            } else {
+                failed("MapReduceJob", new Exception("ordered=" + ordered + " limited=" + limited
+                    + " tokenCap=" + tokenCap + " costCap=" + costCap + " cancelled=" + cancelled
+                    + " raceHandled=" + raceHandled + " caps=" + caps));
+            }
+
+        } catch (Exception e) {
+            failed("MapReduceJob", e);
+        } finally {
+            timer.shutdownNow();
+        }
+    }
+
+    private static void testSubagentResultStore() {
+        printTest("SubagentResultStore - Spilling, Read-Back and Retention");
+        try {
+            Class<?> storeClass = Class.forName("com.nanobot.agent.SubagentResultStore");
+            Class<?> refClass = Class.forName("com.nanobot.agent.SubagentResultStore$Ref");
+            Class<?> retentionClass = Class.forName("com.nanobot.agent.SubagentResultStore$Retention");
+            java.lang.reflect.Method put = storeClass.getDeclaredMethod("put", String.class, String.class);
+            java.lang.reflect.Method pin = storeClass.getDeclaredMethod("pin", refClass);
+            java.lang.reflect.Method unpin = storeClass.getDeclaredMethod("unpin", refClass);
+            put.setAccessible(true);
+            pin.setAccessible(true);
+            unpin.setAccessible(true);
+            java.lang.reflect.Method text = refClass.getMethod("text");
+            java.lang.reflect.Method isSpilled = refClass.getMethod("isSpilled");
+            java.lang.reflect.Method contains = storeClass.getMethod("contains", String.class);
+            java.lang.reflect.Method enforce = storeClass.getMethod("enforceRetention");
+            java.lang.reflect.Method setRetention = storeClass.getMethod("setRetention", retentionClass);
+            java.lang.reflect.Constructor<?> retention = retentionClass.getConstructor(long.class, long.class);
+            java.lang.reflect.Method stats = storeClass.getMethod("getStats");
+
+            java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("nanobot-results");
+            Object store = storeClass.getConstructor().newInstance();
+            storeClass.getMethod("setDirectory", java.nio.file.Path.class).invoke(store, dir);
+            storeClass.getMethod("setInlineLimit", int.class).invoke(store, 100);
+
+            // Results over the inline limit go to a gzip file and are read only when asked for
+            String report = "finding: the cache is cold\n".repeat(1000);
+            Object small = put.invoke(store, "sub_1", "short answer");
+            Object big = put.invoke(store, "sub_2", report);
+            java.nio.file.Path file = dir.resolve("sub_2.txt.gz");
+            boolean spilled = !(boolean) isSpilled.invoke(small) && "short answer".equals(text.invoke(small))
+                && (boolean) isSpilled.invoke(big) && java.nio.file.Files.size(file) < report.length()
+                && Long.valueOf(0).equals(((Map<?, ?>) stats.invoke(store)).get("reads"));
+            boolean readBack = report.equals(text.invoke(big))
+                && Long.valueOf(1).equals(((Map<?, ?>) stats.invoke(store)).get("reads"));
+
+            // Past its age a result is kept while pinned and deleted once the last pin goes
+            setRetention.invoke(store, retention.newInstance(1L, 0L));
+            Thread.sleep(20);
+            enforce.invoke(store);
+            boolean pinnedKept = (boolean) contains.invoke(store, "sub_2") && java.nio.file.Files.exists(file);
+            pin.invoke(store, big);
+            unpin.invoke(store, big);
+            enforce.invoke(store);
+            boolean stillPinned = (boolean) contains.invoke(store, "sub_2");
+            unpin.invoke(store, big);
+            enforce.invoke(store);
+            String note = (String) text.invoke(big);
+            boolean expired = !(boolean) contains.invoke(store, "sub_2") && !java.nio.file.Files.exists(file)
+                && note.equals("[Subagent result sub_2 has expired from the result store]");
+
+            // Over the disk budget the oldest unpinned spill goes first
+            setRetention.invoke(store, retention.newInstance(0L, 1L));
+            Object older = put.invoke(store, "sub_3", report);
+            Thread.sleep(20);
+            Object newer = put.invoke(store, "sub_4", report + "more");
+            unpin.invoke(store, older);
+            enforce.invoke(store);
+            boolean budgeted = !(boolean) contains.invoke(store, "sub_3") && (boolean) contains.invoke(store, "sub_4");
+            unpin.invoke(store, newer);
+            enforce.invoke(store);
+            budgeted &= !(boolean) contains.invoke(store, "sub_4");
+
+            try (var files = java.nio.file.Files.list(dir)) {
+                for (java.nio.file.Path leftover : files.toList()) {
+                    java.nio.file.Files.delete(leftover);
+                }
+            }
+            java.nio.file.Files.delete(dir);
+
+            if (spilled && readBack && pinnedKept && stillPinned && expired && budgeted) {
+                passed("SubagentResultStore spilling, lazy read-back and pinned retention");
+            } else {
+                failed("SubagentResultStore", new Exception("spilled=" + spilled + " readBack=" + readBack
+                    + " pinnedKept=" + pinnedKept + " stillPinned=" + stillPinned + " expired=" + expired
+                    + " budgeted=" + budgeted));
+            }
+
+        } catch (Exception e) {
+            failed("SubagentResultStore", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void testAgentScheduler() {
+        printTest("AgentScheduler - Priority Classes and Fair Queuing");
+        try {
+            Class<?> schedulerClass = Class.forName("com.nanobot.core.AgentScheduler");
+            Class<?> priorityClass = Class.forName("com.nanobot.core.AgentScheduler$Priority");
+            Object interactive = priorityClass.getField("INTERACTIVE").get(null);
+            Object subagent = priorityClass.getField("SUBAGENT").get(null);
+            Object background = priorityClass.getField("BACKGROUND").get(null);
+            java.lang.reflect.Method submit = schedulerClass.getMethod("submit",
+                priorityClass, String.class, java.util.function.Supplier.class);
+            java.lang.reflect.Method getStats = schedulerClass.getMethod("getStats");
+
+            // Two slots, one reserved for interactive calls, two waiting calls per class
+            Object scheduler = schedulerClass.getConstructor(int.class, int.class, int.class).newInstance(2, 1, 2);
+            List<CompletableFuture<Object>> started = new CopyOnWriteArrayList<>();
+            java.util.function.Supplier<CompletableFuture<Object>> hold = () -> {
+                CompletableFuture<Object> call = new CompletableFuture<>();
+                started.add(call);
+                return call;
+            };
+
+            CompletableFuture<Object> first = (CompletableFuture<Object>) submit.invoke(scheduler, background, "cron:a", hold);
+            submit.invoke(scheduler, background, "cron:b", hold);
+            CompletableFuture<Object> third = (CompletableFuture<Object>) submit.invoke(scheduler, background, "cron:c", hold);
+            CompletableFuture<Object> rejected = (CompletableFuture<Object>) submit.invoke(scheduler, background, "cron:d", hold);
+            boolean saturated = started.size() == 1 && rejected.isCompletedExceptionally();
+
+            // Background owns every shared slot, yet chat still starts on the reserved one
+            submit.invoke(scheduler, interactive, "cli:user", hold);
+            boolean reserved = started.size() == 2;
+
+            third.cancel(true);
+            Map<String, Object> backgroundStats = (Map<String, Object>)
+                ((Map<String, Object>) ((Map<String, Object>) getStats.invoke(scheduler)).get("classes")).get("background");
+            boolean dequeued = Long.valueOf(1).equals(backgroundStats.get("cancelled"))
+                && Integer.valueOf(1).equals(backgroundStats.get("queued"))
+                && Long.valueOf(1).equals(backgroundStats.get("rejected"));
+
+            // The cancelled call never starts once slots free up
+            first.complete(null);
+            started.get(0).complete("done");
+            started.get(2).complete("done");
+            boolean skipped = started.size() == 3;
+
+            // One slot: tenants a and b alternate although a queued first and more
+            Object fair = schedulerClass.getConstructor(int.class, int.class, int.class).newInstance(1, 0, 100);
+            List<String> order = new CopyOnWriteArrayList<>();
+            CompletableFuture<Object> gate = new CompletableFuture<>();
+            submit.invoke(fair, subagent, "sub_gate", (java.util.function.Supplier<CompletableFuture<Object>>) () -> gate);
+            for (String tenant : new String[] {"sub_a", "sub_a", "sub_a", "sub_a", "sub_b", "sub_b"}) {
+                submit.invoke(fair, subagent, tenant, (java.util.function.Supplier<CompletableFuture<Object>>) () -> {
+                    order.add(tenant.substring(4));
+                    return CompletableFuture.completedFuture(null);
+                });
+            }
+            gate.complete(null);
+            boolean fairShare = order.equals(List.of("a", "b", "a", "b", "a", "a"));
+
+            if (saturated && reserved && dequeued && skipped && fairShare) {
+                passed("AgentScheduler priority classes and fair queuing");
+            } else {
+                failed("AgentScheduler", new Exception("saturated=" + saturated + " reserved=" + reserved
+                    + " dequeued=" + dequeued + " skipped=" + skipped + " order=" + order));
+            }
+
+        } catch (Exception e) {
+            failed("AgentScheduler", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void testToolResultCache() {
+        printTest("ToolResultCache - Staleness, TTL and LRU Eviction");
+        try {
+            Class<?> cacheClass = Class.forName("com.nanobot.tool.ToolResultCache");
+            Class<?> policyClass = Class.forName("com.nanobot.tool.ToolResultCache$Policy");
+            Class<?> scopeClass = Class.forName("com.nanobot.tool.ToolResultCache$Scope");
+            Object session = scopeClass.getField("SESSION").get(null);
+            Object global = scopeClass.getField("GLOBAL").get(null);
+            java.lang.reflect.Method key = cacheClass.getDeclaredMethod("key", String.class, policyClass, Map.class, String.class);
+            java.lang.reflect.Method get = cacheClass.getDeclaredMethod("get", String.class, String.class);
+            java.lang.reflect.Method stamps = cacheClass.getDeclaredMethod("stamps", policyClass, Map.class, String.class);
+            java.lang.reflect.Method put = cacheClass.getDeclaredMethod("put", String.class, policyClass, Object.class, Map.class);
+            key.setAccessible(true);
+            get.setAccessible(true);
+            stamps.setAccessible(true);
+            put.setAccessible(true);
+            java.lang.reflect.Constructor<?> constructor = cacheClass.getConstructor(int.class, long.class);
+
+            // A file-backed entry goes stale once the file changes
+            java.nio.file.Path workspace = java.nio.file.Files.createTempDirectory("nanobot-cache");
+            java.nio.file.Path file = workspace.resolve("notes.txt");
+            java.nio.file.Files.writeString(file, "one");
+            Object files = policyClass.getMethod("files", scopeClass, String[].class).invoke(null, session, new String[] {"path"});
+            Object cache = constructor.newInstance(100, 800L);
+            Map<String, Object> args = Map.of("path", "notes.txt");
+            String fileKey = (String) key.invoke(cache, "read_file", files, args, "cli:test");
+            put.invoke(cache, fileKey, files, "one", stamps.invoke(cache, files, args, workspace.toString()));
+            boolean hitBefore = "one".equals(get.invoke(cache, "read_file", fileKey));
+            java.nio.file.Files.writeString(file, "one more");
+            boolean staleAfter = get.invoke(cache, "read_file", fileKey) == null
+                && Long.valueOf(1).equals(((Map<String, Object>) cacheClass.getMethod("getStats").invoke(cache)).get("stale"));
+            java.nio.file.Files.delete(file);
+            java.nio.file.Files.delete(workspace);
+
+            // A TTL entry expires
+            Object shortTtl = policyClass.getMethod("ttl", scopeClass, long.class).invoke(null, global, 1L);
+            String ttlKey = (String) key.invoke(cache, "web_fetch", shortTtl, Map.of("url", "u"), null);
+            put.invoke(cache, ttlKey, shortTtl, "page", Map.of());
+            Thread.sleep(20);
+            boolean expired = get.invoke(cache, "web_fetch", ttlKey) == null;
+
+            // Eight 94-char entries fit in 800 chars; a ninth evicts the least recently used
+            Object lru = constructor.newInstance(100, 800L);
+            Object longTtl = policyClass.getMethod("ttl", scopeClass, long.class).invoke(null, global, 60_000L);
+            String result = "x".repeat(70);
+            List<String> keys = new ArrayList<>();
+            for (int i = 0; i < 9; i++) {
+                keys.add((String) key.invoke(lru, "web_fetch", longTtl, Map.of("url", "u" + i), null));
+            }
+            for (int i = 0; i < 8; i++) {
+                put.invoke(lru, keys.get(i), longTtl, result, Map.of());
+            }
+            get.invoke(lru, "web_fetch", keys.get(0));
+            put.invoke(lru, keys.get(8), longTtl, result, Map.of());
+            Map<String, Object> lruStats = (Map<String, Object>) cacheClass.getMethod("getStats").invoke(lru);
+            boolean evicted = get.invoke(lru, "web_fetch", keys.get(0)) != null
+                && get.invoke(lru, "web_fetch", keys.get(1)) == null
+                && Long.valueOf(1).equals(lruStats.get("evictions"))
+                && (Long) lruStats.get("chars") <= 800;
+
+            if (hitBefore && staleAfter && expired && evicted) {
+                passed("ToolResultCache staleness, TTL and LRU eviction");
+            } else {
+                failed("ToolResultCache", new Exception("hit=" + hitBefore + " stale=" + staleAfter
+                    + " expired=" + expired + " evicted=" + evicted + " stats=" + lruStats));
+            }
+
+        } catch (Exception e) {
+            failed("ToolResultCache", e);
+        }
+    }
+
+    private static void testHtmlExtractor() {
+        printTest("HtmlExtractor - Streaming HTML to Markdown");
+        try {
+            Class<?> extractorClass = Class.forName("com.nanobot.tool.HtmlExtractor");
+            Class<?> resultClass = Class.forName("com.nanobot.tool.HtmlExtractor$Result");
+            java.lang.reflect.Method extract = extractorClass.getDeclaredMethod("extract", String.class, String.class, int.class);
+            java.lang.reflect.Method feed = extractorClass.getDeclaredMethod("feed", char[].class, int.class, int.class);
+            java.lang.reflect.Method finish = extractorClass.getDeclaredMethod("finish");
+            java.lang.reflect.Constructor<?> constructor = extractorClass.getDeclaredConstructor(String.class, int.class);
+            java.lang.reflect.Method text = resultClass.getDeclaredMethod("text");
+            java.lang.reflect.Method title = resultClass.getDeclaredMethod("title");
+            java.lang.reflect.Method truncated = resultClass.getDeclaredMethod("truncated");
+            for (java.lang.reflect.AccessibleObject member : new java.lang.reflect.AccessibleObject[] {
+                    extract, feed, finish, constructor, text, title, truncated}) {
+                member.setAccessible(true);
+            }
+
+            String html = "<html><head><title>Docs &amp; Notes</title><style>p{color:red}</style></head>"
+                + "<body><h2>Intro</h2><p>Read the <a href=\"/guide\">guide</a> &lt;<strong>now</strong>&gt;.</p>"
+                + "<script>var x = '<p>';</script><ul><li>one</li><li>two</li></ul></body></html>";
+            String expected = "## Intro\n\nRead the [guide](/guide) <**now**>.\n\n- one\n- two";
+
+            Object markdown = extract.invoke(null, html, "markdown", 10_000);
+            boolean converted = expected.equals(text.invoke(markdown))
+                && "Docs & Notes".equals(title.invoke(markdown))
+                && !(Boolean) truncated.invoke(markdown);
+
+            Object plain = extract.invoke(null, html, "text", 10_000);
+            boolean textMode = "Intro Read the guide <now>. one two".equals(text.invoke(plain));
+
+            // Tags, entities and the script close tag split across one-char chunks
+            Object extractor = constructor.newInstance("markdown", 10_000);
+            for (char c : html.toCharArray()) {
+                feed.invoke(extractor, new char[] {c}, 0, 1);
+            }
+            boolean chunked = expected.equals(text.invoke(finish.invoke(extractor)));
+
+            Object capped = extract.invoke(null, html, "markdown", 12);
+            boolean truncates = (Boolean) truncated.invoke(capped) && ((String) text.invoke(capped)).length() <= 12;
+
+            if (converted && textMode && chunked && truncates) {
+                passed("HtmlExtractor markdown, text, chunked input and truncation");
+            } else {
+                failed("HtmlExtractor", new Exception("converted=" + converted + " text=" + textMode
+                    + " chunked=" + chunked + " truncates=" + truncates + " got=" + text.invoke(markdown)));
+            }
+
+        } catch (Exception e) {
+            failed("HtmlExtractor", e);
+        }
+    }
+
+    private static void testBoundedBody() {
+        printTest("BoundedBody - Incremental Decoding and Byte Cap");
+        try {
+            Class<?> bodyClass = Class.forName("com.nanobot.tool.BoundedBody");
+            Class<?> sinkClass = Class.forName("com.nanobot.tool.BoundedBody$Sink");
+            Class<?> outcomeClass = Class.forName("com.nanobot.tool.BoundedBody$Outcome");
+            java.lang.reflect.Method pump = bodyClass.getDeclaredMethod("pump",
+                java.io.InputStream.class, java.nio.charset.Charset.class, long.class, sinkClass, int.class);
+            java.lang.reflect.Method bytes = outcomeClass.getDeclaredMethod("bytes");
+            java.lang.reflect.Method complete = outcomeClass.getDeclaredMethod("complete");
+            java.lang.reflect.Method capped = outcomeClass.getDeclaredMethod("capped");
+            pump.setAccessible(true);
+            bytes.setAccessible(true);
+            complete.setAccessible(true);
+            capped.setAccessible(true);
+
+            // Two- to four-byte characters arriving one byte per read
+            String text = "h\u00e9llo \u2603 \ud834\udd1e ".repeat(2000);
+            byte[] encoded = text.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+            StringBuilder decoded = new StringBuilder();
+            Object outcome = pump.invoke(null, new java.io.ByteArrayInputStream(encoded) {
+                @Override
+                public synchronized int read(byte[] b, int off, int len) {
+                    return super.read(b, off, Math.min(len, 1));
+                }
+            }, java.nio.charset.StandardCharsets.UTF_8, (long) encoded.length, collector(sinkClass, decoded), 0);
+            boolean multibyte = text.equals(decoded.toString())
+                && (Boolean) complete.invoke(outcome)
+                && !(Boolean) capped.invoke(outcome)
+                && Long.valueOf(encoded.length).equals(bytes.invoke(outcome));
+
+            // Reading stops at maxBytes even though more is available
+            StringBuilder head = new StringBuilder();
+            Object limited = pump.invoke(null, new java.io.ByteArrayInputStream("abcdefghij".getBytes()),
+                java.nio.charset.StandardCharsets.UTF_8, 4L, collector(sinkClass, head), 0);
+            boolean cappedAtLimit = "abcd".equals(head.toString())
+                && (Boolean) capped.invoke(limited)
+                && !(Boolean) complete.invoke(limited)
+                && Long.valueOf(4).equals(bytes.invoke(limited));
+
+            if (multibyte && cappedAtLimit) {
+                passed("BoundedBody split multibyte characters and byte cap");
+            } else {
+                failed("BoundedBody", new Exception("multibyte=" + multibyte + " capped=" + cappedAtLimit
+                    + " head=" + head));
+            }
+
+        } catch (Exception e) {
+            failed("BoundedBody", e);
+        }
+    }
+
+    /**
+     * A BoundedBody sink that appends everything it is fed
+     */
+    private static Object collector(Class<?> sinkClass, StringBuilder out) {
+        return java.lang.reflect.Proxy.newProxyInstance(sinkClass.getClassLoader(), new Class<?>[] {sinkClass},
+            (proxy, method, args) -> {
+                if (method.getName().equals("feed")) {
+                    out.append((char[]) args[0], (Integer) args[1], (Integer) args[2]);
+                    return true;
+                }
+                return null;
+            });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void testSubagentScope() {
+        printTest("SubagentScope - Structured Subagent Lifetimes");
+        try {
+            Class<?> managerClass = Class.forName("com.nanobot.agent.SubagentManager");
+            Class<?> executorClass = Class.forName("com.nanobot.agent.SubagentManager$AsyncSubagentExecutor");
+            Class<?> scopeClass = Class.forName("com.nanobot.agent.SubagentScope");
+            Class<?> policyClass = Class.forName("com.nanobot.agent.SubagentScope$Policy");
+            Object allSuccess = policyClass.getField("ALL_SUCCESS").get(null);
+            Object firstSuccess = policyClass.getField("FIRST_SUCCESS").get(null);
+
+            // Tasks script the executor: "ok:x" returns x, "fail" fails, "hang" runs until cancelled
+            List<CompletableFuture<String>> hanging = new CopyOnWriteArrayList<>();
+            Object executor = java.lang.reflect.Proxy.newProxyInstance(executorClass.getClassLoader(),
+                new Class<?>[] {executorClass}, (proxy, method, args) -> switch (method.getName()) {
+                    case "executeAsync" -> {
+                        String task = (String) args[0];
+                        if (task.startsWith("ok:")) yield CompletableFuture.completedFuture(task.substring(3));
+                        if (task.equals("fail")) yield CompletableFuture.failedFuture(new RuntimeException("boom"));
+                        CompletableFuture<String> running = new CompletableFuture<>();
+                        hanging.add(running);
+                        yield running;
+                    }
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    default -> "scripted executor";
+                });
+            Object manager = managerClass.getMethod("withAsyncExecutor", executorClass, String.class)
+                .invoke(null, executor, System.getProperty("java.io.tmpdir"));
+
+            java.lang.reflect.Method openScope = managerClass.getMethod("openScope", String.class, policyClass);
+            java.lang.reflect.Method openChild = scopeClass.getMethod("openChild", String.class, policyClass);
+            java.lang.reflect.Method fork = scopeClass.getMethod("fork", String.class, String.class, String.class);
+            java.lang.reflect.Method join = scopeClass.getMethod("join", long.class);
+            java.lang.reflect.Method cancel = scopeClass.getMethod("cancel");
+            java.lang.reflect.Method getState = scopeClass.getMethod("getState");
+            java.lang.reflect.Method close = scopeClass.getMethod("close");
+
+            // ALL_SUCCESS collects every result in fork order
+            Object all = openScope.invoke(manager, "all", allSuccess);
+            fork.invoke(all, "ok:a", null, null);
+            fork.invoke(all, "ok:b", null, null);
+            boolean allSucceeded = "SUCCEEDED".equals(join.invoke(all, 5000L).toString())
+                && List.of("a", "b").equals(scopeClass.getMethod("results").invoke(all));
+            close.invoke(all);
+
+            // ALL_SUCCESS fails on the first failure and cancels the rest
+            Object failing = openScope.invoke(manager, "failing", allSuccess);
+            fork.invoke(failing, "hang", null, null);
+            fork.invoke(failing, "fail", null, null);
+            boolean allFailed = "FAILED".equals(join.invoke(failing, 5000L).toString())
+                && hanging.size() == 1 && hanging.get(0).isCancelled();
+            close.invoke(failing);
+
+            // FIRST_SUCCESS returns the winner and cancels the losers
+            Object first = openScope.invoke(manager, "first", firstSuccess);
+            fork.invoke(first, "hang", null, null);
+            fork.invoke(first, "ok:win", null, null);
+            boolean firstSucceeded = "SUCCEEDED".equals(join.invoke(first, 5000L).toString())
+                && "win".equals(scopeClass.getMethod("result").invoke(first))
+                && hanging.size() == 2 && hanging.get(1).isCancelled();
+            close.invoke(first);
+
+            // Cancelling a scope cancels its child scope and every member below it
+            Object parent = openScope.invoke(manager, "parent", allSuccess);
+            Object child = openChild.invoke(parent, "child", allSuccess);
+            fork.invoke(parent, "hang", null, null);
+            fork.invoke(child, "hang", null, null);
+            cancel.invoke(parent);
+            boolean cancelledDown = "CANCELLED".equals(getState.invoke(parent).toString())
+                && "CANCELLED".equals(getState.invoke(child).toString())
+                && hanging.size() == 4 && hanging.get(2).isCancelled() && hanging.get(3).isCancelled();
+            close.invoke(parent);
+
+            // A cancelled child counts as a failed member of an ALL_SUCCESS parent
+            Object owner = openScope.invoke(manager, "owner", allSuccess);
+            Object branch = openChild.invoke(owner, "branch", allSuccess);
+            fork.invoke(owner, "hang", null, null);
+            cancel.invoke(branch);
+            boolean cancelledUp = "FAILED".equals(join.invoke(owner, 5000L).toString())
+                && hanging.size() == 5 && hanging.get(4).isCancelled();
+            close.invoke(owner);
+
+            managerClass.getMethod("stop").invoke(manager);
+
+            if (allSucceeded && allFailed && firstSucceeded && cancelledDown && cancelledUp) {
+                passed("SubagentScope policies and cancel propagation");
+            } else {
+                failed("SubagentScope", new Exception("allSucceeded=" + allSucceeded + " allFailed=" + allFailed
+                    + " firstSucceeded=" + firstSucceeded + " cancelledDown=" + cancelledDown
+                    + " cancelledUp=" + cancelledUp));
+            }
+
+        } catch (Exception e) {
+            failed("SubagentScope", e);
+        }
+    }
+
+    private static void testSubagentOverlays() {
+        printTest("SubagentIsolation - Overlays Follow Tier Admission");
+        try {
+            Class<?> managerClass = Class.forName("com.nanobot.agent.SubagentManager");
+            Class<?> executorClass = Class.forName("com.nanobot.agent.SubagentManager$AsyncSubagentExecutor");
+            Class<?> isolationClass = Class.forName("com.nanobot.agent.SubagentIsolation");
+            Class<?> levelClass = Class.forName("com.nanobot.agent.SubagentIsolation$Level");
+            Class<?> limitsClass = Class.forName("com.nanobot.agent.SubagentIsolation$Limits");
+
+            java.nio.file.Path base = java.nio.file.Files.createTempDirectory("nanobot-base");
+            java.nio.file.Files.writeString(base.resolve("readme.txt"), "base");
+            java.nio.file.Path overlays = java.nio.file.Files.createTempDirectory("nanobot-overlays");
+
+            // Every started subagent records the workspace it was given and runs until completed
+            List<String> workspaces = new CopyOnWriteArrayList<>();
+            List<CompletableFuture<String>> running = new CopyOnWriteArrayList<>();
+            java.lang.reflect.Method currentEnvironment = managerClass.getMethod("currentEnvironment");
+            Object executor = java.lang.reflect.Proxy.newProxyInstance(executorClass.getClassLoader(),
+                new Class<?>[] {executorClass}, (proxy, method, args) -> switch (method.getName()) {
+                    case "executeAsync" -> {
+                        Object environment = currentEnvironment.invoke(null);
+                        workspaces.add((String) environment.getClass().getMethod("workspace").invoke(environment));
+                        CompletableFuture<String> call = new CompletableFuture<>();
+                        running.add(call);
+                        yield call;
+                    }
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    default -> "scripted executor";
+                });
+            Object manager = managerClass.getMethod("withAsyncExecutor", executorClass, String.class)
+                .invoke(null, executor, base.toString());
+            Object isolation = managerClass.getMethod("getIsolation").invoke(manager);
+            isolationClass.getMethod("setOverlayRoot", java.nio.file.Path.class).invoke(isolation, overlays);
+            isolationClass.getMethod("setLimits", levelClass, limitsClass).invoke(isolation,
+                levelClass.getField("WORKSPACE").get(null),
+                limitsClass.getConstructor(int.class, double.class, int.class).newInstance(1, 0.0, 0));
+
+            // One slot: three workspace subagents make one overlay, the others wait uncopied
+            java.lang.reflect.Method create = managerClass.getMethod("createSubagent",
+                String.class, String.class, String.class, String.class);
+            List<String> ids = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                ids.add((String) create.invoke(manager, "task " + i, null, null, "workspace"));
+            }
+            boolean oneCopy = countEntries(overlays) == 1 && workspaces.size() == 1
+                && java.nio.file.Files.exists(java.nio.file.Paths.get(workspaces.get(0), "readme.txt"));
+
+            // Finishing the first deletes its overlay and admits the next
+            running.get(0).complete("done");
+            boolean handedOver = countEntries(overlays) == 1 && workspaces.size() == 2
+                && !java.nio.file.Files.exists(java.nio.file.Paths.get(workspaces.get(0)))
+                && !workspaces.get(0).equals(workspaces.get(1));
+
+            // Cancelling the running and the queued one leaves nothing behind
+            java.lang.reflect.Method cancel = managerClass.getMethod("cancelSubagent", String.class);
+            cancel.invoke(manager, ids.get(2));
+            cancel.invoke(manager, ids.get(1));
+            boolean cleared = countEntries(overlays) == 0 && workspaces.size() == 2;
+
+            managerClass.getMethod("stop").invoke(manager);
+            java.nio.file.Files.delete(overlays);
+            java.nio.file.Files.delete(base.resolve("readme.txt"));
+            java.nio.file.Files.delete(base);
+
+            if (oneCopy && handedOver && cleared) {
+                passed("SubagentIsolation overlays bounded by the tier and removed on completion");
+            } else {
+                failed("SubagentIsolation overlays", new Exception("oneCopy=" + oneCopy
+                    + " handedOver=" + handedOver + " cleared=" + cleared + " workspaces=" + workspaces));
+            }
+
+        } catch (Exception e) {
+            failed("SubagentIsolation overlays", e);
+        }
+    }
+
+    private static long countEntries(java.nio.file.Path dir) throws java.io.IOException {
+        try (var listing = java.nio.file.Files.list(dir)) {
+            return listing.count();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void testAgentLoopToolErrors() {
+        printTest("AgentLoop - Tool Failures Reach the Model");
+        try {
+            Class<?> providerClass = Class.forName("com.nanobot.llm.LlmProvider");
+            Class<?> responseClass = Class.forName("com.nanobot.llm.LlmProvider$LlmResponse");
+            Class<?> toolCallClass = Class.forName("com.nanobot.llm.LlmProvider$ToolCall");
+            java.lang.reflect.Constructor<?> response = responseClass.getConstructor(String.class, List.class, int.class);
+            Object toolCall = toolCallClass.getConstructor(String.class, String.class, Map.class)
+                .newInstance("call_1", "slow_tool", Map.of());
+
+            // The model asks for the tool once, then replies with whatever the tool message said
+            Object provider = java.lang.reflect.Proxy.newProxyInstance(providerClass.getClassLoader(),
+                new Class<?>[] {providerClass}, (proxy, method, args) -> {
+                    if (method.isDefault()) {
+                        return java.lang.reflect.InvocationHandler.invokeDefault(proxy, method, args);
+                    }
+                    return switch (method.getName()) {
+                        case "complete", "completeWithTools" -> {
+                            List<Map<String, String>> messages = (List<Map<String, String>>) args[1];
+                            Map<String, String> last = messages.get(messages.size() - 1);
+                            yield "tool".equals(last.get("role"))
+                                ? response.newInstance(last.get("content"), null, 0)
+                                : response.newInstance("", List.of(toolCall), 0);
+                        }
+                        case "supportsModel" -> true;
+                        case "hashCode" -> System.identityHashCode(proxy);
+                        case "equals" -> proxy == args[0];
+                        default -> "scripted provider";
+                    };
+                });
+
+            Class<?> registryClass = Class.forName("com.nanobot.tool.ToolRegistry");
+            Class<?> guardPolicyClass = Class.forName("com.nanobot.tool.ToolGuard$Policy");
+            Object registry = registryClass.getDeclaredConstructor().newInstance();
+            registryClass.getMethod("register", String.class, String.class, Map.class, boolean.class,
+                java.util.function.BiFunction.class).invoke(registry, "slow_tool", "Sleeps", Map.of(), false,
+                (java.util.function.BiFunction<Map<String, Object>, String, Object>) (args, workspace) -> {
+                    try {
+                        Thread.sleep(5000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return "too late";
+                });
+            registryClass.getMethod("setExecutionPolicy", String.class, guardPolicyClass).invoke(registry, "slow_tool",
+                guardPolicyClass.getMethod("timeout", long.class, int.class).invoke(null, 50L, 0));
+
+            Class<?> loopClass = Class.forName("com.nanobot.core.AgentLoop");
+            Object loop = loopClass.getConstructor(Class.forName("com.nanobot.core.MessageBus"), providerClass,
+                    registryClass, Class.forName("com.nanobot.core.ContextManager"), String.class, String.class, int.class)
+                .newInstance(Class.forName("com.nanobot.core.MessageBus").getDeclaredConstructor().newInstance(),
+                    provider, registry,
+                    Class.forName("com.nanobot.core.ContextManager").getDeclaredConstructor().newInstance(),
+                    System.getProperty("java.io.tmpdir"), "test-model", 3);
+
+            String reply = (String) loopClass.getMethod("process", String.class, String.class)
+                .invoke(loop, "cli:test", "run the slow tool");
+            loopClass.getMethod("stop").invoke(loop);
+
+            if ("Error: Tool slow_tool timed out after 50ms".equals(reply)) {
+                passed("AgentLoop shows the model why a tool call failed");
+            } else {
+                failed("AgentLoop tool errors", new Exception("model saw: " + reply));
+            }
+
+        } catch (Exception e) {
+            failed("AgentLoop tool errors", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void testFileToolWrites() {
+        printTest("FileTool - Atomic Writes and Edits");
+        try {
+            Class<?> toolClass = Class.forName("com.nanobot.tool.FileTool");
+            java.lang.reflect.Method write = toolClass.getMethod("writeFile", Map.class, String.class);
+            java.lang.reflect.Method edit = toolClass.getMethod("editFile", Map.class, String.class);
+            java.nio.file.Path workspace = java.nio.file.Files.createTempDirectory("nanobot-files");
+            String ws = workspace.toString();
+
+            // Overwriting replaces the whole file and keeps its permissions, leaving no temp file behind
+            java.nio.file.Path notes = workspace.resolve("notes.txt");
+            java.nio.file.Files.writeString(notes, "a much longer original line");
+            java.nio.file.Files.setPosixFilePermissions(notes,
+                java.nio.file.attribute.PosixFilePermissions.fromString("rw-r-----"));
+            write.invoke(null, Map.of("path", "notes.txt", "content", "short"), ws);
+            boolean overwritten;
+            try (var listing = java.nio.file.Files.list(workspace)) {
+                overwritten = "short".equals(java.nio.file.Files.readString(notes))
+                    && "rw-r-----".equals(java.nio.file.attribute.PosixFilePermissions.toString(
+                        java.nio.file.Files.getPosixFilePermissions(notes)))
+                    && listing.count() == 1;
+            }
+
+            // A batch of edits is located against the original text and applied together
+            java.nio.file.Files.writeString(notes, "alpha beta gamma beta");
+            edit.invoke(null, Map.of("path", "notes.txt", "edits", List.of(
+                Map.of("old_text", "alpha", "new_text", "ALPHA"),
+                Map.of("old_text", "beta", "new_text", "alpha"))), ws);
+            boolean batched = "ALPHA alpha gamma alpha".equals(java.nio.file.Files.readString(notes));
+
+            // One missing edit rejects the whole batch and leaves the file alone
+            boolean rejected = false;
+            try {
+                edit.invoke(null, Map.of("path", "notes.txt", "edits", List.of(
+                    Map.of("old_text", "gamma", "new_text", "delta"),
+                    Map.of("old_text", "missing", "new_text", "x"))), ws);
+            } catch (java.lang.reflect.InvocationTargetException e) {
+                rejected = e.getCause() instanceof IllegalArgumentException;
+            }
+            boolean unchanged = rejected && "ALPHA alpha gamma alpha".equals(java.nio.file.Files.readString(notes));
+
+            // Writes and edits through a symlink change the file it points at and keep the link
+            java.nio.file.Path real = java.nio.file.Files.createDirectory(workspace.resolve("real"));
+            java.nio.file.Path conf = real.resolve("conf.txt");
+            java.nio.file.Files.writeString(conf, "hello world");
+            java.nio.file.Path link = java.nio.file.Files.createSymbolicLink(workspace.resolve("conf.txt"), conf);
+            edit.invoke(null, Map.of("path", "conf.txt", "old_text", "world", "new_text", "there"), ws);
+            boolean editedThrough = java.nio.file.Files.isSymbolicLink(link)
+                && "hello there".equals(java.nio.file.Files.readString(conf));
+            write.invoke(null, Map.of("path", "conf.txt", "content", "rewritten"), ws);
+            boolean wroteThrough = java.nio.file.Files.isSymbolicLink(link)
+                && "rewritten".equals(java.nio.file.Files.readString(conf));
+
+            java.nio.file.Files.delete(link);
+            java.nio.file.Files.delete(conf);
+            java.nio.file.Files.delete(real);
+            java.nio.file.Files.delete(notes);
+            java.nio.file.Files.delete(workspace);
+
+            if (overwritten && batched && unchanged && editedThrough && wroteThrough) {
+                passed("FileTool atomic writes, edit batches and symlinked targets");
+            } else {
+                failed("FileTool writes", new Exception("overwritten=" + overwritten + " batched=" + batched
+                    + " unchanged=" + unchanged + " editedThrough=" + editedThrough + " wroteThrough=" + wroteThrough));
+            }
+
+        } catch (Exception e) {
+            failed("FileTool writes", e);
+        }
+    }
+
+    private static void testFileToolWindows() {
+        printTest("FileTool - Line Windows and Long Lines");
+        try {
+            Class<?> toolClass = Class.forName("com.nanobot.tool.FileTool");
+            Class<?> indexClass = Class.forName("com.nanobot.tool.FileLineIndex");
+            java.lang.reflect.Method read = toolClass.getMethod("readFile", Map.class, String.class);
+            java.lang.reflect.Method get = indexClass.getDeclaredMethod("get", java.nio.file.Path.class);
+            java.lang.reflect.Method lineCount = indexClass.getDeclaredMethod("getLineCount");
+            get.setAccessible(true);
+            lineCount.setAccessible(true);
+            java.nio.file.Path workspace = java.nio.file.Files.createTempDirectory("nanobot-read");
+            String ws = workspace.toString();
+
+            // 300 lines spans several index checkpoints; the last one has no newline
+            StringBuilder text = new StringBuilder();
+            for (int i = 1; i <= 300; i++) {
+                text.append("line ").append(i).append(i < 300 ? "\n" : "");
+            }
+            java.nio.file.Path lines = workspace.resolve("lines.txt");
+            java.nio.file.Files.writeString(lines, text);
+            boolean counted = Long.valueOf(300).equals(lineCount.invoke(get.invoke(null, lines)));
+
+            String head = (String) read.invoke(null, Map.of("path", "lines.txt", "head", 2), ws);
+            boolean startWindow = head.endsWith("(lines 1-2)\n\nline 1\nline 2\n");
+            String middle = (String) read.invoke(null, Map.of("path", "lines.txt", "offset", 129, "limit", 2), ws);
+            boolean checkpointWindow = middle.endsWith("(lines 129-130 of 300)\n\nline 129\nline 130\n");
+            String end = (String) read.invoke(null, Map.of("path", "lines.txt", "offset", 299, "limit", 10), ws);
+            boolean endWindow = end.endsWith("(lines 299-300 of 300)\n\nline 299\nline 300");
+            String tail = (String) read.invoke(null, Map.of("path", "lines.txt", "tail", 2), ws);
+            boolean tailWindow = tail.endsWith("(last 2 lines)\n\nline 299\nline 300");
+
+            // One 1.5 MB line of two-byte characters: its head is returned, cut between characters
+            java.nio.file.Path minified = workspace.resolve("min.js");
+            java.nio.file.Files.writeString(minified, "a" + "\u00e9".repeat(750_000) + "\nnext\n");
+            String longLine = (String) read.invoke(null, Map.of("path", "min.js"), ws);
+            String body = longLine.substring(longLine.indexOf("\n\n") + 2, longLine.lastIndexOf("\n["));
+            boolean cutLine = longLine.contains("(lines 1-1)")
+                && body.length() == 1 + (1024 * 1024 - 1) / 2
+                && body.chars().skip(1).allMatch(c -> c == 0xe9)
+                && longLine.endsWith("[Line truncated at 1.0 MB; the rest of this line cannot be read with offset/limit]");
+
+            // A full line that does not fit ends the window before it, never halfway through
+            java.nio.file.Files.writeString(minified, "short\n" + "x".repeat(1_500_000) + "\n");
+            String beforeLong = (String) read.invoke(null, Map.of("path", "min.js"), ws);
+            boolean stoppedBefore = beforeLong.endsWith("(lines 1-1)\n\nshort\n\n"
+                + "[Output truncated at 1.0 MB; use offset/limit to read further]");
+
+            java.nio.file.Files.delete(lines);
+            java.nio.file.Files.delete(minified);
+            java.nio.file.Files.delete(workspace);
+
+            if (counted && startWindow && checkpointWindow && endWindow && tailWindow && cutLine && stoppedBefore) {
+                passed("FileTool line windows and over-long lines");
+            } else {
+                failed("FileTool windows", new Exception("counted=" + counted + " start=" + startWindow
+                    + " checkpoint=" + checkpointWindow + " end=" + endWindow + " tail=" + tailWindow
+                    + " cutLine=" + cutLine + " stoppedBefore=" + stoppedBefore));
+            }
+
+        } catch (Exception e) {
+            failed("FileTool windows", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void testGlobMatcher() {
+        printTest("GlobMatcher - Matching, Ignore Rules and Truncation");
+        try {
+            Class<?> matcherClass = Class.forName("com.nanobot.tool.GlobMatcher");
+            Class<?> resultClass = Class.forName("com.nanobot.tool.GlobMatcher$Result");
+            java.lang.reflect.Constructor<?> compile = matcherClass.getDeclaredConstructor(String.class);
+            java.lang.reflect.Method matches = matcherClass.getDeclaredMethod("matches", String.class);
+            java.lang.reflect.Method find = matcherClass.getDeclaredMethod("find",
+                java.nio.file.Path.class, String.class, int.class, boolean.class);
+            java.lang.reflect.Method paths = resultClass.getDeclaredMethod("paths");
+            java.lang.reflect.Method truncated = resultClass.getDeclaredMethod("truncated");
+            for (java.lang.reflect.AccessibleObject member : new java.lang.reflect.AccessibleObject[] {
+                    compile, matches, find, paths, truncated}) {
+                member.setAccessible(true);
+            }
+
+            java.util.function.BiPredicate<String, String> glob = (pattern, path) -> {
+                try {
+                    return (Boolean) matches.invoke(compile.newInstance(pattern), path);
+                } catch (ReflectiveOperationException e) {
+                    throw new RuntimeException(e);
+                }
+            };
+            boolean matching = glob.test("**/*.java", "Main.java") && glob.test("**/*.java", "src/a/Main.java")
+                && !glob.test("*.java", "src/Main.java") && glob.test("src/**/T?st.{java,kt}", "src/x/Test.kt")
+                && !glob.test("src/**/T?st.{java,kt}", "src/x/Test.py") && glob.test("[!a]*.md", "b.md")
+                && !glob.test("[!a]*.md", "a.md");
+
+            // Ignored files and directories are skipped unless ignore files are turned off
+            java.nio.file.Path root = java.nio.file.Files.createTempDirectory("nanobot-glob");
+            java.nio.file.Files.writeString(root.resolve(".gitignore"), "build/\n*.log\n!keep.log\n");
+            java.nio.file.Files.createDirectories(root.resolve("build"));
+            java.nio.file.Files.createDirectories(root.resolve("src"));
+            for (String file : new String[] {"build/out.txt", "src/app.log", "src/keep.log", "src/a.txt"}) {
+                java.nio.file.Files.writeString(root.resolve(file), "x");
+            }
+            Object respected = find.invoke(null, root, "**/*.{txt,log}", 50, true);
+            Object unfiltered = find.invoke(null, root, "**/*.{txt,log}", 50, false);
+            boolean excludes = List.of(root.resolve("src/a.txt"), root.resolve("src/keep.log"))
+                    .equals(paths.invoke(respected))
+                && ((List<?>) paths.invoke(unfiltered)).size() == 4;
+
+            // Truncation keeps the first matches in path order on every run
+            for (int d = 0; d < 8; d++) {
+                java.nio.file.Path dir = java.nio.file.Files.createDirectories(root.resolve("many/d" + d));
+                for (int f = 0; f < 8; f++) {
+                    java.nio.file.Files.writeString(dir.resolve("f" + f + ".txt"), "x");
+                }
+            }
+            List<java.nio.file.Path> all = (List<java.nio.file.Path>) paths.invoke(find.invoke(null, root, "many/**/*.txt", 1000, true));
+            boolean truncation = all.size() == 64;
+            for (int run = 0; run < 20 && truncation; run++) {
+                Object capped = find.invoke(null, root, "many/**/*.txt", 5, true);
+                truncation = (Boolean) truncated.invoke(capped) && all.subList(0, 5).equals(paths.invoke(capped));
+            }
+            boolean exact = !(Boolean) truncated.invoke(find.invoke(null, root, "many/**/*.txt", 64, true));
+
+            try (var walk = java.nio.file.Files.walk(root)) {
+                for (java.nio.file.Path path : walk.sorted(Comparator.reverseOrder()).toList()) {
+                    java.nio.file.Files.delete(path);
+                }
+            }
+
+            if (matching && excludes && truncation && exact) {
+                passed("GlobMatcher matching, ignore rules and deterministic truncation");
+            } else {
+                failed("GlobMatcher", new Exception("matching=" + matching + " excludes=" + excludes
+                    + " truncation=" + truncation + " exact=" + exact));
+            }
+
+        } catch (Exception e) {
+            failed("GlobMatcher", e);
+        }
+    }
+
+    private static void testWorkspaceIndex() {
+        printTest("WorkspaceIndex - Indexed Search and Incremental Updates");
+        try {
+            Class<?> indexClass = Class.forName("com.nanobot.tool.WorkspaceIndex");
+            java.lang.reflect.Method search = indexClass.getMethod("search", String.class, String.class, int.class, int.class);
+            java.nio.file.Path root = java.nio.file.Files.createTempDirectory("nanobot-index");
+            java.nio.file.Files.createDirectories(root.resolve("src"));
+            java.nio.file.Files.writeString(root.resolve("src/Menu.java"), "// Menu\nString drink = \"CAFÉ AU LAIT\";\n");
+            java.nio.file.Files.writeString(root.resolve("src/Main.java"), "class Main {\n  void hello() {}\n}\n");
+            java.nio.file.Files.createDirectories(root.resolve("node_modules"));
+            java.nio.file.Files.writeString(root.resolve("node_modules/lib.js"), "function hello() {}\n");
+
+            Object index = indexClass.getConstructor(java.nio.file.Path.class).newInstance(root);
+            indexClass.getMethod("start").invoke(index);
+            java.util.function.Function<String, String> query = q -> {
+                try {
+                    return (String) search.invoke(index, q, null, 1, 20);
+                } catch (ReflectiveOperationException e) {
+                    throw new RuntimeException(e);
+                }
+            };
+
+            // Content hits with line previews; ignored directories stay out
+            String hello = query.apply("HELLO");
+            boolean indexed = hello.contains("Found 1 files") && hello.contains("src/Main.java (1 match)")
+                && hello.contains("  2: void hello() {}");
+
+            // É in the file matches é in the query, as the line scan would
+            String cafe = query.apply("café au");
+            boolean unicodeCase = cafe.contains("src/Menu.java (1 match)");
+
+            // New and edited files are picked up by the watcher without a rebuild
+            java.nio.file.Files.writeString(root.resolve("src/Greeter.java"), "void hello() {}\n");
+            java.nio.file.Files.writeString(root.resolve("src/Main.java"), "class Main {}\n");
+            boolean updated = false;
+            for (int i = 0; i < 100 && !updated; i++) {
+                String result = query.apply("hello");
+                updated = result.contains("Found 1 files") && result.contains("src/Greeter.java");
+                if (!updated) Thread.sleep(50);
+            }
+
+            indexClass.getMethod("stop").invoke(index);
+            try (var walk = java.nio.file.Files.walk(root)) {
+                for (java.nio.file.Path path : walk.sorted(Comparator.reverseOrder()).toList()) {
+                    java.nio.file.Files.delete(path);
+                }
+            }
+
+            if (indexed && unicodeCase && updated) {
+                passed("WorkspaceIndex search, Unicode case folding and incremental updates");
+            } else {
+                failed("WorkspaceIndex", new Exception("indexed=" + indexed + " unicodeCase=" + unicodeCase
+                    + " updated=" + updated + "\n" + hello + cafe));
+            }
+
+        } catch (Exception e) {
+            failed("WorkspaceIndex", e);
+        }
+    }
+
+    private static void testShellSessions() {
+        printTest("ShellSessions - Persistent Shells, Framing and Timeouts");
+        try {
+            Class<?> sessionsClass = Class.forName("com.nanobot.tool.ShellSessions");
+            Class<?> resultClass = Class.forName("com.nanobot.tool.ProcessRunner$Result");
+            java.lang.reflect.Method run = sessionsClass.getDeclaredMethod("run", String.class, String.class,
+                String.class, long.class, int.class, java.util.function.Consumer.class);
+            java.lang.reflect.Method exitCode = resultClass.getDeclaredMethod("exitCode");
+            java.lang.reflect.Method output = resultClass.getDeclaredMethod("output");
+            java.lang.reflect.Method timedOut = resultClass.getDeclaredMethod("timedOut");
+            run.setAccessible(true);
+            exitCode.setAccessible(true);
+            output.setAccessible(true);
+            timedOut.setAccessible(true);
+
+            java.nio.file.Path workspace = java.nio.file.Files.createTempDirectory("nanobot-shell").toRealPath();
+            java.nio.file.Files.createDirectories(workspace.resolve("sub"));
+            String ws = workspace.toString();
+            Object sessions = sessionsClass.getConstructor(int.class, long.class).newInstance(4, 60_000L);
+            StringBuilder streamed = new StringBuilder();
+            java.util.function.BiFunction<String, Long, Object> shell = (command, timeoutMs) -> {
+                try {
+                    return run.invoke(sessions, "s1", ws, command, timeoutMs, 200_000,
+                        (java.util.function.Consumer<String>) streamed::append);
+                } catch (ReflectiveOperationException e) {
+                    throw new RuntimeException(e);
+                }
+            };
+
+            // cd and export in one call are visible to the next
+            shell.apply("cd sub && export NANOBOT_VAR=kept", 10_000L);
+            Object state = shell.apply("pwd; echo $NANOBOT_VAR", 10_000L);
+            boolean persisted = (int) exitCode.invoke(state) == 0
+                && output.invoke(state).equals(workspace.resolve("sub") + "\nkept\n");
+
+            // An unterminated quote is a syntax error, not a hang, and the shell lives on
+            Object quote = shell.apply("echo 'oops", 10_000L);
+            Object after = shell.apply("echo $NANOBOT_VAR", 10_000L);
+            boolean syntaxError = (int) exitCode.invoke(quote) == 2 && !(boolean) timedOut.invoke(quote)
+                && output.invoke(after).equals("kept\n");
+
+            // Output with no newline that spans several read chunks arrives whole
+            streamed.setLength(0);
+            Object wide = shell.apply("head -c 50000 /dev/zero | tr '\\0' x", 10_000L);
+            boolean longLine = (int) exitCode.invoke(wide) == 0
+                && output.invoke(wide).equals("x".repeat(50_000)) && streamed.toString().equals("x".repeat(50_000));
+
+            // A timeout kills the shell; the next call gets a fresh one back in the workspace
+            Object slow = shell.apply("sleep 30", 300L);
+            Object fresh = shell.apply("pwd; echo \"[$NANOBOT_VAR]\"", 10_000L);
+            @SuppressWarnings("unchecked")
+            Map<String, Object> stats = (Map<String, Object>) sessionsClass.getMethod("getStats").invoke(sessions);
+            boolean restarted = (boolean) timedOut.invoke(slow) && (int) exitCode.invoke(slow) == -1
+                && output.invoke(fresh).equals(ws + "\n[]\n") && Long.valueOf(2).equals(stats.get("created"));
+
+            sessionsClass.getMethod("closeAll").invoke(sessions);
+            java.nio.file.Files.delete(workspace.resolve("sub"));
+            java.nio.file.Files.delete(workspace);
+
+            if (persisted && syntaxError && longLine && restarted) {
+                passed("ShellSessions state across calls, syntax errors, long lines and timeouts");
+            } else {
+                failed("ShellSessions", new Exception("persisted=" + persisted + " syntaxError=" + syntaxError
+                    + " longLine=" + longLine + " restarted=" + restarted));
+            }
+
+        } catch (Exception e) {
+            failed("ShellSessions", e);
+        }
+    }
+
+    private static void testProcessRunner() {
+        printTest("ProcessRunner - Timeouts, Tree Kill and Bounded Output");
+        try {
+            Class<?> runnerClass = Class.forName("com.nanobot.tool.ProcessRunner");
+            Class<?> resultClass = Class.forName("com.nanobot.tool.ProcessRunner$Result");
+            Class<?> bufferClass = Class.forName("com.nanobot.tool.ProcessRunner$HeadTailBuffer");
+            java.lang.reflect.Method run = runnerClass.getDeclaredMethod("run", ProcessBuilder.class, long.class,
+                int.class, java.util.function.Consumer.class);
+            java.lang.reflect.Method timedOut = resultClass.getDeclaredMethod("timedOut");
+            java.lang.reflect.Method exitCode = resultClass.getDeclaredMethod("exitCode");
+            java.lang.reflect.Method output = resultClass.getDeclaredMethod("output");
+            java.lang.reflect.Constructor<?> newBuffer = bufferClass.getDeclaredConstructor(int.class);
+            java.lang.reflect.Method append = bufferClass.getDeclaredMethod("append", String.class);
+            java.lang.reflect.Method omitted = bufferClass.getDeclaredMethod("omitted");
+            for (java.lang.reflect.AccessibleObject member
+                    : List.of(run, timedOut, exitCode, output, newBuffer, append, omitted)) {
+                member.setAccessible(true);
+            }
+            java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("nanobot-proc");
+            java.nio.file.Path pidFile = dir.resolve("child.pid");
+
+            // A timeout reports timedOut and kills the shell and the child it is waiting on
+            ProcessBuilder slow = new ProcessBuilder("/bin/sh", "-c", "sleep 30 & echo $! > child.pid; wait");
+            slow.directory(dir.toFile());
+            long started = System.currentTimeMillis();
+            Object killed = run.invoke(null, slow, 500L, 1000, null);
+            long elapsed = System.currentTimeMillis() - started;
+            long childPid = Long.parseLong(java.nio.file.Files.readString(pidFile).trim());
+            boolean childGone = true;
+            Optional<ProcessHandle> child = ProcessHandle.of(childPid);
+            if (child.isPresent()) {
+                childGone = child.get().onExit().thenApply(h -> true).completeOnTimeout(false, 5, TimeUnit.SECONDS).get();
+            }
+            boolean timeout = (boolean) timedOut.invoke(killed) && (int) exitCode.invoke(killed) == -1
+                && elapsed < 10_000 && childGone;
+
+            // Head and tail halves survive; the middle is counted
+            Object buffer = newBuffer.newInstance(10);
+            append.invoke(buffer, "0123456789");
+            append.invoke(buffer, "abcdefghij");
+            boolean headTail = (long) omitted.invoke(buffer) == 10
+                && buffer.toString().equals("01234\n\n[... 10 characters omitted ...]\n\nfghij");
+
+            // stdout and stderr reach the listener one chunk at a time
+            AtomicInteger inside = new AtomicInteger();
+            AtomicInteger overlaps = new AtomicInteger();
+            StringBuilder streamed = new StringBuilder();
+            java.util.function.Consumer<String> listener = text -> {
+                if (inside.incrementAndGet() > 1) overlaps.incrementAndGet();
+                streamed.append(text);
+                Thread.yield();
+                inside.decrementAndGet();
+            };
+            ProcessBuilder noisy = new ProcessBuilder("/bin/sh", "-c",
+                "i=0; while [ $i -lt 2000 ]; do echo out$i; echo err$i >&2; i=$((i+1)); done");
+            Object both = run.invoke(null, noisy, 10_000L, 1_000_000, listener);
+            boolean serialized = overlaps.get() == 0 && (int) exitCode.invoke(both) == 0
+                && streamed.toString().equals(output.invoke(both))
+                && streamed.indexOf("out1999\n") >= 0 && streamed.indexOf("err1999\n") >= 0;
+
+            java.nio.file.Files.delete(pidFile);
+            java.nio.file.Files.delete(dir);
+
+            if (timeout && headTail && serialized) {
+                passed("ProcessRunner timeouts, process tree kill and head/tail output");
+            } else {
+                failed("ProcessRunner", new Exception("timeout=" + timeout + " headTail=" + headTail
+                    + " serialized=" + serialized + " overlaps=" + overlaps.get()));
+            }
+
+        } catch (Exception e) {
+            failed("ProcessRunner", e);
+        }
+    }
+
+    private static void testFetchCache() {
+        printTest("FetchCache - Freshness and Revalidation");
+        com.sun.net.httpserver.HttpServer server = null;
+        try {
+            Class<?> cacheClass = Class.forName("com.nanobot.tool.FetchCache");
+            Class<?> sinkClass = Class.forName("com.nanobot.tool.BoundedBody$Sink");
+            Class<?> responseClass = Class.forName("com.nanobot.tool.FetchCache$Response");
+            java.lang.reflect.Method freshUntil = cacheClass.getDeclaredMethod("freshUntil",
+                java.net.http.HttpHeaders.class, long.class);
+            java.lang.reflect.Method store = cacheClass.getDeclaredMethod("store", String.class, int.class,
+                String.class, byte[].class, java.net.http.HttpHeaders.class, long.class);
+            java.lang.reflect.Method get = cacheClass.getDeclaredMethod("get", java.net.http.HttpClient.class,
+                String.class, Map.class, java.time.Duration.class, long.class, sinkClass);
+            java.lang.reflect.Method source = responseClass.getDeclaredMethod("source");
+            freshUntil.setAccessible(true);
+            store.setAccessible(true);
+            get.setAccessible(true);
+            source.setAccessible(true);
+
+            long now = 1_700_000_000_000L;
+            java.util.function.LongFunction<String> date = millis -> java.time.format.DateTimeFormatter.RFC_1123_DATE_TIME
+                .format(java.time.Instant.ofEpochMilli(millis).atZone(java.time.ZoneOffset.UTC));
+            java.util.function.Function<String[], Long> fresh = pairs -> {
+                Map<String, List<String>> map = new HashMap<>();
+                for (int i = 0; i < pairs.length; i += 2) {
+                    map.put(pairs[i], List.of(pairs[i + 1]));
+                }
+                try {
+                    return (Long) freshUntil.invoke(null, java.net.http.HttpHeaders.of(map, (k, v) -> true), now);
+                } catch (ReflectiveOperationException e) {
+                    throw new RuntimeException(e);
+                }
+            };
+
+            // max-age less the time already spent in upstream caches; no-cache overrides it
+            boolean maxAge = fresh.apply(new String[] {"Cache-Control", "max-age=60", "Age", "20"}) == now + 40_000
+                && fresh.apply(new String[] {"Cache-Control", "no-cache, max-age=60"}) == now;
+
+            // Expires counts from the server's Date, so a skewed server clock does not matter
+            boolean expires = fresh.apply(new String[] {"Date", date.apply(now - 3_600_000),
+                    "Expires", date.apply(now - 3_600_000 + 120_000)}) == now + 120_000
+                && fresh.apply(new String[] {"Date", date.apply(now), "Expires", "0"}) <= now;
+
+            // Without explicit lifetimes, a tenth of the time since modification, capped at a day
+            boolean heuristic = fresh.apply(new String[] {"Date", date.apply(now),
+                    "Last-Modified", date.apply(now - 3_600_000)}) == now + 360_000
+                && fresh.apply(new String[] {"Date", date.apply(now),
+                    "Last-Modified", date.apply(now - 30L * 86_400_000)}) == now + 86_400_000;
+
+            // Vary on anything but Accept-Encoding is not stored
+            Object cache = cacheClass.getConstructor(int.class, long.class, long.class).newInstance(16, 1L << 20, 0L);
+            java.lang.reflect.Method stats = cacheClass.getMethod("getStats");
+            byte[] body = "body".getBytes(java.nio.charset.StandardCharsets.UTF_8);
+            store.invoke(cache, "http://a/", 200, "text/plain", body, java.net.http.HttpHeaders.of(
+                Map.of("Cache-Control", List.of("max-age=60"), "Vary", List.of("User-Agent")), (k, v) -> true), now);
+            boolean varySkipped = Long.valueOf(0).equals(((Map<?, ?>) stats.invoke(cache)).get("stores"));
+            store.invoke(cache, "http://b/", 200, "text/plain", body, java.net.http.HttpHeaders.of(
+                Map.of("Cache-Control", List.of("max-age=60"), "Vary", List.of("Accept-Encoding")), (k, v) -> true), now);
+            boolean varyStored = varySkipped && Long.valueOf(1).equals(((Map<?, ?>) stats.invoke(cache)).get("stores"));
+
+            // A 304 replays the stored body and its max-age makes the entry fresh again
+            AtomicInteger requests = new AtomicInteger();
+            server = com.sun.net.httpserver.HttpServer.create(new java.net.InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/page", exchange -> {
+                requests.incrementAndGet();
+                if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    exchange.getResponseHeaders().set("Cache-Control", "max-age=60");
+                    exchange.sendResponseHeaders(304, -1);
+                } else {
+                    byte[] page = "hello cached".getBytes(java.nio.charset.StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain");
+                    exchange.getResponseHeaders().set("ETag", "\"v1\"");
+                    exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+                    exchange.sendResponseHeaders(200, page.length);
+                    exchange.getResponseBody().write(page);
+                }
+                exchange.close();
+            });
+            server.start();
+            String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/page";
+            java.net.http.HttpClient client = java.net.http.HttpClient.newHttpClient();
+            List<String> sources = new ArrayList<>();
+            List<String> bodies = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                StringBuilder text = new StringBuilder();
+                Object response = get.invoke(cache, client, url, Map.of(), java.time.Duration.ofSeconds(10),
+                    1024L, collector(sinkClass, text));
+                sources.add((String) source.invoke(response));
+                bodies.add(text.toString());
+            }
+            boolean revalidated = sources.equals(List.of("network", "revalidated", "cache"))
+                && bodies.equals(Collections.nCopies(3, "hello cached")) && requests.get() == 2;
+
+            if (maxAge && expires && heuristic && varyStored && revalidated) {
+                passed("FetchCache freshness lifetimes, Vary and 304 revalidation");
+            } else {
+                failed("FetchCache", new Exception("maxAge=" + maxAge + " expires=" + expires
+                    + " heuristic=" + heuristic + " vary=" + varyStored + " revalidated=" + revalidated
+                    + " sources=" + sources + " bodies=" + bodies));
+            }
+
+        } catch (Exception e) {
+            failed("FetchCache", e);
+        } finally {
+            if (server != null) server.stop(0);
+        }
+    }
+
     private static void printTest(String testName) {
         System.out.println("Testing " + testName + "...");
     }